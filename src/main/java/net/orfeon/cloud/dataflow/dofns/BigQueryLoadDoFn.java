@@ -0,0 +1,132 @@
+package net.orfeon.cloud.dataflow.dofns;
+
+import com.google.cloud.bigquery.*;
+import org.apache.beam.sdk.io.FileSystems;
+import org.apache.beam.sdk.io.fs.MatchResult;
+import org.apache.beam.sdk.io.fs.MoveOptions;
+import org.apache.beam.sdk.io.fs.ResourceId;
+import org.apache.beam.sdk.options.ValueProvider;
+import org.apache.beam.sdk.transforms.DoFn;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+
+/**
+ * Loads staged avro files to BigQuery table, and outputs the loaded files.
+ * Job id is decided by the files and their last modified time, so a retried bundle waits for the job already created
+ * instead of loading twice, and a later run staging files with the same names gets a new job.
+ * Files are not deleted here, because retry after deletion fails to load. Delete them by {@link DeleteFilesDoFn} after a checkpoint.
+ */
+public class BigQueryLoadDoFn extends DoFn<Iterable<String>, String> {
+
+    private static final Logger LOG = LoggerFactory.getLogger(BigQueryLoadDoFn.class);
+
+    // BigQuery limits number of source URIs per load job.
+    private static final int MAX_SOURCE_URIS = 10000;
+
+    private final ValueProvider<String> table;
+    private final ValueProvider<String> writeDisposition;
+
+    public BigQueryLoadDoFn(ValueProvider<String> table, ValueProvider<String> writeDisposition) {
+        this.table = table;
+        this.writeDisposition = writeDisposition;
+    }
+
+    @ProcessElement
+    public void processElement(ProcessContext c) throws Exception {
+        final List<String> files = new ArrayList<>();
+        c.element().forEach(files::add);
+        if(files.isEmpty()) {
+            return;
+        }
+        final BigQuery bigquery = BigQueryOptions.getDefaultInstance().getService();
+        final TableId tableId = parseTableId(this.table.get());
+        JobInfo.WriteDisposition disposition = JobInfo.WriteDisposition.valueOf(this.writeDisposition.get());
+        for(int i=0; i<files.size(); i+=MAX_SOURCE_URIS) {
+            final List<String> uris = files.subList(i, Math.min(i + MAX_SOURCE_URIS, files.size()));
+            final LoadJobConfiguration config = LoadJobConfiguration.newBuilder(tableId, uris, FormatOptions.avro())
+                    .setUseAvroLogicalTypes(true)
+                    .setCreateDisposition(JobInfo.CreateDisposition.CREATE_IF_NEEDED)
+                    .setWriteDisposition(disposition)
+                    .build();
+            final Job job = createOrGetJob(bigquery, JobId.of(createJobId(matchFiles(uris))), config).waitFor();
+            if(job == null) {
+                throw new IllegalStateException(String.format("Load job for table %s is not found.", this.table.get()));
+            }
+            if(job.getStatus().getError() != null) {
+                final BigQueryError error = job.getStatus().getError();
+                throw new RuntimeException(error.getMessage() + ". cause: " + error.getReason() + ". location: " + error.getLocation());
+            }
+            LOG.info(String.format("Loaded %d files to table %s.", uris.size(), this.table.get()));
+            // Following jobs append to the table the first job has written.
+            disposition = JobInfo.WriteDisposition.WRITE_APPEND;
+        }
+        files.forEach(c::output);
+    }
+
+    private static Job createOrGetJob(final BigQuery bigquery, final JobId jobId, final LoadJobConfiguration config) {
+        try {
+            return bigquery.create(JobInfo.newBuilder(config).setJobId(jobId).build());
+        } catch (BigQueryException e) {
+            // Job was created by previous attempt of this bundle.
+            if(e.getCode() == 409) {
+                LOG.info(String.format("Load job %s already exists.", jobId.getJob()));
+                return bigquery.getJob(jobId);
+            }
+            throw e;
+        }
+    }
+
+    private static List<MatchResult.Metadata> matchFiles(final List<String> uris) throws IOException {
+        final List<MatchResult.Metadata> files = new ArrayList<>();
+        for(final MatchResult result : FileSystems.match(uris)) {
+            files.addAll(result.metadata());
+        }
+        return files;
+    }
+
+    // Staged file names are same in each run by the same shard num, so the id includes when files are written.
+    static String createJobId(final List<MatchResult.Metadata> files) {
+        final StringBuilder sb = new StringBuilder();
+        for(final MatchResult.Metadata file : files) {
+            sb.append(file.resourceId().toString()).append(',')
+                    .append(file.lastModifiedMillis()).append(',')
+                    .append(file.sizeBytes()).append('\n');
+        }
+        return "dataflow_load_" + UUID.nameUUIDFromBytes(sb.toString().getBytes(StandardCharsets.UTF_8))
+                .toString().replace("-", "");
+    }
+
+    static TableId parseTableId(final String table) {
+        final String[] projectAndTable = table.trim().split(":", 2);
+        final String datasetAndTable = projectAndTable[projectAndTable.length - 1];
+        final String[] names = datasetAndTable.split("\\.", 2);
+        if(names.length != 2) {
+            throw new IllegalArgumentException(String.format("Table %s must be format {project}:{dataset}.{table} or {dataset}.{table}", table));
+        }
+        if(projectAndTable.length == 2) {
+            return TableId.of(projectAndTable[0], names[0], names[1]);
+        }
+        return TableId.of(names[0], names[1]);
+    }
+
+    /** Deletes loaded files. Files already deleted by previous attempt are ignored. */
+    public static class DeleteFilesDoFn extends DoFn<Iterable<String>, Void> {
+
+        @ProcessElement
+        public void processElement(ProcessContext c) throws Exception {
+            final List<ResourceId> resourceIds = new ArrayList<>();
+            c.element().forEach(file -> resourceIds.add(FileSystems.matchNewResource(file, false)));
+            FileSystems.delete(resourceIds, MoveOptions.StandardMoveOptions.IGNORE_MISSING_FILES);
+            LOG.info(String.format("Deleted %d loaded files.", resourceIds.size()));
+        }
+
+    }
+
+}
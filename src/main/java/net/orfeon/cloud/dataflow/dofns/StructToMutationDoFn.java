@@ -2,12 +2,16 @@ package net.orfeon.cloud.dataflow.dofns;
 
 import com.google.cloud.spanner.Mutation;
 import com.google.cloud.spanner.Struct;
+import com.google.cloud.spanner.Type;
 import net.orfeon.cloud.dataflow.util.converter.StructToMutationConverter;
 import org.apache.beam.sdk.options.ValueProvider;
 import org.apache.beam.sdk.transforms.DoFn;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.Arrays;
+import java.util.List;
+
 public class StructToMutationDoFn extends DoFn<Struct, Mutation> {
 
     private static final Logger LOG = LoggerFactory.getLogger(StructToMutationDoFn.class);
@@ -16,9 +20,13 @@ public class StructToMutationDoFn extends DoFn<Struct, Mutation> {
     private final ValueProvider<String> mutationOpVP;
     private final ValueProvider<String> keyFieldsVP;
     private String table;
-    private String keyFields = null;
+    private List<String> keyFields = null;
     private Mutation.Op mutationOp;
 
+    private Type type;
+    private StructToMutationConverter.MutationPlan plan;
+    private StructToMutationConverter.KeyPlan keyPlan;
+
     public StructToMutationDoFn(ValueProvider<String> tableVP, ValueProvider<String> mutationOpVP) {
         this.tableVP = tableVP;
         this.mutationOpVP = mutationOpVP;
@@ -36,18 +44,27 @@ public class StructToMutationDoFn extends DoFn<Struct, Mutation> {
         this.table = this.tableVP.get();
         this.mutationOp = Mutation.Op.valueOf(this.mutationOpVP.get());
         if(this.keyFieldsVP != null) {
-            this.keyFields = this.keyFieldsVP.get();
+            this.keyFields = Arrays.asList(this.keyFieldsVP.get().split(","));
         }
         LOG.info(String.format("StructToMutationDoFn setup finished. table:[%s], op:[%s]", this.table, this.mutationOp));
     }
 
     @ProcessElement
     public void processElement(ProcessContext c) {
-        Struct struct = c.element();
+        final Struct struct = c.element();
+        // Plans are compiled again only when struct type changes.
+        if(struct.getType() != this.type && !struct.getType().equals(this.type)) {
+            this.type = struct.getType();
+            if(Mutation.Op.DELETE.equals(this.mutationOp)) {
+                this.keyPlan = StructToMutationConverter.compileKey(this.type, this.keyFields);
+            } else {
+                this.plan = StructToMutationConverter.compile(this.type);
+            }
+        }
         if(Mutation.Op.DELETE.equals(this.mutationOp)) {
-            c.output(StructToMutationConverter.delete(struct, this.table, this.keyFields));
+            c.output(this.keyPlan.delete(struct, this.table));
         } else {
-            c.output(StructToMutationConverter.convert(struct, this.table, this.mutationOp));
+            c.output(this.plan.convert(struct, this.table, this.mutationOp));
         }
     }
 
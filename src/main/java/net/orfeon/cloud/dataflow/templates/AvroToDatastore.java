@@ -3,7 +3,7 @@ package net.orfeon.cloud.dataflow.templates;
 import com.google.datastore.v1.Entity;
 import net.orfeon.cloud.dataflow.util.converter.RecordToEntityConverter;
 import org.apache.beam.sdk.Pipeline;
-import org.apache.beam.sdk.coders.SerializableCoder;
+import org.apache.beam.sdk.extensions.protobuf.ProtoCoder;
 import org.apache.beam.sdk.io.AvroIO;
 import org.apache.beam.sdk.io.gcp.datastore.DatastoreIO;
 import org.apache.beam.sdk.options.Description;
@@ -48,10 +48,11 @@ public class AvroToDatastore {
         final ValueProvider<String> kind = options.getKind();
         final ValueProvider<String> keyField = options.getKeyField();
         final ValueProvider<String> excludeFromIndexFields = options.getExcludeFromIndexFields();
+        final RecordToEntityConverter converter = new RecordToEntityConverter(kind, keyField, excludeFromIndexFields);
 
         pipeline.apply("ReadAvro", AvroIO
-                    .parseGenericRecords(r -> RecordToEntityConverter.convert(r, kind, keyField, excludeFromIndexFields))
-                    .withCoder(SerializableCoder.of(Entity.class))
+                    .parseGenericRecords(r -> converter.convert(r))
+                    .withCoder(ProtoCoder.of(Entity.class))
                     .from(options.getInput()))
                 .apply("StoreDatastore", DatastoreIO.v1().write().withProjectId(options.getProjectId()));
 
@@ -1,11 +1,9 @@
 package net.orfeon.cloud.dataflow.templates;
 
-import net.orfeon.cloud.dataflow.dofns.StructToMutationDoFn;
-import net.orfeon.cloud.dataflow.transforms.AvroToStructTransform;
+import net.orfeon.cloud.dataflow.transforms.AvroToMutationTransform;
 import org.apache.beam.sdk.Pipeline;
 import org.apache.beam.sdk.io.gcp.spanner.SpannerIO;
 import org.apache.beam.sdk.options.*;
-import org.apache.beam.sdk.transforms.ParDo;
 
 public class AvroToSpanner {
 
@@ -36,6 +34,14 @@ public class AvroToSpanner {
         ValueProvider<String> getMutationOp();
         void setMutationOp(ValueProvider<String> mutationOp);
 
+        @Description("Comma separated avro field names to insert. All fields are inserted if not specified.")
+        ValueProvider<String> getFields();
+        void setFields(ValueProvider<String> fields);
+
+        @Description("Comma separated pairs of avro field and Spanner column name. ex: user_id:UserID")
+        ValueProvider<String> getColumnMapping();
+        void setColumnMapping(ValueProvider<String> columnMapping);
+
     }
 
     public static void main(String[] args) {
@@ -44,8 +50,8 @@ public class AvroToSpanner {
 
         Pipeline pipeline = Pipeline.create(options);
 
-        pipeline.apply("ReadAvroFile", new AvroToStructTransform(options.getInput()))
-                .apply("ConvertToMutation", ParDo.of(new StructToMutationDoFn(options.getTable(), options.getMutationOp())))
+        pipeline.apply("ReadAvroFile", new AvroToMutationTransform(options.getInput(), options.getTable(),
+                        options.getMutationOp(), options.getFields(), options.getColumnMapping()))
                 .apply("StoreSpanner", SpannerIO.write()
                         .withProjectId(options.getProjectId())
                         .withInstanceId(options.getInstanceId())
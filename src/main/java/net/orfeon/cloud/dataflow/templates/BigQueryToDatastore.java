@@ -4,7 +4,7 @@ import com.google.datastore.v1.Entity;
 import net.orfeon.cloud.dataflow.transforms.BigQueryDirectIO;
 import net.orfeon.cloud.dataflow.util.converter.RecordToEntityConverter;
 import org.apache.beam.sdk.Pipeline;
-import org.apache.beam.sdk.coders.SerializableCoder;
+import org.apache.beam.sdk.extensions.protobuf.ProtoCoder;
 import org.apache.beam.sdk.io.gcp.bigquery.BigQueryIO;
 import org.apache.beam.sdk.io.gcp.datastore.DatastoreIO;
 import org.apache.beam.sdk.options.*;
@@ -40,6 +40,11 @@ public class BigQueryToDatastore {
         @Default.Integer(0)
         ValueProvider<Integer> getParallelNum();
         void setParallelNum(ValueProvider<Integer> parallelNum);
+
+        @Description("(Optional) Query result is read directly from query results API without Storage API, if dry run processed bytes is under this value.")
+        @Default.Long(0)
+        ValueProvider<Long> getSmallResultThresholdBytes();
+        void setSmallResultThresholdBytes(ValueProvider<Long> smallResultThresholdBytes);
     }
 
     public static void main(final String[] args) {
@@ -54,23 +59,25 @@ public class BigQueryToDatastore {
         final ValueProvider<String> kind = options.getKind();
         final ValueProvider<String> keyField = options.getKeyField();
         final ValueProvider<String> excludeFromIndexFields = options.getExcludeFromIndexFields();
+        final RecordToEntityConverter converter = new RecordToEntityConverter(kind, keyField, excludeFromIndexFields);
 
         final PCollectionTuple tuple = pipeline
-                .apply("QueryBigQuery", BigQueryDirectIO.read(r -> RecordToEntityConverter.convert(r, kind, keyField, excludeFromIndexFields))
+                .apply("QueryBigQuery", BigQueryDirectIO.read(r -> converter.convert(r))
                         .fromQuery(options.getQuery())
                         .withOutputTag(tagOutput)
                         .withParallelNum(options.getParallelNum())
-                        .withCoder(SerializableCoder.of(Entity.class)));
+                        .withSmallResultThresholdBytes(options.getSmallResultThresholdBytes())
+                        .withCoder(ProtoCoder.of(Entity.class)));
 
         // For extract mode. This mode requires user deploy to set tempLocation, but higher throughput.
         /*
         pipeline.apply("QueryBigQuery", BigQueryIO
-                        .read(r -> RecordToEntityConverter.convert(r, kind, keyField, excludeFromIndexFields))
+                        .read(r -> converter.convert(r))
                         .fromQuery(options.getQuery())
                         .usingStandardSql()
                         .withQueryPriority(BigQueryIO.TypedRead.QueryPriority.INTERACTIVE)
                         .withTemplateCompatibility()
-                        .withCoder(SerializableCoder.of(Entity.class))
+                        .withCoder(ProtoCoder.of(Entity.class))
                         .withoutValidation())
         */
 
@@ -9,16 +9,18 @@ import net.orfeon.cloud.dataflow.dofns.SpannerTablePrepareDoFn;
 import net.orfeon.cloud.dataflow.transforms.BigQueryDirectIO;
 import net.orfeon.cloud.dataflow.transforms.StructToAvroTransform;
 import net.orfeon.cloud.dataflow.dofns.StructToMutationDoFn;
+import net.orfeon.cloud.dataflow.util.coder.StructCoder;
 import net.orfeon.cloud.dataflow.util.converter.MutationToStructConverter;
 import net.orfeon.cloud.dataflow.util.converter.RecordToStructConverter;
 import org.apache.beam.sdk.Pipeline;
-import org.apache.beam.sdk.coders.AvroCoder;
 import org.apache.beam.sdk.io.gcp.spanner.SpannerIO;
 import org.apache.beam.sdk.io.gcp.spanner.SpannerWriteResult;
 import org.apache.beam.sdk.options.*;
 import org.apache.beam.sdk.transforms.*;
 import org.apache.beam.sdk.values.*;
 
+import java.util.List;
+
 
 public class BigQueryToSpanner {
 
@@ -71,6 +73,11 @@ public class BigQueryToSpanner {
         ValueProvider<Integer> getParallelNum();
         void setParallelNum(ValueProvider<Integer> parallelNum);
 
+        @Description("(Optional) Query result is read directly from query results API without Storage API, if dry run processed bytes is under this value.")
+        @Default.Long(0)
+        ValueProvider<Long> getSmallResultThresholdBytes();
+        void setSmallResultThresholdBytes(ValueProvider<Long> smallResultThresholdBytes);
+
     }
 
     public static void main(final String[] args) {
@@ -84,7 +91,8 @@ public class BigQueryToSpanner {
                         .fromQuery(options.getQuery())
                         .withOutputTag(tagOutput)
                         .withParallelNum(options.getParallelNum())
-                        .withCoder(AvroCoder.of(Struct.class)));
+                        .withSmallResultThresholdBytes(options.getSmallResultThresholdBytes())
+                        .withCoder(StructCoder.of()));
 
         final PCollection<Struct> dummyStruct = tuple.get(BigQueryDirectIO.tagTableSchema)
                 .apply("PrepareSpannerTable", ParDo.of(new SpannerTablePrepareDoFn(
@@ -107,18 +115,20 @@ public class BigQueryToSpanner {
                         .via(r -> MutationToStructConverter.convert(r)))
                 .apply("StoreErrorStorage", new StructToAvroTransform(options.getOutputError(), options.getFieldKey(), options.getUseSnappy()));
 
-        final PCollectionView<String> tableView = tuple.get(BigQueryDirectIO.tagTable)
-                .apply("TableAsView", View.asSingleton());
+        final PCollectionView<List<String>> tableView = tuple.get(BigQueryDirectIO.tagTable)
+                .apply("TableAsView", View.asList());
 
         result.getFailedMutations()
                 .apply("CountFailedMutation", Count.globally())
                 .apply("DeleteTempDataset", ParDo.of(new DoFn<Long, Void>() {
                     @ProcessElement
                     public void processElement(ProcessContext c) {
-                        final String table = c.sideInput(tableView);
+                        // Temp dataset is not created when query result was read directly.
                         final BigQuery bigquery = BigQueryOptions.getDefaultInstance().getService();
-                        bigquery.getTable(TableId.of(table, table)).delete();
-                        bigquery.getDataset(DatasetId.of(table)).delete(BigQuery.DatasetDeleteOption.deleteContents());
+                        for(final String table : c.sideInput(tableView)) {
+                            bigquery.getTable(TableId.of(table, table)).delete();
+                            bigquery.getDataset(DatasetId.of(table)).delete(BigQuery.DatasetDeleteOption.deleteContents());
+                        }
                     }
                 }).withSideInputs(tableView));
 
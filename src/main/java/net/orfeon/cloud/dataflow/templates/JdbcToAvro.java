@@ -1,9 +1,13 @@
 package net.orfeon.cloud.dataflow.templates;
 
+import com.google.cloud.spanner.Struct;
 import net.orfeon.cloud.dataflow.transforms.JdbcQueryIO;
+import net.orfeon.cloud.dataflow.transforms.StructSqlTransform;
 import net.orfeon.cloud.dataflow.transforms.StructToAvroTransform;
 import org.apache.beam.sdk.Pipeline;
+import org.apache.beam.sdk.io.WriteFilesResult;
 import org.apache.beam.sdk.options.*;
+import org.apache.beam.sdk.values.PCollection;
 
 
 public class JdbcToAvro {
@@ -11,6 +15,7 @@ public class JdbcToAvro {
     public interface JdbcToAvroPipelineOption extends PipelineOptions {
 
         @Description("SQL query to extract records")
+        @Default.String("")
         ValueProvider<String> getQuery();
         void setQuery(ValueProvider<String> query);
 
@@ -22,7 +27,7 @@ public class JdbcToAvro {
         ValueProvider<String> getDriverClass();
         void setDriverClass(ValueProvider<String> fieldKey);
 
-        @Description("Database connection URL")
+        @Description("Database connection URL. whitespace separated URLs or URL template including `{shard}` for sharded databases")
         ValueProvider<String> getUrl();
         void setUrl(ValueProvider<String> url);
 
@@ -38,6 +43,67 @@ public class JdbcToAvro {
         ValueProvider<String> getCryptoKeyName();
         void setCryptoKeyName(ValueProvider<String> getCryptoKeyName);
 
+        @Description("Comma separated table names to extract all records")
+        ValueProvider<String> getTables();
+        void setTables(ValueProvider<String> tables);
+
+        @Description("Numeric, date or timestamp column to partition query by range")
+        ValueProvider<String> getPartitionColumn();
+        void setPartitionColumn(ValueProvider<String> partitionColumn);
+
+        @Description("Number of range partitions per query")
+        @Default.Integer(0)
+        ValueProvider<Integer> getPartitionNum();
+        void setPartitionNum(ValueProvider<Integer> partitionNum);
+
+        @Description("Lower bound of partition column. min value is used if not specified")
+        ValueProvider<String> getPartitionLowerBound();
+        void setPartitionLowerBound(ValueProvider<String> partitionLowerBound);
+
+        @Description("Upper bound of partition column. max value is used if not specified")
+        ValueProvider<String> getPartitionUpperBound();
+        void setPartitionUpperBound(ValueProvider<String> partitionUpperBound);
+
+        @Description("Unique key column to read query by chunks ordered by key")
+        ValueProvider<String> getKeysetColumn();
+        void setKeysetColumn(ValueProvider<String> keysetColumn);
+
+        @Description("Number of rows per chunk of keyset read. keyset read is disabled if 0")
+        @Default.Integer(0)
+        ValueProvider<Integer> getChunkSize();
+        void setChunkSize(ValueProvider<Integer> chunkSize);
+
+        @Description("Monotonically increasing column to read only rows newer than previous watermark")
+        ValueProvider<String> getWatermarkColumn();
+        void setWatermarkColumn(ValueProvider<String> watermarkColumn);
+
+        @Description("GCS path of checkpoint file to store watermark")
+        ValueProvider<String> getWatermarkFile();
+        void setWatermarkFile(ValueProvider<String> watermarkFile);
+
+        @Description("Comma separated shard ids or ranges to replace `{shard}` in url. ex: 0-15,20")
+        ValueProvider<String> getShards();
+        void setShards(ValueProvider<String> shards);
+
+        @Description("Field name to add shard id to each record")
+        ValueProvider<String> getShardColumn();
+        void setShardColumn(ValueProvider<String> shardColumn);
+
+        @Description("Fetch strategy, `AUTO`, `STREAM`(MySQL only), `CURSOR` or `FETCH_SIZE`")
+        @Default.String("AUTO")
+        ValueProvider<String> getFetchStrategy();
+        void setFetchStrategy(ValueProvider<String> fetchStrategy);
+
+        @Description("Fetch size. decided by row width and worker memory if 0")
+        @Default.Integer(0)
+        ValueProvider<Integer> getFetchSize();
+        void setFetchSize(ValueProvider<Integer> fetchSize);
+
+        @Description("Max number of connections to database per worker")
+        @Default.Integer(4)
+        ValueProvider<Integer> getMaxConnections();
+        void setMaxConnections(ValueProvider<Integer> maxConnections);
+
         @Description("Struct field key to separate output path")
         ValueProvider<String> getFieldKey();
         void setFieldKey(ValueProvider<String> fieldKey);
@@ -47,6 +113,10 @@ public class JdbcToAvro {
         ValueProvider<Boolean> getUseSnappy();
         void setUseSnappy(ValueProvider<Boolean> useSnappy);
 
+        @Description("(Optional) Beam SQL statement applied to query results referred as PCOLLECTION. Requires query and connection at template creation.")
+        String getSql();
+        void setSql(String sql);
+
     }
 
     public static void main(String[] args) {
@@ -54,18 +124,44 @@ public class JdbcToAvro {
         JdbcToAvroPipelineOption options = PipelineOptionsFactory.fromArgs(args).as(JdbcToAvroPipelineOption.class);
         Pipeline pipeline = Pipeline.create(options);
 
-        pipeline.apply("Query", JdbcQueryIO.read(
-                        options.getDriverClass(),
-                        options.getUrl(),
-                        options.getUsername(),
-                        options.getPassword(),
-                        options.getQuery(),
-                        options.getCryptoKeyName()))
+        final JdbcQueryIO.Read read = JdbcQueryIO.read(
+                options.getDriverClass(),
+                options.getUrl(),
+                options.getUsername(),
+                options.getPassword(),
+                options.getQuery(),
+                options.getCryptoKeyName())
+                .withTables(options.getTables())
+                .withPartitionColumn(options.getPartitionColumn())
+                .withPartitionNum(options.getPartitionNum())
+                .withPartitionBounds(options.getPartitionLowerBound(), options.getPartitionUpperBound())
+                .withShards(options.getShards())
+                .withShardColumn(options.getShardColumn())
+                .withWatermark(options.getWatermarkColumn(), options.getWatermarkFile())
+                .withKeyset(options.getKeysetColumn(), options.getChunkSize())
+                .withFetchStrategy(options.getFetchStrategy())
+                .withFetchSize(options.getFetchSize())
+                .withMaxConnections(options.getMaxConnections());
+
+        final PCollection<Struct> structs;
+        if(options.getSql() == null) {
+            structs = pipeline.apply("Query", read);
+        } else {
+            // Beam SQL is planned at construction, so schema of query results is resolved here.
+            structs = pipeline
+                    .apply("Query", read.asRows(read.resolveSchema()))
+                    .apply("ApplySql", new StructSqlTransform(options.getSql()));
+        }
+
+        final WriteFilesResult<String> result = structs
                 .apply("StoreGCSAvro", new StructToAvroTransform(
                         options.getOutput(),
                         options.getFieldKey(),
                         options.getUseSnappy()));
 
+        result.getPerDestinationOutputFilenames()
+                .apply("CommitWatermark", JdbcQueryIO.commitWatermark(options.getWatermarkFile()));
+
         pipeline.run();
     }
 }
@@ -0,0 +1,167 @@
+package net.orfeon.cloud.dataflow.templates;
+
+import net.orfeon.cloud.dataflow.dofns.BigQueryLoadDoFn;
+import net.orfeon.cloud.dataflow.transforms.JdbcQueryIO;
+import net.orfeon.cloud.dataflow.transforms.StructToAvroTransform;
+import org.apache.beam.sdk.Pipeline;
+import org.apache.beam.sdk.io.WriteFilesResult;
+import org.apache.beam.sdk.options.*;
+import org.apache.beam.sdk.transforms.GroupByKey;
+import org.apache.beam.sdk.transforms.ParDo;
+import org.apache.beam.sdk.transforms.Values;
+import org.apache.beam.sdk.transforms.WithKeys;
+import org.apache.beam.sdk.values.PCollection;
+
+
+public class JdbcToBigQuery {
+
+    public interface JdbcToBigQueryPipelineOption extends PipelineOptions {
+
+        @Description("SQL query to extract records")
+        @Default.String("")
+        ValueProvider<String> getQuery();
+        void setQuery(ValueProvider<String> query);
+
+        @Description("DriverClass, `com.mysql.cj.jdbc.Driver` or `org.postgresql.Driver`")
+        ValueProvider<String> getDriverClass();
+        void setDriverClass(ValueProvider<String> driverClass);
+
+        @Description("Database connection URL. whitespace separated URLs or URL template including `{shard}` for sharded databases")
+        ValueProvider<String> getUrl();
+        void setUrl(ValueProvider<String> url);
+
+        @Description("Database username to access")
+        ValueProvider<String> getUsername();
+        void setUsername(ValueProvider<String> username);
+
+        @Description("Database access user's password")
+        ValueProvider<String> getPassword();
+        void setPassword(ValueProvider<String> password);
+
+        @Description("CyptoKeyName to decrypt password by Cloud KMS")
+        ValueProvider<String> getCryptoKeyName();
+        void setCryptoKeyName(ValueProvider<String> getCryptoKeyName);
+
+        @Description("Comma separated table names to extract all records")
+        ValueProvider<String> getTables();
+        void setTables(ValueProvider<String> tables);
+
+        @Description("Numeric, date or timestamp column to partition query by range")
+        ValueProvider<String> getPartitionColumn();
+        void setPartitionColumn(ValueProvider<String> partitionColumn);
+
+        @Description("Number of range partitions per query")
+        @Default.Integer(0)
+        ValueProvider<Integer> getPartitionNum();
+        void setPartitionNum(ValueProvider<Integer> partitionNum);
+
+        @Description("Lower bound of partition column. min value is used if not specified")
+        ValueProvider<String> getPartitionLowerBound();
+        void setPartitionLowerBound(ValueProvider<String> partitionLowerBound);
+
+        @Description("Upper bound of partition column. max value is used if not specified")
+        ValueProvider<String> getPartitionUpperBound();
+        void setPartitionUpperBound(ValueProvider<String> partitionUpperBound);
+
+        @Description("Unique key column to read query by chunks ordered by key")
+        ValueProvider<String> getKeysetColumn();
+        void setKeysetColumn(ValueProvider<String> keysetColumn);
+
+        @Description("Number of rows per chunk of keyset read. keyset read is disabled if 0")
+        @Default.Integer(0)
+        ValueProvider<Integer> getChunkSize();
+        void setChunkSize(ValueProvider<Integer> chunkSize);
+
+        @Description("Monotonically increasing column to read only rows newer than previous watermark")
+        ValueProvider<String> getWatermarkColumn();
+        void setWatermarkColumn(ValueProvider<String> watermarkColumn);
+
+        @Description("GCS path of checkpoint file to store watermark")
+        ValueProvider<String> getWatermarkFile();
+        void setWatermarkFile(ValueProvider<String> watermarkFile);
+
+        @Description("Comma separated shard ids or ranges to replace `{shard}` in url. ex: 0-15,20")
+        ValueProvider<String> getShards();
+        void setShards(ValueProvider<String> shards);
+
+        @Description("Field name to add shard id to each record")
+        ValueProvider<String> getShardColumn();
+        void setShardColumn(ValueProvider<String> shardColumn);
+
+        @Description("Fetch strategy, `AUTO`, `STREAM`(MySQL only), `CURSOR` or `FETCH_SIZE`")
+        @Default.String("AUTO")
+        ValueProvider<String> getFetchStrategy();
+        void setFetchStrategy(ValueProvider<String> fetchStrategy);
+
+        @Description("Fetch size. decided by row width and worker memory if 0")
+        @Default.Integer(0)
+        ValueProvider<Integer> getFetchSize();
+        void setFetchSize(ValueProvider<Integer> fetchSize);
+
+        @Description("Max number of connections to database per worker")
+        @Default.Integer(4)
+        ValueProvider<Integer> getMaxConnections();
+        void setMaxConnections(ValueProvider<Integer> maxConnections);
+
+        @Description("Destination BigQuery table. format {dataset}.{table} or {project}:{dataset}.{table}")
+        ValueProvider<String> getOutput();
+        void setOutput(ValueProvider<String> output);
+
+        @Description("GCS path to stage avro files to load. prefix must start with gs://")
+        ValueProvider<String> getTempOutput();
+        void setTempOutput(ValueProvider<String> tempOutput);
+
+        @Description("BigQuery write disposition. WRITE_APPEND, WRITE_TRUNCATE or WRITE_EMPTY.")
+        @Default.String("WRITE_APPEND")
+        ValueProvider<String> getWriteDisposition();
+        void setWriteDisposition(ValueProvider<String> writeDisposition);
+
+    }
+
+    public static void main(String[] args) {
+
+        JdbcToBigQueryPipelineOption options = PipelineOptionsFactory.fromArgs(args).as(JdbcToBigQueryPipelineOption.class);
+        Pipeline pipeline = Pipeline.create(options);
+
+        // Rows are staged as avro files and loaded by BigQuery load job, without converting to TableRow json.
+        final WriteFilesResult<String> result = pipeline.apply("Query", JdbcQueryIO.read(
+                        options.getDriverClass(),
+                        options.getUrl(),
+                        options.getUsername(),
+                        options.getPassword(),
+                        options.getQuery(),
+                        options.getCryptoKeyName())
+                        .withTables(options.getTables())
+                        .withPartitionColumn(options.getPartitionColumn())
+                        .withPartitionNum(options.getPartitionNum())
+                        .withPartitionBounds(options.getPartitionLowerBound(), options.getPartitionUpperBound())
+                        .withShards(options.getShards())
+                        .withShardColumn(options.getShardColumn())
+                        .withWatermark(options.getWatermarkColumn(), options.getWatermarkFile())
+                        .withKeyset(options.getKeysetColumn(), options.getChunkSize())
+                        .withFetchStrategy(options.getFetchStrategy())
+                        .withFetchSize(options.getFetchSize())
+                        .withMaxConnections(options.getMaxConnections()))
+                .apply("StoreGCSAvro", new StructToAvroTransform(
+                        options.getTempOutput(),
+                        ValueProvider.StaticValueProvider.of(null),
+                        ValueProvider.StaticValueProvider.of(true)));
+
+        final PCollection<String> loaded = result.getPerDestinationOutputFilenames()
+                .apply("Files", Values.create())
+                .apply("WithDummyKey", WithKeys.of(""))
+                .apply("GroupFiles", GroupByKey.create())
+                .apply("FileList", Values.create())
+                .apply("LoadBigQuery", ParDo.of(new BigQueryLoadDoFn(options.getOutput(), options.getWriteDisposition())));
+
+        loaded.apply("CommitWatermark", JdbcQueryIO.commitWatermark(options.getWatermarkFile()));
+
+        // GroupByKey checkpoints load results, so that retry of deletion does not run load jobs again.
+        loaded.apply("WithDummyKeyLoaded", WithKeys.of(""))
+                .apply("GroupLoadedFiles", GroupByKey.create())
+                .apply("LoadedFileList", Values.create())
+                .apply("DeleteFiles", ParDo.of(new BigQueryLoadDoFn.DeleteFilesDoFn()));
+
+        pipeline.run();
+    }
+}
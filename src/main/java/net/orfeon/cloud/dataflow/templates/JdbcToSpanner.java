@@ -0,0 +1,194 @@
+package net.orfeon.cloud.dataflow.templates;
+
+import com.google.cloud.spanner.Struct;
+import net.orfeon.cloud.dataflow.dofns.SpannerTablePrepareDoFn;
+import net.orfeon.cloud.dataflow.dofns.StructToMutationDoFn;
+import net.orfeon.cloud.dataflow.transforms.JdbcQueryIO;
+import net.orfeon.cloud.dataflow.util.AvroSchemaUtil;
+import org.apache.beam.sdk.Pipeline;
+import org.apache.beam.sdk.io.gcp.spanner.SpannerIO;
+import org.apache.beam.sdk.io.gcp.spanner.SpannerWriteResult;
+import org.apache.beam.sdk.options.*;
+import org.apache.beam.sdk.transforms.MapElements;
+import org.apache.beam.sdk.transforms.ParDo;
+import org.apache.beam.sdk.transforms.Sample;
+import org.apache.beam.sdk.values.PCollection;
+import org.apache.beam.sdk.values.TypeDescriptors;
+
+
+public class JdbcToSpanner {
+
+    public interface JdbcToSpannerPipelineOption extends PipelineOptions {
+
+        @Description("SQL query to extract records")
+        @Default.String("")
+        ValueProvider<String> getQuery();
+        void setQuery(ValueProvider<String> query);
+
+        @Description("DriverClass, `com.mysql.cj.jdbc.Driver` or `org.postgresql.Driver`")
+        ValueProvider<String> getDriverClass();
+        void setDriverClass(ValueProvider<String> driverClass);
+
+        @Description("Database connection URL. whitespace separated URLs or URL template including `{shard}` for sharded databases")
+        ValueProvider<String> getUrl();
+        void setUrl(ValueProvider<String> url);
+
+        @Description("Database username to access")
+        ValueProvider<String> getUsername();
+        void setUsername(ValueProvider<String> username);
+
+        @Description("Database access user's password")
+        ValueProvider<String> getPassword();
+        void setPassword(ValueProvider<String> password);
+
+        @Description("CyptoKeyName to decrypt password by Cloud KMS")
+        ValueProvider<String> getCryptoKeyName();
+        void setCryptoKeyName(ValueProvider<String> getCryptoKeyName);
+
+        @Description("Comma separated table names to extract all records")
+        ValueProvider<String> getTables();
+        void setTables(ValueProvider<String> tables);
+
+        @Description("Numeric, date or timestamp column to partition query by range")
+        ValueProvider<String> getPartitionColumn();
+        void setPartitionColumn(ValueProvider<String> partitionColumn);
+
+        @Description("Number of range partitions per query")
+        @Default.Integer(0)
+        ValueProvider<Integer> getPartitionNum();
+        void setPartitionNum(ValueProvider<Integer> partitionNum);
+
+        @Description("Lower bound of partition column. min value is used if not specified")
+        ValueProvider<String> getPartitionLowerBound();
+        void setPartitionLowerBound(ValueProvider<String> partitionLowerBound);
+
+        @Description("Upper bound of partition column. max value is used if not specified")
+        ValueProvider<String> getPartitionUpperBound();
+        void setPartitionUpperBound(ValueProvider<String> partitionUpperBound);
+
+        @Description("Unique key column to read query by chunks ordered by key")
+        ValueProvider<String> getKeysetColumn();
+        void setKeysetColumn(ValueProvider<String> keysetColumn);
+
+        @Description("Number of rows per chunk of keyset read. keyset read is disabled if 0")
+        @Default.Integer(0)
+        ValueProvider<Integer> getChunkSize();
+        void setChunkSize(ValueProvider<Integer> chunkSize);
+
+        @Description("Monotonically increasing column to read only rows newer than previous watermark")
+        ValueProvider<String> getWatermarkColumn();
+        void setWatermarkColumn(ValueProvider<String> watermarkColumn);
+
+        @Description("GCS path of checkpoint file to store watermark")
+        ValueProvider<String> getWatermarkFile();
+        void setWatermarkFile(ValueProvider<String> watermarkFile);
+
+        @Description("Comma separated shard ids or ranges to replace `{shard}` in url. ex: 0-15,20")
+        ValueProvider<String> getShards();
+        void setShards(ValueProvider<String> shards);
+
+        @Description("Field name to add shard id to each record")
+        ValueProvider<String> getShardColumn();
+        void setShardColumn(ValueProvider<String> shardColumn);
+
+        @Description("Fetch strategy, `AUTO`, `STREAM`(MySQL only), `CURSOR` or `FETCH_SIZE`")
+        @Default.String("AUTO")
+        ValueProvider<String> getFetchStrategy();
+        void setFetchStrategy(ValueProvider<String> fetchStrategy);
+
+        @Description("Fetch size. decided by row width and worker memory if 0")
+        @Default.Integer(0)
+        ValueProvider<Integer> getFetchSize();
+        void setFetchSize(ValueProvider<Integer> fetchSize);
+
+        @Description("Max number of connections to database per worker")
+        @Default.Integer(4)
+        ValueProvider<Integer> getMaxConnections();
+        void setMaxConnections(ValueProvider<Integer> maxConnections);
+
+        @Description("Project id spanner instance belong to")
+        ValueProvider<String> getProjectId();
+        void setProjectId(ValueProvider<String> projectId);
+
+        @Description("Spanner instance id you want to access")
+        ValueProvider<String> getInstanceId();
+        void setInstanceId(ValueProvider<String> instanceId);
+
+        @Description("Spanner Database id you want to access")
+        ValueProvider<String> getDatabaseId();
+        void setDatabaseId(ValueProvider<String> databaseId);
+
+        @Description("Spanner table name to store query result")
+        ValueProvider<String> getTable();
+        void setTable(ValueProvider<String> table);
+
+        @Description("Spanner insert policy. INSERT, UPDATE, REPLACE, or INSERT_OR_UPDATE.")
+        @Default.String("INSERT_OR_UPDATE")
+        ValueProvider<String> getMutationOp();
+        void setMutationOp(ValueProvider<String> mutationOp);
+
+        @Description("Key field on destination Spanner table. (Required table auto generation)")
+        ValueProvider<String> getPrimaryKeyFields();
+        void setPrimaryKeyFields(ValueProvider<String> primaryKeyFields);
+
+        @Description("Max bytes of mutations per Spanner commit. (Set at template creation)")
+        @Default.Long(1024 * 1024)
+        Long getBatchSizeBytes();
+        void setBatchSizeBytes(Long batchSizeBytes);
+
+        @Description("Number of batches sorted together by key before commit. (Set at template creation)")
+        @Default.Integer(1000)
+        Integer getGroupingFactor();
+        void setGroupingFactor(Integer groupingFactor);
+
+    }
+
+    public static void main(String[] args) {
+
+        JdbcToSpannerPipelineOption options = PipelineOptionsFactory.fromArgs(args).as(JdbcToSpannerPipelineOption.class);
+        Pipeline pipeline = Pipeline.create(options);
+
+        final PCollection<Struct> structs = pipeline.apply("Query", JdbcQueryIO.read(
+                        options.getDriverClass(),
+                        options.getUrl(),
+                        options.getUsername(),
+                        options.getPassword(),
+                        options.getQuery(),
+                        options.getCryptoKeyName())
+                        .withTables(options.getTables())
+                        .withPartitionColumn(options.getPartitionColumn())
+                        .withPartitionNum(options.getPartitionNum())
+                        .withPartitionBounds(options.getPartitionLowerBound(), options.getPartitionUpperBound())
+                        .withShards(options.getShards())
+                        .withShardColumn(options.getShardColumn())
+                        .withWatermark(options.getWatermarkColumn(), options.getWatermarkFile())
+                        .withKeyset(options.getKeysetColumn(), options.getChunkSize())
+                        .withFetchStrategy(options.getFetchStrategy())
+                        .withFetchSize(options.getFetchSize())
+                        .withMaxConnections(options.getMaxConnections()));
+
+        // Destination table is created from column types of jdbc query result before Spanner schema is read.
+        final PCollection<Struct> tableReady = structs
+                .apply("SampleStruct", Sample.any(1))
+                .apply("ConvertToSchema", MapElements.into(TypeDescriptors.strings())
+                        .via((Struct struct) -> AvroSchemaUtil.convertSchema(struct).toString()))
+                .apply("PrepareSpannerTable", ParDo.of(new SpannerTablePrepareDoFn(
+                        options.getProjectId(), options.getInstanceId(), options.getDatabaseId(), options.getTable(), options.getPrimaryKeyFields())));
+
+        // Mutations are sorted by key across groupingFactor batches, so each commit covers a narrow key range.
+        final SpannerWriteResult result = structs
+                .apply("ConvertToMutation", ParDo.of(new StructToMutationDoFn(options.getTable(), options.getMutationOp())))
+                .apply("StoreSpanner", SpannerIO.write()
+                        .withProjectId(options.getProjectId())
+                        .withInstanceId(options.getInstanceId())
+                        .withDatabaseId(options.getDatabaseId())
+                        .withBatchSizeBytes(options.getBatchSizeBytes())
+                        .withGroupingFactor(options.getGroupingFactor())
+                        .withSchemaReadySignal(tableReady));
+
+        result.getOutput()
+                .apply("CommitWatermark", JdbcQueryIO.commitWatermark(options.getWatermarkFile()));
+
+        pipeline.run();
+    }
+}
@@ -1,9 +1,11 @@
 package net.orfeon.cloud.dataflow.templates;
 
+import com.google.cloud.spanner.Struct;
 import com.google.cloud.storage.BlobId;
 import com.google.cloud.storage.BlobInfo;
 import com.google.cloud.storage.StorageOptions;
 import net.orfeon.cloud.dataflow.transforms.SpannerQueryIO;
+import net.orfeon.cloud.dataflow.transforms.StructSqlTransform;
 import net.orfeon.cloud.dataflow.transforms.StructToAvroTransform;
 import org.apache.beam.sdk.Pipeline;
 import org.apache.beam.sdk.io.WriteFilesResult;
@@ -11,6 +13,7 @@ import org.apache.beam.sdk.options.*;
 import org.apache.beam.sdk.transforms.Count;
 import org.apache.beam.sdk.transforms.DoFn;
 import org.apache.beam.sdk.transforms.ParDo;
+import org.apache.beam.sdk.values.PCollection;
 
 public class SpannerToAvro {
 
@@ -57,6 +60,10 @@ public class SpannerToAvro {
         @Default.Boolean(false)
         ValueProvider<Boolean> getOutputEmptyFile();
         void setOutputEmptyFile(ValueProvider<Boolean> outputEmptyFile);
+
+        @Description("(Optional) Beam SQL statement applied to query results referred as PCOLLECTION. Requires query and database at template creation.")
+        String getSql();
+        void setSql(String sql);
     }
 
     public static void main(String[] args) {
@@ -64,12 +71,24 @@ public class SpannerToAvro {
         final SpannerToAvroPipelineOption options = PipelineOptionsFactory.fromArgs(args).as(SpannerToAvroPipelineOption.class);
         final Pipeline pipeline = Pipeline.create(options);
 
-        final WriteFilesResult<String> writeFilesResult = pipeline.apply("QuerySpanner", SpannerQueryIO.read(
-                        options.getProjectId(),
-                        options.getInstanceId(),
-                        options.getDatabaseId(),
-                        options.getQuery(),
-                        options.getTimestampBound()))
+        final SpannerQueryIO.Read read = SpannerQueryIO.read(
+                options.getProjectId(),
+                options.getInstanceId(),
+                options.getDatabaseId(),
+                options.getQuery(),
+                options.getTimestampBound());
+
+        final PCollection<Struct> structs;
+        if(options.getSql() == null) {
+            structs = pipeline.apply("QuerySpanner", read);
+        } else {
+            // Beam SQL is planned at construction, so schema of query results is resolved here.
+            structs = pipeline
+                    .apply("QuerySpanner", read.asRows(read.resolveSchema()))
+                    .apply("ApplySql", new StructSqlTransform(options.getSql()));
+        }
+
+        final WriteFilesResult<String> writeFilesResult = structs
                 .apply("StoreGCSAvro", new StructToAvroTransform(
                         options.getOutput(),
                         options.getFieldKey(),
@@ -0,0 +1,98 @@
+package net.orfeon.cloud.dataflow.templates;
+
+import net.orfeon.cloud.dataflow.transforms.JdbcWrite;
+import net.orfeon.cloud.dataflow.transforms.SpannerQueryIO;
+import org.apache.beam.sdk.Pipeline;
+import org.apache.beam.sdk.options.*;
+
+
+public class SpannerToJdbc {
+
+    public interface SpannerToJdbcPipelineOption extends PipelineOptions {
+
+        @Description("Project id spanner instance belong to")
+        ValueProvider<String> getProjectId();
+        void setProjectId(ValueProvider<String> projectId);
+
+        @Description("Spanner instance id you want to access")
+        ValueProvider<String> getInstanceId();
+        void setInstanceId(ValueProvider<String> instanceId);
+
+        @Description("Spanner Database id you want to access")
+        ValueProvider<String> getDatabaseId();
+        void setDatabaseId(ValueProvider<String> databaseId);
+
+        @Description("SQL query to extract records from spanner")
+        ValueProvider<String> getQuery();
+        void setQuery(ValueProvider<String> query);
+
+        @Description("(Optional) Input timestamp bound as format 'yyyy-MM-ddTHH:mm:SSZ'")
+        ValueProvider<String> getTimestampBound();
+        void setTimestampBound(ValueProvider<String> timestampBound);
+
+        @Description("DriverClass, `com.mysql.cj.jdbc.Driver` or `org.postgresql.Driver`")
+        ValueProvider<String> getDriverClass();
+        void setDriverClass(ValueProvider<String> driverClass);
+
+        @Description("Database connection URL")
+        ValueProvider<String> getUrl();
+        void setUrl(ValueProvider<String> url);
+
+        @Description("Database username to access")
+        ValueProvider<String> getUsername();
+        void setUsername(ValueProvider<String> username);
+
+        @Description("Database access user's password")
+        ValueProvider<String> getPassword();
+        void setPassword(ValueProvider<String> password);
+
+        @Description("CyptoKeyName to decrypt password by Cloud KMS")
+        ValueProvider<String> getCryptoKeyName();
+        void setCryptoKeyName(ValueProvider<String> cryptoKeyName);
+
+        @Description("Database table name to write records")
+        ValueProvider<String> getTable();
+        void setTable(ValueProvider<String> table);
+
+        @Description("(Optional) Key fields to upsert records")
+        ValueProvider<String> getKeyFields();
+        void setKeyFields(ValueProvider<String> keyFields);
+
+        @Description("Number of records to write in one transaction")
+        @Default.Integer(1000)
+        ValueProvider<Integer> getBatchSize();
+        void setBatchSize(ValueProvider<Integer> batchSize);
+
+        @Description("Max number of connections to database per worker")
+        @Default.Integer(4)
+        ValueProvider<Integer> getMaxConnections();
+        void setMaxConnections(ValueProvider<Integer> maxConnections);
+
+    }
+
+    public static void main(String[] args) {
+
+        final SpannerToJdbcPipelineOption options = PipelineOptionsFactory.fromArgs(args).as(SpannerToJdbcPipelineOption.class);
+        final Pipeline pipeline = Pipeline.create(options);
+
+        pipeline.apply("QuerySpanner", SpannerQueryIO.read(
+                        options.getProjectId(),
+                        options.getInstanceId(),
+                        options.getDatabaseId(),
+                        options.getQuery(),
+                        options.getTimestampBound()))
+                .apply("WriteJdbc", JdbcWrite.write(
+                        options.getDriverClass(),
+                        options.getUrl(),
+                        options.getUsername(),
+                        options.getPassword(),
+                        options.getTable(),
+                        options.getCryptoKeyName())
+                        .withKeyFields(options.getKeyFields())
+                        .withBatchSize(options.getBatchSize())
+                        .withMaxConnections(options.getMaxConnections()));
+
+        pipeline.run();
+    }
+
+}
@@ -1,11 +1,9 @@
 package net.orfeon.cloud.dataflow.templates;
 
 import net.orfeon.cloud.dataflow.transforms.SpannerQueryIO;
-import net.orfeon.cloud.dataflow.dofns.StructToTextDoFn;
+import net.orfeon.cloud.dataflow.transforms.StructToTextTransform;
 import org.apache.beam.sdk.Pipeline;
-import org.apache.beam.sdk.io.TextIO;
 import org.apache.beam.sdk.options.*;
-import org.apache.beam.sdk.transforms.ParDo;
 
 public class SpannerToText {
 
@@ -38,6 +36,25 @@ public class SpannerToText {
         @Description("(Optional) Input timestamp bound as format 'yyyy-MM-ddTHH:mm:SSZ'")
         ValueProvider<String> getTimestampBound();
         void setTimestampBound(ValueProvider<String> timestampBound);
+
+        @Description("(Optional) CSV delimiter character. default is comma.")
+        @Default.String(",")
+        ValueProvider<String> getDelimiter();
+        void setDelimiter(ValueProvider<String> delimiter);
+
+        @Description("(Optional) CSV quote mode, MINIMAL, ALL or NONE. default is MINIMAL.")
+        @Default.String("MINIMAL")
+        ValueProvider<String> getQuoteMode();
+        void setQuoteMode(ValueProvider<String> quoteMode);
+
+        @Description("(Optional) CSV token for null value. default is empty.")
+        ValueProvider<String> getNullToken();
+        void setNullToken(ValueProvider<String> nullToken);
+
+        @Description("(Optional) Write CSV header row at the head of each output file.")
+        @Default.Boolean(false)
+        ValueProvider<Boolean> getHeader();
+        void setHeader(ValueProvider<Boolean> header);
     }
 
     public static void main(String[] args) {
@@ -51,10 +68,13 @@ public class SpannerToText {
                         options.getDatabaseId(),
                         options.getQuery(),
                         options.getTimestampBound()))
-                .apply("ConvertLine", ParDo.of(new StructToTextDoFn(options.getType())))
-                .apply("StoreStorage", TextIO.write()
-                        .to(options.getOutput())
-                        .withSuffix(".txt"));
+                .apply("StoreStorage", new StructToTextTransform(
+                        options.getOutput(),
+                        options.getType(),
+                        options.getDelimiter(),
+                        options.getQuoteMode(),
+                        options.getNullToken(),
+                        options.getHeader()));
 
         pipeline.run();
     }
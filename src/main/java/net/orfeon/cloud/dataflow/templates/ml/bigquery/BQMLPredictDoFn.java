@@ -2,11 +2,15 @@ package net.orfeon.cloud.dataflow.templates.ml.bigquery;
 
 import com.google.cloud.spanner.Struct;
 import com.google.cloud.spanner.Type;
+import net.orfeon.cloud.dataflow.util.StructAccessor;
 import net.orfeon.cloud.dataflow.util.mlmodel.BQMLModel;
 import org.apache.beam.sdk.options.ValueProvider;
 import org.apache.beam.sdk.transforms.DoFn;
 import org.apache.beam.sdk.values.PCollectionView;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 
 public class BQMLPredictDoFn extends DoFn<Struct, Struct> {
@@ -21,6 +25,15 @@ public class BQMLPredictDoFn extends DoFn<Struct, Struct> {
     private final ValueProvider<String> keyFieldNameVP;
     private final PCollectionView<BQMLModel> estimatorView;
 
+    // Feature indexes and weights resolved for the last model and struct type.
+    private transient BQMLModel compiledModel;
+    private transient StructAccessor accessor;
+    private transient int keyIndex;
+    private transient int[] numericalIndexes;
+    private transient double[] numericalWeights;
+    private transient int[] categoricalIndexes;
+    private transient List<Map<String, Double>> categoricalWeights;
+
     public BQMLPredictDoFn(ValueProvider<String> modelType, ValueProvider<String> keyFieldName, PCollectionView<BQMLModel> estimatorView) {
         this.modelTypeVP = modelType;
         this.keyFieldNameVP = keyFieldName;
@@ -40,6 +53,9 @@ public class BQMLPredictDoFn extends DoFn<Struct, Struct> {
     public void processElement(ProcessContext c) {
         Struct struct = c.element();
         BQMLModel estimator = c.sideInput(this.estimatorView);
+        if(estimator != this.compiledModel || this.accessor == null || !this.accessor.matches(struct.getType())) {
+            compile(estimator, struct.getType());
+        }
         final Double res;
         if(MODEL_TYPE_LINEAR_REG.equals(modelType)) {
             res = logit(estimator, struct);
@@ -52,15 +68,45 @@ public class BQMLPredictDoFn extends DoFn<Struct, Struct> {
         c.output(r);
     }
 
+    private void compile(BQMLModel model, Type type) {
+        this.accessor = StructAccessor.of(type);
+        this.keyIndex = getIndex(this.keyFieldName);
+        final Map<String, Double> nweights = model.getNweights() == null ? Collections.emptyMap() : model.getNweights();
+        this.numericalIndexes = new int[nweights.size()];
+        this.numericalWeights = new double[nweights.size()];
+        int i = 0;
+        for(Map.Entry<String, Double> entry : nweights.entrySet()) {
+            this.numericalIndexes[i] = getIndex(entry.getKey());
+            this.numericalWeights[i] = entry.getValue() != null ? entry.getValue() : model.getNvaluesIfNull().getOrDefault(entry.getKey(), 0.0);
+            i++;
+        }
+        final Map<String, Map<String, Double>> cweights = model.getCweights() == null ? Collections.emptyMap() : model.getCweights();
+        this.categoricalIndexes = new int[cweights.size()];
+        this.categoricalWeights = new ArrayList<>(cweights.size());
+        i = 0;
+        for(Map.Entry<String, Map<String, Double>> entry : cweights.entrySet()) {
+            this.categoricalIndexes[i++] = getIndex(entry.getKey());
+            this.categoricalWeights.add(entry.getValue());
+        }
+        this.compiledModel = model;
+    }
+
+    private int getIndex(String columnName) {
+        final int index = this.accessor.getIndex(columnName);
+        if(index < 0) {
+            throw new IllegalArgumentException(String.format("Column %s is not found in struct.", columnName));
+        }
+        return index;
+    }
+
     private double logit(BQMLModel model, Struct struct) {
         double value = model.getIntercept();
-        for(Map.Entry<String, Double> entry : model.getNweights().entrySet()) {
-            Double v = entry.getValue() != null ?  entry.getValue() : model.getNvaluesIfNull().getOrDefault(entry.getKey(), 0.0);
-            value += getNumericalFieldValue(struct, entry.getKey()) * v;
+        for(int i=0; i<this.numericalIndexes.length; i++) {
+            value += getNumericalFieldValue(struct, this.numericalIndexes[i]) * this.numericalWeights[i];
         }
-        for(Map.Entry<String, Map<String, Double>> entry : model.getCweights().entrySet()) {
-            String cname = getCategoricalFieldValue(struct, entry.getKey());
-            value += entry.getValue().getOrDefault(cname, 0.0);
+        for(int i=0; i<this.categoricalIndexes.length; i++) {
+            String cname = getCategoricalFieldValue(struct, this.categoricalIndexes[i]);
+            value += this.categoricalWeights.get(i).getOrDefault(cname, 0.0);
         }
         return value;
     }
@@ -72,49 +118,47 @@ public class BQMLPredictDoFn extends DoFn<Struct, Struct> {
 
     public Struct buildResult(Struct struct, double score) {
         Struct.Builder builder = Struct.newBuilder().set(FIELD_NAME_SCORE).to(score);
-        if(struct.getColumnType(this.keyFieldName).equals(Type.string())) {
-            builder = builder.set(this.keyFieldName).to(struct.getString(this.keyFieldName));
-        } else if(struct.getColumnType(this.keyFieldName).equals(Type.int64())) {
-            builder = builder.set(this.keyFieldName).to(struct.getLong(this.keyFieldName));
-        } else {
-            throw new IllegalArgumentException(String.format("keyField type must be STRING or INT64! (%s)", struct.getColumnType(this.keyFieldName).toString()));
+        switch (this.accessor.getCode(this.keyIndex)) {
+            case STRING:
+                return builder.set(this.keyFieldName).to(this.accessor.isNull(struct, this.keyIndex) ? null : this.accessor.getString(struct, this.keyIndex)).build();
+            case INT64:
+                if(this.accessor.isNull(struct, this.keyIndex)) {
+                    return builder.set(this.keyFieldName).to((Long) null).build();
+                }
+                return builder.set(this.keyFieldName).to(this.accessor.getLong(struct, this.keyIndex)).build();
+            default:
+                throw new IllegalArgumentException(String.format("keyField type must be STRING or INT64! (%s)", this.accessor.getCode(this.keyIndex)));
         }
-        return builder.build();
     }
 
-    private static Double getNumericalFieldValue(Struct struct, String columnName) {
-        if(struct.isNull(columnName)) {
+    private double getNumericalFieldValue(Struct struct, int index) {
+        if(this.accessor.isNull(struct, index)) {
             return 0.0;
         }
-        switch(struct.getColumnType(columnName).getCode()) {
+        switch(this.accessor.getCode(index)) {
             case FLOAT64:
-                return struct.getDouble(columnName);
+                return this.accessor.getDouble(struct, index);
             case INT64:
-                return (double)struct.getLong(columnName);
+                return (double)this.accessor.getLong(struct, index);
             case BOOL:
-                return struct.getBoolean(columnName) ? 1.0 : 0.0;
+                return this.accessor.getBoolean(struct, index) ? 1.0 : 0.0;
             default:
                 return 0.0;
         }
     }
 
-    private static String getCategoricalFieldValue(Struct struct, String columnName) {
-        if(struct.isNull(columnName)) {
+    private String getCategoricalFieldValue(Struct struct, int index) {
+        if(this.accessor.isNull(struct, index)) {
             return "";
         }
-        switch(struct.getColumnType(columnName).getCode()) {
+        switch(this.accessor.getCode(index)) {
             case STRING:
-                return struct.getString(columnName);
             case INT64:
-                return Long.toString(struct.getLong(columnName));
             case FLOAT64:
-                return Double.toString(struct.getDouble(columnName));
             case BOOL:
-                return struct.getBoolean(columnName) ? "true" : "false";
             case DATE:
-                return struct.getDate(columnName).toString();
             case BYTES:
-                return struct.getBytes(columnName).toBase64();
+                return this.accessor.getAsString(struct, index);
             default:
                 return "";
         }
@@ -0,0 +1,126 @@
+package net.orfeon.cloud.dataflow.transforms;
+
+import com.google.cloud.spanner.Mutation;
+import net.orfeon.cloud.dataflow.util.coder.MutationCoder;
+import net.orfeon.cloud.dataflow.util.converter.RecordToMutationConverter;
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.beam.sdk.io.AvroIO;
+import org.apache.beam.sdk.options.ValueProvider;
+import org.apache.beam.sdk.transforms.PTransform;
+import org.apache.beam.sdk.transforms.SerializableFunction;
+import org.apache.beam.sdk.values.PBegin;
+import org.apache.beam.sdk.values.PCollection;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+
+public class AvroToMutationTransform extends PTransform<PBegin, PCollection<Mutation>> {
+
+    private final ValueProvider<String> input;
+    private final ValueProvider<String> table;
+    private final ValueProvider<String> mutationOp;
+    private final ValueProvider<String> fields;
+    private final ValueProvider<String> columnMapping;
+
+    public AvroToMutationTransform(ValueProvider<String> input, ValueProvider<String> table, ValueProvider<String> mutationOp,
+                                   ValueProvider<String> fields, ValueProvider<String> columnMapping) {
+        this.input = input;
+        this.table = table;
+        this.mutationOp = mutationOp;
+        this.fields = fields;
+        this.columnMapping = columnMapping;
+    }
+
+    public final PCollection<Mutation> expand(PBegin begin) {
+        return begin.apply("ReadAvroFiles", AvroIO
+                .parseGenericRecords(new RecordToMutationFn(this.table, this.mutationOp, this.fields, this.columnMapping))
+                .withCoder(MutationCoder.of())
+                .from(this.input));
+    }
+
+    // Resolves avro field names to Spanner column names in write order. null means all fields by their own names.
+    static Map<String, String> resolveColumns(final Schema schema, final String fields, final String columnMapping) {
+        final boolean hasFields = fields != null && !fields.trim().isEmpty();
+        final boolean hasMapping = columnMapping != null && !columnMapping.trim().isEmpty();
+        if(!hasFields && !hasMapping) {
+            return null;
+        }
+        final Map<String, String> mapping = new HashMap<>();
+        if(hasMapping) {
+            for(final String pair : columnMapping.split(",")) {
+                final String[] names = pair.split(":", 2);
+                if(names.length != 2) {
+                    throw new IllegalArgumentException(String.format("Column mapping %s must be format {field}:{column}", pair));
+                }
+                mapping.put(names[0].trim(), names[1].trim());
+            }
+        }
+        final Map<String, String> columns = new LinkedHashMap<>();
+        if(hasFields) {
+            for(final String field : fields.split(",")) {
+                columns.put(field.trim(), mapping.getOrDefault(field.trim(), field.trim()));
+            }
+        } else {
+            for(final Schema.Field field : schema.getFields()) {
+                columns.put(field.name(), mapping.getOrDefault(field.name(), field.name()));
+            }
+        }
+        return columns;
+    }
+
+    private static class RecordToMutationFn implements SerializableFunction<GenericRecord, Mutation> {
+
+        private final ValueProvider<String> tableVP;
+        private final ValueProvider<String> mutationOpVP;
+        private final ValueProvider<String> fieldsVP;
+        private final ValueProvider<String> columnMappingVP;
+
+        // AvroIO may call the function from concurrent readers, so the plan is published with its schema at once.
+        private transient volatile SchemaPlan last;
+
+        RecordToMutationFn(ValueProvider<String> tableVP, ValueProvider<String> mutationOpVP,
+                           ValueProvider<String> fieldsVP, ValueProvider<String> columnMappingVP) {
+            this.tableVP = tableVP;
+            this.mutationOpVP = mutationOpVP;
+            this.fieldsVP = fieldsVP;
+            this.columnMappingVP = columnMappingVP;
+        }
+
+        @Override
+        public Mutation apply(GenericRecord record) {
+            // Records from the same avro file share a schema instance, so the plan is compiled once per file at most.
+            SchemaPlan last = this.last;
+            if(last == null || last.schema != record.getSchema()) {
+                last = new SchemaPlan(
+                        this.tableVP.get(),
+                        Mutation.Op.valueOf(this.mutationOpVP.get()),
+                        record.getSchema(),
+                        RecordToMutationConverter.compile(record.getSchema(),
+                                resolveColumns(record.getSchema(), this.fieldsVP.get(), this.columnMappingVP.get())));
+                this.last = last;
+            }
+            return last.plan.convert(record, last.table, last.mutationOp);
+        }
+
+    }
+
+    private static class SchemaPlan {
+
+        private final String table;
+        private final Mutation.Op mutationOp;
+        private final Schema schema;
+        private final RecordToMutationConverter.RecordPlan plan;
+
+        SchemaPlan(String table, Mutation.Op mutationOp, Schema schema, RecordToMutationConverter.RecordPlan plan) {
+            this.table = table;
+            this.mutationOp = mutationOp;
+            this.schema = schema;
+            this.plan = plan;
+        }
+
+    }
+
+}
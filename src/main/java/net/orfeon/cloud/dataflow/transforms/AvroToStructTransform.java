@@ -1,8 +1,8 @@
 package net.orfeon.cloud.dataflow.transforms;
 
 import com.google.cloud.spanner.Struct;
+import net.orfeon.cloud.dataflow.util.coder.StructCoder;
 import net.orfeon.cloud.dataflow.util.converter.RecordToStructConverter;
-import org.apache.beam.sdk.coders.AvroCoder;
 import org.apache.beam.sdk.io.AvroIO;
 import org.apache.beam.sdk.options.ValueProvider;
 import org.apache.beam.sdk.transforms.PTransform;
@@ -21,7 +21,7 @@ public class AvroToStructTransform extends PTransform<PBegin, PCollection<Struct
         PCollection<Struct> structs = begin
                 .apply("ReadAvroFiles", AvroIO
                         .parseGenericRecords(RecordToStructConverter::convert)
-                        .withCoder(AvroCoder.of(Struct.class))
+                        .withCoder(StructCoder.of())
                         .from(this.input));
         return structs;
     }
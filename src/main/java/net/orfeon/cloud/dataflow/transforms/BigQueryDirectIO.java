@@ -6,6 +6,7 @@ import com.google.cloud.bigquery.BigQueryOptions;
 import com.google.cloud.bigquery.storage.v1beta1.*;
 import com.google.common.hash.Hashing;
 import net.orfeon.cloud.dataflow.util.AvroSchemaUtil;
+import net.orfeon.cloud.dataflow.util.converter.FieldValueListToRecordConverter;
 import net.orfeon.cloud.dataflow.util.converter.RecordToTableRowConverter;
 import org.apache.avro.Schema;
 import org.apache.avro.generic.GenericDatumReader;
@@ -24,12 +25,15 @@ import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.io.Serializable;
-import java.util.Random;
+import java.util.*;
+import java.util.function.Consumer;
 
 public class BigQueryDirectIO {
 
     private static final Logger LOG = LoggerFactory.getLogger(BigQueryDirectIO.class);
 
+    private static final String SQL_SPLITTER = "--SPLITTER--";
+
     public static final TupleTag<String> tagTable = new TupleTag<String>(){};
     public static final TupleTag<String> tagTableSchema = new TupleTag<String>(){};
 
@@ -42,8 +46,10 @@ public class BigQueryDirectIO {
     public static class TypedRead<T> extends PTransform<PBegin, PCollectionTuple> {
 
         private TupleTag<T> tagOutput;
+        private List<TupleTag<T>> tagQueryOutputs;
         private ValueProvider<String> query;
         private ValueProvider<Integer> parallelNum;
+        private ValueProvider<Long> smallResultThresholdBytes;
         private Coder<T> coder;
         private SerializableFunction<SchemaAndRecord, T> parseFn;
 
@@ -57,68 +63,156 @@ public class BigQueryDirectIO {
             return this;
         }
 
+        public TypedRead<T> withSmallResultThresholdBytes(ValueProvider<Long> smallResultThresholdBytes) {
+            this.smallResultThresholdBytes = smallResultThresholdBytes;
+            return this;
+        }
+
         public TypedRead<T> withCoder(Coder<T> coder) {
             this.coder = coder;
             return this;
         }
 
+        // Results of all queries split by `--SPLITTER--` are flattened to this tag.
         public TypedRead<T> withOutputTag(TupleTag<T> tagOutput) {
             this.tagOutput = tagOutput;
             return this;
         }
 
+        // Results of N-th query split by `--SPLITTER--` are output to N-th tag.
+        public TypedRead<T> withQueryOutputTags(List<TupleTag<T>> tagQueryOutputs) {
+            this.tagQueryOutputs = tagQueryOutputs;
+            return this;
+        }
+
         @Override
         public PCollectionTuple expand(PBegin input) {
+            if(this.tagOutput == null && (this.tagQueryOutputs == null || this.tagQueryOutputs.isEmpty())) {
+                throw new IllegalArgumentException("BigQueryDirectIO requires outputTag or queryOutputTags!");
+            }
+            final int maxQueryNum = this.tagQueryOutputs == null ? 0 : this.tagQueryOutputs.size();
+            final TupleTag<KV<Integer, T>> tagSmallResult = new TupleTag<KV<Integer, T>>(){};
+            final Coder<KV<Integer, T>> resultCoder = KvCoder.of(VarIntCoder.of(), coder);
+
             final PCollectionTuple tuple = input.getPipeline()
                     .apply("SupplyQuery", Create.ofProvider(query, StringUtf8Coder.of()))
-                    .apply("ExecuteQuery", ParDo.of(new QueryExecuteDoFn())
-                            .withOutputTags(QueryExecuteDoFn.tagTable, TupleTagList.of(QueryExecuteDoFn.tagAvroSchema)));
+                    .apply("ExecuteQuery", ParDo.of(new QueryExecuteDoFn<>(parseFn, smallResultThresholdBytes, tagSmallResult, maxQueryNum))
+                            .withOutputTags(QueryExecuteDoFn.tagTable, TupleTagList.of(QueryExecuteDoFn.tagAvroSchema).and(tagSmallResult)));
 
-            final PCollectionView<String> schemaView = tuple.get(QueryExecuteDoFn.tagAvroSchema).apply(View.asSingleton());
+            final PCollectionView<Map<String, String>> schemaView = tuple.get(QueryExecuteDoFn.tagAvroSchema).apply(View.asMap());
 
-            final PCollection<T> res = tuple.get(QueryExecuteDoFn.tagTable)
+            final PCollection<KV<Integer, T>> streamResult = tuple.get(QueryExecuteDoFn.tagTable)
                     .apply("DirectRead", ParDo.of(new DirectReadDoFn(parallelNum)))
                     .apply("GroupByKey", GroupByKey.create())
-                    .apply("ReadParallel", (ParDo.SingleOutput<KV<Integer, Iterable<Storage.Stream>>, T>)
-                            ParDo.of(new StreamReadDoFn(parseFn, schemaView)).withSideInputs(schemaView)).setCoder(coder);
+                    .apply("ReadParallel", ParDo.of(new StreamReadDoFn<>(parseFn, schemaView)).withSideInputs(schemaView))
+                    .setCoder(resultCoder);
+
+            final PCollection<KV<Integer, T>> smallResult = tuple.get(tagSmallResult).setCoder(resultCoder);
+
+            final PCollection<KV<Integer, T>> results = PCollectionList.of(streamResult).and(smallResult)
+                    .apply("FlattenResult", Flatten.pCollections());
+
+            PCollectionTuple outputs = PCollectionTuple
+                    .of(tagTableSchema, tuple.get(QueryExecuteDoFn.tagAvroSchema)
+                            .apply("TableSchemas", Values.create()))
+                    .and(tagTable, tuple.get(QueryExecuteDoFn.tagTable)
+                            .apply("Tables", Values.create()));
 
-            return PCollectionTuple.of(this.tagOutput, res)
-                    .and(tagTableSchema, tuple.get(QueryExecuteDoFn.tagAvroSchema))
-                    .and(tagTable, tuple.get(QueryExecuteDoFn.tagTable));
+            if(this.tagOutput != null) {
+                outputs = outputs.and(this.tagOutput, results
+                        .apply("Results", Values.create())
+                        .setCoder(coder));
+            }
+            if(maxQueryNum > 0) {
+                final PCollectionList<KV<Integer, T>> queryResults = results
+                        .apply("PartitionByQuery", Partition.of(maxQueryNum, (KV<Integer, T> kv, int num) -> kv.getKey()));
+                for(int i=0; i<maxQueryNum; i++) {
+                    outputs = outputs.and(this.tagQueryOutputs.get(i), queryResults.get(i)
+                            .apply(String.format("QueryResults%d", i), Values.create())
+                            .setCoder(coder));
+                }
+            }
+            return outputs;
         }
     }
 
-    public static class QueryExecuteDoFn extends DoFn<String, String> {
+    public static class QueryExecuteDoFn<T> extends DoFn<String, KV<Integer, String>> {
 
-        public static final TupleTag<String> tagTable  = new TupleTag<String>(){};
-        public static final TupleTag<String> tagAvroSchema = new TupleTag<String>(){};
+        public static final TupleTag<KV<Integer, String>> tagTable  = new TupleTag<KV<Integer, String>>(){};
+        public static final TupleTag<KV<String, String>> tagAvroSchema = new TupleTag<KV<String, String>>(){};
         public static final TupleTag<TableSchema> tagTableSchema = new TupleTag<TableSchema>(){};
 
+        private final SerializableFunction<SchemaAndRecord, T> parseFn;
+        private final ValueProvider<Long> smallResultThresholdBytes;
+        private final TupleTag<KV<Integer, T>> tagSmallResult;
+        private final int maxQueryNum;
+
+        public QueryExecuteDoFn(SerializableFunction<SchemaAndRecord, T> parseFn,
+                                ValueProvider<Long> smallResultThresholdBytes,
+                                TupleTag<KV<Integer, T>> tagSmallResult,
+                                int maxQueryNum) {
+            this.parseFn = parseFn;
+            this.smallResultThresholdBytes = smallResultThresholdBytes;
+            this.tagSmallResult = tagSmallResult;
+            this.maxQueryNum = maxQueryNum;
+        }
+
         @ProcessElement
         public void processElement(ProcessContext c) throws InterruptedException {
             //final String projectId = c.getPipelineOptions().as(DataflowPipelineOptions.class).getProject();
-            final String randomName = Hashing.sha1().hashLong(new Random().nextLong()).toString();
+            final String[] queries = c.element().split(SQL_SPLITTER);
+            if(this.maxQueryNum > 0 && queries.length > this.maxQueryNum) {
+                throw new IllegalArgumentException(String.format(
+                        "Query num %d is over query output tag num %d!", queries.length, this.maxQueryNum));
+            }
             final BigQuery bigquery = BigQueryOptions.getDefaultInstance().getService();
-            final DatasetInfo datasetInfo = DatasetInfo.newBuilder(randomName).build();
-            bigquery.create(datasetInfo);
-            final TableId tableId = TableId.of(randomName, randomName);
-            //
-            final QueryJobConfiguration queryConfig = QueryJobConfiguration.newBuilder(c.element())
-                    .setDestinationTable(tableId)
-                    .setUseLegacySql(false)
-                    .setAllowLargeResults(true)
-                    .setPriority(QueryJobConfiguration.Priority.INTERACTIVE)
-                    .setWriteDisposition(JobInfo.WriteDisposition.WRITE_TRUNCATE)
-                    .setCreateDisposition(JobInfo.CreateDisposition.CREATE_IF_NEEDED)
-                    .build();
-            final JobInfo jobInfo = JobInfo.of(queryConfig);
 
-            Job job = bigquery.create(jobInfo);
+            // Submit all query jobs first, so that they are executed concurrently in BigQuery.
+            // Small queries run without destination, so no temporary dataset is created for them.
+            final Long thresholdBytes = this.smallResultThresholdBytes == null ? null : this.smallResultThresholdBytes.get();
+            final List<Job> jobs = new ArrayList<>();
+            final List<TableId> tableIds = new ArrayList<>();
+            for(final String query : queries) {
+                if(isSmallQuery(bigquery, query, thresholdBytes)) {
+                    jobs.add(bigquery.create(JobInfo.of(createQueryConfig(query, null))));
+                    tableIds.add(null);
+                    continue;
+                }
+                final String randomName = Hashing.sha1().hashLong(new Random().nextLong()).toString();
+                final DatasetInfo datasetInfo = DatasetInfo.newBuilder(randomName).build();
+                bigquery.create(datasetInfo);
+                final TableId tableId = TableId.of(randomName, randomName);
+                jobs.add(bigquery.create(JobInfo.of(createQueryConfig(query, tableId))));
+                tableIds.add(tableId);
+            }
+            LOG.info(String.format("Submitted %d query jobs.", jobs.size()));
+
+            for(int i=0; i<jobs.size(); i++) {
+                final Job job = waitJobDone(bigquery, jobs.get(i));
+                final TableId tableId = tableIds.get(i);
+                if(tableId == null) {
+                    final int queryIndex = i;
+                    final TableResult result = job.getQueryResults();
+                    final Schema avroSchema = AvroSchemaUtil.convertSchema(result.getSchema());
+                    c.output(tagAvroSchema, KV.of(job.getJobId().getJob(), avroSchema.toString()));
+                    LOG.info(String.format("Start to read %d rows from query results directly.", result.getTotalRows()));
+                    readQueryResults(result, avroSchema, this.parseFn, value -> c.output(this.tagSmallResult, KV.of(queryIndex, value)));
+                    continue;
+                }
+                final Table table = bigquery.getTable(tableId);
+                final Schema avroSchema = AvroSchemaUtil.convertSchema(table.getDefinition().getSchema());
+                c.output(KV.of(i, tableId.getTable()));
+                c.output(tagAvroSchema, KV.of(tableId.getTable(), avroSchema.toString()));
+                LOG.info(avroSchema.toString());
+            }
+        }
+
+        private Job waitJobDone(final BigQuery bigquery, Job job) throws InterruptedException {
             int count = 0;
             while(!job.isDone()) {
                 Thread.sleep(1000 * 5);
                 job = bigquery.getJob(job.getJobId());
-                LOG.info(String.format("Waiting query job complete %d sec.", count += 5));
+                LOG.info(String.format("Waiting query job [%s] complete %d sec.", job.getJobId().getJob(), count += 5));
                 if(count > 3600) {
                     throw new RuntimeException("Query takes too long time(over 1 hour.)");
                 }
@@ -128,17 +222,56 @@ public class BigQueryDirectIO {
                 final BigQueryError error = job.getStatus().getError();
                 throw new RuntimeException(error.getMessage() + ". cause: " + error.getReason() + ". location: " + error.getLocation());
             }
-            final Table table = bigquery.getTable(tableId);
-            final com.google.cloud.bigquery.Schema tableSchema = table.getDefinition().getSchema();
-            final Schema avroSchema = AvroSchemaUtil.convertSchema(tableSchema);
-            c.output(randomName);
-            c.output(tagAvroSchema, avroSchema.toString());
-            LOG.info(avroSchema.toString());
+            return job;
+        }
+
+        // Decided by bytes processed by dry run. Result of filter, projection or aggregation is not larger than its input,
+        // so it bounds result size for them. Query expanding rows, such as UNNEST of generated arrays, is read correctly
+        // but by one worker.
+        static boolean isSmallQuery(final BigQuery bigquery, final String query, final Long thresholdBytes) {
+            if(thresholdBytes == null || thresholdBytes <= 0) {
+                return false;
+            }
+            final QueryJobConfiguration dryRunConfig = QueryJobConfiguration.newBuilder(query)
+                    .setUseLegacySql(false)
+                    .setDryRun(true)
+                    .build();
+            final JobStatistics.QueryStatistics statistics = bigquery.create(JobInfo.of(dryRunConfig)).getStatistics();
+            final Long processedBytes = statistics == null ? null : statistics.getTotalBytesProcessed();
+            LOG.info(String.format("Query dry run processed bytes: %d, small result threshold bytes: %d", processedBytes, thresholdBytes));
+            return processedBytes != null && processedBytes <= thresholdBytes;
+        }
+
+        // Query without destination writes result to anonymous table managed by BigQuery, read by getQueryResults.
+        static QueryJobConfiguration createQueryConfig(final String query, final TableId destination) {
+            final QueryJobConfiguration.Builder builder = QueryJobConfiguration.newBuilder(query)
+                    .setUseLegacySql(false)
+                    .setPriority(QueryJobConfiguration.Priority.INTERACTIVE);
+            if(destination == null) {
+                return builder.build();
+            }
+            return builder
+                    .setDestinationTable(destination)
+                    .setAllowLargeResults(true)
+                    .setWriteDisposition(JobInfo.WriteDisposition.WRITE_TRUNCATE)
+                    .setCreateDisposition(JobInfo.CreateDisposition.CREATE_IF_NEEDED)
+                    .build();
+        }
+
+        // Rows are converted to avro records in the same representation as Storage API rows, so parseFn is shared.
+        static <T> void readQueryResults(final TableResult result, final Schema avroSchema,
+                                         final SerializableFunction<SchemaAndRecord, T> parseFn, final Consumer<T> output) {
+            final TableSchema tableSchema = RecordToTableRowConverter.convertTableSchema(avroSchema);
+            final FieldList fields = result.getSchema().getFields();
+            for(final FieldValueList values : result.iterateAll()) {
+                final GenericRecord record = FieldValueListToRecordConverter.convert(avroSchema, fields, values);
+                output.accept(parseFn.apply(new SchemaAndRecord(record, tableSchema)));
+            }
         }
     }
 
 
-    public static class DirectReadDoFn extends DoFn<String, KV<Integer, Storage.Stream>> {
+    public static class DirectReadDoFn extends DoFn<KV<Integer, String>, KV<String, KV<Integer, KV<String, Storage.Stream>>>> {
 
         private final ValueProvider<Integer> parallelNum;
 
@@ -149,12 +282,14 @@ public class BigQueryDirectIO {
         @ProcessElement
         public void processElement(ProcessContext c) throws IOException {
             final String projectId = c.getPipelineOptions().as(DataflowPipelineOptions.class).getProject();
+            final int queryIndex = c.element().getKey();
+            final String table = c.element().getValue();
             final BigQueryStorageSettings settings = BigQueryStorageSettings.newBuilder().build();
             final BigQueryStorageClient client = BigQueryStorageClient.create(settings);
                 final TableReferenceProto.TableReference tableReference = TableReferenceProto.TableReference.newBuilder()
                         .setProjectId(projectId)
-                        .setDatasetId(c.element())
-                        .setTableId(c.element())
+                        .setDatasetId(table)
+                        .setTableId(table)
                         .build();
 
                 final Storage.CreateReadSessionRequest.Builder builder = Storage.CreateReadSessionRequest.newBuilder()
@@ -164,48 +299,55 @@ public class BigQueryDirectIO {
                         .setFormat(Storage.DataFormat.AVRO);
 
                 final Storage.ReadSession response = client.createReadSession(builder.build());
-                LOG.info(String.format("StreamCount: %d", response.getStreamsCount()));
+                LOG.info(String.format("Query %d StreamCount: %d", queryIndex, response.getStreamsCount()));
+                // Streams from all queries are keyed uniquely, to be balanced together across workers.
                 for(int i=0; i<response.getStreamsCount(); i++) {
-                    c.output(KV.of(i, response.getStreams(i)));
+                    final String key = String.format("%s-%d", table, i);
+                    c.output(KV.of(key, KV.of(queryIndex, KV.of(table, response.getStreams(i)))));
                 }
             }
 
     }
 
-    public static class StreamReadDoFn<T extends Serializable> extends DoFn<KV<Integer, Iterable<Storage.Stream>>, T> {
+    public static class StreamReadDoFn<T> extends DoFn<KV<String, Iterable<KV<Integer, KV<String, Storage.Stream>>>>, KV<Integer, T>> {
 
-        private final PCollectionView<String> schemaView;
+        private final PCollectionView<Map<String, String>> schemaView;
         private final SerializableFunction<SchemaAndRecord, T> parseFn;
 
         private GenericRecord record = null;
         private BinaryDecoder decoder = null;
 
-        public StreamReadDoFn(SerializableFunction<SchemaAndRecord, T> parseFn, PCollectionView<String> schemaView) {
+        public StreamReadDoFn(SerializableFunction<SchemaAndRecord, T> parseFn, PCollectionView<Map<String, String>> schemaView) {
             this.parseFn = parseFn;
             this.schemaView = schemaView;
         }
 
         @ProcessElement
         public void processElement(ProcessContext c) throws IOException {
-            final String schemaJsonString = c.sideInput(schemaView);
-            final Schema schema = new Schema.Parser().parse(schemaJsonString);
-            final TableSchema tableSchema = RecordToTableRowConverter.convertTableSchema(schema);
-            final DatumReader<GenericRecord> datumReader = new GenericDatumReader<>(schema);
-            final Storage.Stream stream = c.element().getValue().iterator().next();
-            LOG.info(String.format("Start to read %d rows.", stream.getRowCount()));
-            try(final BigQueryStorageClient client = BigQueryStorageClient.create()) {
-
-                final Storage.ReadRowsRequest request = Storage.ReadRowsRequest.newBuilder()
-                                .setReadPosition(Storage.StreamPosition.newBuilder()
-                                        .setStream(stream)
-                                        .build()).build();
-                for(final Storage.ReadRowsResponse response : client.readRowsCallable().call(request)) {
-                    decoder = DecoderFactory.get().binaryDecoder(
-                            response.getAvroRows().getSerializedBinaryRows().toByteArray(), decoder);
-                    while(!decoder.isEnd()) {
-                        record = datumReader.read(record, decoder);
-                        final T t = this.parseFn.apply(new SchemaAndRecord(record, tableSchema));
-                        c.output(t);
+            for(final KV<Integer, KV<String, Storage.Stream>> value : c.element().getValue()) {
+                final int queryIndex = value.getKey();
+                final String table = value.getValue().getKey();
+                final Storage.Stream stream = value.getValue().getValue();
+                final String schemaJsonString = c.sideInput(schemaView).get(table);
+                final Schema schema = new Schema.Parser().parse(schemaJsonString);
+                final TableSchema tableSchema = RecordToTableRowConverter.convertTableSchema(schema);
+                final DatumReader<GenericRecord> datumReader = new GenericDatumReader<>(schema);
+                LOG.info(String.format("Start to read %d rows of query %d.", stream.getRowCount(), queryIndex));
+                record = null;
+                try(final BigQueryStorageClient client = BigQueryStorageClient.create()) {
+
+                    final Storage.ReadRowsRequest request = Storage.ReadRowsRequest.newBuilder()
+                                    .setReadPosition(Storage.StreamPosition.newBuilder()
+                                            .setStream(stream)
+                                            .build()).build();
+                    for(final Storage.ReadRowsResponse response : client.readRowsCallable().call(request)) {
+                        decoder = DecoderFactory.get().binaryDecoder(
+                                response.getAvroRows().getSerializedBinaryRows().toByteArray(), decoder);
+                        while(!decoder.isEnd()) {
+                            record = datumReader.read(record, decoder);
+                            final T t = this.parseFn.apply(new SchemaAndRecord(record, tableSchema));
+                            c.output(KV.of(queryIndex, t));
+                        }
                     }
                 }
             }
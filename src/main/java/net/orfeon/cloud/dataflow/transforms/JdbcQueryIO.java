@@ -6,12 +6,20 @@ import com.google.cloud.kms.v1.*;
 import com.google.cloud.spanner.*;
 import com.google.protobuf.ByteString;
 import net.orfeon.cloud.dataflow.util.converter.ResultsetToStructConverter;
+import net.orfeon.cloud.dataflow.util.converter.StructToRowConverter;
+import com.google.common.io.ByteStreams;
 import org.apache.beam.sdk.coders.StringUtf8Coder;
+import org.apache.beam.sdk.io.FileSystems;
+import org.apache.beam.sdk.io.fs.EmptyMatchTreatment;
+import org.apache.beam.sdk.io.fs.MatchResult;
+import org.apache.beam.sdk.metrics.Distribution;
+import org.apache.beam.sdk.metrics.Metrics;
 import org.apache.beam.sdk.options.ValueProvider;
+import org.apache.beam.sdk.schemas.Schema;
 import org.apache.beam.sdk.transforms.*;
 import org.apache.beam.sdk.values.*;
-import org.apache.commons.dbcp2.BasicDataSource;
-import org.apache.commons.dbcp2.DataSourceConnectionFactory;
+import org.apache.commons.dbcp2.DriverManagerConnectionFactory;
+import org.apache.commons.dbcp2.PoolableConnection;
 import org.apache.commons.dbcp2.PoolableConnectionFactory;
 import org.apache.commons.dbcp2.PoolingDataSource;
 import org.apache.commons.pool2.impl.GenericObjectPool;
@@ -21,21 +29,130 @@ import org.slf4j.LoggerFactory;
 
 import javax.sql.DataSource;
 import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.math.RoundingMode;
 import java.sql.Connection;
+import java.sql.Date;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.LocalDate;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
 
 
 public class JdbcQueryIO {
 
     private static final String SQL_SPLITTER = "--SPLITTER--";
+    private static final String PARTITION_ALIAS = "partitioned_";
+    private static final String PENDING_SUFFIX = ".pending";
+    private static final String SHARD_PLACEHOLDER = "{shard}";
+    static final int DEFAULT_MAX_CONNECTIONS = 4;
+    private static final int VALIDATION_TIMEOUT_SECONDS = 5;
+    private static final int KEYSET_FETCH_SIZE = 10_000;
+
+    private static final Map<String, DataSource> DATA_SOURCES = new HashMap<>();
+    private static final Map<String, String> DECRYPTED_PASSWORDS = new HashMap<>();
+
+    enum Dialect {
+        MYSQL,
+        POSTGRESQL,
+        OTHER;
+
+        static Dialect of(final String driverClassName, final String url) {
+            final String name = (driverClassName == null ? "" : driverClassName) + " " + (url == null ? "" : url);
+            if(name.contains("mysql")) {
+                return MYSQL;
+            } else if(name.contains("postgresql")) {
+                return POSTGRESQL;
+            }
+            return OTHER;
+        }
+    }
+
+    // STREAM: MySQL row by row streaming. CURSOR: server side cursor fetch by fetchSize.
+    // FETCH_SIZE: only set fetchSize to driver. AUTO: STREAM for MySQL, CURSOR for others.
+    public enum FetchStrategy {
+        AUTO,
+        STREAM,
+        CURSOR,
+        FETCH_SIZE;
+
+        static FetchStrategy of(final Dialect dialect, final String value) {
+            final FetchStrategy strategy = value == null || value.trim().isEmpty() ?
+                    AUTO : FetchStrategy.valueOf(value.trim().toUpperCase());
+            if(STREAM.equals(strategy) && !Dialect.MYSQL.equals(dialect)) {
+                throw new IllegalArgumentException("Fetch strategy STREAM is supported only for MySQL.");
+            }
+            if(!AUTO.equals(strategy)) {
+                return strategy;
+            }
+            switch (dialect) {
+                case MYSQL:
+                    return STREAM;
+                case POSTGRESQL:
+                    return CURSOR;
+                default:
+                    return FETCH_SIZE;
+            }
+        }
+    }
 
     public static Read read(ValueProvider<String> driverClassName, ValueProvider<String> url, ValueProvider<String> username, ValueProvider<String> password, ValueProvider<String> query, ValueProvider<String> cryptoKeyName) {
         return new Read(driverClassName, url, username, password, query, cryptoKeyName);
     }
 
+    public static CommitWatermark commitWatermark(ValueProvider<String> watermarkFile) {
+        return new CommitWatermark(watermarkFile);
+    }
+
+    public static class CommitWatermark extends PTransform<PCollection<?>, PCollection<Void>> {
+
+        private final ValueProvider<String> watermarkFile;
+
+        private CommitWatermark(ValueProvider<String> watermarkFile) {
+            this.watermarkFile = watermarkFile;
+        }
+
+        // Input is the signal of output completion, such as output filenames of WriteFilesResult.
+        public PCollection<Void> expand(PCollection<?> signal) {
+            return signal.getPipeline()
+                    .apply("SupplyTrigger", Create.of(""))
+                    .apply("WaitOutput", Wait.on(signal))
+                    .apply("CommitWatermark", ParDo.of(new DoFn<String, Void>() {
+                        @ProcessElement
+                        public void processElement(ProcessContext c) throws IOException {
+                            final String file = getValue(watermarkFile);
+                            if(file == null) {
+                                return;
+                            }
+                            final List<String> watermarks = readWatermarks(file + PENDING_SUFFIX);
+                            if(watermarks.isEmpty()) {
+                                return;
+                            }
+                            writeWatermarks(file, watermarks);
+                            FileSystems.delete(Arrays.asList(FileSystems.matchNewResource(file + PENDING_SUFFIX, false)));
+                        }
+                    }));
+        }
+
+    }
+
     public static class Read extends PTransform<PBegin, PCollection<Struct>> {
 
         private final ValueProvider<String> driverClassName;
@@ -45,6 +162,21 @@ public class JdbcQueryIO {
         private final ValueProvider<String> query;
         private final ValueProvider<String> cryptoKeyName;
 
+        private ValueProvider<String> tables;
+        private ValueProvider<String> partitionColumn;
+        private ValueProvider<Integer> partitionNum;
+        private ValueProvider<String> partitionLowerBound;
+        private ValueProvider<String> partitionUpperBound;
+        private ValueProvider<String> fetchStrategy;
+        private ValueProvider<Integer> fetchSize;
+        private ValueProvider<Integer> maxConnections;
+        private ValueProvider<String> keysetColumn;
+        private ValueProvider<Integer> chunkSize;
+        private ValueProvider<String> watermarkColumn;
+        private ValueProvider<String> watermarkFile;
+        private ValueProvider<String> shards;
+        private ValueProvider<String> shardColumn;
+
         private Read(ValueProvider<String> driverClassName, ValueProvider<String> url, ValueProvider<String> username, ValueProvider<String> password, ValueProvider<String> query, ValueProvider<String> cryptoKeyName) {
             this.driverClassName = driverClassName;
             this.url = url;
@@ -54,19 +186,342 @@ public class JdbcQueryIO {
             this.cryptoKeyName = cryptoKeyName;
         }
 
+        // Tables are read by `SELECT * FROM table` in addition to query.
+        // Partition column is taken from primary key if partitionColumn is not specified.
+        public Read withTables(ValueProvider<String> tables) {
+            this.tables = tables;
+            return this;
+        }
+
+        public Read withPartitionColumn(ValueProvider<String> partitionColumn) {
+            this.partitionColumn = partitionColumn;
+            return this;
+        }
+
+        public Read withPartitionNum(ValueProvider<Integer> partitionNum) {
+            this.partitionNum = partitionNum;
+            return this;
+        }
+
+        // If bounds are not specified, min and max value of partition column are used.
+        public Read withPartitionBounds(ValueProvider<String> partitionLowerBound, ValueProvider<String> partitionUpperBound) {
+            this.partitionLowerBound = partitionLowerBound;
+            this.partitionUpperBound = partitionUpperBound;
+            return this;
+        }
+
+        public Read withFetchStrategy(ValueProvider<String> fetchStrategy) {
+            this.fetchStrategy = fetchStrategy;
+            return this;
+        }
+
+        // If fetchSize is not positive, fetchSize is decided by row width and max heap size.
+        public Read withFetchSize(ValueProvider<Integer> fetchSize) {
+            this.fetchSize = fetchSize;
+            return this;
+        }
+
+        // Query is read by chunks of chunkSize rows bounded by keys of unique keysetColumn, instead of range partition.
+        // keysetColumn is taken from primary key for tables if not specified.
+        public Read withKeyset(ValueProvider<String> keysetColumn, ValueProvider<Integer> chunkSize) {
+            this.keysetColumn = keysetColumn;
+            this.chunkSize = chunkSize;
+            return this;
+        }
+
+        // Only rows with watermarkColumn greater than previous watermark in watermarkFile are read.
+        // Apply commitWatermark to output result to update watermarkFile.
+        public Read withWatermark(ValueProvider<String> watermarkColumn, ValueProvider<String> watermarkFile) {
+            this.watermarkColumn = watermarkColumn;
+            this.watermarkFile = watermarkFile;
+            return this;
+        }
+
+        // url can be whitespace separated urls or a url template including `{shard}` to be replaced by shards.
+        // shards is comma separated shard ids or ranges such as `0-15,20`. Each shard has its own connection pool.
+        public Read withShards(ValueProvider<String> shards) {
+            this.shards = shards;
+            return this;
+        }
+
+        // Shard id is added to each record as shardColumn.
+        public Read withShardColumn(ValueProvider<String> shardColumn) {
+            this.shardColumn = shardColumn;
+            return this;
+        }
+
+        // Max number of connections (and concurrent queries) to database per worker.
+        public Read withMaxConnections(ValueProvider<Integer> maxConnections) {
+            this.maxConnections = maxConnections;
+            return this;
+        }
+
+        private int getMaxConnections() {
+            if(this.maxConnections == null || this.maxConnections.get() == null || this.maxConnections.get() <= 0) {
+                return DEFAULT_MAX_CONNECTIONS;
+            }
+            return this.maxConnections.get();
+        }
+
+        // Both partition and execute steps use the same properties, so that they share the worker pool.
+        private Map<String, String> getConnectionProperties() {
+            final Dialect dialect = Dialect.of(this.driverClassName.get(), this.url.get());
+            final Map<String, String> properties = new HashMap<>();
+            if(Dialect.MYSQL.equals(dialect) && FetchStrategy.CURSOR.equals(FetchStrategy.of(dialect, getValue(this.fetchStrategy)))) {
+                properties.put("useCursorFetch", "true");
+            }
+            return properties;
+        }
+
+        // Emits rows with the schema. Only fields in the schema are taken from query results.
+        public PTransform<PBegin, PCollection<Row>> asRows(Schema schema) {
+            return StructToRowTransform.read(this, schema);
+        }
+
+        // Resolves schema of results from metadata of the first query or table, for transforms planned at construction.
+        // Requires connection parameters and query accessible at construction.
+        public Schema resolveSchema() {
+            final String queries = getValue(this.query);
+            final String query = Arrays.stream((queries == null ? "" : queries).split(SQL_SPLITTER))
+                    .filter(q -> !q.trim().isEmpty())
+                    .findFirst()
+                    .orElseGet(() -> String.format("SELECT * FROM %s", getValues(this.tables).get(0)));
+            final String url = getShards(this.url.get(), getValue(this.shards)).get(0).getValue();
+            try {
+                final DataSource dataSource = getDataSource(this.driverClassName.get(), url, this.username.get(), this.password.get(), getValue(this.cryptoKeyName), 1);
+                try (Connection connection = dataSource.getConnection();
+                     PreparedStatement statement = connection.prepareStatement(query)) {
+                    // Some drivers return no metadata before execution.
+                    ResultSetMetaData meta = statement.getMetaData();
+                    if(meta == null) {
+                        statement.setMaxRows(1);
+                        try (ResultSet resultSet = statement.executeQuery()) {
+                            meta = resultSet.getMetaData();
+                        }
+                    }
+                    final List<Type.StructField> fields = new ArrayList<>(ResultsetToStructConverter.convertType(meta).getStructFields());
+                    if(getValue(this.shardColumn) != null) {
+                        fields.add(Type.StructField.of(getValue(this.shardColumn), Type.string()));
+                    }
+                    return StructToRowConverter.convertSchema(Type.struct(fields));
+                }
+            } catch (Exception e) {
+                throw new IllegalStateException(String.format("Failed to resolve schema of query [%s]", query), e);
+            }
+        }
+
         public PCollection<Struct> expand(PBegin begin) {
             return begin.getPipeline()
                     .apply("SupplyQuery", Create.ofProvider(this.query, StringUtf8Coder.of()))
-                    .apply("SplitQuery", FlatMapElements.into(TypeDescriptors.strings()).via(s -> Arrays.asList(s.split(SQL_SPLITTER))))
-                    .apply("ToKeyValue", MapElements.into(TypeDescriptors.kvs(TypeDescriptors.strings(), TypeDescriptors.booleans())).via(s -> KV.of(s, true)))
+                    .apply("SplitQuery", ParDo.of(new QueryPartitionDoFn(this.driverClassName, this.url, this.username, this.password, this.cryptoKeyName)))
+                    .apply("ToKeyValue", MapElements
+                            .into(TypeDescriptors.kvs(TypeDescriptors.kvs(TypeDescriptors.integers(), TypeDescriptors.strings()), TypeDescriptors.booleans()))
+                            .via(kv -> KV.of(kv, true)))
                     .apply("GroupByQuery", GroupByKey.create())
                     .apply("ExecuteQuery", ParDo.of(new QueryExecuteDoFn(this.driverClassName, this.url, this.username, this.password, this.cryptoKeyName)));
         }
 
-        public class QueryExecuteDoFn extends DoFn<KV<String, Iterable<Boolean>>, Struct> {
+        // Outputs pairs of shard index and query.
+        public class QueryPartitionDoFn extends DoFn<String, KV<Integer, String>> {
+
+            private final Logger log = LoggerFactory.getLogger(QueryPartitionDoFn.class);
+
+            private final ValueProvider<String> driverClassName;
+            private final ValueProvider<String> url;
+            private final ValueProvider<String> username;
+            private final ValueProvider<String> password;
+            private final ValueProvider<String> cryptoKeyName;
+
+            private QueryPartitionDoFn(ValueProvider<String> driverClassName, ValueProvider<String> url, ValueProvider<String> username, ValueProvider<String> password, ValueProvider<String> cryptoKeyName) {
+                this.driverClassName = driverClassName;
+                this.url = url;
+                this.username = username;
+                this.password = password;
+                this.cryptoKeyName = cryptoKeyName;
+            }
+
+            @ProcessElement
+            public void processElement(ProcessContext c) throws Exception {
+                final List<String> queries = Arrays.stream(c.element().split(SQL_SPLITTER))
+                        .filter(q -> !q.trim().isEmpty())
+                        .collect(Collectors.toList());
+                final List<String> tableList = getValues(tables);
+                final int chunk = chunkSize == null || chunkSize.get() == null ? 0 : chunkSize.get();
+                final int num = partitionNum == null || partitionNum.get() == null ? 0 : partitionNum.get();
+                final boolean keyset = chunk > 0;
+                final boolean split = keyset || num > 1;
+                final String column = keyset ? getValue(keysetColumn) : getValue(partitionColumn);
+                final String watermark = getValue(watermarkColumn);
+                final List<KV<String, String>> shardList = getShards(this.url.get(), getValue(shards));
+
+                final List<KV<String, String>> queryAndTables = new ArrayList<>();
+                queries.forEach(query -> queryAndTables.add(KV.of(query, null)));
+                tableList.forEach(table -> queryAndTables.add(KV.of(String.format("SELECT * FROM %s", table), table)));
+                if(watermark == null && (!split || (column == null && tableList.isEmpty()))) {
+                    for(int shard=0; shard<shardList.size(); shard++) {
+                        for(final KV<String, String> queryAndTable : queryAndTables) {
+                            c.output(KV.of(shard, queryAndTable.getKey()));
+                        }
+                    }
+                    return;
+                }
+
+                // Watermarks are stored for each query of each shard.
+                final Map<String, String> properties = getConnectionProperties();
+                final List<String> previousWatermarks = watermark == null ? new ArrayList<>() : readWatermarks(getValue(watermarkFile));
+                final List<String> currentWatermarks = new ArrayList<>();
+                for(int shard=0; shard<shardList.size(); shard++) {
+                    final DataSource dataSource = getDataSource(this.driverClassName.get(), shardList.get(shard).getValue(), this.username.get(), this.password.get(), getValue(this.cryptoKeyName), getMaxConnections(), properties);
+                    try(final Connection connection = dataSource.getConnection()) {
+                        for(int i=0; i<queryAndTables.size(); i++) {
+                            String query = queryAndTables.get(i).getKey();
+                            final String table = queryAndTables.get(i).getValue();
+                            if(watermark != null) {
+                                final int index = shard * queryAndTables.size() + i;
+                                final String previousWatermark = index < previousWatermarks.size() ? previousWatermarks.get(index) : null;
+                                final String currentWatermark = getWatermarkLiteral(connection, query, watermark, previousWatermark);
+                                currentWatermarks.add(currentWatermark == null ? previousWatermark : currentWatermark);
+                                query = createWatermarkQuery(trimQuery(query), watermark, previousWatermark, currentWatermark);
+                                log.info(String.format("Query [%s] watermark from [%s] to [%s]", query, previousWatermark, currentWatermark));
+                            }
+                            if(!split) {
+                                c.output(KV.of(shard, query));
+                                continue;
+                            }
+                            final String splitColumn = column != null || table == null ? column : getPrimaryKeyColumn(connection, table);
+                            if(splitColumn == null) {
+                                log.info(String.format("Query [%s] has no partition column, read without partition.", query));
+                                c.output(KV.of(shard, query));
+                                continue;
+                            }
+                            for(final String splitQuery : createSplitQueries(connection, query, splitColumn, keyset, num, chunk)) {
+                                c.output(KV.of(shard, splitQuery));
+                            }
+                        }
+                    }
+                }
+                if(watermark != null) {
+                    // New watermarks are committed by CommitWatermark after output files are finalized.
+                    writeWatermarks(getValue(watermarkFile) + PENDING_SUFFIX, currentWatermarks);
+                }
+            }
+
+            // Returns max value of watermark column, which is served by the index of the column without scanning rows.
+            // In the first run, warns if rows with null watermark exist, because they are not read in following runs.
+            private String getWatermarkLiteral(final Connection connection, final String query, final String column,
+                                               final String previousWatermark) throws SQLException {
+                if(previousWatermark == null) {
+                    final String nullQuery = String.format("SELECT 1 FROM (%s) %s WHERE %s IS NULL", trimQuery(query), PARTITION_ALIAS, column);
+                    try(final PreparedStatement statement = connection.prepareStatement(nullQuery)) {
+                        statement.setMaxRows(1);
+                        try(final ResultSet resultSet = statement.executeQuery()) {
+                            if(resultSet.next()) {
+                                log.warn(String.format("Query [%s] has rows with null watermark column [%s], they are read only in the first run.", query, column));
+                            }
+                        }
+                    }
+                }
+                final String maxQuery = String.format("SELECT MAX(%s) FROM (%s) %s", column, trimQuery(query), PARTITION_ALIAS);
+                try(final PreparedStatement statement = connection.prepareStatement(maxQuery);
+                    final ResultSet resultSet = statement.executeQuery()) {
+                    if(!resultSet.next() || resultSet.getString(1) == null) {
+                        return null;
+                    }
+                    return toKeyLiteral(resultSet, 1);
+                }
+            }
+
+            private List<String> createSplitQueries(final Connection connection, final String query, final String column,
+                                                    final boolean keyset, final int num, final int chunk) throws SQLException {
+                if(keyset) {
+                    return createKeysetQueries(connection, query, column, chunk);
+                }
+                return createPartitionQueries(connection, query, column, num);
+            }
+
+            // Finds every chunkSize-th key by one ordered scan of the key column, so that each chunk can be read
+            // independently by `WHERE key > previous AND key <= boundary`.
+            private List<String> createKeysetQueries(final Connection connection, final String query, final String column, final int chunk) throws SQLException {
+                final String baseQuery = trimQuery(query);
+                final String keyQuery = String.format("SELECT %s FROM (%s) %s WHERE %s IS NOT NULL ORDER BY %s",
+                        column, baseQuery, PARTITION_ALIAS, column, column);
+                final List<String> boundaries = new ArrayList<>();
+                try(final PreparedStatement statement = connection.prepareStatement(keyQuery, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+                    // Keys are streamed instead of being held in memory by driver.
+                    statement.setFetchSize(Dialect.MYSQL.equals(Dialect.of(this.driverClassName.get(), connection.getMetaData().getURL())) ?
+                            Integer.MIN_VALUE : KEYSET_FETCH_SIZE);
+                    try(final ResultSet resultSet = statement.executeQuery()) {
+                        long count = 0;
+                        while(resultSet.next()) {
+                            if(++count % chunk == 0) {
+                                boundaries.add(toKeyLiteral(resultSet, 1));
+                            }
+                        }
+                    }
+                }
+                log.info(String.format("Query [%s] is split into %d chunks by key [%s]", query, boundaries.size() + 1, column));
+                return JdbcQueryIO.createKeysetQueries(baseQuery, column, boundaries);
+            }
+
+            private List<String> createPartitionQueries(final Connection connection, final String query, final String column, final int num) throws SQLException {
+                final String lowerBound = getValue(partitionLowerBound);
+                final String upperBound = getValue(partitionUpperBound);
+                final String baseQuery = trimQuery(query);
+                if(lowerBound != null && upperBound != null) {
+                    final String typeQuery = String.format("SELECT %s FROM (%s) %s WHERE 1 = 0", column, baseQuery, PARTITION_ALIAS);
+                    try(final PreparedStatement statement = connection.prepareStatement(typeQuery);
+                        final ResultSet resultSet = statement.executeQuery()) {
+                        final int sqlType = resultSet.getMetaData().getColumnType(1);
+                        return createRangeQueries(baseQuery, column, sqlType, parseBound(lowerBound, sqlType), parseBound(upperBound, sqlType), num);
+                    }
+                }
+                final String minMaxQuery = String.format("SELECT MIN(%s), MAX(%s) FROM (%s) %s", column, column, baseQuery, PARTITION_ALIAS);
+                try(final PreparedStatement statement = connection.prepareStatement(minMaxQuery);
+                    final ResultSet resultSet = statement.executeQuery()) {
+                    resultSet.next();
+                    final int sqlType = resultSet.getMetaData().getColumnType(1);
+                    final BigDecimal min = getBound(resultSet, 1, sqlType);
+                    final BigDecimal max = getBound(resultSet, 2, sqlType);
+                    log.info(String.format("Partition column [%s] min [%s] max [%s]", column, min, max));
+                    if(min == null || max == null) {
+                        return Arrays.asList(query);
+                    }
+                    return createRangeQueries(baseQuery, column, sqlType, min, max, num);
+                }
+            }
+
+            private String getPrimaryKeyColumn(final Connection connection, final String table) throws SQLException {
+                final String[] names = table.split("\\.");
+                final String schemaName = names.length > 1 ? names[0] : null;
+                final String tableName = names[names.length - 1];
+                final List<String> columns = new ArrayList<>();
+                try(final ResultSet resultSet = connection.getMetaData().getPrimaryKeys(null, schemaName, tableName)) {
+                    while(resultSet.next()) {
+                        columns.add(resultSet.getString("COLUMN_NAME"));
+                    }
+                }
+                return columns.size() == 1 ? columns.get(0) : null;
+            }
+
+        }
+
+        public class QueryExecuteDoFn extends DoFn<KV<KV<Integer, String>, Iterable<Boolean>>, Struct> {
 
             private static final int DEFAULT_FETCH_SIZE = 50_000;
+            private static final int MIN_FETCH_SIZE = 100;
+            private static final int MAX_COLUMN_WIDTH = 4096;
+            private static final int ROW_OVERHEAD = 64;
+            // Ratio of max heap size to be used for one fetch.
+            private static final int FETCH_HEAP_RATIO = 16;
+            private static final int STREAM_METRIC_INTERVAL = 10_000;
+
             private final Logger log = LoggerFactory.getLogger(QueryExecuteDoFn.class);
+            // Per query metrics. Streamed rows are fetched one by one.
+            private final Distribution fetchSizeDistribution = Metrics.distribution(QueryExecuteDoFn.class, "fetchSize");
+            private final Distribution rowsPerFetch = Metrics.distribution(QueryExecuteDoFn.class, "rowsPerFetch");
+            // Heap used by the whole worker JVM including other readers and stages, sampled while reading.
+            // It is not attributable to one query or connection.
+            private final Distribution workerHeapUsedBytes = Metrics.distribution(QueryExecuteDoFn.class, "workerJvmHeapUsedBytes");
 
             private final ValueProvider<String> driverClassName;
             private final ValueProvider<String> url;
@@ -74,8 +529,9 @@ public class JdbcQueryIO {
             private final ValueProvider<String> password;
             private final ValueProvider<String> cryptoKeyName;
 
-            private DataSource dataSource;
-            private Connection connection;
+            private List<KV<String, String>> shardList;
+            private Map<String, String> properties;
+            private FetchStrategy strategy;
 
             private QueryExecuteDoFn(ValueProvider<String> driverClassName, ValueProvider<String> url, ValueProvider<String> username, ValueProvider<String> password, ValueProvider<String> cryptoKeyName) {
                 this.driverClassName = driverClassName;
@@ -87,79 +543,438 @@ public class JdbcQueryIO {
 
             @Setup
             public void setup() throws Exception {
-                this.dataSource = buildDataSource(this.driverClassName.get(), this.url.get(), this.username.get(), this.password.get(), this.cryptoKeyName.get());
-                this.connection = dataSource.getConnection();
+                final Dialect dialect = Dialect.of(this.driverClassName.get(), this.url.get());
+                this.strategy = FetchStrategy.of(dialect, getValue(fetchStrategy));
+                this.properties = getConnectionProperties();
+                log.info(String.format("Dialect [%s] fetch strategy [%s]", dialect, this.strategy));
+                this.shardList = getShards(this.url.get(), getValue(shards));
             }
 
             @ProcessElement
             public void processElement(ProcessContext c) throws Exception {
-                final String query = c.element().getKey();
-                log.info(String.format("Received query [%s]", query));
-                try (PreparedStatement statement = connection
+                final KV<String, String> shard = this.shardList.get(c.element().getKey().getKey());
+                final String query = c.element().getKey().getValue();
+                log.info(String.format("Received query [%s] for shard [%s]", query, shard.getKey()));
+                final DataSource dataSource = getDataSource(this.driverClassName.get(), shard.getValue(), this.username.get(), this.password.get(), getValue(this.cryptoKeyName), getMaxConnections(), this.properties);
+                // Connection is borrowed from worker shared pool of the shard, and returned when closed.
+                try (Connection connection = dataSource.getConnection();
+                     PreparedStatement statement = connection
                         .prepareStatement(query, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
-                    statement.setFetchSize(DEFAULT_FETCH_SIZE);
+                    // Cursor mode requires fetch size before execution. Size by row width is applied after execution,
+                    // because some drivers run the query to get metadata of a statement not executed yet.
+                    final Integer explicitSize = getExplicitFetchSize();
+                    statement.setFetchSize(FetchStrategy.STREAM.equals(this.strategy) ? Integer.MIN_VALUE
+                            : explicitSize != null ? explicitSize : MIN_FETCH_SIZE);
                     int count = 0;
+                    int size;
                     try (ResultSet resultSet = statement.executeQuery()) {
+                        if(!FetchStrategy.STREAM.equals(this.strategy) && explicitSize == null) {
+                            resultSet.setFetchSize(getFetchSize(resultSet.getMetaData()));
+                        }
+                        size = resultSet.getFetchSize();
+                        log.info(String.format("Query [%s] fetch size [%d]", query, size));
+                        final int metricInterval = size > 0 ? size : STREAM_METRIC_INTERVAL;
+                        final ResultsetToStructConverter.ColumnBinder[] binders = withShardColumn(
+                                ResultsetToStructConverter.compile(resultSet.getMetaData()), getValue(shardColumn), shard.getKey());
                         while (resultSet.next()) {
-                            Struct struct = ResultsetToStructConverter.convert(resultSet);
+                            Struct struct = ResultsetToStructConverter.convert(resultSet, binders);
                             c.output(struct);
                             count++;
+                            if(count % metricInterval == 0) {
+                                updateWorkerHeapUsed();
+                            }
                         }
                     }
-                    log.info(String.format("Query [%s] read record num [%d]", query, count));
+                    updateWorkerHeapUsed();
+                    final long fetches = size > 0 ? Math.max(1, (count + size - 1) / size) : Math.max(1, count);
+                    this.fetchSizeDistribution.update(Math.max(size, 1));
+                    this.rowsPerFetch.update(count / fetches);
+                    log.info(String.format("Query [%s] read record num [%d], fetch size [%d], rows per fetch [%d]",
+                            query, count, size, count / fetches));
                 }
             }
 
-            @Teardown
-            public void teardown() throws Exception {
-                this.connection.close();
+            private ResultsetToStructConverter.ColumnBinder[] withShardColumn(final ResultsetToStructConverter.ColumnBinder[] binders,
+                                                                              final String column, final String shardId) {
+                if(column == null) {
+                    return binders;
+                }
+                final ResultsetToStructConverter.ColumnBinder[] shardBinders = Arrays.copyOf(binders, binders.length + 1);
+                shardBinders[binders.length] = (builder, resultSet) -> builder.set(column).to(shardId);
+                return shardBinders;
+            }
+
+            private Integer getExplicitFetchSize() {
+                if(fetchSize != null && fetchSize.get() != null && fetchSize.get() > 0) {
+                    return fetchSize.get();
+                }
+                return null;
             }
 
-            private DataSource buildDataSource(String driverClassName, String url, String username, String password, String cryptoKeyName) throws Exception {
-                final BasicDataSource basicDataSource = new BasicDataSource();
-                basicDataSource.setDriverClassName(driverClassName);
-                basicDataSource.setUrl(url);
-                basicDataSource.setUsername(username);
-                if(cryptoKeyName != null) {
-                    password = decrypt(cryptoKeyName, password);
+            private int getFetchSize(final ResultSetMetaData meta) throws SQLException {
+                if(meta == null) {
+                    return DEFAULT_FETCH_SIZE;
                 }
-                basicDataSource.setPassword(password);
+                long rowWidth = ROW_OVERHEAD;
+                for(int i=1; i<=meta.getColumnCount(); i++) {
+                    rowWidth += getColumnWidth(meta.getColumnType(i), meta.getColumnDisplaySize(i));
+                }
+                final long size = Runtime.getRuntime().maxMemory() / FETCH_HEAP_RATIO / rowWidth;
+                return (int)Math.max(MIN_FETCH_SIZE, Math.min(DEFAULT_FETCH_SIZE, size));
+            }
+
+            private long getColumnWidth(final int sqlType, final int displaySize) {
+                switch (sqlType) {
+                    case Types.BIT:
+                    case Types.BOOLEAN:
+                    case Types.TINYINT:
+                    case Types.SMALLINT:
+                    case Types.INTEGER:
+                    case Types.BIGINT:
+                    case Types.REAL:
+                    case Types.FLOAT:
+                    case Types.DOUBLE:
+                        return 16;
+                    case Types.DATE:
+                    case Types.TIME:
+                    case Types.TIMESTAMP:
+                    case Types.TIME_WITH_TIMEZONE:
+                    case Types.TIMESTAMP_WITH_TIMEZONE:
+                        return 32;
+                    default:
+                        // Characters are held as UTF-16 in heap.
+                        return 16 + 2L * (displaySize <= 0 ? MAX_COLUMN_WIDTH : Math.min(displaySize, MAX_COLUMN_WIDTH));
+                }
+            }
+
+            private void updateWorkerHeapUsed() {
+                final Runtime runtime = Runtime.getRuntime();
+                workerHeapUsedBytes.update(runtime.totalMemory() - runtime.freeMemory());
+            }
+
+        }
+
+    }
+
+    static DataSource getDataSource(String driverClassName, String url, String username, String password, String cryptoKeyName, int maxConnections) throws Exception {
+        return getDataSource(driverClassName, url, username, password, cryptoKeyName, maxConnections, new HashMap<>());
+    }
+
+    // DataSource is shared in worker JVM by all parameters building it, so that number of connections to database
+    // is limited by maxConnections per worker, and changed parameters such as rotated password build a new pool.
+    static DataSource getDataSource(String driverClassName, String url, String username, String password, String cryptoKeyName, int maxConnections, Map<String, String> properties) throws Exception {
+        final String key = createDataSourceKey(driverClassName, url, username, password, cryptoKeyName, maxConnections, properties);
+        synchronized (DATA_SOURCES) {
+            DataSource dataSource = DATA_SOURCES.get(key);
+            if(dataSource == null) {
+                final String plainPassword = cryptoKeyName == null ? password : getDecryptedPassword(cryptoKeyName, password);
+                dataSource = buildDataSource(driverClassName, url, username, plainPassword, maxConnections, properties);
+                DATA_SOURCES.put(key, dataSource);
+            }
+            return dataSource;
+        }
+    }
+
+    static String createDataSourceKey(String driverClassName, String url, String username, String password, String cryptoKeyName, int maxConnections, Map<String, String> properties) {
+        // Properties are sorted so that equal properties make the same key.
+        return String.join("|", driverClassName, url, username, password, cryptoKeyName, Integer.toString(maxConnections), new TreeMap<>(properties).toString());
+    }
+
+    private static String getDecryptedPassword(String cryptoKeyName, String password) throws IOException {
+        final String key = String.format("%s|%s", cryptoKeyName, password);
+        synchronized (DECRYPTED_PASSWORDS) {
+            String plainPassword = DECRYPTED_PASSWORDS.get(key);
+            if(plainPassword == null) {
+                plainPassword = decrypt(cryptoKeyName, password);
+                DECRYPTED_PASSWORDS.put(key, plainPassword);
+            }
+            return plainPassword;
+        }
+    }
+
+    private static DataSource buildDataSource(String driverClassName, String url, String username, String password, int maxConnections, Map<String, String> properties) throws Exception {
+        Class.forName(driverClassName);
+        final Properties connectionProperties = new Properties();
+        connectionProperties.putAll(properties);
+        connectionProperties.setProperty("user", username);
+        connectionProperties.setProperty("password", password);
+
+        final DriverManagerConnectionFactory connectionFactory = new DriverManagerConnectionFactory(url, connectionProperties);
+        final PoolableConnectionFactory poolableConnectionFactory = new PoolableConnectionFactory(connectionFactory, null);
+        // Validate by Connection.isValid when borrowed, to drop connections closed by database.
+        poolableConnectionFactory.setValidationQueryTimeout(VALIDATION_TIMEOUT_SECONDS);
+        poolableConnectionFactory.setDefaultAutoCommit(false);
+        poolableConnectionFactory.setDefaultReadOnly(false);
+        final GenericObjectPoolConfig poolConfig = new GenericObjectPoolConfig();
+        poolConfig.setMaxTotal(maxConnections);
+        poolConfig.setMaxIdle(maxConnections);
+        poolConfig.setMinIdle(0);
+        poolConfig.setTestOnBorrow(true);
+        // Borrowing waits while maxConnections queries are running in the worker.
+        poolConfig.setBlockWhenExhausted(true);
+        poolConfig.setMinEvictableIdleTimeMillis(10000);
+        poolConfig.setSoftMinEvictableIdleTimeMillis(30000);
+        poolConfig.setTimeBetweenEvictionRunsMillis(30000);
+        final GenericObjectPool<PoolableConnection> connectionPool = new GenericObjectPool<>(poolableConnectionFactory, poolConfig);
+        poolableConnectionFactory.setPool(connectionPool);
+        return new PoolingDataSource<>(connectionPool);
+    }
+
+    private static String decrypt(String key, String body) throws IOException {
+        final Credentials credentials =
+                KeyManagementServiceSettings.defaultCredentialsProviderBuilder()
+                        .build()
+                        .getCredentials();
+        final KeyManagementServiceSettings settings =
+                KeyManagementServiceSettings.newBuilder()
+                        .setCredentialsProvider(FixedCredentialsProvider.create(credentials))
+                        .build();
+
+        final byte[] decoded = Base64.getDecoder().decode(body);
+        try(final KeyManagementServiceClient client = KeyManagementServiceClient.create(settings)) {
+            final DecryptResponse res = client.decrypt(CryptoKeyName.parse(key), ByteString.copyFrom(decoded));
+            return res.getPlaintext().toStringUtf8().trim();
+        }
+
+    }
 
-                // Wrapping the datasource as a pooling datasource
-                final DataSourceConnectionFactory connectionFactory = new DataSourceConnectionFactory(basicDataSource);
-                final PoolableConnectionFactory poolableConnectionFactory = new PoolableConnectionFactory(connectionFactory, null);
-                final GenericObjectPoolConfig poolConfig = new GenericObjectPoolConfig();
-                poolConfig.setMaxTotal(1);
-                poolConfig.setMinIdle(0);
-                poolConfig.setMinEvictableIdleTimeMillis(10000);
-                poolConfig.setSoftMinEvictableIdleTimeMillis(30000);
-                final GenericObjectPool connectionPool = new GenericObjectPool(poolableConnectionFactory, poolConfig);
-                poolableConnectionFactory.setPool(connectionPool);
-                poolableConnectionFactory.setDefaultAutoCommit(false);
-                poolableConnectionFactory.setDefaultReadOnly(false);
-                return new PoolingDataSource(connectionPool);
+    static List<String> createRangeQueries(final String query, final String column, final int sqlType,
+                                           final BigDecimal lowerBound, final BigDecimal upperBound, final int num) {
+        final BigDecimal range = upperBound.subtract(lowerBound);
+        final BigDecimal stride;
+        if(isIntegral(sqlType)) {
+            final BigDecimal width = range.add(BigDecimal.ONE).divide(BigDecimal.valueOf(num), 0, RoundingMode.CEILING);
+            stride = width.compareTo(BigDecimal.ONE) < 0 ? BigDecimal.ONE : width;
+        } else {
+            stride = range.divide(BigDecimal.valueOf(num), 10, RoundingMode.HALF_UP);
+        }
+
+        // First and last ranges are open, so rows out of bounds are also read.
+        final List<String> conditions = new ArrayList<>();
+        BigDecimal lower = null;
+        for(int i=1; i<num; i++) {
+            final BigDecimal upper = lowerBound.add(stride.multiply(BigDecimal.valueOf(i)));
+            if(upper.compareTo(upperBound) > 0 || (lower != null && upper.compareTo(lower) <= 0)) {
+                break;
             }
+            if(lower == null) {
+                conditions.add(String.format("%s < %s", column, toLiteral(upper, sqlType)));
+            } else {
+                conditions.add(String.format("%s >= %s AND %s < %s", column, toLiteral(lower, sqlType), column, toLiteral(upper, sqlType)));
+            }
+            lower = upper;
+        }
+        if(lower == null) {
+            conditions.add(String.format("%s IS NOT NULL", column));
+        } else {
+            conditions.add(String.format("%s >= %s", column, toLiteral(lower, sqlType)));
+        }
+        conditions.add(String.format("%s IS NULL", column));
 
-            private String decrypt(String key, String body) throws IOException {
-                final Credentials credentials =
-                        KeyManagementServiceSettings.defaultCredentialsProviderBuilder()
-                                .build()
-                                .getCredentials();
-                final KeyManagementServiceSettings settings =
-                        KeyManagementServiceSettings.newBuilder()
-                                .setCredentialsProvider(FixedCredentialsProvider.create(credentials))
-                                .build();
+        return conditions.stream()
+                .map(condition -> String.format("SELECT * FROM (%s) %s WHERE %s", query, PARTITION_ALIAS, condition))
+                .collect(Collectors.toList());
+    }
 
-                final byte[] decoded = Base64.getDecoder().decode(body);
-                try(final KeyManagementServiceClient client = KeyManagementServiceClient.create(settings)) {
-                    final DecryptResponse res = client.decrypt(CryptoKeyName.parse(key), ByteString.copyFrom(decoded));
-                    return res.getPlaintext().toStringUtf8().trim();
+    // Returns pairs of shard id and url.
+    static List<KV<String, String>> getShards(final String url, final String shards) {
+        final List<KV<String, String>> shardList = new ArrayList<>();
+        if(url.contains(SHARD_PLACEHOLDER)) {
+            if(shards == null) {
+                throw new IllegalArgumentException("shards is required for url including " + SHARD_PLACEHOLDER);
+            }
+            for(final String range : shards.split(",")) {
+                final String[] values = range.trim().split("-");
+                if(values.length == 2) {
+                    final int from = Integer.parseInt(values[0].trim());
+                    final int to = Integer.parseInt(values[1].trim());
+                    for(int i=from; i<=to; i++) {
+                        shardList.add(KV.of(Integer.toString(i), url.replace(SHARD_PLACEHOLDER, Integer.toString(i))));
+                    }
+                } else if(!range.trim().isEmpty()) {
+                    shardList.add(KV.of(range.trim(), url.replace(SHARD_PLACEHOLDER, range.trim())));
                 }
+            }
+            return shardList;
+        }
+        final String[] urls = url.trim().split("\\s+");
+        for(int i=0; i<urls.length; i++) {
+            shardList.add(KV.of(Integer.toString(i), urls[i]));
+        }
+        return shardList;
+    }
 
+    // Rows with null watermark column are read only in the first run, as they can not be compared with watermark.
+    static String createWatermarkQuery(final String query, final String column, final String previousWatermark, final String currentWatermark) {
+        final String condition;
+        if(previousWatermark == null) {
+            if(currentWatermark == null) {
+                return query;
             }
+            // Rows updated during extraction are read in next time.
+            condition = String.format("%s <= %s OR %s IS NULL", column, currentWatermark, column);
+        } else if(currentWatermark == null) {
+            condition = String.format("%s > %s", column, previousWatermark);
+        } else {
+            condition = String.format("%s > %s AND %s <= %s", column, previousWatermark, column, currentWatermark);
+        }
+        return String.format("SELECT * FROM (%s) %s WHERE %s", query, PARTITION_ALIAS, condition);
+    }
 
+    // Watermark file has a SQL literal of watermark for each query in line.
+    private static List<String> readWatermarks(final String file) throws IOException {
+        final MatchResult result = FileSystems.match(file, EmptyMatchTreatment.ALLOW);
+        if(result.status() != MatchResult.Status.OK || result.metadata().isEmpty()) {
+            return new ArrayList<>();
+        }
+        try(final ReadableByteChannel channel = FileSystems.open(result.metadata().get(0).resourceId())) {
+            final String text = new String(ByteStreams.toByteArray(Channels.newInputStream(channel)), StandardCharsets.UTF_8);
+            return Arrays.stream(text.split("\n"))
+                    .map(line -> line.trim().isEmpty() ? null : line.trim())
+                    .collect(Collectors.toList());
         }
+    }
+
+    private static void writeWatermarks(final String file, final List<String> watermarks) throws IOException {
+        final String text = watermarks.stream()
+                .map(watermark -> watermark == null ? "" : watermark)
+                .collect(Collectors.joining("\n"));
+        try(final WritableByteChannel channel = FileSystems.create(FileSystems.matchNewResource(file, false), "text/plain")) {
+            channel.write(ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8)));
+        }
+    }
+
+    // Each chunk is bounded by boundaries decided before reading, so rows inserted or deleted meanwhile
+    // do not shift rows between chunks. Rows with null key are read in the first chunk.
+    static List<String> createKeysetQueries(final String query, final String column, final List<String> boundaries) {
+        if(boundaries.isEmpty()) {
+            return Arrays.asList(query);
+        }
+        final List<String> conditions = new ArrayList<>();
+        conditions.add(String.format("%s <= %s OR %s IS NULL", column, boundaries.get(0), column));
+        for(int i=1; i<boundaries.size(); i++) {
+            conditions.add(String.format("%s > %s AND %s <= %s", column, boundaries.get(i - 1), column, boundaries.get(i)));
+        }
+        conditions.add(String.format("%s > %s", column, boundaries.get(boundaries.size() - 1)));
+        return conditions.stream()
+                .map(condition -> String.format("SELECT * FROM (%s) %s WHERE %s", query, PARTITION_ALIAS, condition))
+                .collect(Collectors.toList());
+    }
+
+    private static String toKeyLiteral(final ResultSet resultSet, final int index) throws SQLException {
+        final String value = resultSet.getString(index);
+        switch (resultSet.getMetaData().getColumnType(index)) {
+            case Types.TINYINT:
+            case Types.SMALLINT:
+            case Types.INTEGER:
+            case Types.BIGINT:
+            case Types.DECIMAL:
+            case Types.NUMERIC:
+                return value;
+            default:
+                return String.format("'%s'", value.replace("'", "''"));
+        }
+    }
 
+    private static BigDecimal getBound(final ResultSet resultSet, final int index, final int sqlType) throws SQLException {
+        switch (sqlType) {
+            case Types.DATE: {
+                final Date date = resultSet.getDate(index);
+                return date == null ? null : BigDecimal.valueOf(date.toLocalDate().toEpochDay());
+            }
+            case Types.TIMESTAMP:
+            case Types.TIMESTAMP_WITH_TIMEZONE: {
+                final Timestamp timestamp = resultSet.getTimestamp(index);
+                return timestamp == null ? null : BigDecimal.valueOf(timestamp.getTime());
+            }
+            default: {
+                checkPartitionType(sqlType);
+                return resultSet.getBigDecimal(index);
+            }
+        }
+    }
+
+    private static BigDecimal parseBound(final String value, final int sqlType) {
+        switch (sqlType) {
+            case Types.DATE:
+                return BigDecimal.valueOf(LocalDate.parse(value.trim()).toEpochDay());
+            case Types.TIMESTAMP:
+            case Types.TIMESTAMP_WITH_TIMEZONE:
+                return BigDecimal.valueOf(Timestamp.valueOf(value.trim()).getTime());
+            default:
+                checkPartitionType(sqlType);
+                return new BigDecimal(value.trim());
+        }
+    }
+
+    private static String toLiteral(final BigDecimal value, final int sqlType) {
+        switch (sqlType) {
+            case Types.DATE:
+                return String.format("'%s'", LocalDate.ofEpochDay(value.longValue()));
+            case Types.TIMESTAMP:
+            case Types.TIMESTAMP_WITH_TIMEZONE:
+                return String.format("'%s'", new Timestamp(value.longValue()));
+            default:
+                return value.stripTrailingZeros().toPlainString();
+        }
+    }
+
+    private static boolean isIntegral(final int sqlType) {
+        switch (sqlType) {
+            case Types.TINYINT:
+            case Types.SMALLINT:
+            case Types.INTEGER:
+            case Types.BIGINT:
+            case Types.DATE:
+            case Types.TIMESTAMP:
+            case Types.TIMESTAMP_WITH_TIMEZONE:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private static void checkPartitionType(final int sqlType) {
+        switch (sqlType) {
+            case Types.TINYINT:
+            case Types.SMALLINT:
+            case Types.INTEGER:
+            case Types.BIGINT:
+            case Types.DECIMAL:
+            case Types.NUMERIC:
+            case Types.REAL:
+            case Types.FLOAT:
+            case Types.DOUBLE:
+                return;
+            default:
+                throw new IllegalArgumentException(String.format("Partition column type [%d] is not supported. Use numeric, date or timestamp column.", sqlType));
+        }
+    }
+
+    private static String trimQuery(final String query) {
+        String trimmed = query.trim();
+        while(trimmed.endsWith(";")) {
+            trimmed = trimmed.substring(0, trimmed.length() - 1).trim();
+        }
+        return trimmed;
+    }
+
+    private static String getValue(final ValueProvider<String> value) {
+        if(value == null || value.get() == null || value.get().trim().isEmpty()) {
+            return null;
+        }
+        return value.get().trim();
+    }
+
+    private static List<String> getValues(final ValueProvider<String> values) {
+        final String value = getValue(values);
+        if(value == null) {
+            return new ArrayList<>();
+        }
+        return Arrays.stream(value.split(","))
+                .map(String::trim)
+                .filter(s -> !s.isEmpty())
+                .collect(Collectors.toList());
     }
 
 }
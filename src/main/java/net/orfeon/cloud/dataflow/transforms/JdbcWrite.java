@@ -0,0 +1,349 @@
+package net.orfeon.cloud.dataflow.transforms;
+
+import com.google.cloud.Date;
+import com.google.cloud.spanner.Struct;
+import com.google.cloud.spanner.Type;
+import net.orfeon.cloud.dataflow.util.StructUtil;
+import org.apache.beam.sdk.options.ValueProvider;
+import org.apache.beam.sdk.transforms.DoFn;
+import org.apache.beam.sdk.transforms.PTransform;
+import org.apache.beam.sdk.transforms.ParDo;
+import org.apache.beam.sdk.values.PCollection;
+import org.apache.beam.sdk.values.PDone;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.SQLRecoverableException;
+import java.sql.SQLTransientException;
+import java.sql.Types;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.stream.Collectors;
+
+
+public class JdbcWrite extends PTransform<PCollection<Struct>, PDone> {
+
+    private static final int DEFAULT_BATCH_SIZE = 1000;
+    // Rows per multi-row VALUES statement. statements are added to batch.
+    private static final int ROWS_PER_STATEMENT = 100;
+    private static final int MAX_RETRIES = 3;
+    private static final long RETRY_INTERVAL_MILLIS = 1000;
+    private static final int MYSQL_LOCK_WAIT_TIMEOUT = 1205;
+
+    private final ValueProvider<String> driverClassName;
+    private final ValueProvider<String> url;
+    private final ValueProvider<String> username;
+    private final ValueProvider<String> password;
+    private final ValueProvider<String> table;
+    private final ValueProvider<String> cryptoKeyName;
+
+    private ValueProvider<String> keyFields;
+    private ValueProvider<Integer> batchSize;
+    private ValueProvider<Integer> maxConnections;
+
+    public static JdbcWrite write(ValueProvider<String> driverClassName, ValueProvider<String> url, ValueProvider<String> username, ValueProvider<String> password, ValueProvider<String> table, ValueProvider<String> cryptoKeyName) {
+        return new JdbcWrite(driverClassName, url, username, password, table, cryptoKeyName);
+    }
+
+    private JdbcWrite(ValueProvider<String> driverClassName, ValueProvider<String> url, ValueProvider<String> username, ValueProvider<String> password, ValueProvider<String> table, ValueProvider<String> cryptoKeyName) {
+        this.driverClassName = driverClassName;
+        this.url = url;
+        this.username = username;
+        this.password = password;
+        this.table = table;
+        this.cryptoKeyName = cryptoKeyName;
+    }
+
+    // If keyFields are specified, rows are upserted for MySQL and PostgreSQL.
+    public JdbcWrite withKeyFields(ValueProvider<String> keyFields) {
+        this.keyFields = keyFields;
+        return this;
+    }
+
+    public JdbcWrite withBatchSize(ValueProvider<Integer> batchSize) {
+        this.batchSize = batchSize;
+        return this;
+    }
+
+    public JdbcWrite withMaxConnections(ValueProvider<Integer> maxConnections) {
+        this.maxConnections = maxConnections;
+        return this;
+    }
+
+    public PDone expand(PCollection<Struct> input) {
+        input.apply("WriteJdbc", ParDo.of(new WriteDoFn(this.driverClassName, this.url, this.username, this.password,
+                this.table, this.cryptoKeyName, this.keyFields, this.batchSize, this.maxConnections)));
+        return PDone.in(input.getPipeline());
+    }
+
+    static String createInsertQuery(final JdbcQueryIO.Dialect dialect, final String table, final List<String> columns,
+                                    final List<String> keyColumns, final int rowNum) {
+        final String values = "(" + columns.stream().map(c -> "?").collect(Collectors.joining(",")) + ")";
+        final StringBuilder sb = new StringBuilder()
+                .append("INSERT INTO ").append(table)
+                .append(" (").append(String.join(",", columns)).append(") VALUES ")
+                .append(String.join(",", Collections.nCopies(rowNum, values)));
+        if(keyColumns.isEmpty()) {
+            return sb.toString();
+        }
+        final List<String> updateColumns = columns.stream()
+                .filter(c -> !keyColumns.contains(c))
+                .collect(Collectors.toList());
+        switch (dialect) {
+            case MYSQL:
+                if(updateColumns.isEmpty()) {
+                    return sb.insert("INSERT".length(), " IGNORE").toString();
+                }
+                return sb.append(" ON DUPLICATE KEY UPDATE ")
+                        .append(updateColumns.stream()
+                                .map(c -> String.format("%s = VALUES(%s)", c, c))
+                                .collect(Collectors.joining(",")))
+                        .toString();
+            case POSTGRESQL:
+                sb.append(" ON CONFLICT (").append(String.join(",", keyColumns)).append(")");
+                if(updateColumns.isEmpty()) {
+                    return sb.append(" DO NOTHING").toString();
+                }
+                return sb.append(" DO UPDATE SET ")
+                        .append(updateColumns.stream()
+                                .map(c -> String.format("%s = EXCLUDED.%s", c, c))
+                                .collect(Collectors.joining(",")))
+                        .toString();
+            default:
+                throw new IllegalArgumentException("Upsert by keyFields is supported only for MySQL and PostgreSQL.");
+        }
+    }
+
+    // Keeps the last row for each key, as one upsert statement can not update the same row twice in PostgreSQL.
+    static List<Struct> deduplicate(final List<Struct> structs, final List<String> keyColumns) {
+        if(keyColumns.isEmpty() || structs.size() < 2) {
+            return structs;
+        }
+        final List<Type.StructField> keyFields = new ArrayList<>();
+        for(final Type.StructField field : structs.get(0).getType().getStructFields()) {
+            if(keyColumns.contains(field.getName())) {
+                keyFields.add(field);
+            }
+        }
+        if(keyFields.size() != keyColumns.size()) {
+            return structs;
+        }
+        final Map<List<Object>, Struct> lastStructs = new LinkedHashMap<>();
+        for(final Struct struct : structs) {
+            final List<Object> key = new ArrayList<>(keyFields.size());
+            for(final Type.StructField field : keyFields) {
+                key.add(StructUtil.getFieldValue(field, struct));
+            }
+            lastStructs.remove(key);
+            lastStructs.put(key, struct);
+        }
+        return lastStructs.size() == structs.size() ? structs : new ArrayList<>(lastStructs.values());
+    }
+
+    // Connection failures, deadlocks, serialization failures and lock timeouts are retried.
+    // Other errors such as constraint violation or syntax error fail without retry.
+    static boolean isTransient(final SQLException exception) {
+        for(SQLException e = exception; e != null; e = e.getNextException()) {
+            if(e instanceof SQLTransientException || e instanceof SQLRecoverableException) {
+                return true;
+            }
+            final String state = e.getSQLState();
+            if(state != null && (state.startsWith("08") || state.startsWith("40") || state.startsWith("53") || state.startsWith("57"))) {
+                return true;
+            }
+            // MySQL lock wait timeout has general SQLState HY000.
+            if(e.getErrorCode() == MYSQL_LOCK_WAIT_TIMEOUT) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static class WriteDoFn extends DoFn<Struct, Void> {
+
+        private final Logger log = LoggerFactory.getLogger(WriteDoFn.class);
+
+        private final ValueProvider<String> driverClassName;
+        private final ValueProvider<String> url;
+        private final ValueProvider<String> username;
+        private final ValueProvider<String> password;
+        private final ValueProvider<String> table;
+        private final ValueProvider<String> cryptoKeyName;
+        private final ValueProvider<String> keyFields;
+        private final ValueProvider<Integer> batchSize;
+        private final ValueProvider<Integer> maxConnections;
+
+        private DataSource dataSource;
+        private JdbcQueryIO.Dialect dialect;
+        private List<String> keyColumns;
+        private int size;
+        private Map<Type, List<Struct>> buffer;
+
+        private WriteDoFn(ValueProvider<String> driverClassName, ValueProvider<String> url, ValueProvider<String> username, ValueProvider<String> password,
+                          ValueProvider<String> table, ValueProvider<String> cryptoKeyName, ValueProvider<String> keyFields,
+                          ValueProvider<Integer> batchSize, ValueProvider<Integer> maxConnections) {
+            this.driverClassName = driverClassName;
+            this.url = url;
+            this.username = username;
+            this.password = password;
+            this.table = table;
+            this.cryptoKeyName = cryptoKeyName;
+            this.keyFields = keyFields;
+            this.batchSize = batchSize;
+            this.maxConnections = maxConnections;
+        }
+
+        @Setup
+        public void setup() throws Exception {
+            final int connections = maxConnections == null || maxConnections.get() == null ? 0 : maxConnections.get();
+            this.dataSource = JdbcQueryIO.getDataSource(this.driverClassName.get(), this.url.get(), this.username.get(), this.password.get(),
+                    this.cryptoKeyName == null ? null : this.cryptoKeyName.get(), connections > 0 ? connections : JdbcQueryIO.DEFAULT_MAX_CONNECTIONS);
+            this.dialect = JdbcQueryIO.Dialect.of(driverClassName.get(), url.get());
+            this.keyColumns = keyFields == null || keyFields.get() == null ? new ArrayList<>() :
+                    Arrays.stream(keyFields.get().split(","))
+                            .map(String::trim)
+                            .filter(s -> !s.isEmpty())
+                            .collect(Collectors.toList());
+            this.size = batchSize == null || batchSize.get() == null || batchSize.get() <= 0 ? DEFAULT_BATCH_SIZE : batchSize.get();
+        }
+
+        @StartBundle
+        public void startBundle() {
+            this.buffer = new HashMap<>();
+        }
+
+        @ProcessElement
+        public void processElement(ProcessContext c) throws Exception {
+            final Struct struct = c.element();
+            final List<Struct> structs = this.buffer.computeIfAbsent(struct.getType(), t -> new ArrayList<>());
+            structs.add(struct);
+            if(structs.size() >= this.size) {
+                flush(structs);
+                structs.clear();
+            }
+        }
+
+        @FinishBundle
+        public void finishBundle() throws Exception {
+            for(final List<Struct> structs : this.buffer.values()) {
+                if(!structs.isEmpty()) {
+                    flush(structs);
+                }
+            }
+            this.buffer.clear();
+        }
+
+        private void flush(final List<Struct> bufferedStructs) throws Exception {
+            final List<Struct> structs = deduplicate(bufferedStructs, this.keyColumns);
+            // Each batch is written in one transaction, and retried as a unit.
+            for(int retry=0; ; retry++) {
+                try(final Connection connection = this.dataSource.getConnection()) {
+                    try {
+                        execute(connection, structs);
+                        connection.commit();
+                        return;
+                    } catch (SQLException e) {
+                        try {
+                            connection.rollback();
+                        } catch (SQLException rollbackException) {
+                            e.addSuppressed(rollbackException);
+                        }
+                        if(retry >= MAX_RETRIES || !isTransient(e)) {
+                            throw e;
+                        }
+                        log.warn(String.format("Failed to write batch of %d rows, retry %d: %s", structs.size(), retry + 1, e.getMessage()));
+                    }
+                }
+                Thread.sleep(RETRY_INTERVAL_MILLIS * (1L << retry));
+            }
+        }
+
+        private void execute(final Connection connection, final List<Struct> structs) throws SQLException {
+            final List<Type.StructField> fields = structs.get(0).getType().getStructFields();
+            final List<String> columns = fields.stream().map(Type.StructField::getName).collect(Collectors.toList());
+            final int fullNum = structs.size() / ROWS_PER_STATEMENT;
+            final int restNum = structs.size() % ROWS_PER_STATEMENT;
+            if(fullNum > 0) {
+                final String query = createInsertQuery(this.dialect, table.get(), columns, this.keyColumns, ROWS_PER_STATEMENT);
+                try(final PreparedStatement statement = connection.prepareStatement(query)) {
+                    for(int i=0; i<fullNum; i++) {
+                        bind(statement, fields, structs.subList(i * ROWS_PER_STATEMENT, (i + 1) * ROWS_PER_STATEMENT));
+                        statement.addBatch();
+                    }
+                    statement.executeBatch();
+                }
+            }
+            if(restNum > 0) {
+                final String query = createInsertQuery(this.dialect, table.get(), columns, this.keyColumns, restNum);
+                try(final PreparedStatement statement = connection.prepareStatement(query)) {
+                    bind(statement, fields, structs.subList(fullNum * ROWS_PER_STATEMENT, structs.size()));
+                    statement.executeUpdate();
+                }
+            }
+        }
+
+        private void bind(final PreparedStatement statement, final List<Type.StructField> fields, final List<Struct> structs) throws SQLException {
+            int index = 1;
+            for(final Struct struct : structs) {
+                for(int i=0; i<fields.size(); i++) {
+                    setValue(statement, index++, fields.get(i).getType(), struct, i);
+                }
+            }
+        }
+
+        private void setValue(final PreparedStatement statement, final int index, final Type type, final Struct struct, final int field) throws SQLException {
+            switch (type.getCode()) {
+                case BOOL:
+                    if(struct.isNull(field)) {
+                        statement.setNull(index, Types.BOOLEAN);
+                    } else {
+                        statement.setBoolean(index, struct.getBoolean(field));
+                    }
+                    return;
+                case INT64:
+                    if(struct.isNull(field)) {
+                        statement.setNull(index, Types.BIGINT);
+                    } else {
+                        statement.setLong(index, struct.getLong(field));
+                    }
+                    return;
+                case FLOAT64:
+                    if(struct.isNull(field)) {
+                        statement.setNull(index, Types.DOUBLE);
+                    } else {
+                        statement.setDouble(index, struct.getDouble(field));
+                    }
+                    return;
+                case STRING:
+                    statement.setString(index, struct.isNull(field) ? null : struct.getString(field));
+                    return;
+                case BYTES:
+                    statement.setBytes(index, struct.isNull(field) ? null : struct.getBytes(field).toByteArray());
+                    return;
+                case DATE:
+                    if(struct.isNull(field)) {
+                        statement.setNull(index, Types.DATE);
+                    } else {
+                        final Date date = struct.getDate(field);
+                        statement.setDate(index, java.sql.Date.valueOf(LocalDate.of(date.getYear(), date.getMonth(), date.getDayOfMonth())));
+                    }
+                    return;
+                case TIMESTAMP:
+                    if(struct.isNull(field)) {
+                        statement.setNull(index, Types.TIMESTAMP);
+                    } else {
+                        statement.setTimestamp(index, struct.getTimestamp(field).toSqlTimestamp());
+                    }
+                    return;
+                default:
+                    throw new IllegalArgumentException(String.format("Field type %s is not supported to write jdbc!", type));
+            }
+        }
+
+    }
+
+}
@@ -3,8 +3,10 @@ package net.orfeon.cloud.dataflow.transforms;
 import com.google.api.gax.retrying.RetrySettings;
 import com.google.cloud.spanner.*;
 import com.google.cloud.spanner.Partition;
+import net.orfeon.cloud.dataflow.util.converter.StructToRowConverter;
 import org.apache.beam.sdk.coders.*;
 import org.apache.beam.sdk.options.ValueProvider;
+import org.apache.beam.sdk.schemas.Schema;
 import org.apache.beam.sdk.transforms.*;
 import org.apache.beam.sdk.values.*;
 import org.joda.time.Instant;
@@ -50,6 +52,32 @@ public class SpannerQueryIO {
             this.timestampBound = timestampBound;
         }
 
+        // Emits rows with the schema. Only fields in the schema are taken from query results.
+        public PTransform<PBegin, PCollection<Row>> asRows(Schema schema) {
+            return StructToRowTransform.read(this, schema);
+        }
+
+        // Resolves schema of results by analyzing the first query, for transforms planned at construction.
+        // Requires database and query accessible at construction.
+        public Schema resolveSchema() {
+            final String query = Arrays.stream(this.query.get().split(SQL_SPLITTER))
+                    .filter(q -> !q.trim().isEmpty())
+                    .findFirst()
+                    .orElseThrow(() -> new IllegalArgumentException("No query to resolve schema."));
+            final Spanner spanner = SpannerOptions.newBuilder().build().getService();
+            try {
+                final DatabaseClient client = spanner.getDatabaseClient(
+                        DatabaseId.of(this.projectId.get(), this.instanceId.get(), this.databaseId.get()));
+                try (ResultSet resultSet = client.singleUse().analyzeQuery(Statement.of(query), ReadContext.QueryAnalyzeMode.PLAN)) {
+                    // Plan mode returns no rows, and result type is available after the first call of next.
+                    resultSet.next();
+                    return StructToRowConverter.convertSchema(resultSet.getType());
+                }
+            } finally {
+                spanner.close();
+            }
+        }
+
         public PCollection<Struct> expand(PBegin begin) {
             final PCollection<String> queries = begin.getPipeline()
                     .apply("SupplyQuery", Create.ofProvider(this.query, StringUtf8Coder.of()))
@@ -0,0 +1,51 @@
+package net.orfeon.cloud.dataflow.transforms;
+
+import com.google.cloud.spanner.Struct;
+import com.google.cloud.spanner.Type;
+import net.orfeon.cloud.dataflow.util.coder.StructCoder;
+import net.orfeon.cloud.dataflow.util.converter.RowToStructConverter;
+import org.apache.beam.sdk.extensions.sql.SqlTransform;
+import org.apache.beam.sdk.transforms.DoFn;
+import org.apache.beam.sdk.transforms.PTransform;
+import org.apache.beam.sdk.transforms.ParDo;
+import org.apache.beam.sdk.values.PCollection;
+import org.apache.beam.sdk.values.Row;
+
+
+/**
+ * Applies Beam SQL statement to rows, and emits results as structs to be written by struct sinks.
+ * Input rows are referred as PCOLLECTION in the statement. Statement is planned by input schema at construction,
+ * so result type is known and structs are encoded by the coder bound to it.
+ */
+public class StructSqlTransform extends PTransform<PCollection<Row>, PCollection<Struct>> {
+
+    private final String sql;
+
+    public StructSqlTransform(String sql) {
+        this.sql = sql;
+    }
+
+    public final PCollection<Struct> expand(PCollection<Row> input) {
+        final PCollection<Row> rows = input.apply("SqlTransform", SqlTransform.query(this.sql));
+        final Type type = RowToStructConverter.convertType(rows.getSchema());
+        return rows
+                .apply("RowToStruct", ParDo.of(new RowToStructDoFn(type)))
+                .setCoder(StructCoder.of(type));
+    }
+
+    private static class RowToStructDoFn extends DoFn<Row, Struct> {
+
+        private final Type type;
+
+        RowToStructDoFn(Type type) {
+            this.type = type;
+        }
+
+        @ProcessElement
+        public void processElement(ProcessContext c) {
+            c.output(RowToStructConverter.convert(c.element(), this.type));
+        }
+
+    }
+
+}
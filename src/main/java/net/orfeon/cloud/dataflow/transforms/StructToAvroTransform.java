@@ -1,13 +1,18 @@
 package net.orfeon.cloud.dataflow.transforms;
 
 import com.google.cloud.spanner.Struct;
+import com.google.cloud.spanner.Type;
 import net.orfeon.cloud.dataflow.util.AvroSchemaUtil;
-import net.orfeon.cloud.dataflow.util.StructUtil;
-import net.orfeon.cloud.dataflow.util.converter.StructToRecordConverter;
+import net.orfeon.cloud.dataflow.util.StructAccessor;
+import net.orfeon.cloud.dataflow.util.coder.StructCoder;
+import net.orfeon.cloud.dataflow.util.converter.StructDatumWriter;
 import org.apache.avro.Schema;
 import org.apache.avro.file.CodecFactory;
+import org.apache.avro.file.DataFileWriter;
+import org.apache.beam.sdk.coders.ByteArrayCoder;
+import org.apache.beam.sdk.coders.CoderException;
+import org.apache.beam.sdk.coders.KvCoder;
 import org.apache.beam.sdk.coders.StringUtf8Coder;
-import org.apache.beam.sdk.io.AvroIO;
 import org.apache.beam.sdk.io.FileIO;
 import org.apache.beam.sdk.io.WriteFilesResult;
 import org.apache.beam.sdk.options.ValueProvider;
@@ -16,18 +21,30 @@ import org.apache.beam.sdk.values.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
 
 
+/**
+ * Writes structs to avro files grouped by key field.
+ * Structs are shuffled as values encoded by the coder bound to their type, with 8 bytes type fingerprint.
+ * The type is carried once per key by the sampled struct side input, that also gives the avro schema.
+ */
 public class StructToAvroTransform extends PTransform<PCollection<Struct>, WriteFilesResult<String>> {
 
     private static final String DEFAULT_KEY = "__KEY__";
 
     private static final Logger LOG = LoggerFactory.getLogger(StructToAvroTransform.class);
 
-    public static final TupleTag<KV<String,Struct>> tagMain = new TupleTag<KV<String,Struct>>(){ private static final long serialVersionUID = 1L; };
+    public static final TupleTag<KV<String,byte[]>> tagMain = new TupleTag<KV<String,byte[]>>(){ private static final long serialVersionUID = 1L; };
     public static final TupleTag<KV<String,Struct>> tagStruct = new TupleTag<KV<String,Struct>>(){ private static final long serialVersionUID = 1L; };
 
     private final ValueProvider<String> output;
@@ -42,10 +59,14 @@ public class StructToAvroTransform extends PTransform<PCollection<Struct>, Write
 
     public final WriteFilesResult<String> expand(PCollection<Struct> input) {
 
-        PCollectionTuple records = input.apply("AddGroupingKey", ParDo.of(new DoFn<Struct, KV<String, Struct>>() {
+        PCollectionTuple records = input.apply("AddGroupingKey", ParDo.of(new DoFn<Struct, KV<String, byte[]>>() {
 
             private String keyFieldString;
             private Set<String> check;
+            private StructAccessor accessor;
+            private int keyIndex;
+            private StructCoder coder;
+            private long fingerprint;
 
             @Setup
             public void setup() {
@@ -54,13 +75,32 @@ public class StructToAvroTransform extends PTransform<PCollection<Struct>, Write
             }
 
             @ProcessElement
-            public void processElement(ProcessContext c) {
+            public void processElement(ProcessContext c) throws IOException {
                 Struct struct = c.element();
-                String key = this.keyFieldString == null ? DEFAULT_KEY : StructUtil.getFieldValue(this.keyFieldString, struct).toString();
-                KV<String, Struct> kv = KV.of(key, struct);
-                c.output(kv);
+                final String key;
+                if(this.keyFieldString == null) {
+                    key = DEFAULT_KEY;
+                } else {
+                    // Only the key field is read, so other fields of the type are not compared.
+                    if(this.accessor == null || !this.accessor.matchesField(struct.getType(), this.keyIndex)) {
+                        this.accessor = StructAccessor.of(struct.getType());
+                        this.keyIndex = this.accessor.getIndex(this.keyFieldString);
+                        if(this.keyIndex < 0) {
+                            throw new IllegalArgumentException(String.format("Key field %s is not found in struct.", this.keyFieldString));
+                        }
+                    }
+                    key = this.accessor.getAsString(struct, this.keyIndex);
+                }
+                if(this.coder == null || !this.coder.matches(struct.getType())) {
+                    this.coder = StructCoder.of(struct.getType());
+                    this.fingerprint = StructCoder.getFingerprint(struct.getType());
+                }
+                final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+                new DataOutputStream(bos).writeLong(this.fingerprint);
+                this.coder.encode(struct, bos);
+                c.output(KV.of(key, bos.toByteArray()));
                 if(!this.check.contains(key)) {
-                    c.output(tagStruct, kv);
+                    c.output(tagStruct, KV.of(key, struct));
                     this.check.add(key);
                 }
             }
@@ -72,7 +112,8 @@ public class StructToAvroTransform extends PTransform<PCollection<Struct>, Write
                 .apply("ViewAsMap", View.asMap());
 
         return records.get(tagMain)
-                .apply("WriteStructDynamically", FileIO.<String, KV<String, Struct>>writeDynamic()
+                .setCoder(KvCoder.of(StringUtf8Coder.of(), ByteArrayCoder.of()))
+                .apply("WriteStructDynamically", FileIO.<String, KV<String, byte[]>>writeDynamic()
                         .by(Contextful.fn((element) -> element.getKey()))
                         .via(Contextful.fn((key, c) -> {
                             final Map<String, Iterable<Struct>> sampleStruct = c.sideInput(schemaView);
@@ -81,14 +122,7 @@ public class StructToAvroTransform extends PTransform<PCollection<Struct>, Write
                             }
                             final Struct struct = sampleStruct.get(key).iterator().next();
                             final Schema schema = AvroSchemaUtil.convertSchema(struct);
-                            final AvroIO.Sink<KV<String,Struct>> avroSink = AvroIO
-                                    .sinkViaGenericRecords(schema,
-                                            (KV<String, Struct> rstruct, Schema rschema) ->
-                                                    StructToRecordConverter.convert(rstruct.getValue(), rschema));
-                            if(useSnappy.get()) {
-                                return avroSink.withCodec(CodecFactory.snappyCodec());
-                            }
-                            return avroSink;
+                            return new StructAvroSink(schema.toString(), struct.getType(), useSnappy.get());
                         }, Requirements.requiresSideInputs(schemaView)))
                         .withNaming(key -> FileIO.Write.defaultNaming(
                                 buildPrefixFileName(this.output.get(), key), ".avro"))
@@ -96,6 +130,50 @@ public class StructToAvroTransform extends PTransform<PCollection<Struct>, Write
                         .withDestinationCoder(StringUtf8Coder.of()));
     }
 
+    // Writes struct to avro file by StructDatumWriter, without creating GenericRecord per record.
+    private static class StructAvroSink implements FileIO.Sink<KV<String, byte[]>> {
+
+        private final String schemaJson;
+        private final Type type;
+        private final boolean useSnappy;
+        private transient DataFileWriter<Struct> writer;
+        private transient StructCoder coder;
+        private transient long fingerprint;
+
+        StructAvroSink(String schemaJson, Type type, boolean useSnappy) {
+            this.schemaJson = schemaJson;
+            this.type = type;
+            this.useSnappy = useSnappy;
+        }
+
+        @Override
+        public void open(WritableByteChannel channel) throws IOException {
+            this.coder = StructCoder.of(this.type);
+            this.fingerprint = StructCoder.getFingerprint(this.type);
+            final Schema schema = new Schema.Parser().parse(this.schemaJson);
+            this.writer = new DataFileWriter<>(new StructDatumWriter(schema));
+            if(this.useSnappy) {
+                this.writer.setCodec(CodecFactory.snappyCodec());
+            }
+            this.writer.create(schema, Channels.newOutputStream(channel));
+        }
+
+        @Override
+        public void write(KV<String, byte[]> element) throws IOException {
+            final DataInputStream is = new DataInputStream(new ByteArrayInputStream(element.getValue()));
+            if(is.readLong() != this.fingerprint) {
+                throw new CoderException(String.format("Struct type of key %s does not match sampled type %s", element.getKey(), this.type));
+            }
+            this.writer.append(this.coder.decode(is));
+        }
+
+        @Override
+        public void flush() throws IOException {
+            this.writer.flush();
+        }
+
+    }
+
     private static String buildPrefixDirName(String output) {
         final boolean isgcs = output.startsWith("gs://");
         final String[] paths = output.replaceAll("gs://", "").split("/", -1);
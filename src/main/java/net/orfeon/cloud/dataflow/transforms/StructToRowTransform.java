@@ -0,0 +1,83 @@
+package net.orfeon.cloud.dataflow.transforms;
+
+import com.google.cloud.spanner.Struct;
+import com.google.cloud.spanner.Type;
+import net.orfeon.cloud.dataflow.util.converter.StructToRowConverter;
+import org.apache.beam.sdk.schemas.Schema;
+import org.apache.beam.sdk.transforms.DoFn;
+import org.apache.beam.sdk.transforms.PTransform;
+import org.apache.beam.sdk.transforms.ParDo;
+import org.apache.beam.sdk.values.PBegin;
+import org.apache.beam.sdk.values.PCollection;
+import org.apache.beam.sdk.values.Row;
+
+
+/**
+ * Converts structs to rows with the schema, and sets the schema to output so that schema coder and transforms are available.
+ * Only fields in the schema are taken from structs, so the schema works as a projection.
+ */
+public class StructToRowTransform extends PTransform<PCollection<Struct>, PCollection<Row>> {
+
+    private final Schema schema;
+
+    public StructToRowTransform(Schema schema) {
+        this.schema = schema;
+    }
+
+    public static StructToRowTransform of(Type type) {
+        return new StructToRowTransform(StructToRowConverter.convertSchema(type));
+    }
+
+    /** Returns transform reading structs by the source and emitting rows with the schema. */
+    public static PTransform<PBegin, PCollection<Row>> read(PTransform<PBegin, PCollection<Struct>> source, Schema schema) {
+        return new ReadRows(source, schema);
+    }
+
+    public final PCollection<Row> expand(PCollection<Struct> input) {
+        return input
+                .apply("ConvertToRow", ParDo.of(new StructToRowDoFn(this.schema)))
+                .setRowSchema(this.schema);
+    }
+
+    private static class StructToRowDoFn extends DoFn<Struct, Row> {
+
+        private final Schema schema;
+
+        private Type type;
+        private int[] indexes;
+
+        StructToRowDoFn(Schema schema) {
+            this.schema = schema;
+        }
+
+        @ProcessElement
+        public void processElement(ProcessContext c) {
+            final Struct struct = c.element();
+            if(this.type != struct.getType() && !struct.getType().equals(this.type)) {
+                this.indexes = StructToRowConverter.resolveIndexes(this.schema, struct.getType());
+                this.type = struct.getType();
+            }
+            c.output(StructToRowConverter.convert(struct, this.schema, this.indexes));
+        }
+
+    }
+
+    private static class ReadRows extends PTransform<PBegin, PCollection<Row>> {
+
+        private final PTransform<PBegin, PCollection<Struct>> source;
+        private final Schema schema;
+
+        ReadRows(PTransform<PBegin, PCollection<Struct>> source, Schema schema) {
+            this.source = source;
+            this.schema = schema;
+        }
+
+        public PCollection<Row> expand(PBegin begin) {
+            return begin
+                    .apply("ReadStruct", this.source)
+                    .apply("StructToRow", new StructToRowTransform(this.schema));
+        }
+
+    }
+
+}
@@ -0,0 +1,135 @@
+package net.orfeon.cloud.dataflow.transforms;
+
+import com.google.cloud.spanner.Struct;
+import net.orfeon.cloud.dataflow.util.converter.StructJsonEncoder;
+import net.orfeon.cloud.dataflow.util.converter.StructCsvEncoder;
+import org.apache.beam.sdk.io.FileIO;
+import org.apache.beam.sdk.io.WriteFilesResult;
+import org.apache.beam.sdk.options.ValueProvider;
+import org.apache.beam.sdk.transforms.PTransform;
+import org.apache.beam.sdk.values.PCollection;
+import org.apache.commons.csv.QuoteMode;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+
+
+public class StructToTextTransform extends PTransform<PCollection<Struct>, WriteFilesResult<Void>> {
+
+    // Used to escape delimiter, quote and line breaks for quoteMode NONE.
+    private static final char ESCAPE = '\\';
+
+    private final ValueProvider<String> output;
+    private final ValueProvider<String> type;
+    private final ValueProvider<String> delimiter;
+    private final ValueProvider<String> quoteMode;
+    private final ValueProvider<String> nullToken;
+    private final ValueProvider<Boolean> header;
+
+    public StructToTextTransform(ValueProvider<String> output, ValueProvider<String> type) {
+        this(output, type,
+                ValueProvider.StaticValueProvider.of(","),
+                ValueProvider.StaticValueProvider.of(QuoteMode.MINIMAL.name()),
+                ValueProvider.StaticValueProvider.of(null),
+                ValueProvider.StaticValueProvider.of(false));
+    }
+
+    public StructToTextTransform(ValueProvider<String> output, ValueProvider<String> type,
+                                 ValueProvider<String> delimiter, ValueProvider<String> quoteMode,
+                                 ValueProvider<String> nullToken, ValueProvider<Boolean> header) {
+        this.output = output;
+        this.type = type;
+        this.delimiter = delimiter;
+        this.quoteMode = quoteMode;
+        this.nullToken = nullToken;
+        this.header = header;
+    }
+
+    public final WriteFilesResult<Void> expand(PCollection<Struct> input) {
+        return input.apply("WriteText", FileIO.<Struct>write()
+                .via(new StructTextSink(this.type, this.delimiter, this.quoteMode, this.nullToken, this.header))
+                .to(ValueProvider.NestedValueProvider.of(this.output, StructToTextTransform::buildDirName))
+                .withNaming(FileIO.Write.defaultNaming(
+                        ValueProvider.NestedValueProvider.of(this.output, StructToTextTransform::buildFileName),
+                        ValueProvider.StaticValueProvider.of(".txt"))));
+    }
+
+    // Writes encoded bytes of each struct to file, without creating line String per struct.
+    private static class StructTextSink implements FileIO.Sink<Struct> {
+
+        private static final byte[] NEWLINE = "\n".getBytes(StandardCharsets.UTF_8);
+
+        private final ValueProvider<String> type;
+        private final ValueProvider<String> delimiter;
+        private final ValueProvider<String> quoteMode;
+        private final ValueProvider<String> nullToken;
+        private final ValueProvider<Boolean> header;
+
+        private transient boolean handleJsonType;
+        private transient boolean headerRequired;
+        private transient StructJsonEncoder jsonEncoder;
+        private transient StructCsvEncoder csvEncoder;
+        private transient OutputStream os;
+
+        StructTextSink(ValueProvider<String> type, ValueProvider<String> delimiter, ValueProvider<String> quoteMode,
+                       ValueProvider<String> nullToken, ValueProvider<Boolean> header) {
+            this.type = type;
+            this.delimiter = delimiter;
+            this.quoteMode = quoteMode;
+            this.nullToken = nullToken;
+            this.header = header;
+        }
+
+        @Override
+        public void open(WritableByteChannel channel) {
+            this.handleJsonType = !"csv".equals(this.type.get());
+            if(this.handleJsonType) {
+                this.jsonEncoder = new StructJsonEncoder();
+            } else {
+                final String delimiterString = this.delimiter.get() == null ? "," : this.delimiter.get();
+                if(delimiterString.length() != 1) {
+                    throw new IllegalArgumentException(String.format("Delimiter must be a single character but was [%s]", delimiterString));
+                }
+                this.csvEncoder = new StructCsvEncoder(delimiterString.charAt(0), '"',
+                        QuoteMode.valueOf(this.quoteMode.get() == null ? QuoteMode.MINIMAL.name() : this.quoteMode.get()),
+                        this.nullToken.get(), ESCAPE);
+                this.headerRequired = this.header.get() != null && this.header.get();
+            }
+            this.os = Channels.newOutputStream(channel);
+        }
+
+        @Override
+        public void write(Struct struct) throws IOException {
+            if(this.handleJsonType) {
+                this.jsonEncoder.encode(struct).writeTo(this.os);
+            } else {
+                // Header is written once at the head of each output file.
+                if(this.headerRequired) {
+                    this.csvEncoder.encodeHeader(struct.getType()).writeTo(this.os);
+                    this.os.write(NEWLINE);
+                    this.headerRequired = false;
+                }
+                this.csvEncoder.encode(struct).writeTo(this.os);
+            }
+            this.os.write(NEWLINE);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            this.os.flush();
+        }
+
+    }
+
+    private static String buildDirName(String output) {
+        return output.substring(0, output.lastIndexOf('/') + 1);
+    }
+
+    private static String buildFileName(String output) {
+        return output.substring(output.lastIndexOf('/') + 1);
+    }
+
+}
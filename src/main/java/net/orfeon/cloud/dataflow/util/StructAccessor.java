@@ -0,0 +1,134 @@
+package net.orfeon.cloud.dataflow.util;
+
+import com.google.cloud.spanner.Struct;
+import com.google.cloud.spanner.Type;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * Field accessor compiled for a Struct type. Field names are resolved to indexes once,
+ * and values are read by index. Keep an instance per DoFn and renew it when struct type changes.
+ */
+public class StructAccessor {
+
+    private final Type type;
+    private final Map<String, Integer> indexes;
+    private final Type.Code[] codes;
+
+    private Type lastMatched;
+
+    private StructAccessor(final Type type) {
+        final List<Type.StructField> fields = type.getStructFields();
+        this.type = type;
+        this.lastMatched = type;
+        this.indexes = new HashMap<>(fields.size() * 2);
+        this.codes = new Type.Code[fields.size()];
+        for(int i=0; i<fields.size(); i++) {
+            this.indexes.putIfAbsent(fields.get(i).getName(), i);
+            this.codes[i] = fields.get(i).getType().getCode();
+        }
+    }
+
+    public static StructAccessor of(final Type type) {
+        return new StructAccessor(type);
+    }
+
+    /**
+     * Returns true if the accessor can read structs of the type. Same type instance as the last matched one is checked by identity.
+     * Otherwise only names and codes of top level fields are compared, instead of deep equality of the types.
+     */
+    public boolean matches(final Type type) {
+        if(type == this.lastMatched || type == this.type) {
+            return true;
+        }
+        final List<Type.StructField> fields = type.getStructFields();
+        if(fields.size() != this.codes.length) {
+            return false;
+        }
+        for(int i=0; i<fields.size(); i++) {
+            if(!matchesField(fields, i)) {
+                return false;
+            }
+        }
+        this.lastMatched = type;
+        return true;
+    }
+
+    /** Returns true if the field at index of the type has the same name and code as the accessor type. */
+    public boolean matchesField(final Type type, final int index) {
+        if(type == this.lastMatched || type == this.type) {
+            return true;
+        }
+        final List<Type.StructField> fields = type.getStructFields();
+        return index < fields.size() && index < this.codes.length && matchesField(fields, index);
+    }
+
+    private boolean matchesField(final List<Type.StructField> fields, final int index) {
+        final Type.StructField field = fields.get(index);
+        return this.codes[index] == field.getType().getCode()
+                && field.getName().equals(this.type.getStructFields().get(index).getName());
+    }
+
+    public Type getType() {
+        return this.type;
+    }
+
+    /** Returns index of the field, or -1 if struct type does not have the field. */
+    public int getIndex(final String fieldName) {
+        final Integer index = this.indexes.get(fieldName);
+        return index == null ? -1 : index;
+    }
+
+    public Type.Code getCode(final int index) {
+        return this.codes[index];
+    }
+
+    public boolean isNull(final Struct struct, final int index) {
+        return struct.isNull(index);
+    }
+
+    public boolean getBoolean(final Struct struct, final int index) {
+        return struct.getBoolean(index);
+    }
+
+    public long getLong(final Struct struct, final int index) {
+        return struct.getLong(index);
+    }
+
+    public double getDouble(final Struct struct, final int index) {
+        return struct.getDouble(index);
+    }
+
+    public String getString(final Struct struct, final int index) {
+        return struct.getString(index);
+    }
+
+    /** Returns string representation of the value same as toString of {@link StructUtil#getFieldValue}, or null. */
+    public String getAsString(final Struct struct, final int index) {
+        if(struct.isNull(index)) {
+            return null;
+        }
+        switch (this.codes[index]) {
+            case BOOL:
+                return struct.getBoolean(index) ? "true" : "false";
+            case INT64:
+                return Long.toString(struct.getLong(index));
+            case FLOAT64:
+                return Double.toString(struct.getDouble(index));
+            case STRING:
+                return struct.getString(index);
+            case BYTES:
+                return struct.getBytes(index).toBase64();
+            case TIMESTAMP:
+                return struct.getTimestamp(index).toString();
+            case DATE:
+                return struct.getDate(index).toString();
+            default:
+                return StructUtil.getFieldValue(this.type.getStructFields().get(index), struct).toString();
+        }
+    }
+
+}
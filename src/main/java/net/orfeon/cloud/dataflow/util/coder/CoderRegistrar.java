@@ -0,0 +1,32 @@
+package net.orfeon.cloud.dataflow.util.coder;
+
+import com.google.cloud.bigquery.storage.v1beta1.Storage;
+import com.google.cloud.spanner.Mutation;
+import com.google.cloud.spanner.Struct;
+import com.google.datastore.v1.Entity;
+import org.apache.beam.sdk.coders.CoderProvider;
+import org.apache.beam.sdk.coders.CoderProviderRegistrar;
+import org.apache.beam.sdk.coders.CoderProviders;
+import org.apache.beam.sdk.extensions.protobuf.ProtoCoder;
+import org.apache.beam.sdk.values.TypeDescriptor;
+
+import java.util.Arrays;
+import java.util.List;
+
+
+/**
+ * Registers default coders of this project to Beam CoderRegistry.
+ * Loaded by ServiceLoader from META-INF/services.
+ */
+public class CoderRegistrar implements CoderProviderRegistrar {
+
+    @Override
+    public List<CoderProvider> getCoderProviders() {
+        return Arrays.asList(
+                CoderProviders.forCoder(TypeDescriptor.of(Struct.class), StructCoder.of()),
+                CoderProviders.forCoder(TypeDescriptor.of(Mutation.class), MutationCoder.of()),
+                CoderProviders.forCoder(TypeDescriptor.of(Entity.class), ProtoCoder.of(Entity.class)),
+                CoderProviders.forCoder(TypeDescriptor.of(Storage.Stream.class), ProtoCoder.of(Storage.Stream.class)));
+    }
+
+}
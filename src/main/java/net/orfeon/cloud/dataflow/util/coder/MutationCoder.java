@@ -0,0 +1,264 @@
+package net.orfeon.cloud.dataflow.util.coder;
+
+import com.google.cloud.ByteArray;
+import com.google.cloud.Date;
+import com.google.cloud.Timestamp;
+import com.google.cloud.spanner.*;
+import org.apache.beam.sdk.coders.CoderException;
+import org.apache.beam.sdk.coders.CustomCoder;
+import org.apache.beam.sdk.util.VarInt;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+
+/**
+ * Coder for Spanner Mutation. Column values are encoded as a Struct by {@link StructCoder},
+ * and keys of delete mutation are encoded with a type tag per key part.
+ */
+public class MutationCoder extends CustomCoder<Mutation> {
+
+    private static final MutationCoder INSTANCE = new MutationCoder();
+
+    private static final int TAG_NULL = 0;
+    private static final int TAG_BOOL = 1;
+    private static final int TAG_INT64 = 2;
+    private static final int TAG_FLOAT64 = 3;
+    private static final int TAG_STRING = 4;
+    private static final int TAG_BYTES = 5;
+    private static final int TAG_TIMESTAMP = 6;
+    private static final int TAG_DATE = 7;
+
+    private final StructCoder structCoder = StructCoder.of();
+
+    private MutationCoder() {
+    }
+
+    public static MutationCoder of() {
+        return INSTANCE;
+    }
+
+    @Override
+    public void encode(Mutation value, OutputStream outStream) throws IOException {
+        if(value == null) {
+            throw new CoderException("cannot encode a null Mutation");
+        }
+        outStream.write(value.getOperation().ordinal());
+        StructCoder.writeString(value.getTable(), outStream);
+        if(Mutation.Op.DELETE.equals(value.getOperation())) {
+            writeKeySet(value.getKeySet(), outStream);
+            return;
+        }
+        final Struct.Builder builder = Struct.newBuilder();
+        final Iterator<Value> values = value.getValues().iterator();
+        for(final String column : value.getColumns()) {
+            builder.set(column).to(values.next());
+        }
+        this.structCoder.encode(builder.build(), outStream);
+    }
+
+    @Override
+    public Mutation decode(InputStream inStream) throws IOException {
+        final int op = inStream.read();
+        if(op < 0 || op >= Mutation.Op.values().length) {
+            throw new CoderException(String.format("Invalid mutation op %d", op));
+        }
+        final Mutation.Op mutationOp = Mutation.Op.values()[op];
+        final String table = StructCoder.readString(inStream);
+        if(Mutation.Op.DELETE.equals(mutationOp)) {
+            return Mutation.delete(table, readKeySet(inStream));
+        }
+        final Struct struct = this.structCoder.decode(inStream);
+        final Mutation.WriteBuilder builder = createWriteBuilder(mutationOp, table);
+        final List<Type.StructField> fields = struct.getType().getStructFields();
+        for(int i=0; i<fields.size(); i++) {
+            final String name = fields.get(i).getName();
+            final Type type = fields.get(i).getType();
+            final boolean isNull = struct.isNull(i);
+            switch (type.getCode()) {
+                case BOOL:
+                    builder.set(name).to(isNull ? null : struct.getBoolean(i));
+                    break;
+                case INT64:
+                    builder.set(name).to(isNull ? null : struct.getLong(i));
+                    break;
+                case FLOAT64:
+                    builder.set(name).to(isNull ? null : struct.getDouble(i));
+                    break;
+                case STRING:
+                    builder.set(name).to(isNull ? null : struct.getString(i));
+                    break;
+                case BYTES:
+                    builder.set(name).to(isNull ? null : struct.getBytes(i));
+                    break;
+                case TIMESTAMP:
+                    builder.set(name).to(isNull ? null : struct.getTimestamp(i));
+                    break;
+                case DATE:
+                    builder.set(name).to(isNull ? null : struct.getDate(i));
+                    break;
+                case ARRAY:
+                    switch (type.getArrayElementType().getCode()) {
+                        case BOOL:
+                            builder.set(name).toBoolArray(isNull ? null : struct.getBooleanList(i));
+                            break;
+                        case INT64:
+                            builder.set(name).toInt64Array(isNull ? null : struct.getLongList(i));
+                            break;
+                        case FLOAT64:
+                            builder.set(name).toFloat64Array(isNull ? null : struct.getDoubleList(i));
+                            break;
+                        case STRING:
+                            builder.set(name).toStringArray(isNull ? null : struct.getStringList(i));
+                            break;
+                        case BYTES:
+                            builder.set(name).toBytesArray(isNull ? null : struct.getBytesList(i));
+                            break;
+                        case TIMESTAMP:
+                            builder.set(name).toTimestampArray(isNull ? null : struct.getTimestampList(i));
+                            break;
+                        case DATE:
+                            builder.set(name).toDateArray(isNull ? null : struct.getDateList(i));
+                            break;
+                        default:
+                            throw new CoderException(String.format("Not supported mutation column type %s", type));
+                    }
+                    break;
+                default:
+                    throw new CoderException(String.format("Not supported mutation column type %s", type));
+            }
+        }
+        return builder.build();
+    }
+
+    @Override
+    public void verifyDeterministic() {
+    }
+
+    private static Mutation.WriteBuilder createWriteBuilder(final Mutation.Op op, final String table) {
+        switch (op) {
+            case INSERT:
+                return Mutation.newInsertBuilder(table);
+            case UPDATE:
+                return Mutation.newUpdateBuilder(table);
+            case REPLACE:
+                return Mutation.newReplaceBuilder(table);
+            default:
+                return Mutation.newInsertOrUpdateBuilder(table);
+        }
+    }
+
+    private static void writeKeySet(final KeySet keySet, final OutputStream os) throws IOException {
+        os.write(keySet.isAll() ? 1 : 0);
+        final List<Key> keys = new ArrayList<>();
+        keySet.getKeys().forEach(keys::add);
+        VarInt.encode(keys.size(), os);
+        for(final Key key : keys) {
+            writeKey(key, os);
+        }
+        final List<KeyRange> ranges = new ArrayList<>();
+        keySet.getRanges().forEach(ranges::add);
+        VarInt.encode(ranges.size(), os);
+        for(final KeyRange range : ranges) {
+            writeKey(range.getStart(), os);
+            os.write(range.getStartType().ordinal());
+            writeKey(range.getEnd(), os);
+            os.write(range.geEndType().ordinal());
+        }
+    }
+
+    private static KeySet readKeySet(final InputStream is) throws IOException {
+        final KeySet.Builder builder = KeySet.newBuilder();
+        if(is.read() == 1) {
+            builder.setAll();
+        }
+        final int keySize = VarInt.decodeInt(is);
+        for(int i=0; i<keySize; i++) {
+            builder.addKey(readKey(is));
+        }
+        final int rangeSize = VarInt.decodeInt(is);
+        for(int i=0; i<rangeSize; i++) {
+            builder.addRange(KeyRange.newBuilder()
+                    .setStart(readKey(is))
+                    .setStartType(KeyRange.Endpoint.values()[is.read()])
+                    .setEnd(readKey(is))
+                    .setEndType(KeyRange.Endpoint.values()[is.read()])
+                    .build());
+        }
+        return builder.build();
+    }
+
+    private static void writeKey(final Key key, final OutputStream os) throws IOException {
+        VarInt.encode(key.size(), os);
+        for(final Object part : key.getParts()) {
+            if(part == null) {
+                os.write(TAG_NULL);
+            } else if(part instanceof Boolean) {
+                os.write(TAG_BOOL);
+                os.write((Boolean) part ? 1 : 0);
+            } else if(part instanceof Long) {
+                os.write(TAG_INT64);
+                StructCoder.writeLong((Long) part, os);
+            } else if(part instanceof Double) {
+                os.write(TAG_FLOAT64);
+                StructCoder.writeDouble((Double) part, os);
+            } else if(part instanceof String) {
+                os.write(TAG_STRING);
+                StructCoder.writeString((String) part, os);
+            } else if(part instanceof ByteArray) {
+                os.write(TAG_BYTES);
+                StructCoder.writeBytes((ByteArray) part, os);
+            } else if(part instanceof Timestamp) {
+                os.write(TAG_TIMESTAMP);
+                StructCoder.writeTimestamp((Timestamp) part, os);
+            } else if(part instanceof Date) {
+                os.write(TAG_DATE);
+                StructCoder.writeDate((Date) part, os);
+            } else {
+                throw new CoderException(String.format("Not supported key part %s", part.getClass()));
+            }
+        }
+    }
+
+    private static Key readKey(final InputStream is) throws IOException {
+        final int size = VarInt.decodeInt(is);
+        final Key.Builder builder = Key.newBuilder();
+        for(int i=0; i<size; i++) {
+            final int tag = is.read();
+            switch (tag) {
+                case TAG_NULL:
+                    builder.appendObject(null);
+                    break;
+                case TAG_BOOL:
+                    builder.append(StructCoder.readBoolean(is));
+                    break;
+                case TAG_INT64:
+                    builder.append(StructCoder.readLong(is));
+                    break;
+                case TAG_FLOAT64:
+                    builder.append(StructCoder.readDouble(is));
+                    break;
+                case TAG_STRING:
+                    builder.append(StructCoder.readString(is));
+                    break;
+                case TAG_BYTES:
+                    builder.append(StructCoder.readBytes(is));
+                    break;
+                case TAG_TIMESTAMP:
+                    builder.append(StructCoder.readTimestamp(is));
+                    break;
+                case TAG_DATE:
+                    builder.append(StructCoder.readDate(is));
+                    break;
+                default:
+                    throw new CoderException(String.format("Invalid key part tag %d", tag));
+            }
+        }
+        return builder.build();
+    }
+
+}
@@ -0,0 +1,558 @@
+package net.orfeon.cloud.dataflow.util.coder;
+
+import com.google.cloud.ByteArray;
+import com.google.cloud.Date;
+import com.google.cloud.Timestamp;
+import com.google.cloud.spanner.Struct;
+import com.google.cloud.spanner.Type;
+import org.apache.avro.SchemaNormalization;
+import org.apache.beam.sdk.coders.CoderException;
+import org.apache.beam.sdk.coders.CustomCoder;
+import org.apache.beam.sdk.util.VarInt;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+
+/**
+ * Coder for Spanner Struct. Encodes values in compact binary form with a null bitmap,
+ * zigzag varints and length-prefixed strings and bytes. Timestamps keep nanoseconds.
+ *
+ * {@link #of(Type)} is bound to a type given at construction and writes only values.
+ * Use it, or carry the type by a side input with values encoded by the bound coder as {@code StructToAvroTransform} does,
+ * for collections shuffled in volume.
+ * {@link #of()} is for collections whose type is unknown at construction, such as samples and side inputs.
+ * It writes the type header with each element, and caches encoded and decoded headers.
+ *
+ * The encoding is deterministic. Equal structs have the same type, so the same header and field order,
+ * and values are written in canonical form: doubles by {@link Double#doubleToLongBits(double)},
+ * strings in UTF-8, timestamps by seconds and nanos, and dates by year, month and day.
+ */
+public class StructCoder extends CustomCoder<Struct> {
+
+    private static final int MAX_CACHED_TYPES = 1000;
+
+    private final Type type;
+
+    private transient Map<Type, byte[]> headers;
+    private transient Map<ByteBuffer, Type> types;
+    // Last type instance found equal to the bound type. Structs built from one result set share their type instance.
+    private transient Type lastMatched;
+
+    private StructCoder(Type type) {
+        this.type = type;
+    }
+
+    public static StructCoder of() {
+        return new StructCoder(null);
+    }
+
+    public static StructCoder of(Type type) {
+        if(type == null || !Type.Code.STRUCT.equals(type.getCode())) {
+            throw new IllegalArgumentException(String.format("StructCoder requires struct type, but got %s", type));
+        }
+        return new StructCoder(type);
+    }
+
+    /** Returns 64 bits fingerprint of the type, to check a type carried apart from values encoded by bound coder. */
+    public static long getFingerprint(final Type structType) throws IOException {
+        final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        writeType(structType, bos);
+        return SchemaNormalization.fingerprint64(bos.toByteArray());
+    }
+
+    @Override
+    public void encode(Struct value, OutputStream outStream) throws IOException {
+        if(value == null) {
+            throw new CoderException("cannot encode a null Struct");
+        }
+        final Type structType = value.getType();
+        writeTypeHeader(structType, outStream);
+        writeStruct(value, this.type == null ? structType : this.type, outStream);
+    }
+
+    @Override
+    public Struct decode(InputStream inStream) throws IOException {
+        return readStruct(readTypeHeader(inStream), inStream);
+    }
+
+    /** Returns true if structs of the type are encoded by this coder. Unbound coder encodes any type. */
+    public boolean matches(final Type structType) {
+        if(this.type == null || structType == this.type || structType == this.lastMatched) {
+            return true;
+        }
+        if(!this.type.equals(structType)) {
+            return false;
+        }
+        this.lastMatched = structType;
+        return true;
+    }
+
+    // Writes type header, or nothing for the bound type.
+    private void writeTypeHeader(final Type structType, final OutputStream outStream) throws IOException {
+        if(this.type == null) {
+            final byte[] header = getHeader(structType);
+            VarInt.encode(header.length, outStream);
+            outStream.write(header);
+        } else if(!matches(structType)) {
+            throw new CoderException(String.format("Struct type %s does not match coder type %s", structType, this.type));
+        }
+    }
+
+    private Type readTypeHeader(final InputStream inStream) throws IOException {
+        if(this.type != null) {
+            return this.type;
+        }
+        final byte[] header = new byte[VarInt.decodeInt(inStream)];
+        readFully(inStream, header);
+        return getType(header);
+    }
+
+    // Deterministic as documented in class comment, and tested by StructCoderTest.
+    @Override
+    public void verifyDeterministic() {
+    }
+
+    @Override
+    public boolean consistentWithEquals() {
+        return true;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof StructCoder && Objects.equals(this.type, ((StructCoder) other).type);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(StructCoder.class, this.type);
+    }
+
+    private byte[] getHeader(final Type structType) throws IOException {
+        if(this.headers == null) {
+            this.headers = new ConcurrentHashMap<>();
+        }
+        byte[] header = this.headers.get(structType);
+        if(header == null) {
+            final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            writeType(structType, bos);
+            header = bos.toByteArray();
+            if(this.headers.size() >= MAX_CACHED_TYPES) {
+                this.headers.clear();
+            }
+            this.headers.put(structType, header);
+        }
+        return header;
+    }
+
+    private Type getType(final byte[] header) throws IOException {
+        if(this.types == null) {
+            this.types = new ConcurrentHashMap<>();
+        }
+        final ByteBuffer key = ByteBuffer.wrap(header);
+        Type structType = this.types.get(key);
+        if(structType == null) {
+            structType = readType(new ByteArrayInputStream(header));
+            if(this.types.size() >= MAX_CACHED_TYPES) {
+                this.types.clear();
+            }
+            this.types.put(key, structType);
+        }
+        return structType;
+    }
+
+    private static void writeType(final Type type, final OutputStream os) throws IOException {
+        os.write(type.getCode().ordinal());
+        switch (type.getCode()) {
+            case ARRAY:
+                writeType(type.getArrayElementType(), os);
+                return;
+            case STRUCT:
+                VarInt.encode(type.getStructFields().size(), os);
+                for(final Type.StructField field : type.getStructFields()) {
+                    writeString(field.getName(), os);
+                    writeType(field.getType(), os);
+                }
+                return;
+            default:
+        }
+    }
+
+    private static Type readType(final InputStream is) throws IOException {
+        final int code = is.read();
+        if(code < 0 || code >= Type.Code.values().length) {
+            throw new CoderException(String.format("Invalid type code %d", code));
+        }
+        switch (Type.Code.values()[code]) {
+            case BOOL: return Type.bool();
+            case INT64: return Type.int64();
+            case FLOAT64: return Type.float64();
+            case STRING: return Type.string();
+            case BYTES: return Type.bytes();
+            case TIMESTAMP: return Type.timestamp();
+            case DATE: return Type.date();
+            case ARRAY: return Type.array(readType(is));
+            case STRUCT:
+                final int size = VarInt.decodeInt(is);
+                final List<Type.StructField> fields = new ArrayList<>(size);
+                for(int i=0; i<size; i++) {
+                    final String name = readString(is);
+                    fields.add(Type.StructField.of(name, readType(is)));
+                }
+                return Type.struct(fields);
+            default:
+                throw new CoderException(String.format("Invalid type code %d", code));
+        }
+    }
+
+    private static void writeStruct(final Struct struct, final Type structType, final OutputStream os) throws IOException {
+        final List<Type.StructField> fields = structType.getStructFields();
+        final byte[] nulls = new byte[(fields.size() + 7) / 8];
+        for(int i=0; i<fields.size(); i++) {
+            if(struct.isNull(i)) {
+                nulls[i / 8] |= 1 << (i % 8);
+            }
+        }
+        os.write(nulls);
+        for(int i=0; i<fields.size(); i++) {
+            if((nulls[i / 8] & (1 << (i % 8))) != 0) {
+                continue;
+            }
+            final Type fieldType = fields.get(i).getType();
+            switch (fieldType.getCode()) {
+                case BOOL:
+                    os.write(struct.getBoolean(i) ? 1 : 0);
+                    break;
+                case INT64:
+                    writeLong(struct.getLong(i), os);
+                    break;
+                case FLOAT64:
+                    writeDouble(struct.getDouble(i), os);
+                    break;
+                case STRING:
+                    writeString(struct.getString(i), os);
+                    break;
+                case BYTES:
+                    writeBytes(struct.getBytes(i), os);
+                    break;
+                case TIMESTAMP:
+                    writeTimestamp(struct.getTimestamp(i), os);
+                    break;
+                case DATE:
+                    writeDate(struct.getDate(i), os);
+                    break;
+                case STRUCT:
+                    writeStruct(struct.getStruct(i), fieldType, os);
+                    break;
+                case ARRAY:
+                    writeArray(struct, i, fieldType.getArrayElementType(), os);
+                    break;
+                default:
+                    throw new CoderException(String.format("Not supported type %s", fieldType));
+            }
+        }
+    }
+
+    private static Struct readStruct(final Type structType, final InputStream is) throws IOException {
+        final List<Type.StructField> fields = structType.getStructFields();
+        final byte[] nulls = new byte[(fields.size() + 7) / 8];
+        readFully(is, nulls);
+        final Struct.Builder builder = Struct.newBuilder();
+        for(int i=0; i<fields.size(); i++) {
+            final Type.StructField field = fields.get(i);
+            final Type fieldType = field.getType();
+            final boolean isNull = (nulls[i / 8] & (1 << (i % 8))) != 0;
+            switch (fieldType.getCode()) {
+                case BOOL:
+                    builder.set(field.getName()).to(isNull ? null : readBoolean(is));
+                    break;
+                case INT64:
+                    builder.set(field.getName()).to(isNull ? null : readLong(is));
+                    break;
+                case FLOAT64:
+                    builder.set(field.getName()).to(isNull ? null : readDouble(is));
+                    break;
+                case STRING:
+                    builder.set(field.getName()).to(isNull ? null : readString(is));
+                    break;
+                case BYTES:
+                    builder.set(field.getName()).to(isNull ? null : readBytes(is));
+                    break;
+                case TIMESTAMP:
+                    builder.set(field.getName()).to(isNull ? null : readTimestamp(is));
+                    break;
+                case DATE:
+                    builder.set(field.getName()).to(isNull ? null : readDate(is));
+                    break;
+                case STRUCT:
+                    builder.set(field.getName()).to(fieldType, isNull ? null : readStruct(fieldType, is));
+                    break;
+                case ARRAY:
+                    readArray(builder, field.getName(), fieldType.getArrayElementType(), isNull, is);
+                    break;
+                default:
+                    throw new CoderException(String.format("Not supported type %s", fieldType));
+            }
+        }
+        return builder.build();
+    }
+
+    private static void writeArray(final Struct struct, final int index, final Type elementType, final OutputStream os) throws IOException {
+        switch (elementType.getCode()) {
+            case BOOL:
+                writeList(struct.getBooleanList(index), elementType, os);
+                return;
+            case INT64:
+                writeList(struct.getLongList(index), elementType, os);
+                return;
+            case FLOAT64:
+                writeList(struct.getDoubleList(index), elementType, os);
+                return;
+            case STRING:
+                writeList(struct.getStringList(index), elementType, os);
+                return;
+            case BYTES:
+                writeList(struct.getBytesList(index), elementType, os);
+                return;
+            case TIMESTAMP:
+                writeList(struct.getTimestampList(index), elementType, os);
+                return;
+            case DATE:
+                writeList(struct.getDateList(index), elementType, os);
+                return;
+            case STRUCT:
+                writeList(struct.getStructList(index), elementType, os);
+                return;
+            default:
+                throw new CoderException(String.format("Not supported array element type %s", elementType));
+        }
+    }
+
+    private static void writeList(final List<?> values, final Type elementType, final OutputStream os) throws IOException {
+        VarInt.encode(values.size(), os);
+        final byte[] nulls = new byte[(values.size() + 7) / 8];
+        for(int i=0; i<values.size(); i++) {
+            if(values.get(i) == null) {
+                nulls[i / 8] |= 1 << (i % 8);
+            }
+        }
+        os.write(nulls);
+        for(final Object value : values) {
+            if(value == null) {
+                continue;
+            }
+            switch (elementType.getCode()) {
+                case BOOL:
+                    os.write((Boolean) value ? 1 : 0);
+                    break;
+                case INT64:
+                    writeLong((Long) value, os);
+                    break;
+                case FLOAT64:
+                    writeDouble((Double) value, os);
+                    break;
+                case STRING:
+                    writeString((String) value, os);
+                    break;
+                case BYTES:
+                    writeBytes((ByteArray) value, os);
+                    break;
+                case TIMESTAMP:
+                    writeTimestamp((Timestamp) value, os);
+                    break;
+                case DATE:
+                    writeDate((Date) value, os);
+                    break;
+                case STRUCT:
+                    writeStruct((Struct) value, elementType, os);
+                    break;
+                default:
+                    throw new CoderException(String.format("Not supported array element type %s", elementType));
+            }
+        }
+    }
+
+    private static void readArray(final Struct.Builder builder, final String name, final Type elementType,
+                                  final boolean isNull, final InputStream is) throws IOException {
+        final List<Object> values = isNull ? null : readList(elementType, is);
+        switch (elementType.getCode()) {
+            case BOOL:
+                builder.set(name).toBoolArray(cast(values));
+                return;
+            case INT64:
+                builder.set(name).toInt64Array(cast(values));
+                return;
+            case FLOAT64:
+                builder.set(name).toFloat64Array(cast(values));
+                return;
+            case STRING:
+                builder.set(name).toStringArray(cast(values));
+                return;
+            case BYTES:
+                builder.set(name).toBytesArray(cast(values));
+                return;
+            case TIMESTAMP:
+                builder.set(name).toTimestampArray(cast(values));
+                return;
+            case DATE:
+                builder.set(name).toDateArray(cast(values));
+                return;
+            case STRUCT:
+                builder.set(name).toStructArray(elementType, cast(values));
+                return;
+            default:
+                throw new CoderException(String.format("Not supported array element type %s", elementType));
+        }
+    }
+
+    private static List<Object> readList(final Type elementType, final InputStream is) throws IOException {
+        final int size = VarInt.decodeInt(is);
+        final byte[] nulls = new byte[(size + 7) / 8];
+        readFully(is, nulls);
+        final List<Object> values = new ArrayList<>(size);
+        for(int i=0; i<size; i++) {
+            if((nulls[i / 8] & (1 << (i % 8))) != 0) {
+                values.add(null);
+                continue;
+            }
+            switch (elementType.getCode()) {
+                case BOOL:
+                    values.add(readBoolean(is));
+                    break;
+                case INT64:
+                    values.add(readLong(is));
+                    break;
+                case FLOAT64:
+                    values.add(readDouble(is));
+                    break;
+                case STRING:
+                    values.add(readString(is));
+                    break;
+                case BYTES:
+                    values.add(readBytes(is));
+                    break;
+                case TIMESTAMP:
+                    values.add(readTimestamp(is));
+                    break;
+                case DATE:
+                    values.add(readDate(is));
+                    break;
+                case STRUCT:
+                    values.add(readStruct(elementType, is));
+                    break;
+                default:
+                    throw new CoderException(String.format("Not supported array element type %s", elementType));
+            }
+        }
+        return values;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> Iterable<T> cast(final List<Object> values) {
+        return (Iterable<T>) (Iterable<?>) values;
+    }
+
+    static boolean readBoolean(final InputStream is) throws IOException {
+        final int value = is.read();
+        if(value < 0) {
+            throw new EOFException();
+        }
+        return value != 0;
+    }
+
+    static void writeLong(final long value, final OutputStream os) throws IOException {
+        VarInt.encode((value << 1) ^ (value >> 63), os);
+    }
+
+    static long readLong(final InputStream is) throws IOException {
+        final long value = VarInt.decodeLong(is);
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    // NaN is written by canonical bits, so that encoding is deterministic.
+    static void writeDouble(final double value, final OutputStream os) throws IOException {
+        final long bits = Double.doubleToLongBits(value);
+        for(int shift=56; shift>=0; shift-=8) {
+            os.write((int) (bits >>> shift));
+        }
+    }
+
+    static double readDouble(final InputStream is) throws IOException {
+        long bits = 0;
+        for(int i=0; i<8; i++) {
+            final int b = is.read();
+            if(b < 0) {
+                throw new EOFException();
+            }
+            bits = (bits << 8) | b;
+        }
+        return Double.longBitsToDouble(bits);
+    }
+
+    static void writeString(final String value, final OutputStream os) throws IOException {
+        final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        VarInt.encode(bytes.length, os);
+        os.write(bytes);
+    }
+
+    static String readString(final InputStream is) throws IOException {
+        final byte[] bytes = new byte[VarInt.decodeInt(is)];
+        readFully(is, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    static void writeBytes(final ByteArray value, final OutputStream os) throws IOException {
+        VarInt.encode(value.length(), os);
+        os.write(value.toByteArray());
+    }
+
+    static ByteArray readBytes(final InputStream is) throws IOException {
+        final byte[] bytes = new byte[VarInt.decodeInt(is)];
+        readFully(is, bytes);
+        return ByteArray.copyFrom(bytes);
+    }
+
+    static void writeTimestamp(final Timestamp value, final OutputStream os) throws IOException {
+        writeLong(value.getSeconds(), os);
+        VarInt.encode(value.getNanos(), os);
+    }
+
+    static Timestamp readTimestamp(final InputStream is) throws IOException {
+        final long seconds = readLong(is);
+        return Timestamp.ofTimeSecondsAndNanos(seconds, VarInt.decodeInt(is));
+    }
+
+    static void writeDate(final Date value, final OutputStream os) throws IOException {
+        VarInt.encode(value.getYear(), os);
+        os.write(value.getMonth());
+        os.write(value.getDayOfMonth());
+    }
+
+    static Date readDate(final InputStream is) throws IOException {
+        final int year = VarInt.decodeInt(is);
+        final int month = is.read();
+        final int day = is.read();
+        if(day < 0) {
+            throw new EOFException();
+        }
+        return Date.fromYearMonthDay(year, month, day);
+    }
+
+    static void readFully(final InputStream is, final byte[] bytes) throws IOException {
+        int offset = 0;
+        while(offset < bytes.length) {
+            final int read = is.read(bytes, offset, bytes.length - offset);
+            if(read < 0) {
+                throw new EOFException();
+            }
+            offset += read;
+        }
+    }
+
+}
@@ -0,0 +1,96 @@
+package net.orfeon.cloud.dataflow.util.converter;
+
+import com.google.cloud.bigquery.Field;
+import com.google.cloud.bigquery.FieldList;
+import com.google.cloud.bigquery.FieldValue;
+import com.google.cloud.bigquery.FieldValueList;
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericRecord;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.ByteBuffer;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.stream.Collectors;
+
+
+public class FieldValueListToRecordConverter {
+
+    // Same as scale of NUMERIC avro logical type in AvroSchemaUtil.
+    private static final int NUMERIC_SCALE = 9;
+
+    private FieldValueListToRecordConverter() {
+
+    }
+
+    // Values are set in same representation as avro rows from BigQuery Storage API,
+    // so records can be passed to same parseFn as BigQueryDirectIO stream read.
+    public static GenericRecord convert(final Schema schema, final FieldList fields, final FieldValueList values) {
+        final GenericData.Record record = new GenericData.Record(schema);
+        for(int i=0; i<fields.size(); i++) {
+            final Schema fieldSchema = unnestUnion(schema.getFields().get(i).schema());
+            record.put(i, convertValue(fieldSchema, fields.get(i), values.get(i)));
+        }
+        return record;
+    }
+
+    private static Object convertValue(final Schema schema, final Field field, final FieldValue value) {
+        if(value == null || value.isNull()) {
+            return null;
+        }
+        if(Field.Mode.REPEATED.equals(field.getMode())) {
+            final Schema elementSchema = unnestUnion(schema.getElementType());
+            return value.getRepeatedValue().stream()
+                    .map(v -> convertSingleValue(elementSchema, field, v))
+                    .collect(Collectors.toList());
+        }
+        return convertSingleValue(schema, field, value);
+    }
+
+    private static Object convertSingleValue(final Schema schema, final Field field, final FieldValue value) {
+        if(value.isNull()) {
+            return null;
+        }
+        switch (field.getType().getStandardType()) {
+            case STRING:
+            case DATETIME:
+            case GEOGRAPHY:
+                return value.getStringValue();
+            case BYTES:
+                return ByteBuffer.wrap(value.getBytesValue());
+            case INT64:
+                return value.getLongValue();
+            case FLOAT64:
+                return value.getDoubleValue();
+            case BOOL:
+                return value.getBooleanValue();
+            case DATE:
+                return (int)LocalDate.parse(value.getStringValue()).toEpochDay();
+            case TIME:
+                return LocalTime.parse(value.getStringValue()).toNanoOfDay() / 1000;
+            case TIMESTAMP:
+                return value.getTimestampValue();
+            case NUMERIC:
+                final BigDecimal decimal = value.getNumericValue().setScale(NUMERIC_SCALE, RoundingMode.HALF_UP);
+                return ByteBuffer.wrap(decimal.unscaledValue().toByteArray());
+            case STRUCT:
+                return convert(schema, field.getSubFields(), value.getRecordValue());
+            default:
+                throw new IllegalArgumentException(String.format("Field: %s, type: %s is not supported!",
+                        field.getName(), field.getType().getStandardType()));
+        }
+    }
+
+    private static Schema unnestUnion(final Schema schema) {
+        if(Schema.Type.UNION.equals(schema.getType())) {
+            return schema.getTypes().stream()
+                    .filter(s -> !Schema.Type.NULL.equals(s.getType()))
+                    .findAny()
+                    .orElseThrow(() -> new IllegalArgumentException("UNION does not have another schema."));
+        }
+        return schema;
+    }
+
+}
@@ -1,19 +1,21 @@
 package net.orfeon.cloud.dataflow.util.converter;
 
+import com.google.api.services.bigquery.model.TableSchema;
 import com.google.datastore.v1.*;
 import com.google.protobuf.ByteString;
 import com.google.protobuf.NullValue;
 import com.google.protobuf.util.Timestamps;
 import net.orfeon.cloud.dataflow.util.AvroSchemaUtil;
+import org.apache.avro.LogicalType;
 import org.apache.avro.LogicalTypes;
 import org.apache.avro.Schema;
 import org.apache.avro.generic.GenericData;
 import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.util.Utf8;
 import org.apache.beam.sdk.io.gcp.bigquery.SchemaAndRecord;
 import org.apache.beam.sdk.options.ValueProvider;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 
+import java.io.Serializable;
 import java.math.BigDecimal;
 import java.math.BigInteger;
 import java.nio.ByteBuffer;
@@ -21,183 +23,329 @@ import java.time.LocalDate;
 import java.time.LocalTime;
 import java.time.format.DateTimeFormatter;
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.concurrent.ConcurrentHashMap;
 
-public class RecordToEntityConverter {
+
+/**
+ * Converts avro records to Datastore entities. Kind, key field and index exclusion are read from ValueProviders
+ * on first conversion, and conversion is compiled once per avro schema.
+ * Create an instance per pipeline and pass its method as parse function. An instance may be shared by concurrent readers,
+ * so compiled plans are immutable and cached in a concurrent map.
+ */
+public class RecordToEntityConverter implements Serializable {
 
     private static final int MAX_STRING_SIZE_BYTES = 1500;
-    private static String kind = null;
-    private static String keyField = null;
-    private static Set<String> excludeFromIndexFields = null;
+    private static final int MAX_CACHED_PLANS = 1000;
+
+    private static final Value NULL_VALUE = Value.newBuilder().setNullValue(NullValue.NULL_VALUE).build();
+    private static final Value NULL_VALUE_EXCLUDED = NULL_VALUE.toBuilder().setExcludeFromIndexes(true).build();
+
+    private final ValueProvider<String> kind;
+    private final ValueProvider<String> keyField;
+    private final ValueProvider<String> excludeFromIndexFields;
+
+    private transient volatile Map<Schema, EntityPlan> plans;
+    private transient volatile EntityPlan lastPlan;
+    private transient volatile ConvertedSchema lastSchema;
 
-    private static final Logger LOG = LoggerFactory.getLogger(RecordToEntityConverter.class);
+    public RecordToEntityConverter(ValueProvider<String> kind, ValueProvider<String> keyField, ValueProvider<String> excludeFromIndexFields) {
+        this.kind = kind;
+        this.keyField = keyField;
+        this.excludeFromIndexFields = excludeFromIndexFields;
+    }
 
-    public static Entity convert(final SchemaAndRecord record,
-                                 final ValueProvider<String> kindVP,
-                                 final ValueProvider<String> keyFieldVP,
-                                 final ValueProvider<String> excludeFromIndexFieldsVP) {
+    public Entity convert(final SchemaAndRecord record) {
         if(record.getTableSchema() == null) {
-            return convert(record.getRecord().getSchema(), record.getRecord(), kindVP, keyFieldVP, excludeFromIndexFieldsVP);
-        } else {
-            final Schema schema = AvroSchemaUtil.convertSchema(record.getTableSchema());
-            return convert(schema, record.getRecord(), kindVP, keyFieldVP, excludeFromIndexFieldsVP);
+            return convert(record.getRecord().getSchema(), record.getRecord());
+        }
+        // Records read from one BigQuery stream share a TableSchema instance.
+        ConvertedSchema converted = this.lastSchema;
+        if(converted == null || converted.tableSchema != record.getTableSchema()) {
+            converted = new ConvertedSchema(record.getTableSchema(), AvroSchemaUtil.convertSchema(record.getTableSchema()));
+            this.lastSchema = converted;
         }
+        return convert(converted.schema, record.getRecord());
+    }
+
+    public Entity convert(final GenericRecord record) {
+        return convert(record.getSchema(), record);
     }
 
-    public static Entity convert(final GenericRecord record,
-                                 final ValueProvider<String> kindVP,
-                                 final ValueProvider<String> keyFieldVP,
-                                 final ValueProvider<String> excludeFromIndexFieldsVP) {
-        return convert(record.getSchema(), record, kindVP, keyFieldVP, excludeFromIndexFieldsVP);
+    public Entity convert(final Schema schema, final GenericRecord record) {
+        return getPlan(schema, record.getSchema()).convert(record);
     }
 
-    public static Entity convert(final Schema schema,
-                                 final GenericRecord record,
-                                 final ValueProvider<String> kindVP,
-                                 final ValueProvider<String> keyFieldVP,
-                                 final ValueProvider<String> excludeFromIndexFieldsVP) {
-        if(kind == null) {
-            kind = kindVP.get();
+    private EntityPlan getPlan(final Schema schema, final Schema recordSchema) {
+        final EntityPlan last = this.lastPlan;
+        if(last != null && last.schema == schema && last.recordSchema == recordSchema) {
+            return last;
         }
-        if(keyField == null) {
-            keyField = keyFieldVP.get();
+        Map<Schema, EntityPlan> plans = this.plans;
+        if(plans == null) {
+            synchronized (this) {
+                if(this.plans == null) {
+                    this.plans = new ConcurrentHashMap<>();
+                }
+                plans = this.plans;
+            }
         }
-        if(excludeFromIndexFields == null) {
-            if(excludeFromIndexFieldsVP.get() == null) {
-                excludeFromIndexFields = new HashSet<>();
-            } else {
-                excludeFromIndexFields = Arrays
-                        .stream(excludeFromIndexFieldsVP.get().split(","))
-                        .collect(Collectors.toSet());
+        EntityPlan plan = plans.get(schema);
+        if(plan == null || !plan.recordSchema.equals(recordSchema)) {
+            final String excludes = this.excludeFromIndexFields.get();
+            plan = compile(schema, recordSchema, this.kind.get(), this.keyField.get(),
+                    excludes == null ? Collections.emptySet() : new HashSet<>(Arrays.asList(excludes.split(","))));
+            if(plans.size() >= MAX_CACHED_PLANS) {
+                plans.clear();
             }
+            plans.put(schema, plan);
         }
-        return convert(schema, record, kind, keyField, excludeFromIndexFields);
+        this.lastPlan = plan;
+        return plan;
     }
 
-    private static Entity convert(final Schema schema, final GenericRecord record,
-                                  final String kind,
-                                  final String keyField,
-                                  final Set<String> excludeFromIndexFields) {
-        Object keyValue = null;
-        Schema.Type keyType = null;
-        final Entity.Builder builder = Entity.newBuilder();
-        for(final Schema.Field field : schema.getFields()) {
-            final Object value = record.get(field.name());
-            final Value.Builder valueBuilder = convertEntityValue(field.schema(), value);
-            if(getType(field.schema()).equals(Schema.Type.ARRAY)) {
-                builder.putProperties(field.name(), valueBuilder.build());
-            } else if(excludeFromIndexFields.contains(field.name()) ||
-                    (field.schema().getType().equals(Schema.Type.STRING) &&
-                            value != null && value.toString().getBytes().length > MAX_STRING_SIZE_BYTES)) {
-                builder.putProperties(field.name(), valueBuilder.setExcludeFromIndexes(true).build());
-            } else {
-                builder.putProperties(field.name(), valueBuilder.build());
-            }
+    /**
+     * Compiles conversion of records with the schema. Values are read by field position of the record schema,
+     * and fields missing in the record schema are null.
+     */
+    public static EntityPlan compile(final Schema schema, final Schema recordSchema,
+                                     final String kind, final String keyField, final Set<String> excludeFromIndexFields) {
+        final List<Schema.Field> fields = schema.getFields();
+        final String[] names = new String[fields.size()];
+        final int[] positions = new int[fields.size()];
+        final ValueConverter[] converters = new ValueConverter[fields.size()];
+        final boolean[] excludes = new boolean[fields.size()];
+        final boolean[] checkLengths = new boolean[fields.size()];
+        int keyIndex = -1;
+        for(int i=0; i<fields.size(); i++) {
+            final Schema.Field field = fields.get(i);
+            final Schema.Field recordField = recordSchema.getField(field.name());
+            final Schema.Type type = unnestUnion(field.schema()).getType();
+            names[i] = field.name();
+            positions[i] = recordField == null ? -1 : recordField.pos();
+            converters[i] = compileValue(field.schema());
+            // Array value itself can not be excluded from indexes.
+            excludes[i] = !Schema.Type.ARRAY.equals(type) && excludeFromIndexFields.contains(field.name());
+            checkLengths[i] = !excludes[i] && Schema.Type.STRING.equals(type);
             if(field.name().equals(keyField)) {
-                keyType = getType(field.schema());
-                keyValue = value;
+                keyIndex = i;
             }
         }
-
-        if(keyType == null || keyValue == null) {
+        if(keyIndex < 0) {
             throw new IllegalArgumentException("keyType and keyValue must not be null !");
         }
+        final Schema.Type keyType = unnestUnion(fields.get(keyIndex).schema()).getType();
+        switch (keyType) {
+            case ENUM:
+            case STRING:
+            case BYTES:
+            case INT:
+            case LONG:
+                break;
+            default:
+                throw new IllegalArgumentException(String.format("Key field must be STRING or INTEGER or LONG! but %s", keyType.getName()));
+        }
+        return new EntityPlan(schema, recordSchema, kind, names, positions, converters, excludes, checkLengths, keyIndex, keyType);
+    }
+
+    public static class EntityPlan {
+
+        private final Schema schema;
+        private final Schema recordSchema;
+        private final String kind;
+        private final String[] names;
+        private final int[] positions;
+        private final ValueConverter[] converters;
+        private final boolean[] excludes;
+        private final boolean[] checkLengths;
+        private final int keyIndex;
+        private final Schema.Type keyType;
+
+        EntityPlan(Schema schema, Schema recordSchema, String kind, String[] names, int[] positions, ValueConverter[] converters,
+                   boolean[] excludes, boolean[] checkLengths, int keyIndex, Schema.Type keyType) {
+            this.schema = schema;
+            this.recordSchema = recordSchema;
+            this.kind = kind;
+            this.names = names;
+            this.positions = positions;
+            this.converters = converters;
+            this.excludes = excludes;
+            this.checkLengths = checkLengths;
+            this.keyIndex = keyIndex;
+            this.keyType = keyType;
+        }
+
+        public Entity convert(final GenericRecord record) {
+            final Entity.Builder builder = Entity.newBuilder();
+            for(int i=0; i<this.names.length; i++) {
+                final Object value = this.positions[i] < 0 ? null : record.get(this.positions[i]);
+                if(value == null) {
+                    builder.putProperties(this.names[i], this.excludes[i] ? NULL_VALUE_EXCLUDED : NULL_VALUE);
+                    continue;
+                }
+                final Value.Builder valueBuilder = Value.newBuilder();
+                this.converters[i].convert(valueBuilder, value);
+                if(this.excludes[i] || (this.checkLengths[i] && exceedsUtf8Length(value, MAX_STRING_SIZE_BYTES))) {
+                    valueBuilder.setExcludeFromIndexes(true);
+                }
+                builder.putProperties(this.names[i], valueBuilder.build());
+            }
+            final Object keyValue = this.positions[this.keyIndex] < 0 ? null : record.get(this.positions[this.keyIndex]);
+            if(keyValue == null) {
+                throw new IllegalArgumentException("keyType and keyValue must not be null !");
+            }
+            return builder.setKey(Key.newBuilder().addPath(buildPathElement(this.keyType, keyValue, this.kind))).build();
+        }
 
-        return builder.setKey(Key.newBuilder().addPath(buildPathElement(keyType, keyValue, kind))).build();
     }
 
-    private static Value.Builder convertEntityValue(final Schema schema, final Object value) {
-        if(value == null) {
-            return Value.newBuilder().setNullValue(NullValue.NULL_VALUE);
+    private static class ConvertedSchema {
+
+        private final TableSchema tableSchema;
+        private final Schema schema;
+
+        ConvertedSchema(TableSchema tableSchema, Schema schema) {
+            this.tableSchema = tableSchema;
+            this.schema = schema;
         }
-        Value.Builder builder = Value.newBuilder();
+
+    }
+
+    // Sets non null value to the builder.
+    private interface ValueConverter {
+        void convert(Value.Builder builder, Object value);
+    }
+
+    private static ValueConverter compileValue(final Schema schema) {
+        final LogicalType logicalType = schema.getLogicalType();
         switch (schema.getType()) {
             case ENUM:
             case STRING:
-                return builder.setStringValue(value.toString());
+                return (b, v) -> b.setStringValue(v.toString());
             case FIXED:
             case BYTES:
                 if(AvroSchemaUtil.isLogicalTypeDecimal(schema)) {
-                    final LogicalTypes.Decimal decimal = AvroSchemaUtil.getLogicalTypeDecimal(schema);
-                    final byte[] bytes;
+                    final int scale = AvroSchemaUtil.getLogicalTypeDecimal(schema).getScale();
                     if(Schema.Type.FIXED.equals(schema.getType())) {
-                        bytes = ((GenericData.Fixed)value).bytes();
-                    } else {
-                        bytes = ((ByteBuffer)value).array();
+                        return (b, v) -> b.setStringValue(convertNumericBytesToString(((GenericData.Fixed) v).bytes(), scale));
                     }
-                    final String decimalValue = convertNumericBytesToString(bytes, decimal.getScale());
-                    return builder.setStringValue(decimalValue);
+                    return (b, v) -> b.setStringValue(convertNumericBytesToString(((ByteBuffer) v).array(), scale));
                 }
                 if(Schema.Type.FIXED.equals(schema.getType())) {
-                    return builder.setBlobValue(ByteString.copyFrom(((GenericData.Fixed)value).bytes()));
-                } else {
-                    return builder.setBlobValue(ByteString.copyFrom((ByteBuffer)value));
+                    return (b, v) -> b.setBlobValue(ByteString.copyFrom(((GenericData.Fixed) v).bytes()));
                 }
+                return (b, v) -> b.setBlobValue(ByteString.copyFrom(((ByteBuffer) v).duplicate()));
             case INT:
-                final Long intValue = new Long((Integer)value);
-                if(LogicalTypes.date().equals(schema.getLogicalType())) {
-                    final LocalDate localDate = LocalDate.ofEpochDay(intValue);
-                    return builder.setStringValue(localDate.format(DateTimeFormatter.ISO_LOCAL_DATE));
-                } else if(LogicalTypes.timeMillis().equals(schema.getLogicalType())) {
-                    final LocalTime localTime = LocalTime.ofNanoOfDay(intValue * 1000 * 1000);
-                    return builder.setStringValue(localTime.format(DateTimeFormatter.ISO_LOCAL_TIME));
+                if(LogicalTypes.date().equals(logicalType)) {
+                    return (b, v) -> b.setStringValue(LocalDate.ofEpochDay((Integer) v).format(DateTimeFormatter.ISO_LOCAL_DATE));
+                } else if(LogicalTypes.timeMillis().equals(logicalType)) {
+                    return (b, v) -> b.setStringValue(LocalTime.ofNanoOfDay((Integer) v * 1000L * 1000).format(DateTimeFormatter.ISO_LOCAL_TIME));
                 }
-                return builder.setIntegerValue(intValue);
+                return (b, v) -> b.setIntegerValue((Integer) v);
             case LONG:
-                final Long longValue = (Long)value;
-                if(LogicalTypes.timestampMillis().equals(schema.getLogicalType())) {
-                    return builder.setTimestampValue(Timestamps.fromMicros(longValue * 1000));
-                } else if(LogicalTypes.timestampMicros().equals(schema.getLogicalType())) {
-                    return builder.setTimestampValue(Timestamps.fromMicros(longValue));
-                } else if(LogicalTypes.timeMicros().equals(schema.getLogicalType())) {
-                    final LocalTime localTime = LocalTime.ofNanoOfDay(longValue * 1000);
-                    return builder.setStringValue(localTime.format(DateTimeFormatter.ISO_LOCAL_TIME));
+                if(LogicalTypes.timestampMillis().equals(logicalType)) {
+                    return (b, v) -> b.setTimestampValue(Timestamps.fromMicros((Long) v * 1000));
+                } else if(LogicalTypes.timestampMicros().equals(logicalType)) {
+                    return (b, v) -> b.setTimestampValue(Timestamps.fromMicros((Long) v));
+                } else if(LogicalTypes.timeMicros().equals(logicalType)) {
+                    return (b, v) -> b.setStringValue(LocalTime.ofNanoOfDay((Long) v * 1000).format(DateTimeFormatter.ISO_LOCAL_TIME));
                 }
-                return builder.setIntegerValue(longValue);
+                return (b, v) -> b.setIntegerValue((Long) v);
             case FLOAT:
-                return builder.setDoubleValue((Float)value);
+                return (b, v) -> b.setDoubleValue((Float) v);
             case DOUBLE:
-                return builder.setDoubleValue((Double)value);
+                return (b, v) -> b.setDoubleValue((Double) v);
             case BOOLEAN:
-                return builder.setBooleanValue((Boolean)value);
-            case RECORD:
-                Entity.Builder entityBuilder = Entity.newBuilder();
-                final GenericRecord record = (GenericRecord)value;
-                for(Schema.Field f : schema.getFields()) {
-                    entityBuilder = entityBuilder.putProperties(f.name(), convertEntityValue(f.schema(), record.get(f.name())).build());
+                return (b, v) -> b.setBooleanValue((Boolean) v);
+            case RECORD: {
+                final List<Schema.Field> fields = schema.getFields();
+                final String[] names = new String[fields.size()];
+                final ValueConverter[] converters = new ValueConverter[fields.size()];
+                for(int i=0; i<fields.size(); i++) {
+                    names[i] = fields.get(i).name();
+                    converters[i] = compileValue(fields.get(i).schema());
                 }
-                return builder.setEntityValue(entityBuilder.build());
-            case ARRAY:
-                final List<Value> arrayValues = ((List<Object>)value).stream()
-                        .map(v -> convertEntityValue(schema.getElementType(), v).build())
-                        .collect(Collectors.toList());
-                final ArrayValue arrayValue = ArrayValue.newBuilder().addAllValues(arrayValues).build();
-                return builder.setArrayValue(arrayValue);
+                return (b, v) -> {
+                    final GenericRecord record = (GenericRecord) v;
+                    final Entity.Builder entityBuilder = Entity.newBuilder();
+                    for(int i=0; i<names.length; i++) {
+                        entityBuilder.putProperties(names[i], toValue(converters[i], record.get(names[i])));
+                    }
+                    b.setEntityValue(entityBuilder);
+                };
+            }
+            case ARRAY: {
+                final ValueConverter elementConverter = compileValue(schema.getElementType());
+                return (b, v) -> {
+                    final ArrayValue.Builder arrayBuilder = ArrayValue.newBuilder();
+                    for(final Object element : (List<?>) v) {
+                        arrayBuilder.addValues(toValue(elementConverter, element));
+                    }
+                    b.setArrayValue(arrayBuilder);
+                };
+            }
             case UNION:
-                final Schema childSchema = schema.getTypes().stream()
-                        .filter(s -> !s.getType().equals(Schema.Type.NULL))
-                        .findAny()
-                        .orElseThrow(() -> new IllegalArgumentException("UNION does not have another schema."));
-                return convertEntityValue(childSchema, value);
-            case MAP:
-                final Map<Object, Object> map = (Map)value;
-                final List<Value> mapValues = map.entrySet().stream()
-                        .map(entry ->
-                                Value.newBuilder().setEntityValue(
-                                        Entity.newBuilder()
-                                                .putProperties("key", Value.newBuilder().setStringValue(entry.getKey().toString()).build())
-                                                .putProperties("value", convertEntityValue(schema.getValueType(), entry.getValue()).build())
-                                                .build()
-                                ).build())
-                        .collect(Collectors.toList());
-                final ArrayValue mapEntityValues = ArrayValue.newBuilder().addAllValues(mapValues).build();
-                return builder.setArrayValue(mapEntityValues);
+                return compileValue(unnestUnion(schema));
+            case MAP: {
+                final ValueConverter valueConverter = compileValue(schema.getValueType());
+                return (b, v) -> {
+                    final ArrayValue.Builder arrayBuilder = ArrayValue.newBuilder();
+                    for(final Map.Entry<?, ?> entry : ((Map<?, ?>) v).entrySet()) {
+                        arrayBuilder.addValues(Value.newBuilder().setEntityValue(Entity.newBuilder()
+                                .putProperties("key", Value.newBuilder().setStringValue(entry.getKey().toString()).build())
+                                .putProperties("value", toValue(valueConverter, entry.getValue()))));
+                    }
+                    b.setArrayValue(arrayBuilder);
+                };
+            }
             case NULL:
             default:
-                return builder.setNullValue(NullValue.NULL_VALUE);
+                return (b, v) -> b.setNullValue(NullValue.NULL_VALUE);
         }
     }
 
+    private static Value toValue(final ValueConverter converter, final Object value) {
+        if(value == null) {
+            return NULL_VALUE;
+        }
+        final Value.Builder builder = Value.newBuilder();
+        converter.convert(builder, value);
+        return builder.build();
+    }
+
+    // Counts UTF-8 bytes same as String.getBytes without encoding the string.
+    static boolean exceedsUtf8Length(final Object value, final int maxBytes) {
+        if(value instanceof Utf8) {
+            return ((Utf8) value).getByteLength() > maxBytes;
+        }
+        final CharSequence chars = (CharSequence) value;
+        final int length = chars.length();
+        if(length > maxBytes) {
+            return true;
+        } else if(length * 3 <= maxBytes) {
+            return false;
+        }
+        int bytes = 0;
+        for(int i=0; i<length; i++) {
+            final char c = chars.charAt(i);
+            if(c < 0x80) {
+                bytes += 1;
+            } else if(c < 0x800) {
+                bytes += 2;
+            } else if(Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(chars.charAt(i + 1))) {
+                bytes += 4;
+                i++;
+            } else if(Character.isSurrogate(c)) {
+                bytes += 1;
+            } else {
+                bytes += 3;
+            }
+            if(bytes > maxBytes) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     private static Key.PathElement buildPathElement(final Schema.Type keyType, final Object keyValue, final String kind) {
         final Key.PathElement.Builder pathBuilder = Key.PathElement.newBuilder().setKind(kind);
         switch (keyType) {
@@ -205,7 +353,7 @@ public class RecordToEntityConverter {
             case STRING:
                 return pathBuilder.setName(keyValue.toString()).build();
             case BYTES:
-                return pathBuilder.setNameBytes(ByteString.copyFrom((ByteBuffer)keyValue)).build();
+                return pathBuilder.setNameBytes(ByteString.copyFrom(((ByteBuffer)keyValue).duplicate())).build();
             case INT:
                 return pathBuilder.setId((Integer)keyValue).build();
             case LONG:
@@ -216,17 +364,14 @@ public class RecordToEntityConverter {
         }
     }
 
-    private static Schema.Type getType(final Schema schema) {
-        switch (schema.getType()) {
-            case UNION:
-                Schema childSchema = schema.getTypes().stream()
-                        .filter(s -> !s.getType().equals(Schema.Type.NULL))
-                        .findAny()
-                        .orElseThrow(() -> new IllegalArgumentException("UNION does not have another schema."));
-                return getType(childSchema);
-            default:
-                return schema.getType();
+    private static Schema unnestUnion(final Schema schema) {
+        if(!Schema.Type.UNION.equals(schema.getType())) {
+            return schema;
         }
+        return schema.getTypes().stream()
+                .filter(s -> !s.getType().equals(Schema.Type.NULL))
+                .findAny()
+                .orElseThrow(() -> new IllegalArgumentException("UNION does not have another schema."));
     }
 
     private static String convertNumericBytesToString(byte[] bytes, int scale) {
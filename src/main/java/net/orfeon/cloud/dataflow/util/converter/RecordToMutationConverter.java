@@ -0,0 +1,100 @@
+package net.orfeon.cloud.dataflow.util.converter;
+
+import com.google.cloud.spanner.Mutation;
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericRecord;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+
+public class RecordToMutationConverter {
+
+    private RecordToMutationConverter() {
+
+    }
+
+    /**
+     * Compiles conversion of records with the schema into mutations.
+     * Columns maps avro field names to spanner column names in write order, and all fields are written by their own names if null.
+     */
+    public static RecordPlan compile(final Schema schema, final Map<String, String> columns) {
+        final List<String> names = new ArrayList<>();
+        final List<Integer> positions = new ArrayList<>();
+        final List<RecordToStructConverter.ValuePlan> values = new ArrayList<>();
+        if(columns == null) {
+            for(final Schema.Field field : schema.getFields()) {
+                addField(field, field.name(), names, positions, values);
+            }
+        } else {
+            for(final Map.Entry<String, String> column : columns.entrySet()) {
+                final Schema.Field field = schema.getField(column.getKey());
+                if(field == null) {
+                    throw new IllegalArgumentException(String.format("Field %s is not found in avro schema %s", column.getKey(), schema.getName()));
+                }
+                addField(field, column.getValue(), names, positions, values);
+            }
+        }
+        return new RecordPlan(
+                names.toArray(new String[0]),
+                positions.stream().mapToInt(Integer::intValue).toArray(),
+                values.toArray(new RecordToStructConverter.ValuePlan[0]));
+    }
+
+    private static void addField(final Schema.Field field, final String column,
+                                 final List<String> names, final List<Integer> positions, final List<RecordToStructConverter.ValuePlan> values) {
+        final RecordToStructConverter.ValuePlan plan = RecordToStructConverter.compileValue(field.schema(), field.schema());
+        // NOT SUPPOERTED TO STORE STRUCT AS FIELD! (https://cloud.google.com/spanner/docs/data-types)
+        if(RecordToStructConverter.Kind.SKIP.equals(plan.kind) || RecordToStructConverter.Kind.RECORD.equals(plan.kind)) {
+            return;
+        }
+        names.add(column);
+        positions.add(field.pos());
+        values.add(plan);
+    }
+
+    public static class RecordPlan {
+
+        private final String[] columns;
+        private final int[] positions;
+        private final RecordToStructConverter.ValuePlan[] values;
+
+        RecordPlan(String[] columns, int[] positions, RecordToStructConverter.ValuePlan[] values) {
+            this.columns = columns;
+            this.positions = positions;
+            this.values = values;
+        }
+
+        public Mutation convert(final GenericRecord record, final String table, final Mutation.Op mutationOp) {
+            final Mutation.WriteBuilder builder = createMutationWriteBuilder(table, mutationOp);
+            for(int i=0; i<this.columns.length; i++) {
+                final Object value = record.get(this.positions[i]);
+                if(RecordToStructConverter.isUnset(this.values[i], value)) {
+                    continue;
+                }
+                RecordToStructConverter.setValue(builder.set(this.columns[i]), this.values[i], value);
+            }
+            return builder.build();
+        }
+
+    }
+
+    private static Mutation.WriteBuilder createMutationWriteBuilder(final String table, final Mutation.Op mutationOp) {
+        switch(mutationOp) {
+            case INSERT:
+                return Mutation.newInsertBuilder(table);
+            case UPDATE:
+                return Mutation.newUpdateBuilder(table);
+            case INSERT_OR_UPDATE:
+                return Mutation.newInsertOrUpdateBuilder(table);
+            case REPLACE:
+                return Mutation.newReplaceBuilder(table);
+            case DELETE:
+                throw new IllegalArgumentException("MutationOP(for insert) must not be DELETE!");
+            default:
+                return Mutation.newInsertOrUpdateBuilder(table);
+        }
+    }
+
+}
@@ -1,10 +1,13 @@
 package net.orfeon.cloud.dataflow.util.converter;
 
+import com.google.api.services.bigquery.model.TableSchema;
 import com.google.cloud.ByteArray;
 import com.google.cloud.Date;
 import com.google.cloud.Timestamp;
 import com.google.cloud.spanner.Struct;
+import com.google.cloud.spanner.ValueBinder;
 import net.orfeon.cloud.dataflow.util.AvroSchemaUtil;
+import org.apache.avro.LogicalType;
 import org.apache.avro.LogicalTypes;
 import org.apache.avro.Schema;
 import org.apache.avro.generic.GenericData;
@@ -16,12 +19,20 @@ import java.nio.ByteBuffer;
 import java.time.LocalDate;
 import java.time.LocalTime;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.stream.Collectors;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 
 public class RecordToStructConverter {
 
+    private static final int MAX_CACHED_PLANS = 1000;
+
+    private static final Map<Schema, Map<Schema, RecordPlan>> PLANS = new ConcurrentHashMap<>();
+
+    // Records read from one BigQuery stream share a TableSchema instance, so the last conversion is reused by reference.
+    private static volatile ConvertedSchema lastTableSchema;
 
     private RecordToStructConverter() {
 
@@ -32,183 +43,363 @@ public class RecordToStructConverter {
     }
 
     public static Struct convert(final Schema schema, final GenericRecord record) {
-        Struct.Builder builder = Struct.newBuilder();
-        for(final Schema.Field field : schema.getFields()) {
-            builder = setFieldValue(builder, field.name(), field.schema(), record);
-        }
-        return builder.build();
+        return getPlan(schema, record.getSchema()).convert(record);
     }
 
     public static Struct convert(final SchemaAndRecord schemaAndRecord) {
         if(schemaAndRecord.getTableSchema() == null) {
             return convert(schemaAndRecord.getRecord().getSchema(), schemaAndRecord.getRecord());
         }
-        final Schema schema = AvroSchemaUtil.convertSchema(schemaAndRecord.getTableSchema());
-        return convert(schema, schemaAndRecord.getRecord());
+        return convert(convertTableSchema(schemaAndRecord.getTableSchema()), schemaAndRecord.getRecord());
     }
 
-    private static Struct.Builder setFieldValue(final Struct.Builder builder, final String fieldName, final Schema schema, final GenericRecord record) {
-        final Object value = record.get(fieldName);
-        final boolean isNullField = value == null;
-        switch (schema.getType()) {
+    static RecordPlan getPlan(final Schema schema, final Schema recordSchema) {
+        final Map<Schema, RecordPlan> plans = PLANS.computeIfAbsent(schema, s -> new ConcurrentHashMap<>());
+        RecordPlan plan = plans.get(recordSchema);
+        if(plan == null) {
+            plan = compile(schema, recordSchema);
+            if(plans.size() >= MAX_CACHED_PLANS) {
+                plans.clear();
+            }
+            plans.put(recordSchema, plan);
+        }
+        return plan;
+    }
+
+    // Resolves record position, union branch, logical type and decimal scale of each avro field once per schema.
+    static RecordPlan compile(final Schema schema, final Schema recordSchema) {
+        final List<Schema.Field> fields = schema.getFields();
+        final String[] names = new String[fields.size()];
+        final int[] positions = new int[fields.size()];
+        final ValuePlan[] values = new ValuePlan[fields.size()];
+        for(int i=0; i<fields.size(); i++) {
+            final Schema.Field field = fields.get(i);
+            final Schema.Field recordField = schema == recordSchema ? field : recordSchema.getField(field.name());
+            names[i] = field.name();
+            positions[i] = recordField == null ? -1 : recordField.pos();
+            // Field missing from the record is set as typed null, same as a null value.
+            values[i] = compileValue(field.schema(), recordField == null ? field.schema() : recordField.schema());
+        }
+        return new RecordPlan(names, positions, values);
+    }
+
+    static ValuePlan compileValue(final Schema schema, final Schema recordSchema) {
+        final Schema valueSchema = unnestUnion(schema);
+        final LogicalType logicalType = valueSchema.getLogicalType();
+        switch (valueSchema.getType()) {
             case ENUM:
             case STRING:
-                return builder.set(fieldName).to(isNullField ? null : value.toString());
+                return new ValuePlan(Kind.STRING);
             case FIXED:
             case BYTES:
-                if(AvroSchemaUtil.isLogicalTypeDecimal(schema)) {
-                    if(isNullField) {
-                        return builder.set(fieldName).to((String)null);
-                    }
-                    byte[] bytes;
-                    if(Schema.Type.FIXED.equals(schema.getType())) {
-                        bytes = ((GenericData.Fixed)value).bytes();
-                    } else {
-                        bytes = ((ByteBuffer)value).array();
-                    }
-                    if(bytes.length == 0) {
-                        bytes = BigDecimal.valueOf(0, 0).toBigInteger().toByteArray();
-                    }
-                    final int scale = AvroSchemaUtil.getLogicalTypeDecimal(schema).getScale();
-                    final String strValue = isNullField ? null : convertNumericBytesToString(bytes, scale);
-                    return builder.set(fieldName).to(strValue);
-                }
-                return builder.set(fieldName).to(isNullField ? null : ByteArray.copyFrom((ByteBuffer)value));
+                if(AvroSchemaUtil.isLogicalTypeDecimal(valueSchema)) {
+                    return new ValuePlan(Kind.DECIMAL, AvroSchemaUtil.getLogicalTypeDecimal(valueSchema).getScale(), null, null);
+                }
+                return new ValuePlan(Kind.BYTES);
             case INT:
-                if(LogicalTypes.date().equals(schema.getLogicalType())) {
-                    return builder.set(fieldName).to(isNullField ? null : convertEpochDaysToDate((Integer)value));
-                } else if(LogicalTypes.timeMillis().equals(schema.getLogicalType())) {
-                    return builder.set(fieldName).to(isNullField ? null :
-                            LocalTime.ofNanoOfDay(new Long((Integer) value) * 1000 * 1000).format(DateTimeFormatter.ISO_LOCAL_TIME));
+                if(LogicalTypes.date().equals(logicalType)) {
+                    return new ValuePlan(Kind.DATE);
+                } else if(LogicalTypes.timeMillis().equals(logicalType)) {
+                    return new ValuePlan(Kind.TIME_MILLIS);
                 }
-                return builder.set(fieldName).to(isNullField ? null : new Long((Integer) value));
+                return new ValuePlan(Kind.INT32);
             case LONG:
-                final Long longValue = (Long)value;
-                if(LogicalTypes.timestampMillis().equals(schema.getLogicalType())) {
-                    return builder.set(fieldName).to(isNullField ? null : convertMicrosecToTimestamp(longValue * 1000));
-                } else if(LogicalTypes.timestampMicros().equals(schema.getLogicalType())) {
-                    return builder.set(fieldName).to(isNullField ? null : convertMicrosecToTimestamp(longValue));
-                } else if(LogicalTypes.timeMicros().equals(schema.getLogicalType())) {
-                    return builder.set(fieldName).to(isNullField ? null : convertNanosecToTimeString(longValue * 1000));
-                }
-                return builder.set(fieldName).to(isNullField ? null : longValue);
+                if(LogicalTypes.timestampMillis().equals(logicalType)) {
+                    return new ValuePlan(Kind.TIMESTAMP_MILLIS);
+                } else if(LogicalTypes.timestampMicros().equals(logicalType)) {
+                    return new ValuePlan(Kind.TIMESTAMP_MICROS);
+                } else if(LogicalTypes.timeMicros().equals(logicalType)) {
+                    return new ValuePlan(Kind.TIME_MICROS);
+                }
+                return new ValuePlan(Kind.INT64);
             case FLOAT:
-                return builder.set(fieldName).to(isNullField ? null : new Double((Float) value));
+                return new ValuePlan(Kind.FLOAT32);
             case DOUBLE:
-                return builder.set(fieldName).to(isNullField ? null : (Double) value);
+                return new ValuePlan(Kind.FLOAT64);
             case BOOLEAN:
-                return builder.set(fieldName).to(isNullField ? null : (Boolean) value);
+                return new ValuePlan(Kind.BOOLEAN);
             case RECORD:
-                final Struct childStruct = convert((GenericRecord) value);
-                return builder.set(fieldName).to(isNullField ? null : childStruct);
-            case MAP:
-                return builder;
-            case UNION:
-                final Schema childSchema = schema.getTypes().stream()
-                        .filter(s -> !Schema.Type.NULL.equals(s.getType()))
-                        .findAny()
-                        .orElseThrow(() -> new IllegalArgumentException("UNION does not have another schema."));
-                return setFieldValue(builder, fieldName, childSchema, record);
+                // Nested record is converted by its own schema.
+                final Schema childSchema = unnestUnion(recordSchema);
+                return new ValuePlan(Kind.RECORD, 0, getPlan(childSchema, childSchema), null);
             case ARRAY:
-                return isNullField ? builder : setArrayFieldValue(builder, fieldName, schema.getElementType(), record);
+                // Currently, Not support conversion from nested record or array in array. (Only consider avro file by SpannerToAvro)
+                final ValuePlan element = compileValue(valueSchema.getElementType(), unnestUnion(recordSchema).getElementType());
+                if(Kind.RECORD.equals(element.kind) || Kind.ARRAY.equals(element.kind) || Kind.SKIP.equals(element.kind)) {
+                    return ValuePlan.SKIP;
+                }
+                return new ValuePlan(Kind.ARRAY, 0, null, element);
+            case MAP:
             case NULL:
-                return builder;
             default:
-                return builder;
+                return ValuePlan.SKIP;
+        }
+    }
+
+    private static Schema unnestUnion(final Schema schema) {
+        if(!Schema.Type.UNION.equals(schema.getType())) {
+            return schema;
+        }
+        for(final Schema childSchema : schema.getTypes()) {
+            if(!Schema.Type.NULL.equals(childSchema.getType())) {
+                return childSchema;
+            }
+        }
+        throw new IllegalArgumentException("UNION does not have another schema.");
+    }
+
+    private static Schema convertTableSchema(final TableSchema tableSchema) {
+        final ConvertedSchema converted = lastTableSchema;
+        if(converted != null && converted.tableSchema == tableSchema) {
+            return converted.schema;
         }
+        final Schema schema = AvroSchemaUtil.convertSchema(tableSchema);
+        lastTableSchema = new ConvertedSchema(tableSchema, schema);
+        return schema;
     }
 
-    private static Struct.Builder setArrayFieldValue(final Struct.Builder builder, final String fieldName, final Schema schema, final GenericRecord record) {
-        final Object value = record.get(fieldName);
+    private static class ConvertedSchema {
+
+        private final TableSchema tableSchema;
+        private final Schema schema;
+
+        ConvertedSchema(TableSchema tableSchema, Schema schema) {
+            this.tableSchema = tableSchema;
+            this.schema = schema;
+        }
+
+    }
+
+    enum Kind {
+        STRING,
+        BYTES,
+        DECIMAL,
+        BOOLEAN,
+        INT32,
+        INT64,
+        FLOAT32,
+        FLOAT64,
+        DATE,
+        TIME_MILLIS,
+        TIME_MICROS,
+        TIMESTAMP_MILLIS,
+        TIMESTAMP_MICROS,
+        RECORD,
+        ARRAY,
+        SKIP
+    }
+
+    static class ValuePlan {
+
+        static final ValuePlan SKIP = new ValuePlan(Kind.SKIP);
+
+        final Kind kind;
+        private final int scale;
+        private final RecordPlan record;
+        private final ValuePlan element;
+
+        ValuePlan(Kind kind) {
+            this(kind, 0, null, null);
+        }
+
+        ValuePlan(Kind kind, int scale, RecordPlan record, ValuePlan element) {
+            this.kind = kind;
+            this.scale = scale;
+            this.record = record;
+            this.element = element;
+        }
+
+    }
+
+    static class RecordPlan {
+
+        private final String[] names;
+        private final int[] positions;
+        private final ValuePlan[] values;
+
+        RecordPlan(String[] names, int[] positions, ValuePlan[] values) {
+            this.names = names;
+            this.positions = positions;
+            this.values = values;
+        }
+
+        Struct convert(final GenericRecord record) {
+            final Struct.Builder builder = Struct.newBuilder();
+            for(int i=0; i<this.names.length; i++) {
+                final ValuePlan plan = this.values[i];
+                if(Kind.SKIP.equals(plan.kind)) {
+                    continue;
+                }
+                final Object value = this.positions[i] < 0 ? null : record.get(this.positions[i]);
+                if(isUnset(plan, value)) {
+                    continue;
+                }
+                setValue(builder.set(this.names[i]), plan, value);
+            }
+            return builder.build();
+        }
+
+    }
+
+    // Null record and array values are left unset instead of bound as null.
+    static boolean isUnset(final ValuePlan plan, final Object value) {
+        return value == null && (Kind.RECORD.equals(plan.kind) || Kind.ARRAY.equals(plan.kind));
+    }
+
+    static void setValue(final ValueBinder<?> binder, final ValuePlan plan, final Object value) {
         final boolean isNullField = value == null;
-        switch (schema.getType()) {
-            case ENUM:
+        switch (plan.kind) {
             case STRING:
-                return builder.set(fieldName).toStringArray(isNullField ? null :
-                        ((List<Object>) value).stream()
-                                .map(utf8 -> utf8 == null ? null : utf8.toString())
-                                .collect(Collectors.toList()));
-            case FIXED:
+                binder.to(isNullField ? null : value.toString());
+                return;
+            case DECIMAL:
+                binder.to(isNullField ? null : convertNumericBytesToString(getDecimalBytes(value), plan.scale));
+                return;
             case BYTES:
-                if(AvroSchemaUtil.isLogicalTypeDecimal(schema)) {
-                    final int scale = AvroSchemaUtil.getLogicalTypeDecimal(schema).getScale();
-                    if(Schema.Type.BYTES.equals(schema.getType())) {
-                        return builder.set(fieldName).toStringArray(isNullField ? null :
-                                ((List<ByteBuffer>) value).stream()
-                                        .map(bytes -> convertNumericBytesToString(bytes.array(), scale))
-                                        .collect(Collectors.toList()));
-                    } else {
-                        return builder.set(fieldName).toStringArray(isNullField ? null :
-                                ((List<GenericData.Fixed>) value).stream()
-                                        .map(bytes -> convertNumericBytesToString(bytes.bytes(), scale))
-                                        .collect(Collectors.toList()));
-                    }
-                }
-                return builder.set(fieldName).toBytesArray(isNullField ? null :
-                        ((List<ByteBuffer>) value).stream()
-                                .map(bytes -> bytes == null ? null : ByteArray.copyFrom(bytes))
-                                .collect(Collectors.toList()));
-            case INT:
-                final List<Integer> intValues =  ((List<Integer>) value);
-                if(LogicalTypes.date().equals(schema.getLogicalType())) {
-                    return builder.set(fieldName).toDateArray(isNullField ? null : intValues.stream()
-                            .map(days -> convertEpochDaysToDate(days))
-                            .collect(Collectors.toList()));
-                } else if(LogicalTypes.timeMillis().equals(schema.getLogicalType())) {
-                    return builder.set(fieldName).toStringArray(isNullField ? null : intValues.stream()
-                            .map(millis -> convertNanosecToTimeString(millis * 1000L * 1000L))
-                            .collect(Collectors.toList()));
-                }
-                return builder.set(fieldName).toInt64Array(isNullField ? null : intValues.stream()
-                        .map(i -> i == null ? null : new Long(i))
-                        .collect(Collectors.toList()));
-            case LONG:
-                final List<Long> longValues = (List<Long>) value;
-                if(LogicalTypes.timestampMillis().equals(schema.getLogicalType())) {
-                    return builder.set(fieldName).toTimestampArray(isNullField ? null : longValues.stream()
-                            .map(millis -> convertMicrosecToTimestamp(millis * 1000))
-                            .collect(Collectors.toList()));
-                } else if(LogicalTypes.timestampMicros().equals(schema.getLogicalType())) {
-                    return builder.set(fieldName).toTimestampArray(isNullField ? null : longValues.stream()
-                            .map(micros -> convertMicrosecToTimestamp(micros))
-                            .collect(Collectors.toList()));
-                } else if(LogicalTypes.timeMicros().equals(schema.getLogicalType())) {
-                    return builder.set(fieldName).toStringArray(isNullField ? null : longValues.stream()
-                            .map(micros -> convertNanosecToTimeString(micros * 1000))
-                            .collect(Collectors.toList()));
-                }
-                return builder.set(fieldName).toInt64Array(longValues);
-            case FLOAT:
-                return builder.set(fieldName).toFloat64Array(isNullField ? null :
-                        ((List<Float>) value).stream()
-                                .map(f -> f == null ? null : new Double(f))
-                                .collect(Collectors.toList()));
-            case DOUBLE:
-                return builder.set(fieldName).toFloat64Array((List<Double>) value);
+                binder.to(isNullField ? null : ByteArray.copyFrom(((ByteBuffer) value).duplicate()));
+                return;
+            case INT32:
+                if(isNullField) {
+                    binder.to((Long) null);
+                } else {
+                    binder.to((long) (Integer) value);
+                }
+                return;
+            case INT64:
+                if(isNullField) {
+                    binder.to((Long) null);
+                } else {
+                    binder.to((long) (Long) value);
+                }
+                return;
+            case FLOAT32:
+                if(isNullField) {
+                    binder.to((Double) null);
+                } else {
+                    binder.to((double) (Float) value);
+                }
+                return;
+            case FLOAT64:
+                if(isNullField) {
+                    binder.to((Double) null);
+                } else {
+                    binder.to((double) (Double) value);
+                }
+                return;
             case BOOLEAN:
-                return builder.set(fieldName).toBoolArray((List<Boolean>) value);
+                if(isNullField) {
+                    binder.to((Boolean) null);
+                } else {
+                    binder.to((boolean) (Boolean) value);
+                }
+                return;
+            case DATE:
+                binder.to(isNullField ? null : convertEpochDaysToDate((Integer) value));
+                return;
+            case TIME_MILLIS:
+                binder.to(isNullField ? null : convertNanosecToTimeString((Integer) value * 1000L * 1000L));
+                return;
+            case TIME_MICROS:
+                binder.to(isNullField ? null : convertNanosecToTimeString((Long) value * 1000L));
+                return;
+            case TIMESTAMP_MILLIS:
+                binder.to(isNullField ? null : Timestamp.ofTimeMicroseconds((Long) value * 1000L));
+                return;
+            case TIMESTAMP_MICROS:
+                binder.to(isNullField ? null : Timestamp.ofTimeMicroseconds((Long) value));
+                return;
             case RECORD:
-                // Currently, Not support conversion from nested avro record. (Only consider avro file by SpannerToAvro)
-                return builder;
-            case MAP:
-                return builder;
-            case UNION:
-                final Schema childSchema = schema.getTypes().stream()
-                        .filter(s -> !Schema.Type.NULL.equals(s.getType()))
-                        .findAny()
-                        .orElseThrow(() -> new IllegalArgumentException("UNION does not have another schema."));
-                return setArrayFieldValue(builder, fieldName, childSchema, record);
+                binder.to(plan.record.convert((GenericRecord) value));
+                return;
             case ARRAY:
-                // Currently, Not support conversion from nested array record. (Only consider avro file by SpannerToAvro)
-                return builder;
-            case NULL:
-                return builder;
+                setArrayValue(binder, plan.element, (List<?>) value);
+                return;
             default:
-                return builder;
         }
     }
 
-
+    private static void setArrayValue(final ValueBinder<?> binder, final ValuePlan plan, final List<?> values) {
+        switch (plan.kind) {
+            case STRING: {
+                final List<String> strings = new ArrayList<>(values.size());
+                for(final Object value : values) {
+                    strings.add(value == null ? null : value.toString());
+                }
+                binder.toStringArray(strings);
+                return;
+            }
+            case DECIMAL: {
+                final List<String> strings = new ArrayList<>(values.size());
+                for(final Object value : values) {
+                    strings.add(value == null ? null : convertNumericBytesToString(getDecimalBytes(value), plan.scale));
+                }
+                binder.toStringArray(strings);
+                return;
+            }
+            case BYTES: {
+                final List<ByteArray> bytes = new ArrayList<>(values.size());
+                for(final Object value : values) {
+                    bytes.add(value == null ? null : ByteArray.copyFrom(((ByteBuffer) value).duplicate()));
+                }
+                binder.toBytesArray(bytes);
+                return;
+            }
+            case INT32: {
+                final List<Long> longs = new ArrayList<>(values.size());
+                for(final Object value : values) {
+                    longs.add(value == null ? null : (long) (Integer) value);
+                }
+                binder.toInt64Array(longs);
+                return;
+            }
+            case INT64:
+                binder.toInt64Array((List<Long>) values);
+                return;
+            case FLOAT32: {
+                final List<Double> doubles = new ArrayList<>(values.size());
+                for(final Object value : values) {
+                    doubles.add(value == null ? null : (double) (Float) value);
+                }
+                binder.toFloat64Array(doubles);
+                return;
+            }
+            case FLOAT64:
+                binder.toFloat64Array((List<Double>) values);
+                return;
+            case BOOLEAN:
+                binder.toBoolArray((List<Boolean>) values);
+                return;
+            case DATE: {
+                final List<Date> dates = new ArrayList<>(values.size());
+                for(final Object value : values) {
+                    dates.add(convertEpochDaysToDate((Integer) value));
+                }
+                binder.toDateArray(dates);
+                return;
+            }
+            case TIME_MILLIS:
+            case TIME_MICROS: {
+                final long unit = Kind.TIME_MILLIS.equals(plan.kind) ? 1000L * 1000L : 1000L;
+                final List<String> strings = new ArrayList<>(values.size());
+                for(final Object value : values) {
+                    strings.add(value == null ? null : convertNanosecToTimeString(((Number) value).longValue() * unit));
+                }
+                binder.toStringArray(strings);
+                return;
+            }
+            case TIMESTAMP_MILLIS:
+            case TIMESTAMP_MICROS: {
+                final long unit = Kind.TIMESTAMP_MILLIS.equals(plan.kind) ? 1000L : 1L;
+                final List<Timestamp> timestamps = new ArrayList<>(values.size());
+                for(final Object value : values) {
+                    timestamps.add(value == null ? null : Timestamp.ofTimeMicroseconds((Long) value * unit));
+                }
+                binder.toTimestampArray(timestamps);
+                return;
+            }
+            default:
+        }
+    }
 
     private static Date convertEpochDaysToDate(final Integer epochDays) {
         if(epochDays == null) {
@@ -218,26 +409,26 @@ public class RecordToStructConverter {
         return Date.fromYearMonthDay(ld.getYear(), ld.getMonth().getValue(), ld.getDayOfMonth());
     }
 
-    private static String convertNanosecToTimeString(final Long nanos) {
-        if(nanos == null) {
-            return null;
-        }
-        final LocalTime localTime = LocalTime.ofNanoOfDay(nanos);
-        return localTime.format(DateTimeFormatter.ISO_LOCAL_TIME);
+    private static String convertNanosecToTimeString(final long nanos) {
+        return LocalTime.ofNanoOfDay(nanos).format(DateTimeFormatter.ISO_LOCAL_TIME);
     }
 
-    private static Timestamp convertMicrosecToTimestamp(final Long micros) {
-        if(micros == null) {
-            return null;
+    // Uses the backing array as is when the buffer covers it entirely, otherwise copies remaining bytes.
+    private static byte[] getDecimalBytes(final Object value) {
+        if(value instanceof GenericData.Fixed) {
+            return ((GenericData.Fixed) value).bytes();
+        }
+        final ByteBuffer buffer = (ByteBuffer) value;
+        if(buffer.hasArray() && buffer.arrayOffset() == 0 && buffer.position() == 0 && buffer.remaining() == buffer.array().length) {
+            return buffer.array();
         }
-        return Timestamp.ofTimeMicroseconds(micros);
+        final byte[] bytes = new byte[buffer.remaining()];
+        buffer.duplicate().get(bytes);
+        return bytes;
     }
 
     private static String convertNumericBytesToString(final byte[] bytes, final int scale) {
-        if(bytes == null) {
-            return null;
-        }
-        final BigDecimal bigDecimal = BigDecimal.valueOf(new BigInteger(bytes).longValue(), scale);
+        final BigDecimal bigDecimal = new BigDecimal(bytes.length == 0 ? BigInteger.ZERO : new BigInteger(bytes), scale);
         if(scale == 0) {
             return bigDecimal.toPlainString();
         }
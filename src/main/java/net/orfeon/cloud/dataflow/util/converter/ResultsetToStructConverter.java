@@ -4,6 +4,7 @@ import com.google.cloud.ByteArray;
 import com.google.cloud.Date;
 import com.google.cloud.Timestamp;
 import com.google.cloud.spanner.Struct;
+import com.google.cloud.spanner.Type;
 import com.google.cloud.spanner.ValueBinder;
 import org.apache.commons.compress.utils.IOUtils;
 
@@ -12,6 +13,8 @@ import java.math.BigDecimal;
 import java.sql.*;
 import java.time.LocalDate;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
 
 
 public class ResultsetToStructConverter {
@@ -20,180 +23,160 @@ public class ResultsetToStructConverter {
 
     }
 
+    @FunctionalInterface
+    public interface ColumnBinder {
+        Struct.Builder bind(final Struct.Builder builder, final ResultSet resultSet) throws SQLException, IOException;
+    }
+
     public static Struct convert(final ResultSet resultSet) throws SQLException, IOException {
-        final ResultSetMetaData meta = resultSet.getMetaData();
-        final int columnCount = meta.getColumnCount();
+        return convert(resultSet, compile(resultSet.getMetaData()));
+    }
+
+    // Binders should be compiled once per query from ResultSetMetaData, and reused for each row.
+    public static Struct convert(final ResultSet resultSet, final ColumnBinder[] binders) throws SQLException, IOException {
         Struct.Builder builder = Struct.newBuilder();
+        for (final ColumnBinder binder : binders) {
+            builder = binder.bind(builder, resultSet);
+        }
+        return builder.build();
+    }
+
+    public static ColumnBinder[] compile(final ResultSetMetaData meta) throws SQLException {
+        final int columnCount = meta.getColumnCount();
+        final List<ColumnBinder> binders = new ArrayList<>();
         for (int column = 1; column <= columnCount; ++column) {
-            final ValueBinder<Struct.Builder> binder = builder.set(meta.getColumnName(column));
-            switch (meta.getColumnType(column)) {
-                case Types.CHAR:
-                    builder = binder.to(resultSet.getString(column));
-                    break;
-                case Types.NUMERIC:
-                    BigDecimal bigDecimal = resultSet.getBigDecimal(column);
-                    if(bigDecimal == null) {
-                        builder = binder.to((Double) null);
-                        break;
-                    }
-                    builder = binder.to(bigDecimal.doubleValue());
-                    break;
-                case Types.DECIMAL:
-                    BigDecimal decimal = resultSet.getBigDecimal(column);
-                    if(decimal == null) {
-                        builder = binder.to((Double) null);
-                        break;
-                    }
-                    builder = binder.to(decimal.doubleValue());
-                    break;
-                case Types.INTEGER:
-                    builder = binder.to(resultSet.getInt(column));
-                    break;
-                case Types.SMALLINT:
-                    builder = binder.to(resultSet.getInt(column));
-                    break;
-                case Types.FLOAT:
-                    builder = binder.to(resultSet.getDouble(column));
-                    break;
-                case Types.REAL:
-                    builder = binder.to(resultSet.getDouble(column));
-                    break;
-                case Types.DOUBLE:
-                    builder = binder.to(resultSet.getDouble(column));
-                    break;
-                case Types.VARCHAR:
-                    builder = binder.to(resultSet.getString(column));
-                    break;
-                case Types.BOOLEAN:
-                    builder = binder.to(resultSet.getBoolean(column));
-                    break;
-                case Types.DATALINK:
-                    break;
-                case Types.DATE:
+            final ColumnBinder binder = compile(meta.getColumnName(column), meta.getColumnType(column), column);
+            if(binder != null) {
+                binders.add(binder);
+            }
+        }
+        return binders.toArray(new ColumnBinder[binders.size()]);
+    }
+
+    // Returns struct type of rows converted by binders compiled from the metadata.
+    public static Type convertType(final ResultSetMetaData meta) throws SQLException {
+        final List<Type.StructField> fields = new ArrayList<>();
+        for (int column = 1; column <= meta.getColumnCount(); ++column) {
+            final Type type = convertFieldType(meta.getColumnType(column));
+            if(type != null) {
+                fields.add(Type.StructField.of(meta.getColumnName(column), type));
+            }
+        }
+        return Type.struct(fields);
+    }
+
+    private static Type convertFieldType(final int type) {
+        switch (type) {
+            case Types.CHAR:
+            case Types.VARCHAR:
+            case Types.LONGVARCHAR:
+            case Types.NVARCHAR:
+            case Types.NCHAR:
+            case Types.LONGNVARCHAR:
+            case Types.TIME:
+            case Types.TIME_WITH_TIMEZONE:
+            case Types.ROWID:
+                return Type.string();
+            case Types.TINYINT:
+            case Types.SMALLINT:
+            case Types.INTEGER:
+            case Types.BIGINT:
+                return Type.int64();
+            case Types.NUMERIC:
+            case Types.DECIMAL:
+            case Types.FLOAT:
+            case Types.REAL:
+            case Types.DOUBLE:
+                return Type.float64();
+            case Types.BOOLEAN:
+            case Types.BIT:
+                return Type.bool();
+            case Types.DATE:
+                return Type.date();
+            case Types.TIMESTAMP:
+            case Types.TIMESTAMP_WITH_TIMEZONE:
+                return Type.timestamp();
+            case Types.BLOB:
+            case Types.BINARY:
+            case Types.VARBINARY:
+            case Types.LONGVARBINARY:
+                return Type.bytes();
+            default:
+                return null;
+        }
+    }
+
+    private static ColumnBinder compile(final String name, final int type, final int column) {
+        switch (type) {
+            case Types.CHAR:
+            case Types.VARCHAR:
+            case Types.LONGVARCHAR:
+                return (builder, resultSet) -> builder.set(name).to(resultSet.getString(column));
+            case Types.NUMERIC:
+            case Types.DECIMAL:
+                return (builder, resultSet) -> {
+                    final BigDecimal decimal = resultSet.getBigDecimal(column);
+                    return builder.set(name).to(decimal == null ? null : decimal.doubleValue());
+                };
+            case Types.TINYINT:
+            case Types.SMALLINT:
+            case Types.INTEGER:
+                return (builder, resultSet) -> builder.set(name).to(resultSet.getInt(column));
+            case Types.BIGINT:
+                return (builder, resultSet) -> builder.set(name).to(resultSet.getLong(column));
+            case Types.FLOAT:
+            case Types.REAL:
+            case Types.DOUBLE:
+                return (builder, resultSet) -> builder.set(name).to(resultSet.getDouble(column));
+            case Types.BOOLEAN:
+            case Types.BIT:
+                return (builder, resultSet) -> builder.set(name).to(resultSet.getBoolean(column));
+            case Types.DATE:
+                return (builder, resultSet) -> {
                     final java.sql.Date sqlDate = resultSet.getDate(column);
                     if(sqlDate == null) {
-                        builder = binder.to((Date) null);
-                        break;
+                        return builder.set(name).to((Date) null);
                     }
                     final LocalDate localDate = sqlDate.toLocalDate();
-                    final Date date = Date.fromYearMonthDay(localDate.getYear(), localDate.getMonthValue(), localDate.getDayOfMonth());
-                    builder = binder.to(date);
-                    break;
-                case Types.TIME:
+                    return builder.set(name).to(Date.fromYearMonthDay(localDate.getYear(), localDate.getMonthValue(), localDate.getDayOfMonth()));
+                };
+            case Types.TIME:
+            case Types.TIME_WITH_TIMEZONE:
+                return (builder, resultSet) -> {
                     final Time time = resultSet.getTime(column);
-                    if(time == null) {
-                        builder = binder.to((String) null);
-                        break;
-                    }
-                    builder = binder.to(time.toLocalTime().format(DateTimeFormatter.ISO_LOCAL_TIME));
-                    break;
-                case Types.TIMESTAMP:
+                    return builder.set(name).to(time == null ? null : time.toLocalTime().format(DateTimeFormatter.ISO_LOCAL_TIME));
+                };
+            case Types.TIMESTAMP:
+            case Types.TIMESTAMP_WITH_TIMEZONE:
+                return (builder, resultSet) -> {
                     final java.sql.Timestamp timestamp = resultSet.getTimestamp(column);
-                    if(timestamp == null) {
-                        builder = binder.to((Timestamp) null);
-                        break;
-                    }
-                    builder = binder.to(Timestamp.of(timestamp));
-                    break;
-                case Types.JAVA_OBJECT:
-                    break;
-                case Types.DISTINCT:
-                    break;
-                case Types.STRUCT:
-                    break;
-                case Types.ARRAY:
-                    break;
-                case Types.BLOB:
-                    Blob blob = resultSet.getBlob(column);
-                    if(blob == null) {
-                        builder = binder.to((ByteArray)null);
-                        break;
-                    }
-                    byte[] bytes = IOUtils.toByteArray(blob.getBinaryStream());
-                    builder = binder.to(ByteArray.copyFrom(bytes));
-                    break;
-                case Types.CLOB:
-                    break;
-                case Types.REF:
-                    break;
-                case Types.SQLXML:
-                    break;
-                case Types.NCLOB:
-                    break;
-                case Types.REF_CURSOR:
-                    break;
-                case Types.TIME_WITH_TIMEZONE:
-                    final Time timeWT = resultSet.getTime(column);
-                    if(timeWT == null) {
-                        builder = binder.to((String) null);
-                        break;
-                    }
-                    builder = binder.to(timeWT.toLocalTime().format(DateTimeFormatter.ISO_LOCAL_TIME));
-                    break;
-                case Types.TIMESTAMP_WITH_TIMEZONE:
-                    final java.sql.Timestamp timestampWT = resultSet.getTimestamp(column);
-                    if(timestampWT == null) {
-                        builder = binder.to((Timestamp) null);
-                        break;
-                    }
-                    builder = binder.to(Timestamp.of(timestampWT));
-                    break;
-                case Types.LONGVARCHAR:
-                    builder = binder.to(resultSet.getString(column));
-                    break;
-                case Types.BINARY:
-                    byte[] binary = resultSet.getBytes(column);
-                    if(binary == null) {
-                        builder = binder.to((ByteArray) null);
-                        break;
-                    }
-                    builder = binder.to(ByteArray.copyFrom(binary));
-                    break;
-                case Types.VARBINARY:
-                    byte[] varbinary = resultSet.getBytes(column);
-                    if(varbinary == null) {
-                        builder = binder.to((ByteArray) null);
-                        break;
-                    }
-                    builder = binder.to(ByteArray.copyFrom(varbinary));
-                    break;
-                case Types.LONGVARBINARY:
-                    byte[] longvarbinary = resultSet.getBytes(column);
-                    if(longvarbinary == null) {
-                        builder = binder.to((ByteArray) null);
-                        break;
-                    }
-                    builder = binder.to(ByteArray.copyFrom(longvarbinary));
-                    break;
-                case Types.BIGINT:
-                    builder = binder.to(resultSet.getLong(column));
-                    break;
-                case Types.TINYINT:
-                    builder = binder.to(resultSet.getInt(column));
-                    break;
-                case Types.BIT:
-                    builder = binder.to(resultSet.getBoolean(column));
-                    break;
-                case Types.ROWID:
-                    RowId rowId = resultSet.getRowId(column);
-                    if(rowId == null) {
-                        builder = binder.to((String) null);
-                        break;
-                    }
-                    builder = binder.to(rowId.toString());
-                    break;
-                case Types.NVARCHAR:
-                    builder = binder.to(resultSet.getNString(column));
-                    break;
-                case Types.NCHAR:
-                    builder = binder.to(resultSet.getNString(column));
-                    break;
-                case Types.LONGNVARCHAR:
-                    builder = binder.to(resultSet.getNString(column));
-                    break;
-            }
+                    return builder.set(name).to(timestamp == null ? null : Timestamp.of(timestamp));
+                };
+            case Types.BLOB:
+                return (builder, resultSet) -> {
+                    final Blob blob = resultSet.getBlob(column);
+                    return builder.set(name).to(blob == null ? null : ByteArray.copyFrom(IOUtils.toByteArray(blob.getBinaryStream())));
+                };
+            case Types.BINARY:
+            case Types.VARBINARY:
+            case Types.LONGVARBINARY:
+                return (builder, resultSet) -> {
+                    final byte[] bytes = resultSet.getBytes(column);
+                    return builder.set(name).to(bytes == null ? null : ByteArray.copyFrom(bytes));
+                };
+            case Types.ROWID:
+                return (builder, resultSet) -> {
+                    final RowId rowId = resultSet.getRowId(column);
+                    return builder.set(name).to(rowId == null ? null : rowId.toString());
+                };
+            case Types.NVARCHAR:
+            case Types.NCHAR:
+            case Types.LONGNVARCHAR:
+                return (builder, resultSet) -> builder.set(name).to(resultSet.getNString(column));
+            default:
+                // DATALINK, JAVA_OBJECT, DISTINCT, STRUCT, ARRAY, CLOB, REF, SQLXML, NCLOB, REF_CURSOR are not supported.
+                return null;
         }
-        return builder.build();
     }
 
 }
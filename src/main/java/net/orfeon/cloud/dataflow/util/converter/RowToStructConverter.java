@@ -0,0 +1,202 @@
+package net.orfeon.cloud.dataflow.util.converter;
+
+import com.google.cloud.ByteArray;
+import com.google.cloud.Date;
+import com.google.cloud.Timestamp;
+import com.google.cloud.spanner.Struct;
+import com.google.cloud.spanner.Type;
+import org.apache.beam.sdk.schemas.Schema;
+import org.apache.beam.sdk.values.Row;
+import org.joda.time.DateTimeZone;
+import org.joda.time.LocalDate;
+import org.joda.time.ReadableInstant;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * Converts Beam Row to Spanner Struct. Integer types are INT64, FLOAT is FLOAT64 and DECIMAL is STRING.
+ * DATETIME with metadata {@link StructToRowConverter#DATE_METADATA} is DATE, and TIMESTAMP otherwise.
+ */
+public class RowToStructConverter {
+
+    private RowToStructConverter() {
+
+    }
+
+    public static Type convertType(final Schema schema) {
+        final List<Type.StructField> fields = new ArrayList<>(schema.getFieldCount());
+        for(final Schema.Field field : schema.getFields()) {
+            fields.add(Type.StructField.of(field.getName(), convertFieldType(field.getType())));
+        }
+        return Type.struct(fields);
+    }
+
+    public static Type convertFieldType(final Schema.FieldType fieldType) {
+        switch (fieldType.getTypeName()) {
+            case BOOLEAN:
+                return Type.bool();
+            case BYTE:
+            case INT16:
+            case INT32:
+            case INT64:
+                return Type.int64();
+            case FLOAT:
+            case DOUBLE:
+                return Type.float64();
+            case STRING:
+            case DECIMAL:
+                return Type.string();
+            case BYTES:
+                return Type.bytes();
+            case DATETIME:
+                return isDate(fieldType) ? Type.date() : Type.timestamp();
+            case ROW:
+                return convertType(fieldType.getRowSchema());
+            case ARRAY:
+                return Type.array(convertFieldType(fieldType.getCollectionElementType()));
+            default:
+                throw new IllegalArgumentException(String.format("Not supported type %s to spanner type", fieldType));
+        }
+    }
+
+    public static Struct convert(final Row row) {
+        return convert(row, convertType(row.getSchema()));
+    }
+
+    /** Converts row to struct with the type converted from row schema by {@link #convertType(Schema)}. */
+    public static Struct convert(final Row row, final Type type) {
+        final Struct.Builder builder = Struct.newBuilder();
+        final List<Schema.Field> fields = row.getSchema().getFields();
+        final List<Type.StructField> structFields = type.getStructFields();
+        for(int i=0; i<fields.size(); i++) {
+            final String name = structFields.get(i).getName();
+            final Type fieldType = structFields.get(i).getType();
+            final Object value = row.getValue(i);
+            switch (fieldType.getCode()) {
+                case BOOL:
+                    builder.set(name).to((Boolean) value);
+                    break;
+                case INT64:
+                    builder.set(name).to(value == null ? null : ((Number) value).longValue());
+                    break;
+                case FLOAT64:
+                    builder.set(name).to(value == null ? null : ((Number) value).doubleValue());
+                    break;
+                case STRING:
+                    builder.set(name).to(value == null ? null : toString(value));
+                    break;
+                case BYTES:
+                    builder.set(name).to(value == null ? null : ByteArray.copyFrom((byte[]) value));
+                    break;
+                case TIMESTAMP:
+                    builder.set(name).to(value == null ? null : toTimestamp((ReadableInstant) value));
+                    break;
+                case DATE:
+                    builder.set(name).to(value == null ? null : toDate((ReadableInstant) value));
+                    break;
+                case STRUCT:
+                    builder.set(name).to(fieldType, value == null ? null : convert((Row) value, fieldType));
+                    break;
+                case ARRAY:
+                    setArrayValue(builder, name, fieldType.getArrayElementType(), (List<?>) value);
+                    break;
+                default:
+                    throw new IllegalArgumentException(String.format("Not supported type %s to spanner struct", fieldType));
+            }
+        }
+        return builder.build();
+    }
+
+    private static void setArrayValue(final Struct.Builder builder, final String name, final Type elementType, final List<?> values) {
+        switch (elementType.getCode()) {
+            case BOOL: {
+                builder.set(name).toBoolArray(values == null ? null : cast(values));
+                return;
+            }
+            case INT64: {
+                final List<Long> list = values == null ? null : new ArrayList<>(values.size());
+                if(values != null) {
+                    values.forEach(v -> list.add(v == null ? null : ((Number) v).longValue()));
+                }
+                builder.set(name).toInt64Array(list);
+                return;
+            }
+            case FLOAT64: {
+                final List<Double> list = values == null ? null : new ArrayList<>(values.size());
+                if(values != null) {
+                    values.forEach(v -> list.add(v == null ? null : ((Number) v).doubleValue()));
+                }
+                builder.set(name).toFloat64Array(list);
+                return;
+            }
+            case STRING: {
+                final List<String> list = values == null ? null : new ArrayList<>(values.size());
+                if(values != null) {
+                    values.forEach(v -> list.add(v == null ? null : toString(v)));
+                }
+                builder.set(name).toStringArray(list);
+                return;
+            }
+            case BYTES: {
+                final List<ByteArray> list = values == null ? null : new ArrayList<>(values.size());
+                if(values != null) {
+                    values.forEach(v -> list.add(v == null ? null : ByteArray.copyFrom((byte[]) v)));
+                }
+                builder.set(name).toBytesArray(list);
+                return;
+            }
+            case TIMESTAMP: {
+                final List<Timestamp> list = values == null ? null : new ArrayList<>(values.size());
+                if(values != null) {
+                    values.forEach(v -> list.add(v == null ? null : toTimestamp((ReadableInstant) v)));
+                }
+                builder.set(name).toTimestampArray(list);
+                return;
+            }
+            case DATE: {
+                final List<Date> list = values == null ? null : new ArrayList<>(values.size());
+                if(values != null) {
+                    values.forEach(v -> list.add(v == null ? null : toDate((ReadableInstant) v)));
+                }
+                builder.set(name).toDateArray(list);
+                return;
+            }
+            case STRUCT: {
+                final List<Struct> list = values == null ? null : new ArrayList<>(values.size());
+                if(values != null) {
+                    values.forEach(v -> list.add(v == null ? null : convert((Row) v, elementType)));
+                }
+                builder.set(name).toStructArray(elementType, list);
+                return;
+            }
+            default:
+                throw new IllegalArgumentException(String.format("Not supported array element type %s to spanner struct", elementType));
+        }
+    }
+
+    private static boolean isDate(final Schema.FieldType fieldType) {
+        return fieldType.getMetadata() != null && StructToRowConverter.DATE_METADATA.equals(fieldType.getMetadataString());
+    }
+
+    private static String toString(final Object value) {
+        return value instanceof BigDecimal ? ((BigDecimal) value).toPlainString() : value.toString();
+    }
+
+    private static Timestamp toTimestamp(final ReadableInstant instant) {
+        return Timestamp.ofTimeMicroseconds(instant.getMillis() * 1000);
+    }
+
+    private static Date toDate(final ReadableInstant instant) {
+        final LocalDate date = new LocalDate(instant.getMillis(), DateTimeZone.UTC);
+        return Date.fromYearMonthDay(date.getYear(), date.getMonthOfYear(), date.getDayOfMonth());
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> Iterable<T> cast(final List<?> values) {
+        return (Iterable<T>) values;
+    }
+
+}
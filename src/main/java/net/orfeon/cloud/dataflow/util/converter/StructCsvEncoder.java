@@ -0,0 +1,257 @@
+package net.orfeon.cloud.dataflow.util.converter;
+
+import com.google.cloud.ByteArray;
+import com.google.cloud.spanner.Struct;
+import com.google.cloud.spanner.Type;
+import net.orfeon.cloud.dataflow.util.StructUtil;
+import org.apache.commons.csv.QuoteMode;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+
+/**
+ * Encodes Struct to a CSV line into a reusable buffer, with the same format as commons-csv CSVPrinter.
+ * Nested struct values are printed as map string like CSVPrinter. Not thread safe.
+ * QuoteMode NONE requires escape character as CSVPrinter, and escapes quote character in addition to CSVPrinter.
+ */
+public class StructCsvEncoder {
+
+    private static final char COMMENT = '#';
+
+    private final char delimiter;
+    private final char quote;
+    private final QuoteMode quoteMode;
+    private final String nullToken;
+    private final Character escape;
+
+    private final StringBuilder line = new StringBuilder(1024);
+    private final CharsetEncoder charsetEncoder = StandardCharsets.UTF_8.newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    private ByteBuffer bytes = ByteBuffer.allocate(4096);
+
+    public StructCsvEncoder() {
+        this(',', '"', QuoteMode.MINIMAL, null);
+    }
+
+    public StructCsvEncoder(char delimiter, char quote, QuoteMode quoteMode, String nullToken) {
+        this(delimiter, quote, quoteMode, nullToken, null);
+    }
+
+    public StructCsvEncoder(char delimiter, char quote, QuoteMode quoteMode, String nullToken, Character escape) {
+        if(!QuoteMode.MINIMAL.equals(quoteMode) && !QuoteMode.ALL.equals(quoteMode) && !QuoteMode.NONE.equals(quoteMode)) {
+            throw new IllegalArgumentException(String.format("QuoteMode %s is not supported. MINIMAL, ALL or NONE.", quoteMode));
+        }
+        if(QuoteMode.NONE.equals(quoteMode) && escape == null) {
+            throw new IllegalArgumentException("QuoteMode NONE requires escape character.");
+        }
+        this.delimiter = delimiter;
+        this.quote = quote;
+        this.quoteMode = quoteMode;
+        this.nullToken = nullToken;
+        this.escape = escape;
+    }
+
+    public StructCsvEncoder encode(final Struct struct) {
+        this.line.setLength(0);
+        final List<Type.StructField> fields = struct.getType().getStructFields();
+        for(int i=0; i<fields.size(); i++) {
+            if(i > 0) {
+                this.line.append(this.delimiter);
+            }
+            if(struct.isNull(i)) {
+                writeNull();
+                continue;
+            }
+            final Type type = fields.get(i).getType();
+            switch (type.getCode()) {
+                case BOOL:
+                    writeValue(struct.getBoolean(i) ? "true" : "false", i == 0);
+                    break;
+                case INT64:
+                    writeValue(Long.toString(struct.getLong(i)), i == 0);
+                    break;
+                case FLOAT64:
+                    writeValue(Double.toString(struct.getDouble(i)), i == 0);
+                    break;
+                case STRING:
+                    writeValue(struct.getString(i), i == 0);
+                    break;
+                case BYTES:
+                    writeValue(struct.getBytes(i).toBase64(), i == 0);
+                    break;
+                case TIMESTAMP:
+                    writeValue(struct.getTimestamp(i).toString(), i == 0);
+                    break;
+                case DATE:
+                    writeValue(struct.getDate(i).toString(), i == 0);
+                    break;
+                case ARRAY:
+                    if(Type.Code.STRUCT.equals(type.getArrayElementType().getCode())) {
+                        writeValue(StructUtil.getFieldValue(fields.get(i), struct).toString(), i == 0);
+                    } else {
+                        writeValue(arrayToString(struct, i, type.getArrayElementType()), i == 0);
+                    }
+                    break;
+                case STRUCT:
+                default:
+                    writeValue(StructUtil.getFieldValue(fields.get(i), struct).toString(), i == 0);
+            }
+        }
+        return this;
+    }
+
+    public StructCsvEncoder encodeHeader(final Type type) {
+        this.line.setLength(0);
+        final List<Type.StructField> fields = type.getStructFields();
+        for(int i=0; i<fields.size(); i++) {
+            if(i > 0) {
+                this.line.append(this.delimiter);
+            }
+            writeValue(fields.get(i).getName(), i == 0);
+        }
+        return this;
+    }
+
+    public void writeTo(final OutputStream os) throws IOException {
+        // UTF-8 needs at most 3 bytes per UTF-16 char.
+        final int maxLength = this.line.length() * 3;
+        if(this.bytes.capacity() < maxLength) {
+            this.bytes = ByteBuffer.allocate(maxLength);
+        }
+        this.bytes.clear();
+        this.charsetEncoder.reset();
+        this.charsetEncoder.encode(CharBuffer.wrap(this.line), this.bytes, true);
+        this.charsetEncoder.flush(this.bytes);
+        os.write(this.bytes.array(), 0, this.bytes.position());
+    }
+
+    @Override
+    public String toString() {
+        return this.line.toString();
+    }
+
+    private void writeNull() {
+        if(this.nullToken == null) {
+            return;
+        }
+        if(QuoteMode.ALL.equals(this.quoteMode)) {
+            this.line.append(this.quote).append(this.nullToken).append(this.quote);
+        } else {
+            this.line.append(this.nullToken);
+        }
+    }
+
+    // Decides quoting by the same rule as CSVPrinter with QuoteMode.MINIMAL.
+    private void writeValue(final String value, final boolean newRecord) {
+        final boolean quoted;
+        switch (this.quoteMode) {
+            case ALL:
+                quoted = true;
+                break;
+            case NONE:
+                quoted = false;
+                break;
+            default:
+                quoted = needsQuote(value, newRecord);
+        }
+        if(QuoteMode.NONE.equals(this.quoteMode)) {
+            writeEscaped(value);
+            return;
+        } else if(!quoted) {
+            this.line.append(value);
+            return;
+        }
+        this.line.append(this.quote);
+        for(int i=0; i<value.length(); i++) {
+            final char c = value.charAt(i);
+            if(c == this.quote) {
+                this.line.append(this.quote);
+            }
+            this.line.append(c);
+        }
+        this.line.append(this.quote);
+    }
+
+    // Escapes the same characters as CSVPrinter, with CR and LF written as escaped r and n.
+    private void writeEscaped(final String value) {
+        final char escapeChar = this.escape;
+        for(int i=0; i<value.length(); i++) {
+            final char c = value.charAt(i);
+            if(c == '\r') {
+                this.line.append(escapeChar).append('r');
+            } else if(c == '\n') {
+                this.line.append(escapeChar).append('n');
+            } else if(c == this.delimiter || c == this.quote || c == escapeChar) {
+                this.line.append(escapeChar).append(c);
+            } else {
+                this.line.append(c);
+            }
+        }
+    }
+
+    private boolean needsQuote(final String value, final boolean newRecord) {
+        if(value.isEmpty()) {
+            return newRecord;
+        }
+        final char first = value.charAt(0);
+        if(newRecord && (first < 0x20 || first > 0x21 && first < 0x23 || first > 0x2B && first < 0x2D || first > 0x7E)) {
+            return true;
+        } else if(first <= COMMENT) {
+            return true;
+        }
+        for(int i=0; i<value.length(); i++) {
+            final char c = value.charAt(i);
+            if(c == '\n' || c == '\r' || c == this.quote || c == this.delimiter) {
+                return true;
+            }
+        }
+        return value.charAt(value.length() - 1) <= ' ';
+    }
+
+    // Same as toString of the list CSVPrinter receives.
+    private static String arrayToString(final Struct struct, final int index, final Type elementType) {
+        final List<?> values;
+        switch (elementType.getCode()) {
+            case BOOL:
+                values = struct.getBooleanList(index);
+                break;
+            case INT64:
+                values = struct.getLongList(index);
+                break;
+            case FLOAT64:
+                values = struct.getDoubleList(index);
+                break;
+            case STRING:
+                values = struct.getStringList(index);
+                break;
+            case BYTES:
+                final List<ByteArray> bytesList = struct.getBytesList(index);
+                final StringBuilder sb = new StringBuilder("[");
+                for(int i=0; i<bytesList.size(); i++) {
+                    if(i > 0) {
+                        sb.append(", ");
+                    }
+                    sb.append(bytesList.get(i) == null ? "null" : bytesList.get(i).toBase64());
+                }
+                return sb.append("]").toString();
+            case TIMESTAMP:
+                values = struct.getTimestampList(index);
+                break;
+            case DATE:
+                values = struct.getDateList(index);
+                break;
+            default:
+                throw new IllegalArgumentException(String.format("Not supported array element type %s to csv", elementType));
+        }
+        return values.toString();
+    }
+
+}
@@ -0,0 +1,48 @@
+package net.orfeon.cloud.dataflow.util.converter;
+
+import com.google.cloud.spanner.Struct;
+import com.google.cloud.spanner.Type;
+import org.apache.avro.Schema;
+import org.apache.avro.io.DatumWriter;
+import org.apache.avro.io.Encoder;
+
+import java.io.IOException;
+
+
+/**
+ * DatumWriter to encode Struct to avro binary directly, without creating GenericRecord.
+ */
+public class StructDatumWriter implements DatumWriter<Struct> {
+
+    private Schema schema;
+    private Type type;
+    private StructToRecordConverter.RecordPlan plan;
+
+    public StructDatumWriter() {
+
+    }
+
+    public StructDatumWriter(Schema schema) {
+        setSchema(schema);
+    }
+
+    @Override
+    public void setSchema(Schema schema) {
+        this.schema = schema;
+        this.type = null;
+        this.plan = null;
+    }
+
+    @Override
+    public void write(Struct datum, Encoder out) throws IOException {
+        // Structs in one destination usually share the same type, so the last type is checked by identity first,
+        // then by equality without hashing. Shared plans are looked up only when the type has changed.
+        final Type datumType = datum.getType();
+        if(this.plan == null || datumType != this.type && !datumType.equals(this.type)) {
+            this.plan = StructToRecordConverter.getPlan(this.schema, datumType);
+        }
+        this.type = datumType;
+        this.plan.write(datum, out);
+    }
+
+}
@@ -0,0 +1,334 @@
+package net.orfeon.cloud.dataflow.util.converter;
+
+import com.google.cloud.ByteArray;
+import com.google.cloud.Date;
+import com.google.cloud.Timestamp;
+import com.google.cloud.spanner.Struct;
+import com.google.cloud.spanner.Type;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * Encodes Struct to UTF-8 JSON bytes directly into a reusable buffer, with the same format as Gson JsonObject.
+ * Encoded field names are cached per struct type. Not thread safe.
+ */
+public class StructJsonEncoder {
+
+    private static final int MAX_CACHED_TYPES = 1000;
+
+    private static final byte[] NULL = "null".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] TRUE = "true".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] FALSE = "false".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.UTF_8);
+
+    private final Map<Type, byte[][]> names = new IdentityHashMap<>();
+
+    private byte[] buffer = new byte[4096];
+    private int size = 0;
+
+    public StructJsonEncoder encode(final Struct struct) {
+        this.size = 0;
+        writeStruct(struct);
+        return this;
+    }
+
+    public void writeTo(final OutputStream os) throws IOException {
+        os.write(this.buffer, 0, this.size);
+    }
+
+    public int size() {
+        return this.size;
+    }
+
+    @Override
+    public String toString() {
+        return new String(this.buffer, 0, this.size, StandardCharsets.UTF_8);
+    }
+
+    private void writeStruct(final Struct struct) {
+        final byte[][] fieldNames = getFieldNames(struct.getType());
+        final List<Type.StructField> fields = struct.getType().getStructFields();
+        write((byte) '{');
+        for(int i=0; i<fields.size(); i++) {
+            if(i > 0) {
+                write((byte) ',');
+            }
+            write(fieldNames[i]);
+            if(struct.isNull(i)) {
+                write(NULL);
+                continue;
+            }
+            final Type type = fields.get(i).getType();
+            switch (type.getCode()) {
+                case BOOL:
+                    write(struct.getBoolean(i) ? TRUE : FALSE);
+                    break;
+                case INT64:
+                    writeAscii(Long.toString(struct.getLong(i)));
+                    break;
+                case FLOAT64:
+                    writeAscii(Double.toString(struct.getDouble(i)));
+                    break;
+                case STRING:
+                    writeString(struct.getString(i));
+                    break;
+                case BYTES:
+                    writeQuotedAscii(struct.getBytes(i).toBase64());
+                    break;
+                case TIMESTAMP:
+                    writeQuotedAscii(struct.getTimestamp(i).toString());
+                    break;
+                case DATE:
+                    writeQuotedAscii(struct.getDate(i).toString());
+                    break;
+                case STRUCT:
+                    writeStruct(struct.getStruct(i));
+                    break;
+                case ARRAY:
+                    writeArray(struct, i, type.getArrayElementType());
+                    break;
+                default:
+                    throw new IllegalArgumentException(String.format("Not supported type %s to json", type));
+            }
+        }
+        write((byte) '}');
+    }
+
+    private void writeArray(final Struct struct, final int index, final Type elementType) {
+        write((byte) '[');
+        switch (elementType.getCode()) {
+            case BOOL: {
+                final List<Boolean> values = struct.getBooleanList(index);
+                for(int i=0; i<values.size(); i++) {
+                    writeSeparator(i);
+                    final Boolean value = values.get(i);
+                    write(value == null ? NULL : value ? TRUE : FALSE);
+                }
+                break;
+            }
+            case INT64: {
+                final List<Long> values = struct.getLongList(index);
+                for(int i=0; i<values.size(); i++) {
+                    writeSeparator(i);
+                    final Long value = values.get(i);
+                    if(value == null) {
+                        write(NULL);
+                    } else {
+                        writeAscii(Long.toString(value));
+                    }
+                }
+                break;
+            }
+            case FLOAT64: {
+                final List<Double> values = struct.getDoubleList(index);
+                for(int i=0; i<values.size(); i++) {
+                    writeSeparator(i);
+                    final Double value = values.get(i);
+                    if(value == null) {
+                        write(NULL);
+                    } else {
+                        writeAscii(Double.toString(value));
+                    }
+                }
+                break;
+            }
+            case STRING: {
+                final List<String> values = struct.getStringList(index);
+                for(int i=0; i<values.size(); i++) {
+                    writeSeparator(i);
+                    if(values.get(i) == null) {
+                        write(NULL);
+                    } else {
+                        writeString(values.get(i));
+                    }
+                }
+                break;
+            }
+            case BYTES: {
+                final List<ByteArray> values = struct.getBytesList(index);
+                for(int i=0; i<values.size(); i++) {
+                    writeSeparator(i);
+                    if(values.get(i) == null) {
+                        write(NULL);
+                    } else {
+                        writeQuotedAscii(values.get(i).toBase64());
+                    }
+                }
+                break;
+            }
+            case TIMESTAMP: {
+                final List<Timestamp> values = struct.getTimestampList(index);
+                for(int i=0; i<values.size(); i++) {
+                    writeSeparator(i);
+                    if(values.get(i) == null) {
+                        write(NULL);
+                    } else {
+                        writeQuotedAscii(values.get(i).toString());
+                    }
+                }
+                break;
+            }
+            case DATE: {
+                final List<Date> values = struct.getDateList(index);
+                for(int i=0; i<values.size(); i++) {
+                    writeSeparator(i);
+                    if(values.get(i) == null) {
+                        write(NULL);
+                    } else {
+                        writeQuotedAscii(values.get(i).toString());
+                    }
+                }
+                break;
+            }
+            case STRUCT: {
+                final List<Struct> values = struct.getStructList(index);
+                for(int i=0; i<values.size(); i++) {
+                    writeSeparator(i);
+                    if(values.get(i) == null) {
+                        write(NULL);
+                    } else {
+                        writeStruct(values.get(i));
+                    }
+                }
+                break;
+            }
+            default:
+                throw new IllegalArgumentException(String.format("Not supported array element type %s to json", elementType));
+        }
+        write((byte) ']');
+    }
+
+    private byte[][] getFieldNames(final Type type) {
+        byte[][] fieldNames = this.names.get(type);
+        if(fieldNames == null) {
+            final List<Type.StructField> fields = type.getStructFields();
+            fieldNames = new byte[fields.size()][];
+            for(int i=0; i<fields.size(); i++) {
+                final int start = this.size;
+                writeString(fields.get(i).getName());
+                write((byte) ':');
+                fieldNames[i] = Arrays.copyOfRange(this.buffer, start, this.size);
+                this.size = start;
+            }
+            if(this.names.size() >= MAX_CACHED_TYPES) {
+                this.names.clear();
+            }
+            this.names.put(type, fieldNames);
+        }
+        return fieldNames;
+    }
+
+    private void writeSeparator(final int i) {
+        if(i > 0) {
+            write((byte) ',');
+        }
+    }
+
+    // Escapes same characters as Gson JsonWriter without html safe option.
+    private void writeString(final String value) {
+        ensureCapacity(value.length() * 6 + 2);
+        final byte[] buf = this.buffer;
+        int pos = this.size;
+        buf[pos++] = '"';
+        for(int i=0; i<value.length(); i++) {
+            final char c = value.charAt(i);
+            if(c < 0x80) {
+                if(c >= 0x20 && c != '"' && c != '\\') {
+                    buf[pos++] = (byte) c;
+                    continue;
+                }
+                buf[pos++] = '\\';
+                switch (c) {
+                    case '"':
+                    case '\\':
+                        buf[pos++] = (byte) c;
+                        break;
+                    case '\t':
+                        buf[pos++] = 't';
+                        break;
+                    case '\b':
+                        buf[pos++] = 'b';
+                        break;
+                    case '\n':
+                        buf[pos++] = 'n';
+                        break;
+                    case '\r':
+                        buf[pos++] = 'r';
+                        break;
+                    case '\f':
+                        buf[pos++] = 'f';
+                        break;
+                    default:
+                        pos = writeUnicodeEscape(buf, pos, c);
+                }
+            } else if(c < 0x800) {
+                buf[pos++] = (byte) (0xc0 | (c >> 6));
+                buf[pos++] = (byte) (0x80 | (c & 0x3f));
+            } else if(c == '\u2028' || c == '\u2029') {
+                buf[pos++] = '\\';
+                pos = writeUnicodeEscape(buf, pos, c);
+            } else if(Character.isHighSurrogate(c) && i + 1 < value.length() && Character.isLowSurrogate(value.charAt(i + 1))) {
+                final int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                buf[pos++] = (byte) (0xf0 | (codePoint >> 18));
+                buf[pos++] = (byte) (0x80 | ((codePoint >> 12) & 0x3f));
+                buf[pos++] = (byte) (0x80 | ((codePoint >> 6) & 0x3f));
+                buf[pos++] = (byte) (0x80 | (codePoint & 0x3f));
+            } else if(Character.isSurrogate(c)) {
+                buf[pos++] = '?';
+            } else {
+                buf[pos++] = (byte) (0xe0 | (c >> 12));
+                buf[pos++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+                buf[pos++] = (byte) (0x80 | (c & 0x3f));
+            }
+        }
+        buf[pos++] = '"';
+        this.size = pos;
+    }
+
+    private static int writeUnicodeEscape(final byte[] buf, int pos, final char c) {
+        buf[pos++] = 'u';
+        buf[pos++] = HEX[(c >> 12) & 0xf];
+        buf[pos++] = HEX[(c >> 8) & 0xf];
+        buf[pos++] = HEX[(c >> 4) & 0xf];
+        buf[pos++] = HEX[c & 0xf];
+        return pos;
+    }
+
+    private void writeQuotedAscii(final String value) {
+        write((byte) '"');
+        writeAscii(value);
+        write((byte) '"');
+    }
+
+    private void writeAscii(final String value) {
+        ensureCapacity(value.length());
+        for(int i=0; i<value.length(); i++) {
+            this.buffer[this.size++] = (byte) value.charAt(i);
+        }
+    }
+
+    private void write(final byte b) {
+        ensureCapacity(1);
+        this.buffer[this.size++] = b;
+    }
+
+    private void write(final byte[] bytes) {
+        ensureCapacity(bytes.length);
+        System.arraycopy(bytes, 0, this.buffer, this.size, bytes.length);
+        this.size += bytes.length;
+    }
+
+    private void ensureCapacity(final int length) {
+        if(this.size + length > this.buffer.length) {
+            this.buffer = Arrays.copyOf(this.buffer, Math.max(this.buffer.length * 2, this.size + length));
+        }
+    }
+
+}
@@ -5,6 +5,10 @@ import com.google.cloud.spanner.Mutation;
 import com.google.cloud.spanner.Struct;
 import com.google.cloud.spanner.Type;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
 public class StructToMutationConverter {
 
     private StructToMutationConverter() {
@@ -12,109 +16,186 @@ public class StructToMutationConverter {
     }
 
     public static Mutation convert(final Struct struct, final String table, final Mutation.Op mutationOp) {
-        Mutation.WriteBuilder builder = createMutationWriteBuilder(table, mutationOp);
-        for(final Type.StructField field : struct.getType().getStructFields()) {
-            final String fieldName = field.getName();
-            final boolean isNullField = struct.isNull(fieldName);
-            switch(field.getType().getCode()) {
-                case STRING:
-                    builder = builder.set(fieldName).to(isNullField ? null : struct.getString(fieldName));
-                    break;
-                case BYTES:
-                    builder = builder.set(fieldName).to(isNullField ? null : struct.getBytes(fieldName));
-                    break;
-                case BOOL:
-                    builder = builder.set(fieldName).to(isNullField ? null : struct.getBoolean(fieldName));
-                    break;
-                case INT64:
-                    builder = builder.set(fieldName).to(isNullField ? null : struct.getLong(fieldName));
-                    break;
-                case FLOAT64:
-                    builder = builder.set(fieldName).to(isNullField ? null : struct.getDouble(fieldName));
-                    break;
-                case DATE:
-                    builder = builder.set(fieldName).to(isNullField ? null : struct.getDate(fieldName));
-                    break;
-                case TIMESTAMP:
-                    builder = builder.set(fieldName).to(isNullField ? null : struct.getTimestamp(fieldName));
-                    break;
-                case STRUCT:
-                    // NOT SUPPOERTED TO STORE STRUCT AS FIELD! (2019/03/04)
-                    // https://cloud.google.com/spanner/docs/data-types
-                    break;
-                case ARRAY:
-                    switch (field.getType().getArrayElementType().getCode()) {
-                        case STRING:
-                            builder = builder.set(fieldName).toStringArray(isNullField ? null : struct.getStringList(fieldName));
-                            break;
-                        case BYTES:
-                            builder = builder.set(fieldName).toBytesArray(isNullField ? null : struct.getBytesList(fieldName));
-                            break;
-                        case BOOL:
-                            builder = builder.set(fieldName).toBoolArray(isNullField ? null : struct.getBooleanArray(fieldName));
-                            break;
-                        case INT64:
-                            builder = builder.set(fieldName).toInt64Array(isNullField ? null : struct.getLongArray(fieldName));
-                            break;
-                        case FLOAT64:
-                            builder = builder.set(fieldName).toFloat64Array(isNullField ? null : struct.getDoubleArray(fieldName));
-                            break;
-                        case DATE:
-                            builder = builder.set(fieldName).toDateArray(isNullField ? null : struct.getDateList(fieldName));
-                            break;
-                        case TIMESTAMP:
-                            builder = builder.set(fieldName).toTimestampArray(isNullField ? null : struct.getTimestampList(fieldName));
-                            break;
-                        case STRUCT:
-                            // NOT SUPPOERTED TO STORE STRUCT AS FIELD! (2019/03/04)
-                            // https://cloud.google.com/spanner/docs/data-types
-                            break;
-                        case ARRAY:
-                            // NOT SUPPOERTED TO STORE ARRAY IN ARRAY FIELD! (2019/03/04)
-                            // https://cloud.google.com/spanner/docs/data-types
-                            break;
-                    }
+        return compile(struct.getType()).convert(struct, table, mutationOp);
+    }
+
+    public static Mutation delete(final Struct struct, final String table, final String keyFields) {
+        return compileKey(struct.getType(), Arrays.asList(keyFields.split(","))).delete(struct, table);
+    }
 
+    // Resolves column index and value setter of each struct field once per struct type.
+    public static MutationPlan compile(final Type type) {
+        final List<FieldSetter> setters = new ArrayList<>();
+        final List<Type.StructField> fields = type.getStructFields();
+        for(int i=0; i<fields.size(); i++) {
+            final FieldSetter setter = createSetter(fields.get(i).getName(), i, fields.get(i).getType());
+            if(setter != null) {
+                setters.add(setter);
             }
         }
-        return builder.build();
+        return new MutationPlan(setters.toArray(new FieldSetter[0]));
     }
 
-    public static Mutation delete(final Struct struct, final String table, final String keyFields) {
-        Key.Builder builder = Key.newBuilder();
-        for(final String keyField : keyFields.split(",")) {
-            if(struct.isNull(keyField)) {
-                throw new IllegalArgumentException(String.format("KeyField: %s must not be null!", keyField));
-            }
-            switch(struct.getColumnType(keyField).getCode()) {
+    public static KeyPlan compileKey(final Type type, final List<String> keyFields) {
+        final String[] names = new String[keyFields.size()];
+        final int[] indexes = new int[keyFields.size()];
+        final Type.Code[] codes = new Type.Code[keyFields.size()];
+        for(int i=0; i<keyFields.size(); i++) {
+            names[i] = keyFields.get(i);
+            indexes[i] = type.getFieldIndex(names[i]);
+            codes[i] = type.getStructFields().get(indexes[i]).getType().getCode();
+            switch (codes[i]) {
                 case STRING:
-                    builder = builder.append(struct.getString(keyField));
-                    break;
                 case BYTES:
-                    builder = builder.append(struct.getBytes(keyField));
-                    break;
                 case BOOL:
-                    builder = builder.append(struct.getBoolean(keyField));
-                    break;
                 case INT64:
-                    builder = builder.append(struct.getLong(keyField));
-                    break;
                 case FLOAT64:
-                    builder = builder.append(struct.getDouble(keyField));
-                    break;
                 case DATE:
-                    builder = builder.append(struct.getDate(keyField));
-                    break;
                 case TIMESTAMP:
-                    builder = builder.append(struct.getTimestamp(keyField));
                     break;
                 default:
                     throw new IllegalArgumentException(String.format(
-                            "field: %s, fieldType: %s at table %s, is impossible as Key.",
-                            keyField, struct.getColumnType(keyField).toString(), table));
+                            "field: %s, fieldType: %s, is impossible as Key.",
+                            names[i], type.getStructFields().get(indexes[i]).getType().toString()));
+            }
+        }
+        return new KeyPlan(names, indexes, codes);
+    }
+
+    public static class MutationPlan {
+
+        private final FieldSetter[] setters;
+
+        MutationPlan(FieldSetter[] setters) {
+            this.setters = setters;
+        }
+
+        public Mutation convert(final Struct struct, final String table, final Mutation.Op mutationOp) {
+            final Mutation.WriteBuilder builder = createMutationWriteBuilder(table, mutationOp);
+            for(final FieldSetter setter : this.setters) {
+                setter.set(builder, struct);
+            }
+            return builder.build();
+        }
+
+    }
+
+    public static class KeyPlan {
+
+        private final String[] names;
+        private final int[] indexes;
+        private final Type.Code[] codes;
+
+        KeyPlan(String[] names, int[] indexes, Type.Code[] codes) {
+            this.names = names;
+            this.indexes = indexes;
+            this.codes = codes;
+        }
+
+        public Mutation delete(final Struct struct, final String table) {
+            final Key.Builder builder = Key.newBuilder();
+            for(int i=0; i<this.indexes.length; i++) {
+                final int index = this.indexes[i];
+                if(struct.isNull(index)) {
+                    throw new IllegalArgumentException(String.format("KeyField: %s must not be null!", this.names[i]));
+                }
+                switch(this.codes[i]) {
+                    case STRING:
+                        builder.append(struct.getString(index));
+                        break;
+                    case BYTES:
+                        builder.append(struct.getBytes(index));
+                        break;
+                    case BOOL:
+                        builder.append(struct.getBoolean(index));
+                        break;
+                    case INT64:
+                        builder.append(struct.getLong(index));
+                        break;
+                    case FLOAT64:
+                        builder.append(struct.getDouble(index));
+                        break;
+                    case DATE:
+                        builder.append(struct.getDate(index));
+                        break;
+                    case TIMESTAMP:
+                        builder.append(struct.getTimestamp(index));
+                        break;
+                    default:
+                        throw new IllegalStateException();
+                }
             }
+            return Mutation.delete(table, builder.build());
+        }
+
+    }
+
+    private interface FieldSetter {
+        void set(Mutation.WriteBuilder builder, Struct struct);
+    }
+
+    private static FieldSetter createSetter(final String name, final int index, final Type type) {
+        switch(type.getCode()) {
+            case STRING:
+                return (b, s) -> b.set(name).to(s.isNull(index) ? null : s.getString(index));
+            case BYTES:
+                return (b, s) -> b.set(name).to(s.isNull(index) ? null : s.getBytes(index));
+            case BOOL:
+                return (b, s) -> {
+                    if(s.isNull(index)) {
+                        b.set(name).to((Boolean) null);
+                    } else {
+                        b.set(name).to(s.getBoolean(index));
+                    }
+                };
+            case INT64:
+                return (b, s) -> {
+                    if(s.isNull(index)) {
+                        b.set(name).to((Long) null);
+                    } else {
+                        b.set(name).to(s.getLong(index));
+                    }
+                };
+            case FLOAT64:
+                return (b, s) -> {
+                    if(s.isNull(index)) {
+                        b.set(name).to((Double) null);
+                    } else {
+                        b.set(name).to(s.getDouble(index));
+                    }
+                };
+            case DATE:
+                return (b, s) -> b.set(name).to(s.isNull(index) ? null : s.getDate(index));
+            case TIMESTAMP:
+                return (b, s) -> b.set(name).to(s.isNull(index) ? null : s.getTimestamp(index));
+            case STRUCT:
+                // NOT SUPPOERTED TO STORE STRUCT AS FIELD! (2019/03/04)
+                // https://cloud.google.com/spanner/docs/data-types
+                return null;
+            case ARRAY:
+                switch (type.getArrayElementType().getCode()) {
+                    case STRING:
+                        return (b, s) -> b.set(name).toStringArray(s.isNull(index) ? null : s.getStringList(index));
+                    case BYTES:
+                        return (b, s) -> b.set(name).toBytesArray(s.isNull(index) ? null : s.getBytesList(index));
+                    case BOOL:
+                        return (b, s) -> b.set(name).toBoolArray(s.isNull(index) ? null : s.getBooleanArray(index));
+                    case INT64:
+                        return (b, s) -> b.set(name).toInt64Array(s.isNull(index) ? null : s.getLongArray(index));
+                    case FLOAT64:
+                        return (b, s) -> b.set(name).toFloat64Array(s.isNull(index) ? null : s.getDoubleArray(index));
+                    case DATE:
+                        return (b, s) -> b.set(name).toDateArray(s.isNull(index) ? null : s.getDateList(index));
+                    case TIMESTAMP:
+                        return (b, s) -> b.set(name).toTimestampArray(s.isNull(index) ? null : s.getTimestampList(index));
+                    default:
+                        // NOT SUPPOERTED TO STORE STRUCT OR ARRAY IN ARRAY FIELD! (2019/03/04)
+                        // https://cloud.google.com/spanner/docs/data-types
+                        return null;
+                }
+            default:
+                return null;
         }
-        return Mutation.delete(table, builder.build());
     }
 
     private static Mutation.WriteBuilder createMutationWriteBuilder(final String table, final Mutation.Op mutationOp) {
@@ -1,190 +1,417 @@
 package net.orfeon.cloud.dataflow.util.converter;
 
+import com.google.cloud.ByteArray;
 import com.google.cloud.Date;
+import com.google.cloud.Timestamp;
 import com.google.cloud.spanner.Struct;
 import com.google.cloud.spanner.Type;
+import org.apache.avro.LogicalTypes;
 import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericData;
 import org.apache.avro.generic.GenericRecord;
-import org.apache.avro.generic.GenericRecordBuilder;
-import org.joda.time.DateTime;
-import org.joda.time.DateTimeZone;
-import org.joda.time.Days;
-import org.joda.time.MutableDateTime;
+import org.apache.avro.io.Encoder;
 
-import java.util.Optional;
-import java.util.stream.Collectors;
+import java.io.IOException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 
 public class StructToRecordConverter {
 
-    private static final MutableDateTime EPOCH_DATETIME = new MutableDateTime(0, DateTimeZone.UTC);
+    private static final int MAX_CACHED_PLANS = 1000;
+
+    private static final Map<Schema, Map<Type, RecordPlan>> PLANS = new ConcurrentHashMap<>();
 
     private StructToRecordConverter() {
 
     }
 
     public static GenericRecord convert(Struct struct, Schema schema) {
-        final GenericRecordBuilder builder = new GenericRecordBuilder(schema);
-        for(final Schema.Field field : schema.getFields()) {
-            setFieldValue(builder, field, struct);
-        }
-        return builder.build();
+        return getPlan(schema, struct.getType()).convert(struct);
     }
 
-    private static void setFieldValue(GenericRecordBuilder builder, Schema.Field field, Struct struct) {
-        setFieldValue(builder, field, field.schema(), struct);
+    static RecordPlan getPlan(final Schema schema, final Type type) {
+        final Map<Type, RecordPlan> plans = PLANS.computeIfAbsent(schema, s -> new ConcurrentHashMap<>());
+        RecordPlan plan = plans.get(type);
+        if(plan == null) {
+            plan = compile(schema, type);
+            if(plans.size() >= MAX_CACHED_PLANS) {
+                plans.clear();
+            }
+            plans.put(type, plan);
+        }
+        return plan;
     }
 
-    private static void setFieldValue(GenericRecordBuilder builder, Schema.Field field, Schema schema, Struct struct) {
-        final String fieldName = field.name();
-        final Optional<Type> type = struct.getType().getStructFields().stream()
-                .filter(f -> f.getName().equals(fieldName))
-                .map(f -> f.getType())
-                .findFirst();
-
-        if(!type.isPresent()) {
-            throw new IllegalArgumentException(String.format("Missing field %s", fieldName));
+    // Resolves struct field index, union branch and value conversion of each avro field once per schema and struct type.
+    static RecordPlan compile(final Schema schema, final Type type) {
+        if(!Schema.Type.RECORD.equals(schema.getType()) || !Type.Code.STRUCT.equals(type.getCode())) {
+            throw new IllegalArgumentException(String.format("Schema %s is not compatible with struct type %s", schema, type));
         }
-
-        if(struct.isNull(fieldName)) {
-            builder.set(fieldName, null);
-            return;
+        final List<Schema.Field> fields = schema.getFields();
+        final int[] indexes = new int[fields.size()];
+        final ValuePlan[] values = new ValuePlan[fields.size()];
+        for(int i=0; i<fields.size(); i++) {
+            final Schema.Field field = fields.get(i);
+            try {
+                indexes[i] = type.getFieldIndex(field.name());
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException(String.format("Missing field %s", field.name()), e);
+            }
+            values[i] = compileValue(field.schema(), type.getStructFields().get(indexes[i]).getType());
         }
+        return new RecordPlan(schema, indexes, values);
+    }
 
+    private static ValuePlan compileValue(final Schema schema, final Type type) {
+        if(Schema.Type.UNION.equals(schema.getType())) {
+            int nullIndex = -1;
+            int valueIndex = -1;
+            for(int i=0; i<schema.getTypes().size(); i++) {
+                if(Schema.Type.NULL.equals(schema.getTypes().get(i).getType())) {
+                    nullIndex = i;
+                } else if(valueIndex < 0) {
+                    valueIndex = i;
+                }
+            }
+            if(valueIndex < 0) {
+                throw new IllegalArgumentException(String.format("Union schema %s has no value type", schema));
+            }
+            final ValuePlan plan = compileValue(schema.getTypes().get(valueIndex), type);
+            return new ValuePlan(plan.kind, nullIndex, valueIndex, plan.record, plan.element);
+        }
         switch (schema.getType()) {
             case STRING:
-                builder.set(field, struct.getString(fieldName));
-                break;
+                return new ValuePlan(Kind.STRING);
             case BYTES:
-                builder.set(field, struct.getBytes(fieldName).asReadOnlyByteBuffer());
-                break;
+                return new ValuePlan(Kind.BYTES);
+            case BOOLEAN:
+                return new ValuePlan(Kind.BOOLEAN);
+            case DOUBLE:
+                return new ValuePlan(Kind.FLOAT64);
+            case FLOAT:
+                return new ValuePlan(Kind.FLOAT32);
             case INT:
-                if(Type.date().equals(type.get())) {
-                    final Date date = struct.getDate(fieldName);
-                    final DateTime datetime = new DateTime(date.getYear(), date.getMonth(), date.getDayOfMonth(), 0, 0, DateTimeZone.UTC);
-                    final Days days = Days.daysBetween(EPOCH_DATETIME, datetime);
-                    builder.set(field, days.getDays());
-                } else {
-                    builder.set(field, struct.getLong(fieldName));
-                }
-                break;
+                return new ValuePlan(Type.Code.DATE.equals(type.getCode()) ? Kind.DATE : Kind.INT32);
             case LONG:
-                if(Type.timestamp().equals(type.get())) {
-                    builder.set(field, struct.getTimestamp(fieldName).getSeconds() * 1000);
-                } else {
-                    builder.set(field, struct.getLong(fieldName));
+                if(Type.Code.TIMESTAMP.equals(type.getCode())) {
+                    return new ValuePlan(LogicalTypes.timestampMicros().equals(schema.getLogicalType()) ?
+                            Kind.TIMESTAMP_MICROS : Kind.TIMESTAMP_MILLIS);
                 }
-                break;
-            case DOUBLE:
-                builder.set(field, struct.getDouble(fieldName));
-                break;
-            case BOOLEAN:
-                builder.set(field, struct.getBoolean(fieldName));
-                break;
+                return new ValuePlan(Kind.INT64);
             case RECORD:
-                final GenericRecord chileRecord = convert(struct.getStruct(fieldName), schema);
-                builder.set(field, chileRecord);
-                break;
-            case UNION:
-                for(final Schema childSchema : schema.getTypes()) {
-                    if(Schema.Type.NULL.equals(childSchema.getType())) {
-                        continue;
-                    }
-                    setFieldValue(builder, field, childSchema, struct);
-                }
-                break;
+                return new ValuePlan(Kind.RECORD, -1, -1, compile(schema, type), null);
             case ARRAY:
-                setArrayFieldValue(builder, field, schema.getElementType(), struct);
-                break;
-            case NULL:
-                builder.set(fieldName, null);
-                break;
-            case FLOAT:
-            case ENUM:
-            case MAP:
-            case FIXED:
-                break;
+                if(!Type.Code.ARRAY.equals(type.getCode())) {
+                    throw new IllegalArgumentException(String.format("Schema %s is not compatible with struct type %s", schema, type));
+                }
+                return new ValuePlan(Kind.ARRAY, -1, -1, null, compileValue(schema.getElementType(), type.getArrayElementType()));
             default:
-                break;
+                throw new IllegalArgumentException(String.format("Avro type %s is not supported to convert from struct", schema.getType()));
         }
     }
 
-    private static void setArrayFieldValue(GenericRecordBuilder builder, Schema.Field field, Schema schema, Struct struct) {
-        final String fieldName = field.name();
-        final Optional<Type> type = struct.getType().getStructFields().stream()
-                .filter(f -> f.getName().equals(fieldName))
-                .map(f -> f.getType())
-                .findFirst();
+    private enum Kind {
+        STRING,
+        BYTES,
+        BOOLEAN,
+        INT32,
+        INT64,
+        FLOAT32,
+        FLOAT64,
+        DATE,
+        TIMESTAMP_MILLIS,
+        TIMESTAMP_MICROS,
+        RECORD,
+        ARRAY
+    }
+
+    private static class ValuePlan {
 
-        if(!type.isPresent()) {
-            throw new IllegalArgumentException(String.format("Missing field %s", fieldName));
+        private final Kind kind;
+        private final int nullIndex;
+        private final int valueIndex;
+        private final RecordPlan record;
+        private final ValuePlan element;
+
+        ValuePlan(Kind kind) {
+            this(kind, -1, -1, null, null);
         }
-        if(struct.isNull(fieldName)) {
-            builder.set(fieldName, null);
-            return;
+
+        ValuePlan(Kind kind, int nullIndex, int valueIndex, RecordPlan record, ValuePlan element) {
+            this.kind = kind;
+            this.nullIndex = nullIndex;
+            this.valueIndex = valueIndex;
+            this.record = record;
+            this.element = element;
         }
-        switch (schema.getType()) {
+
+    }
+
+    static class RecordPlan {
+
+        private final Schema schema;
+        private final int[] indexes;
+        private final ValuePlan[] values;
+
+        RecordPlan(Schema schema, int[] indexes, ValuePlan[] values) {
+            this.schema = schema;
+            this.indexes = indexes;
+            this.values = values;
+        }
+
+        GenericRecord convert(final Struct struct) {
+            final GenericData.Record record = new GenericData.Record(this.schema);
+            for(int i=0; i<this.indexes.length; i++) {
+                final int index = this.indexes[i];
+                if(!struct.isNull(index)) {
+                    record.put(i, getValue(struct, index, this.values[i]));
+                }
+            }
+            return record;
+        }
+
+        void write(final Struct struct, final Encoder encoder) throws IOException {
+            for(int i=0; i<this.indexes.length; i++) {
+                final int index = this.indexes[i];
+                final ValuePlan plan = this.values[i];
+                if(struct.isNull(index)) {
+                    writeNull(plan, encoder);
+                    continue;
+                }
+                if(plan.valueIndex >= 0) {
+                    encoder.writeIndex(plan.valueIndex);
+                }
+                writeValue(struct, index, plan, encoder);
+            }
+        }
+
+    }
+
+    private static Object getValue(final Struct struct, final int index, final ValuePlan plan) {
+        switch (plan.kind) {
             case STRING:
-                builder.set(field, struct.getStringList(fieldName));
-                break;
+                return struct.getString(index);
             case BYTES:
-                builder.set(field, struct.getBytesList(fieldName)
-                        .stream()
-                        .map(b -> b.asReadOnlyByteBuffer())
-                        .collect(Collectors.toList()));
-                break;
-            case INT:
-                if(Type.array(Type.date()).equals(type.get())) {
-                    builder.set(field, struct.getDateList(fieldName).stream()
-                            .map(date -> new DateTime(date.getYear(), date.getMonth(), date.getDayOfMonth(), 0, 0, DateTimeZone.UTC))
-                            .map(datetime -> Days.daysBetween(EPOCH_DATETIME, datetime).getDays())
-                            .collect(Collectors.toList()));
-                } else {
-                    builder.set(field, struct.getLongList(fieldName));
-                }
-                break;
-            case LONG:
-                if(Type.array(Type.timestamp()).equals(type.get())) {
-                    builder.set(field, struct.getTimestampList(fieldName).stream()
-                            .map(timestamp -> timestamp.getSeconds() * 1000)
-                            .collect(Collectors.toList()));
-                } else {
-                    builder.set(field, struct.getLongList(fieldName));
+                return struct.getBytes(index).asReadOnlyByteBuffer();
+            case BOOLEAN:
+                return struct.getBoolean(index);
+            case INT32:
+                return (int) struct.getLong(index);
+            case INT64:
+                return struct.getLong(index);
+            case FLOAT32:
+                return (float) struct.getDouble(index);
+            case FLOAT64:
+                return struct.getDouble(index);
+            case DATE:
+                return toEpochDays(struct.getDate(index));
+            case TIMESTAMP_MILLIS:
+                return toEpochMillis(struct.getTimestamp(index));
+            case TIMESTAMP_MICROS:
+                return toEpochMicros(struct.getTimestamp(index));
+            case RECORD:
+                return plan.record.convert(struct.getStruct(index));
+            case ARRAY:
+                return getArrayValue(struct, index, plan.element);
+            default:
+                throw new IllegalStateException();
+        }
+    }
+
+    private static List<?> getArrayValue(final Struct struct, final int index, final ValuePlan element) {
+        switch (element.kind) {
+            case STRING:
+                return struct.getStringList(index);
+            case BOOLEAN:
+                return struct.getBooleanList(index);
+            case INT64:
+                return struct.getLongList(index);
+            case FLOAT64:
+                return struct.getDoubleList(index);
+            case BYTES:
+            case DATE:
+            case TIMESTAMP_MILLIS:
+            case TIMESTAMP_MICROS:
+            case INT32:
+            case FLOAT32:
+            case RECORD:
+                final List<?> values = getList(struct, index, element);
+                final List<Object> converted = new ArrayList<>(values.size());
+                for(final Object value : values) {
+                    converted.add(value == null ? null : convertObject(value, element));
                 }
-                break;
-            case DOUBLE:
-                builder.set(field, struct.getDoubleList(fieldName));
-                break;
+                return converted;
+            default:
+                throw new IllegalArgumentException(String.format("Array of %s is not supported", element.kind));
+        }
+    }
+
+    private static Object convertObject(final Object value, final ValuePlan plan) {
+        switch (plan.kind) {
+            case BYTES:
+                return ((ByteArray) value).asReadOnlyByteBuffer();
+            case DATE:
+                return toEpochDays((Date) value);
+            case TIMESTAMP_MILLIS:
+                return toEpochMillis((Timestamp) value);
+            case TIMESTAMP_MICROS:
+                return toEpochMicros((Timestamp) value);
+            case INT32:
+                return ((Long) value).intValue();
+            case FLOAT32:
+                return ((Double) value).floatValue();
+            case RECORD:
+                return plan.record.convert((Struct) value);
+            default:
+                return value;
+        }
+    }
+
+    private static void writeNull(final ValuePlan plan, final Encoder encoder) throws IOException {
+        if(plan.nullIndex < 0) {
+            throw new IllegalArgumentException("Null value for not nullable avro field");
+        }
+        encoder.writeIndex(plan.nullIndex);
+        encoder.writeNull();
+    }
+
+    private static void writeValue(final Struct struct, final int index, final ValuePlan plan, final Encoder encoder) throws IOException {
+        switch (plan.kind) {
+            case STRING:
+                encoder.writeString(struct.getString(index));
+                return;
+            case BYTES:
+                encoder.writeBytes(struct.getBytes(index).toByteArray());
+                return;
             case BOOLEAN:
-                builder.set(field, struct.getBooleanList(fieldName));
-                break;
+                encoder.writeBoolean(struct.getBoolean(index));
+                return;
+            case INT32:
+                encoder.writeInt((int) struct.getLong(index));
+                return;
+            case INT64:
+                encoder.writeLong(struct.getLong(index));
+                return;
+            case FLOAT32:
+                encoder.writeFloat((float) struct.getDouble(index));
+                return;
+            case FLOAT64:
+                encoder.writeDouble(struct.getDouble(index));
+                return;
+            case DATE:
+                encoder.writeInt(toEpochDays(struct.getDate(index)));
+                return;
+            case TIMESTAMP_MILLIS:
+                encoder.writeLong(toEpochMillis(struct.getTimestamp(index)));
+                return;
+            case TIMESTAMP_MICROS:
+                encoder.writeLong(toEpochMicros(struct.getTimestamp(index)));
+                return;
             case RECORD:
-                builder.set(field, struct.getStructList(fieldName).stream()
-                        .map(childStruct -> convert(childStruct, schema))
-                        .collect(Collectors.toList()));
-                break;
-            case UNION:
-                for(final Schema childSchema : schema.getTypes()) {
-                    if(Schema.Type.NULL.equals(childSchema.getType())) {
+                plan.record.write(struct.getStruct(index), encoder);
+                return;
+            case ARRAY:
+                final List<?> values = getList(struct, index, plan.element);
+                encoder.writeArrayStart();
+                encoder.setItemCount(values.size());
+                for(final Object value : values) {
+                    encoder.startItem();
+                    if(value == null) {
+                        writeNull(plan.element, encoder);
                         continue;
                     }
-                    setArrayFieldValue(builder, field, childSchema, struct);
+                    if(plan.element.valueIndex >= 0) {
+                        encoder.writeIndex(plan.element.valueIndex);
+                    }
+                    writeObject(value, plan.element, encoder);
                 }
-                break;
-            case ARRAY:
-                setArrayFieldValue(builder, field, schema.getElementType(), struct);
-                break;
-            case NULL:
-                builder.set(fieldName, null);
-                break;
-            case FLOAT:
-            case ENUM:
-            case MAP:
-            case FIXED:
-                break;
+                encoder.writeArrayEnd();
+                return;
+            default:
+                throw new IllegalStateException();
+        }
+    }
+
+    private static void writeObject(final Object value, final ValuePlan plan, final Encoder encoder) throws IOException {
+        switch (plan.kind) {
+            case STRING:
+                encoder.writeString((String) value);
+                return;
+            case BYTES:
+                encoder.writeBytes(((ByteArray) value).toByteArray());
+                return;
+            case BOOLEAN:
+                encoder.writeBoolean((Boolean) value);
+                return;
+            case INT32:
+                encoder.writeInt(((Long) value).intValue());
+                return;
+            case INT64:
+                encoder.writeLong((Long) value);
+                return;
+            case FLOAT32:
+                encoder.writeFloat(((Double) value).floatValue());
+                return;
+            case FLOAT64:
+                encoder.writeDouble((Double) value);
+                return;
+            case DATE:
+                encoder.writeInt(toEpochDays((Date) value));
+                return;
+            case TIMESTAMP_MILLIS:
+                encoder.writeLong(toEpochMillis((Timestamp) value));
+                return;
+            case TIMESTAMP_MICROS:
+                encoder.writeLong(toEpochMicros((Timestamp) value));
+                return;
+            case RECORD:
+                plan.record.write((Struct) value, encoder);
+                return;
+            default:
+                throw new IllegalArgumentException(String.format("Array of %s is not supported", plan.kind));
+        }
+    }
+
+    private static List<?> getList(final Struct struct, final int index, final ValuePlan element) {
+        switch (element.kind) {
+            case STRING:
+                return struct.getStringList(index);
+            case BYTES:
+                return struct.getBytesList(index);
+            case BOOLEAN:
+                return struct.getBooleanList(index);
+            case INT32:
+            case INT64:
+                return struct.getLongList(index);
+            case FLOAT32:
+            case FLOAT64:
+                return struct.getDoubleList(index);
+            case DATE:
+                return struct.getDateList(index);
+            case TIMESTAMP_MILLIS:
+            case TIMESTAMP_MICROS:
+                return struct.getTimestampList(index);
+            case RECORD:
+                return struct.getStructList(index);
             default:
-                break;
+                throw new IllegalArgumentException(String.format("Array of %s is not supported", element.kind));
         }
     }
 
+    private static int toEpochDays(final Date date) {
+        return (int) LocalDate.of(date.getYear(), date.getMonth(), date.getDayOfMonth()).toEpochDay();
+    }
+
+    private static long toEpochMillis(final Timestamp timestamp) {
+        return timestamp.getSeconds() * 1000 + timestamp.getNanos() / 1000000;
+    }
+
+    private static long toEpochMicros(final Timestamp timestamp) {
+        return timestamp.getSeconds() * 1000000 + timestamp.getNanos() / 1000;
+    }
+
 }
@@ -0,0 +1,184 @@
+package net.orfeon.cloud.dataflow.util.converter;
+
+import com.google.cloud.ByteArray;
+import com.google.cloud.Date;
+import com.google.cloud.Timestamp;
+import com.google.cloud.spanner.Struct;
+import com.google.cloud.spanner.Type;
+import org.apache.beam.sdk.schemas.Schema;
+import org.apache.beam.sdk.values.Row;
+import org.joda.time.DateTimeZone;
+import org.joda.time.Instant;
+import org.joda.time.chrono.ISOChronology;
+
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * Converts Spanner Struct to Beam Row. All fields are nullable.
+ * TIMESTAMP is converted to DATETIME in milliseconds, and DATE is converted to DATETIME with metadata {@link #DATE_METADATA}.
+ */
+public class StructToRowConverter {
+
+    public static final String DATE_METADATA = "DATE";
+
+    private StructToRowConverter() {
+
+    }
+
+    public static Schema convertSchema(final Type type) {
+        final Schema.Builder builder = Schema.builder();
+        for(final Type.StructField field : type.getStructFields()) {
+            builder.addNullableField(field.getName(), convertFieldType(field.getType()));
+        }
+        return builder.build();
+    }
+
+    public static Schema.FieldType convertFieldType(final Type type) {
+        switch (type.getCode()) {
+            case BOOL:
+                return Schema.FieldType.BOOLEAN;
+            case INT64:
+                return Schema.FieldType.INT64;
+            case FLOAT64:
+                return Schema.FieldType.DOUBLE;
+            case STRING:
+                return Schema.FieldType.STRING;
+            case BYTES:
+                return Schema.FieldType.BYTES;
+            case TIMESTAMP:
+                return Schema.FieldType.DATETIME;
+            case DATE:
+                return Schema.FieldType.DATETIME.withMetadata(DATE_METADATA);
+            case STRUCT:
+                return Schema.FieldType.row(convertSchema(type));
+            case ARRAY:
+                return Schema.FieldType.array(convertFieldType(type.getArrayElementType()));
+            default:
+                throw new IllegalArgumentException(String.format("Not supported type %s to beam schema", type));
+        }
+    }
+
+    /** Converts struct to row with the schema. Fields are taken by schema field names, so schema can be a projection of the struct. */
+    public static Row convert(final Struct struct, final Schema schema) {
+        return convert(struct, schema, resolveIndexes(schema, struct.getType()));
+    }
+
+    /** Returns struct field index per schema field, to convert structs of the type by {@link #convert(Struct, Schema, int[])}. */
+    public static int[] resolveIndexes(final Schema schema, final Type type) {
+        final List<Type.StructField> fields = type.getStructFields();
+        final int[] indexes = new int[schema.getFieldCount()];
+        for(int i=0; i<indexes.length; i++) {
+            final String name = schema.getField(i).getName();
+            indexes[i] = -1;
+            for(int j=0; j<fields.size(); j++) {
+                if(fields.get(j).getName().equals(name)) {
+                    indexes[i] = j;
+                    break;
+                }
+            }
+            if(indexes[i] < 0) {
+                throw new IllegalArgumentException(String.format("Field %s is not found in struct type %s", name, type));
+            }
+        }
+        return indexes;
+    }
+
+    public static Row convert(final Struct struct, final Schema schema, final int[] indexes) {
+        final List<Type.StructField> fields = struct.getType().getStructFields();
+        final List<Object> values = new ArrayList<>(indexes.length);
+        for(int i=0; i<indexes.length; i++) {
+            values.add(getValue(struct, indexes[i], fields.get(indexes[i]).getType(), schema.getField(i).getType()));
+        }
+        return Row.withSchema(schema).addValues(values).build();
+    }
+
+    private static Object getValue(final Struct struct, final int index, final Type type, final Schema.FieldType fieldType) {
+        if(struct.isNull(index)) {
+            return null;
+        }
+        switch (type.getCode()) {
+            case BOOL:
+                return struct.getBoolean(index);
+            case INT64:
+                return struct.getLong(index);
+            case FLOAT64:
+                return struct.getDouble(index);
+            case STRING:
+                return struct.getString(index);
+            case BYTES:
+                return struct.getBytes(index).toByteArray();
+            case TIMESTAMP:
+                return toInstant(struct.getTimestamp(index));
+            case DATE:
+                return toInstant(struct.getDate(index));
+            case STRUCT: {
+                final Struct child = struct.getStruct(index);
+                return convert(child, fieldType.getRowSchema(), resolveIndexes(fieldType.getRowSchema(), child.getType()));
+            }
+            case ARRAY:
+                return getArrayValue(struct, index, type.getArrayElementType(), fieldType.getCollectionElementType());
+            default:
+                throw new IllegalArgumentException(String.format("Not supported type %s to beam row", type));
+        }
+    }
+
+    private static List<Object> getArrayValue(final Struct struct, final int index, final Type elementType, final Schema.FieldType fieldType) {
+        final List<Object> values = new ArrayList<>();
+        switch (elementType.getCode()) {
+            case BOOL:
+                values.addAll(struct.getBooleanList(index));
+                return values;
+            case INT64:
+                values.addAll(struct.getLongList(index));
+                return values;
+            case FLOAT64:
+                values.addAll(struct.getDoubleList(index));
+                return values;
+            case STRING:
+                values.addAll(struct.getStringList(index));
+                return values;
+            case BYTES:
+                for(final ByteArray value : struct.getBytesList(index)) {
+                    values.add(value == null ? null : value.toByteArray());
+                }
+                return values;
+            case TIMESTAMP:
+                for(final Timestamp value : struct.getTimestampList(index)) {
+                    values.add(value == null ? null : toInstant(value));
+                }
+                return values;
+            case DATE:
+                for(final Date value : struct.getDateList(index)) {
+                    values.add(value == null ? null : toInstant(value));
+                }
+                return values;
+            case STRUCT:
+                int[] indexes = null;
+                for(final Struct value : struct.getStructList(index)) {
+                    if(value == null) {
+                        values.add(null);
+                        continue;
+                    }
+                    if(indexes == null) {
+                        indexes = resolveIndexes(fieldType.getRowSchema(), value.getType());
+                    }
+                    values.add(convert(value, fieldType.getRowSchema(), indexes));
+                }
+                return values;
+            default:
+                throw new IllegalArgumentException(String.format("Not supported array element type %s to beam row", elementType));
+        }
+    }
+
+    private static Instant toInstant(final Timestamp timestamp) {
+        return new Instant(timestamp.getSeconds() * 1000 + timestamp.getNanos() / 1000000);
+    }
+
+    private static Instant toInstant(final Date date) {
+        return new Instant(ISOChronology.getInstance(DateTimeZone.UTC)
+                .getDateTimeMillis(date.getYear(), date.getMonth(), date.getDayOfMonth(), 0));
+    }
+
+}
@@ -0,0 +1,81 @@
+package net.orfeon.cloud.dataflow.dofns;
+
+import com.google.cloud.bigquery.TableId;
+import org.apache.beam.sdk.coders.IterableCoder;
+import org.apache.beam.sdk.coders.StringUtf8Coder;
+import org.apache.beam.sdk.io.FileSystems;
+import org.apache.beam.sdk.io.fs.MatchResult;
+import org.apache.beam.sdk.testing.TestPipeline;
+import org.apache.beam.sdk.transforms.Create;
+import org.apache.beam.sdk.transforms.ParDo;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/** Test case for the {@link BigQueryLoadDoFn} class. */
+@RunWith(JUnit4.class)
+public class BigQueryLoadDoFnTest {
+
+    @Rule
+    public final transient TestPipeline pipeline = TestPipeline.create();
+
+    @Rule
+    public final TemporaryFolder tmpDir = new TemporaryFolder();
+
+    @Test
+    public void testParseTableId() {
+        Assert.assertEquals(TableId.of("myproject", "mydataset", "mytable"),
+                BigQueryLoadDoFn.parseTableId("myproject:mydataset.mytable"));
+        Assert.assertEquals(TableId.of("mydataset", "mytable"),
+                BigQueryLoadDoFn.parseTableId("mydataset.mytable"));
+    }
+
+    @Test
+    public void testCreateJobId() throws Exception {
+        final File a = this.tmpDir.newFile("result-00000-of-00002.avro");
+        final File b = this.tmpDir.newFile("result-00001-of-00002.avro");
+        a.setLastModified(1546300800000L);
+        b.setLastModified(1546300800000L);
+        final String jobId = BigQueryLoadDoFn.createJobId(match(a, b));
+        Assert.assertEquals(jobId, BigQueryLoadDoFn.createJobId(match(a, b)));
+        Assert.assertNotEquals(jobId, BigQueryLoadDoFn.createJobId(match(a)));
+        Assert.assertTrue(jobId.matches("[a-zA-Z0-9_]+"));
+
+        // Next run stages files with the same names.
+        b.setLastModified(1546387200000L);
+        Assert.assertNotEquals(jobId, BigQueryLoadDoFn.createJobId(match(a, b)));
+    }
+
+    @Test
+    public void testDeleteFiles() throws Exception {
+        final File file = this.tmpDir.newFile("loaded.avro");
+        final String missing = new File(this.tmpDir.getRoot(), "missing.avro").getAbsolutePath();
+        pipeline.apply("CreateDummy", Create.<Iterable<String>>of(Arrays.asList(file.getAbsolutePath(), missing))
+                        .withCoder(IterableCoder.of(StringUtf8Coder.of())))
+                .apply("DeleteFiles", ParDo.of(new BigQueryLoadDoFn.DeleteFilesDoFn()));
+        pipeline.run();
+        Assert.assertFalse(file.exists());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testParseTableIdWithoutDataset() {
+        BigQueryLoadDoFn.parseTableId("myproject:mytable");
+    }
+
+    private static List<MatchResult.Metadata> match(final File... files) throws Exception {
+        final List<MatchResult.Metadata> metadata = new ArrayList<>();
+        for(final File file : files) {
+            metadata.add(FileSystems.matchSingleFileSpec(file.getAbsolutePath()));
+        }
+        return metadata;
+    }
+
+}
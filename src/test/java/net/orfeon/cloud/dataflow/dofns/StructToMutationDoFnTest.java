@@ -1,5 +1,6 @@
 package net.orfeon.cloud.dataflow.dofns;
 
+import com.google.cloud.spanner.Key;
 import com.google.cloud.spanner.Mutation;
 import com.google.cloud.spanner.Struct;
 import net.orfeon.cloud.dataflow.util.DummyDataSupplier;
@@ -42,4 +43,23 @@ public class StructToMutationDoFnTest {
 
     }
 
+    @Test
+    public void testDelete() {
+
+        Struct struct1 = DummyDataSupplier.createSimpleStruct();
+        ValueProvider<String> table = ValueProvider.StaticValueProvider.of("table1");
+        ValueProvider<String> mutationOp = ValueProvider.StaticValueProvider.of("DELETE");
+        ValueProvider<String> keyFields = ValueProvider.StaticValueProvider.of("csf,cif");
+
+        PCollection<Mutation> mutations =  pipeline
+                .apply("SupplyDummyStruct", Create.of(struct1))
+                .apply("ConvertToMutation", ParDo.of(new StructToMutationDoFn(table, mutationOp, keyFields)));
+
+        PAssert.that(mutations).containsInAnyOrder(
+                Mutation.delete("table1", Key.of(struct1.getString("csf"), struct1.getLong("cif"))));
+
+        pipeline.run();
+
+    }
+
 }
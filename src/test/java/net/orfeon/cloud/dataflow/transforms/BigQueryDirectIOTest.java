@@ -0,0 +1,88 @@
+package net.orfeon.cloud.dataflow.transforms;
+
+import com.google.api.gax.paging.Page;
+import com.google.cloud.bigquery.*;
+import net.orfeon.cloud.dataflow.util.AvroSchemaUtil;
+import org.apache.beam.sdk.io.gcp.bigquery.SchemaAndRecord;
+import org.apache.beam.sdk.transforms.SerializableFunction;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/** Test case for the {@link BigQueryDirectIO} class. */
+@RunWith(JUnit4.class)
+public class BigQueryDirectIOTest {
+
+    @Test
+    public void testIsSmallQuery() {
+        final BigQuery bigquery = Mockito.mock(BigQuery.class);
+        final Job job = Mockito.mock(Job.class);
+        final JobStatistics.QueryStatistics statistics = Mockito.mock(JobStatistics.QueryStatistics.class);
+        Mockito.when(bigquery.create(Mockito.any(JobInfo.class))).thenReturn(job);
+        Mockito.doReturn(statistics).when(job).getStatistics();
+        Mockito.when(statistics.getTotalBytesProcessed()).thenReturn(1000L);
+
+        Assert.assertTrue(BigQueryDirectIO.QueryExecuteDoFn.isSmallQuery(bigquery, "SELECT 1", 1000L));
+        Assert.assertFalse(BigQueryDirectIO.QueryExecuteDoFn.isSmallQuery(bigquery, "SELECT 1", 999L));
+
+        // Query is checked by dry run.
+        final ArgumentCaptor<JobInfo> captor = ArgumentCaptor.forClass(JobInfo.class);
+        Mockito.verify(bigquery, Mockito.times(2)).create(captor.capture());
+        final QueryJobConfiguration config = captor.getValue().getConfiguration();
+        Assert.assertTrue(config.dryRun());
+        Assert.assertEquals("SELECT 1", config.getQuery());
+    }
+
+    @Test
+    public void testIsSmallQueryDisabled() {
+        final BigQuery bigquery = Mockito.mock(BigQuery.class);
+        Assert.assertFalse(BigQueryDirectIO.QueryExecuteDoFn.isSmallQuery(bigquery, "SELECT 1", null));
+        Assert.assertFalse(BigQueryDirectIO.QueryExecuteDoFn.isSmallQuery(bigquery, "SELECT 1", 0L));
+        Mockito.verifyZeroInteractions(bigquery);
+    }
+
+    @Test
+    public void testCreateQueryConfig() {
+        final QueryJobConfiguration small = BigQueryDirectIO.QueryExecuteDoFn.createQueryConfig("SELECT 1", null);
+        Assert.assertNull(small.getDestinationTable());
+        Assert.assertFalse(small.useLegacySql());
+
+        final TableId tableId = TableId.of("dataset", "table");
+        final QueryJobConfiguration large = BigQueryDirectIO.QueryExecuteDoFn.createQueryConfig("SELECT 1", tableId);
+        Assert.assertEquals(tableId, large.getDestinationTable());
+        Assert.assertTrue(large.allowLargeResults());
+        Assert.assertEquals(JobInfo.WriteDisposition.WRITE_TRUNCATE, large.getWriteDisposition());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testReadQueryResults() {
+        final Schema schema = Schema.of(
+                Field.of("name", LegacySQLTypeName.STRING),
+                Field.of("count", LegacySQLTypeName.INTEGER));
+        final Page<FieldValueList> page = Mockito.mock(Page.class);
+        Mockito.when(page.iterateAll()).thenReturn(Arrays.asList(
+                FieldValueList.of(Arrays.asList(
+                        FieldValue.of(FieldValue.Attribute.PRIMITIVE, "a"),
+                        FieldValue.of(FieldValue.Attribute.PRIMITIVE, "1")), schema.getFields()),
+                FieldValueList.of(Arrays.asList(
+                        FieldValue.of(FieldValue.Attribute.PRIMITIVE, "b"),
+                        FieldValue.of(FieldValue.Attribute.PRIMITIVE, null)), schema.getFields())));
+        final TableResult result = new TableResult(schema, 2, page);
+
+        final List<String> values = new ArrayList<>();
+        final SerializableFunction<SchemaAndRecord, String> parseFn = (SchemaAndRecord r) ->
+                String.format("%s-%s", r.getRecord().get("name"), r.getRecord().get("count"));
+        BigQueryDirectIO.QueryExecuteDoFn.readQueryResults(result, AvroSchemaUtil.convertSchema(schema), parseFn, values::add);
+
+        Assert.assertEquals(Arrays.asList("a-1", "b-null"), values);
+    }
+
+}
@@ -0,0 +1,203 @@
+package net.orfeon.cloud.dataflow.transforms;
+
+import com.google.cloud.spanner.Struct;
+import org.apache.beam.sdk.options.ValueProvider;
+import org.apache.beam.sdk.schemas.Schema;
+import org.apache.beam.sdk.testing.PAssert;
+import org.apache.beam.sdk.testing.TestPipeline;
+import org.apache.beam.sdk.transforms.MapElements;
+import org.apache.beam.sdk.values.KV;
+import org.apache.beam.sdk.values.PCollection;
+import org.apache.beam.sdk.values.TypeDescriptors;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.Statement;
+import java.sql.Types;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/** Test case for the {@link JdbcQueryIO} class. */
+@RunWith(JUnit4.class)
+public class JdbcQueryIOTest {
+
+    @Rule
+    public final transient TestPipeline pipeline = TestPipeline.create();
+
+    @Test
+    public void testReadShards() throws Exception {
+        for(int shard=0; shard<2; shard++) {
+            try(final Connection connection = DriverManager.getConnection(String.format("jdbc:h2:mem:jdbcreadtest%d;DB_CLOSE_DELAY=-1", shard), "sa", "");
+                final Statement statement = connection.createStatement()) {
+                statement.execute("CREATE TABLE users (id BIGINT PRIMARY KEY, name VARCHAR(32))");
+                for(int i=0; i<10; i++) {
+                    statement.execute(String.format("INSERT INTO users VALUES (%d, 'name%d')", i, i));
+                }
+            }
+        }
+
+        final PCollection<String> results = pipeline
+                .apply("ReadJdbc", JdbcQueryIO.read(
+                        ValueProvider.StaticValueProvider.of("org.h2.Driver"),
+                        ValueProvider.StaticValueProvider.of("jdbc:h2:mem:jdbcreadtest{shard};DB_CLOSE_DELAY=-1"),
+                        ValueProvider.StaticValueProvider.of("sa"),
+                        ValueProvider.StaticValueProvider.of(""),
+                        ValueProvider.StaticValueProvider.of("SELECT * FROM users WHERE id < 3"),
+                        ValueProvider.StaticValueProvider.of(null))
+                        .withShards(ValueProvider.StaticValueProvider.of("0-1"))
+                        .withShardColumn(ValueProvider.StaticValueProvider.of("shard"))
+                        .withPartitionColumn(ValueProvider.StaticValueProvider.of("id"))
+                        .withPartitionNum(ValueProvider.StaticValueProvider.of(2)))
+                .apply("ToString", MapElements.into(TypeDescriptors.strings())
+                        .via((Struct struct) -> String.format("%s-%d-%s", struct.getString("shard"), struct.getLong("ID"), struct.getString("NAME"))));
+
+        PAssert.that(results).containsInAnyOrder(
+                "0-0-name0", "0-1-name1", "0-2-name2", "1-0-name0", "1-1-name1", "1-2-name2");
+
+        pipeline.run();
+    }
+
+    @Test
+    public void testReadRowsWithSql() throws Exception {
+        try(final Connection connection = DriverManager.getConnection("jdbc:h2:mem:jdbcsqltest;DB_CLOSE_DELAY=-1", "sa", "");
+            final Statement statement = connection.createStatement()) {
+            statement.execute("CREATE TABLE scores (id BIGINT PRIMARY KEY, name VARCHAR(32), score INTEGER, dt DATE)");
+            for(int i=0; i<10; i++) {
+                statement.execute(String.format("INSERT INTO scores VALUES (%d, 'name%d', %d, DATE '2018-09-0%d')", i, i % 2, i, i % 3 + 1));
+            }
+        }
+
+        final JdbcQueryIO.Read read = JdbcQueryIO.read(
+                ValueProvider.StaticValueProvider.of("org.h2.Driver"),
+                ValueProvider.StaticValueProvider.of("jdbc:h2:mem:jdbcsqltest;DB_CLOSE_DELAY=-1"),
+                ValueProvider.StaticValueProvider.of("sa"),
+                ValueProvider.StaticValueProvider.of(""),
+                ValueProvider.StaticValueProvider.of("SELECT * FROM scores"),
+                ValueProvider.StaticValueProvider.of(null));
+        final Schema schema = read.resolveSchema();
+        Assert.assertEquals(Arrays.asList("ID", "NAME", "SCORE", "DT"), schema.getFieldNames());
+
+        final PCollection<String> results = pipeline
+                .apply("ReadJdbc", read.asRows(schema))
+                .apply("ApplySql", new StructSqlTransform(
+                        "SELECT NAME, COUNT(*) AS CNT, SUM(SCORE) AS TOTAL, MAX(DT) AS LAST_DT FROM PCOLLECTION WHERE SCORE > 1 GROUP BY NAME"))
+                .apply("ToString", MapElements.into(TypeDescriptors.strings())
+                        .via((Struct struct) -> String.format("%s-%d-%d-%s",
+                                struct.getString("NAME"), struct.getLong("CNT"), struct.getLong("TOTAL"), struct.getDate("LAST_DT"))));
+
+        PAssert.that(results).containsInAnyOrder("name0-4-20-2018-09-03", "name1-4-24-2018-09-03");
+
+        pipeline.run();
+    }
+
+    @Test
+    public void testCreateRangeQueriesInteger() {
+        final List<String> queries = JdbcQueryIO.createRangeQueries("SELECT * FROM user", "id", Types.BIGINT,
+                BigDecimal.valueOf(1), BigDecimal.valueOf(100), 4);
+        Assert.assertEquals(5, queries.size());
+        Assert.assertEquals("SELECT * FROM (SELECT * FROM user) partitioned_ WHERE id < 26", queries.get(0));
+        Assert.assertEquals("SELECT * FROM (SELECT * FROM user) partitioned_ WHERE id >= 26 AND id < 51", queries.get(1));
+        Assert.assertEquals("SELECT * FROM (SELECT * FROM user) partitioned_ WHERE id >= 51 AND id < 76", queries.get(2));
+        Assert.assertEquals("SELECT * FROM (SELECT * FROM user) partitioned_ WHERE id >= 76", queries.get(3));
+        Assert.assertEquals("SELECT * FROM (SELECT * FROM user) partitioned_ WHERE id IS NULL", queries.get(4));
+
+        // Partition num is limited by number of distinct values.
+        final List<String> smallQueries = JdbcQueryIO.createRangeQueries("SELECT * FROM user", "id", Types.INTEGER,
+                BigDecimal.valueOf(5), BigDecimal.valueOf(6), 10);
+        Assert.assertEquals(3, smallQueries.size());
+        Assert.assertEquals("SELECT * FROM (SELECT * FROM user) partitioned_ WHERE id < 6", smallQueries.get(0));
+        Assert.assertEquals("SELECT * FROM (SELECT * FROM user) partitioned_ WHERE id >= 6", smallQueries.get(1));
+
+        final List<String> sameQueries = JdbcQueryIO.createRangeQueries("SELECT * FROM user", "id", Types.INTEGER,
+                BigDecimal.valueOf(5), BigDecimal.valueOf(5), 10);
+        Assert.assertEquals(2, sameQueries.size());
+        Assert.assertEquals("SELECT * FROM (SELECT * FROM user) partitioned_ WHERE id IS NOT NULL", sameQueries.get(0));
+    }
+
+    @Test
+    public void testCreateRangeQueriesDate() {
+        final List<String> queries = JdbcQueryIO.createRangeQueries("SELECT * FROM log", "dt", Types.DATE,
+                BigDecimal.valueOf(LocalDate.of(2019, 1, 1).toEpochDay()),
+                BigDecimal.valueOf(LocalDate.of(2019, 1, 4).toEpochDay()), 2);
+        Assert.assertEquals(3, queries.size());
+        Assert.assertEquals("SELECT * FROM (SELECT * FROM log) partitioned_ WHERE dt < '2019-01-03'", queries.get(0));
+        Assert.assertEquals("SELECT * FROM (SELECT * FROM log) partitioned_ WHERE dt >= '2019-01-03'", queries.get(1));
+    }
+
+    @Test
+    public void testCreateRangeQueriesDecimal() {
+        final List<String> queries = JdbcQueryIO.createRangeQueries("SELECT * FROM item", "price", Types.DOUBLE,
+                new BigDecimal("0"), new BigDecimal("1.5"), 3);
+        Assert.assertEquals(4, queries.size());
+        Assert.assertEquals("SELECT * FROM (SELECT * FROM item) partitioned_ WHERE price < 0.5", queries.get(0));
+        Assert.assertEquals("SELECT * FROM (SELECT * FROM item) partitioned_ WHERE price >= 0.5 AND price < 1", queries.get(1));
+        Assert.assertEquals("SELECT * FROM (SELECT * FROM item) partitioned_ WHERE price >= 1", queries.get(2));
+    }
+
+    @Test
+    public void testCreateKeysetQueries() {
+        final List<String> queries = JdbcQueryIO.createKeysetQueries("SELECT * FROM user", "id",
+                Arrays.asList("100", "'a''b'"));
+        Assert.assertEquals(3, queries.size());
+        Assert.assertEquals("SELECT * FROM (SELECT * FROM user) partitioned_ WHERE id <= 100 OR id IS NULL", queries.get(0));
+        Assert.assertEquals("SELECT * FROM (SELECT * FROM user) partitioned_ WHERE id > 100 AND id <= 'a''b'", queries.get(1));
+        Assert.assertEquals("SELECT * FROM (SELECT * FROM user) partitioned_ WHERE id > 'a''b'", queries.get(2));
+
+        final List<String> singleQueries = JdbcQueryIO.createKeysetQueries("SELECT * FROM user", "id", new ArrayList<>());
+        Assert.assertEquals(1, singleQueries.size());
+        Assert.assertEquals("SELECT * FROM user", singleQueries.get(0));
+    }
+
+    @Test
+    public void testCreateWatermarkQuery() {
+        Assert.assertEquals("SELECT * FROM (SELECT * FROM user) partitioned_ WHERE updated_at > '2019-01-01 00:00:00' AND updated_at <= '2019-01-02 00:00:00'",
+                JdbcQueryIO.createWatermarkQuery("SELECT * FROM user", "updated_at", "'2019-01-01 00:00:00'", "'2019-01-02 00:00:00'"));
+        Assert.assertEquals("SELECT * FROM (SELECT * FROM user) partitioned_ WHERE id <= 10 OR id IS NULL",
+                JdbcQueryIO.createWatermarkQuery("SELECT * FROM user", "id", null, "10"));
+        Assert.assertEquals("SELECT * FROM user",
+                JdbcQueryIO.createWatermarkQuery("SELECT * FROM user", "id", null, null));
+    }
+
+    @Test
+    public void testCreateDataSourceKey() {
+        final Map<String, String> properties = new HashMap<>();
+        properties.put("useCursorFetch", "true");
+        properties.put("a", "b");
+        final Map<String, String> sameProperties = new HashMap<>();
+        sameProperties.put("a", "b");
+        sameProperties.put("useCursorFetch", "true");
+        final String key = JdbcQueryIO.createDataSourceKey("com.mysql.jdbc.Driver", "jdbc:mysql://db/a", "user", "pass", null, 4, properties);
+        Assert.assertEquals(key, JdbcQueryIO.createDataSourceKey("com.mysql.jdbc.Driver", "jdbc:mysql://db/a", "user", "pass", null, 4, sameProperties));
+        Assert.assertNotEquals(key, JdbcQueryIO.createDataSourceKey("com.mysql.jdbc.Driver", "jdbc:mysql://db/a", "user", "rotated", null, 4, properties));
+        Assert.assertNotEquals(key, JdbcQueryIO.createDataSourceKey("com.mysql.jdbc.Driver", "jdbc:mysql://db/a", "user", "pass", null, 8, properties));
+        Assert.assertNotEquals(key, JdbcQueryIO.createDataSourceKey("com.mysql.jdbc.Driver", "jdbc:mysql://db/a", "user", "pass", null, 4, new HashMap<>()));
+    }
+
+    @Test
+    public void testGetShards() {
+        final List<KV<String, String>> shards = JdbcQueryIO.getShards("jdbc:mysql://db{shard}/shard{shard}", "0-2, 5");
+        Assert.assertEquals(4, shards.size());
+        Assert.assertEquals(KV.of("0", "jdbc:mysql://db0/shard0"), shards.get(0));
+        Assert.assertEquals(KV.of("2", "jdbc:mysql://db2/shard2"), shards.get(2));
+        Assert.assertEquals(KV.of("5", "jdbc:mysql://db5/shard5"), shards.get(3));
+
+        final List<KV<String, String>> urls = JdbcQueryIO.getShards("jdbc:mysql://db0/mydb\n jdbc:mysql://db1/mydb", null);
+        Assert.assertEquals(2, urls.size());
+        Assert.assertEquals(KV.of("0", "jdbc:mysql://db0/mydb"), urls.get(0));
+        Assert.assertEquals(KV.of("1", "jdbc:mysql://db1/mydb"), urls.get(1));
+
+        final List<KV<String, String>> single = JdbcQueryIO.getShards("jdbc:mysql://db0/mydb", null);
+        Assert.assertEquals(1, single.size());
+    }
+
+}
@@ -0,0 +1,131 @@
+package net.orfeon.cloud.dataflow.transforms;
+
+import com.google.cloud.Date;
+import com.google.cloud.Timestamp;
+import com.google.cloud.spanner.Struct;
+import org.apache.beam.sdk.options.ValueProvider;
+import org.apache.beam.sdk.testing.TestPipeline;
+import org.apache.beam.sdk.transforms.Create;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.sql.BatchUpdateException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/** Test case for the {@link JdbcWrite} class. */
+@RunWith(JUnit4.class)
+public class JdbcWriteTest {
+
+    private static final String URL = "jdbc:h2:mem:jdbcwritetest;DB_CLOSE_DELAY=-1";
+
+    @Rule
+    public final transient TestPipeline pipeline = TestPipeline.create();
+
+    @Test
+    public void testWrite() throws Exception {
+        try(final Connection connection = DriverManager.getConnection(URL, "sa", "");
+            final Statement statement = connection.createStatement()) {
+            statement.execute("CREATE TABLE users (id BIGINT PRIMARY KEY, name VARCHAR(32), score DOUBLE, active BOOLEAN, birthday DATE, created_at TIMESTAMP)");
+        }
+
+        final List<Struct> structs = new ArrayList<>();
+        for(int i=0; i<250; i++) {
+            structs.add(Struct.newBuilder()
+                    .set("id").to(i)
+                    .set("name").to(i % 10 == 0 ? null : "name" + i)
+                    .set("score").to(i * 0.5)
+                    .set("active").to(i % 2 == 0)
+                    .set("birthday").to(Date.fromYearMonthDay(2000, 1, 1 + i % 28))
+                    .set("created_at").to(Timestamp.ofTimeSecondsAndNanos(1546300800L + i, 0))
+                    .build());
+        }
+
+        pipeline.apply("SupplyStruct", Create.of(structs))
+                .apply("WriteJdbc", JdbcWrite.write(
+                        ValueProvider.StaticValueProvider.of("org.h2.Driver"),
+                        ValueProvider.StaticValueProvider.of(URL),
+                        ValueProvider.StaticValueProvider.of("sa"),
+                        ValueProvider.StaticValueProvider.of(""),
+                        ValueProvider.StaticValueProvider.of("users"),
+                        ValueProvider.StaticValueProvider.of(null))
+                        .withBatchSize(ValueProvider.StaticValueProvider.of(120)));
+        pipeline.run();
+
+        try(final Connection connection = DriverManager.getConnection(URL, "sa", "");
+            final Statement statement = connection.createStatement()) {
+            try(final ResultSet resultSet = statement.executeQuery("SELECT COUNT(*) FROM users")) {
+                resultSet.next();
+                Assert.assertEquals(250, resultSet.getLong(1));
+            }
+            try(final ResultSet resultSet = statement.executeQuery("SELECT * FROM users WHERE id IN (10, 11) ORDER BY id")) {
+                resultSet.next();
+                Assert.assertNull(resultSet.getString("name"));
+                Assert.assertTrue(resultSet.getBoolean("active"));
+                resultSet.next();
+                Assert.assertEquals("name11", resultSet.getString("name"));
+                Assert.assertEquals(5.5, resultSet.getDouble("score"), 0);
+                Assert.assertFalse(resultSet.getBoolean("active"));
+                Assert.assertEquals(java.sql.Date.valueOf("2000-01-12"), resultSet.getDate("birthday"));
+                Assert.assertEquals(Timestamp.ofTimeSecondsAndNanos(1546300811L, 0).toSqlTimestamp(), resultSet.getTimestamp("created_at"));
+            }
+        }
+    }
+
+    @Test
+    public void testDeduplicate() {
+        final List<Struct> structs = Arrays.asList(
+                Struct.newBuilder().set("id").to(1).set("sub").to("a").set("name").to("first").build(),
+                Struct.newBuilder().set("id").to(2).set("sub").to("a").set("name").to("second").build(),
+                Struct.newBuilder().set("id").to(1).set("sub").to("b").set("name").to("third").build(),
+                Struct.newBuilder().set("id").to(1).set("sub").to("a").set("name").to("fourth").build());
+
+        final List<Struct> deduplicated = JdbcWrite.deduplicate(structs, Arrays.asList("id", "sub"));
+        Assert.assertEquals(3, deduplicated.size());
+        Assert.assertEquals("second", deduplicated.get(0).getString("name"));
+        Assert.assertEquals("third", deduplicated.get(1).getString("name"));
+        Assert.assertEquals("fourth", deduplicated.get(2).getString("name"));
+
+        Assert.assertSame(structs, JdbcWrite.deduplicate(structs, new ArrayList<>()));
+        Assert.assertEquals(4, JdbcWrite.deduplicate(structs, Arrays.asList("name")).size());
+    }
+
+    @Test
+    public void testIsTransient() {
+        Assert.assertTrue(JdbcWrite.isTransient(new SQLException("connection reset", "08006")));
+        Assert.assertTrue(JdbcWrite.isTransient(new SQLException("deadlock", "40001")));
+        Assert.assertTrue(JdbcWrite.isTransient(new SQLException("lock wait timeout", "HY000", 1205)));
+        Assert.assertTrue(JdbcWrite.isTransient(new SQLTransientConnectionException("timeout")));
+        Assert.assertFalse(JdbcWrite.isTransient(new SQLException("duplicate key", "23505")));
+        Assert.assertFalse(JdbcWrite.isTransient(new SQLException("syntax error", "42601")));
+
+        final BatchUpdateException batchException = new BatchUpdateException("batch failed", null, 0, new int[0]);
+        batchException.setNextException(new SQLException("serialization failure", "40001"));
+        Assert.assertTrue(JdbcWrite.isTransient(batchException));
+    }
+
+    @Test
+    public void testCreateInsertQuery() {
+        final List<String> columns = Arrays.asList("id", "name", "score");
+        final List<String> keys = Arrays.asList("id");
+        Assert.assertEquals("INSERT INTO users (id,name,score) VALUES (?,?,?),(?,?,?)",
+                JdbcWrite.createInsertQuery(JdbcQueryIO.Dialect.OTHER, "users", columns, new ArrayList<>(), 2));
+        Assert.assertEquals("INSERT INTO users (id,name,score) VALUES (?,?,?) ON DUPLICATE KEY UPDATE name = VALUES(name),score = VALUES(score)",
+                JdbcWrite.createInsertQuery(JdbcQueryIO.Dialect.MYSQL, "users", columns, keys, 1));
+        Assert.assertEquals("INSERT INTO users (id,name,score) VALUES (?,?,?) ON CONFLICT (id) DO UPDATE SET name = EXCLUDED.name,score = EXCLUDED.score",
+                JdbcWrite.createInsertQuery(JdbcQueryIO.Dialect.POSTGRESQL, "users", columns, keys, 1));
+        Assert.assertEquals("INSERT IGNORE INTO users (id) VALUES (?)",
+                JdbcWrite.createInsertQuery(JdbcQueryIO.Dialect.MYSQL, "users", Arrays.asList("id"), keys, 1));
+    }
+
+}
@@ -0,0 +1,62 @@
+package net.orfeon.cloud.dataflow.transforms;
+
+import com.google.cloud.Date;
+import com.google.cloud.spanner.Struct;
+import com.google.cloud.spanner.Type;
+import net.orfeon.cloud.dataflow.util.coder.StructCoder;
+import org.apache.beam.sdk.testing.PAssert;
+import org.apache.beam.sdk.testing.TestPipeline;
+import org.apache.beam.sdk.transforms.Create;
+import org.apache.beam.sdk.values.PCollection;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Test case for the {@link StructSqlTransform} class. */
+@RunWith(JUnit4.class)
+public class StructSqlTransformTest {
+
+    @Rule
+    public final transient TestPipeline pipeline = TestPipeline.create();
+
+    @Test
+    public void testAggregation() {
+        final PCollection<Struct> structs = pipeline
+                .apply("CreateDummy", Create.of(createStruct("a", 1, 2018, 9, 1), createStruct("a", 2, 2018, 9, 2), createStruct("b", 3, 2018, 9, 3)))
+                .apply("StructToRow", StructToRowTransform.of(createStruct("a", 1, 2018, 9, 1).getType()))
+                .apply("ApplySql", new StructSqlTransform("SELECT sf, COUNT(*) AS cnt, SUM(if) AS total FROM PCOLLECTION GROUP BY sf"));
+
+        final Type type = Type.struct(
+                Type.StructField.of("sf", Type.string()),
+                Type.StructField.of("cnt", Type.int64()),
+                Type.StructField.of("total", Type.int64()));
+        Assert.assertEquals(StructCoder.of(type), structs.getCoder());
+        PAssert.that(structs).containsInAnyOrder(
+                Struct.newBuilder().set("sf").to("a").set("cnt").to(2L).set("total").to(3L).build(),
+                Struct.newBuilder().set("sf").to("b").set("cnt").to(1L).set("total").to(3L).build());
+        pipeline.run();
+    }
+
+    @Test
+    public void testFilterAndProjection() {
+        final PCollection<Struct> structs = pipeline
+                .apply("CreateDummy", Create.of(createStruct("a", 1, 2018, 9, 1), createStruct("b", 2, 2018, 9, 2)))
+                .apply("StructToRow", StructToRowTransform.of(createStruct("a", 1, 2018, 9, 1).getType()))
+                .apply("ApplySql", new StructSqlTransform("SELECT sf AS name, df FROM PCOLLECTION WHERE if > 1"));
+
+        PAssert.that(structs).containsInAnyOrder(
+                Struct.newBuilder().set("name").to("b").set("df").to(Date.fromYearMonthDay(2018, 9, 2)).build());
+        pipeline.run();
+    }
+
+    private static Struct createStruct(final String sf, final long value, final int year, final int month, final int day) {
+        return Struct.newBuilder()
+                .set("sf").to(sf)
+                .set("if").to(value)
+                .set("df").to(Date.fromYearMonthDay(year, month, day))
+                .build();
+    }
+
+}
@@ -0,0 +1,53 @@
+package net.orfeon.cloud.dataflow.transforms;
+
+import com.google.cloud.spanner.Struct;
+import org.apache.beam.sdk.schemas.Schema;
+import org.apache.beam.sdk.schemas.SchemaCoder;
+import org.apache.beam.sdk.testing.PAssert;
+import org.apache.beam.sdk.testing.TestPipeline;
+import org.apache.beam.sdk.transforms.Create;
+import org.apache.beam.sdk.values.PCollection;
+import org.apache.beam.sdk.values.Row;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Test case for the {@link StructToRowTransform} class. */
+@RunWith(JUnit4.class)
+public class StructToRowTransformTest {
+
+    @Rule
+    public final transient TestPipeline pipeline = TestPipeline.create();
+
+    @Test
+    public void testProjection() {
+        final Struct struct1 = Struct.newBuilder()
+                .set("sf").to("a")
+                .set("if").to(1)
+                .set("ff").to(0.5)
+                .build();
+        final Struct struct2 = Struct.newBuilder()
+                .set("sf").to((String) null)
+                .set("if").to(2)
+                .set("ff").to(1.5)
+                .build();
+        final Schema schema = Schema.builder()
+                .addNullableField("if", Schema.FieldType.INT64)
+                .addNullableField("sf", Schema.FieldType.STRING)
+                .build();
+
+        final PCollection<Row> rows = pipeline
+                .apply("CreateDummy", Create.of(struct1, struct2))
+                .apply("StructToRow", new StructToRowTransform(schema));
+
+        Assert.assertEquals(schema, rows.getSchema());
+        Assert.assertTrue(rows.getCoder() instanceof SchemaCoder);
+        PAssert.that(rows).containsInAnyOrder(
+                Row.withSchema(schema).addValues(1L, "a").build(),
+                Row.withSchema(schema).addValues(2L, null).build());
+        pipeline.run();
+    }
+
+}
@@ -0,0 +1,97 @@
+package net.orfeon.cloud.dataflow.transforms;
+
+import com.google.cloud.spanner.Struct;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+import org.apache.beam.sdk.options.ValueProvider;
+import org.apache.beam.sdk.testing.TestPipeline;
+import org.apache.beam.sdk.transforms.Create;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/** Test case for the {@link StructToTextTransform} class. */
+@RunWith(JUnit4.class)
+public class StructToTextTransformTest {
+
+    @Rule
+    public final transient TestPipeline pipeline = TestPipeline.create();
+
+    @Rule
+    public final TemporaryFolder tmpDir = new TemporaryFolder();
+
+    @Test
+    public void testJson() throws IOException {
+        final Struct struct1 = Struct.newBuilder()
+                .set("sf").to("line\nbreak")
+                .set("if").to(1)
+                .build();
+        final Struct struct2 = Struct.newBuilder()
+                .set("sf").to("\u3042")
+                .set("if").to((Long) null)
+                .build();
+        final String output = this.tmpDir.getRoot().getAbsolutePath() + "/result";
+
+        pipeline.apply("CreateDummy", Create.of(struct1, struct2))
+                .apply("WriteText", new StructToTextTransform(
+                        ValueProvider.StaticValueProvider.of(output),
+                        ValueProvider.StaticValueProvider.of("json")));
+        pipeline.run();
+
+        final List<String> lines = new ArrayList<>();
+        final File[] files = this.tmpDir.getRoot().listFiles((dir, name) -> name.startsWith("result") && name.endsWith(".txt"));
+        Assert.assertNotNull(files);
+        for(final File file : files) {
+            lines.addAll(Files.readAllLines(file.toPath(), StandardCharsets.UTF_8));
+        }
+        lines.sort(String::compareTo);
+        final JsonObject json1 = new JsonObject();
+        json1.addProperty("sf", "line\nbreak");
+        json1.addProperty("if", 1L);
+        final JsonObject json2 = new JsonObject();
+        json2.addProperty("sf", "\u3042");
+        json2.add("if", JsonNull.INSTANCE);
+        final List<String> expected = new ArrayList<>(Arrays.asList(json1.toString(), json2.toString()));
+        expected.sort(String::compareTo);
+        Assert.assertEquals(expected, lines);
+    }
+
+    @Test
+    public void testCsvHeader() throws IOException {
+        final Struct struct = Struct.newBuilder()
+                .set("sf").to("a,b")
+                .set("if").to((Long) null)
+                .build();
+        final String output = this.tmpDir.getRoot().getAbsolutePath() + "/result";
+
+        pipeline.apply("CreateDummy", Create.of(struct))
+                .apply("WriteText", new StructToTextTransform(
+                        ValueProvider.StaticValueProvider.of(output),
+                        ValueProvider.StaticValueProvider.of("csv"),
+                        ValueProvider.StaticValueProvider.of("|"),
+                        ValueProvider.StaticValueProvider.of("MINIMAL"),
+                        ValueProvider.StaticValueProvider.of("NULL"),
+                        ValueProvider.StaticValueProvider.of(true)));
+        pipeline.run();
+
+        final List<String> lines = new ArrayList<>();
+        final File[] files = this.tmpDir.getRoot().listFiles((dir, name) -> name.startsWith("result") && name.endsWith(".txt"));
+        Assert.assertNotNull(files);
+        for(final File file : files) {
+            lines.addAll(Files.readAllLines(file.toPath(), StandardCharsets.UTF_8));
+        }
+        Assert.assertEquals(Arrays.asList("sf|if", "a,b|NULL"), lines);
+    }
+
+}
@@ -0,0 +1,55 @@
+package net.orfeon.cloud.dataflow.util;
+
+import com.google.cloud.spanner.Struct;
+import com.google.cloud.spanner.Type;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Test case for the {@link StructAccessor} class. */
+@RunWith(JUnit4.class)
+public class StructAccessorTest {
+
+    @Test
+    public void test() {
+        final Struct struct = DummyDataSupplier.createNestedStruct(true);
+        final StructAccessor accessor = StructAccessor.of(struct.getType());
+        Assert.assertTrue(accessor.matches(struct.getType()));
+        Assert.assertTrue(accessor.matches(DummyDataSupplier.createNestedStruct(true).getType()));
+        Assert.assertFalse(accessor.matches(DummyDataSupplier.createSimpleStruct().getType()));
+        Assert.assertEquals(-1, accessor.getIndex("missing"));
+
+        final int ifIndex = accessor.getIndex("if");
+        Assert.assertEquals(Type.Code.INT64, accessor.getCode(ifIndex));
+        Assert.assertEquals(struct.getLong("if"), accessor.getLong(struct, ifIndex));
+        Assert.assertEquals(struct.getDouble("ff"), accessor.getDouble(struct, accessor.getIndex("ff")), 0);
+        Assert.assertEquals(struct.getBoolean("bf"), accessor.getBoolean(struct, accessor.getIndex("bf")));
+        Assert.assertEquals(struct.getString("sf"), accessor.getString(struct, accessor.getIndex("sf")));
+        Assert.assertTrue(accessor.isNull(struct, accessor.getIndex("nf")));
+
+        for(final Type.StructField field : struct.getType().getStructFields()) {
+            final Object value = StructUtil.getFieldValue(field, struct);
+            final int index = accessor.getIndex(field.getName());
+            if(value == null) {
+                Assert.assertNull(accessor.getAsString(struct, index));
+            } else if(!Type.Code.STRUCT.equals(field.getType().getCode())) {
+                Assert.assertEquals(value.toString(), accessor.getAsString(struct, index));
+            }
+        }
+    }
+
+    @Test
+    public void testMatchesField() {
+        final Type type = Struct.newBuilder().set("k").to("a").set("v").to(1L).build().getType();
+        final StructAccessor accessor = StructAccessor.of(type);
+        final Type otherValue = Struct.newBuilder().set("k").to("b").set("v").to(1.0).build().getType();
+        Assert.assertTrue(accessor.matchesField(otherValue, 0));
+        Assert.assertFalse(accessor.matchesField(otherValue, 1));
+        Assert.assertFalse(accessor.matches(otherValue));
+        Assert.assertFalse(accessor.matchesField(Struct.newBuilder().set("k").to(1L).build().getType(), 0));
+        Assert.assertFalse(accessor.matchesField(Struct.newBuilder().set("x").to("a").build().getType(), 0));
+        Assert.assertFalse(accessor.matchesField(Struct.newBuilder().set("k").to("a").build().getType(), 1));
+    }
+
+}
@@ -0,0 +1,25 @@
+package net.orfeon.cloud.dataflow.util.coder;
+
+import com.google.cloud.bigquery.storage.v1beta1.Storage;
+import com.google.cloud.spanner.Mutation;
+import com.google.datastore.v1.Entity;
+import org.apache.beam.sdk.coders.CoderRegistry;
+import org.apache.beam.sdk.extensions.protobuf.ProtoCoder;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Test case for the {@link CoderRegistrar} class. */
+@RunWith(JUnit4.class)
+public class CoderRegistrarTest {
+
+    @Test
+    public void testDefaultCoders() throws Exception {
+        final CoderRegistry registry = CoderRegistry.createDefault();
+        Assert.assertEquals(MutationCoder.of(), registry.getCoder(Mutation.class));
+        Assert.assertEquals(ProtoCoder.of(Entity.class), registry.getCoder(Entity.class));
+        Assert.assertEquals(ProtoCoder.of(Storage.Stream.class), registry.getCoder(Storage.Stream.class));
+    }
+
+}
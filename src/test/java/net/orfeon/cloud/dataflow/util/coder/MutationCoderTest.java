@@ -0,0 +1,58 @@
+package net.orfeon.cloud.dataflow.util.coder;
+
+import com.google.cloud.ByteArray;
+import com.google.cloud.Date;
+import com.google.cloud.Timestamp;
+import com.google.cloud.spanner.Key;
+import com.google.cloud.spanner.KeyRange;
+import com.google.cloud.spanner.KeySet;
+import com.google.cloud.spanner.Mutation;
+import org.apache.beam.sdk.coders.SerializableCoder;
+import org.apache.beam.sdk.testing.CoderProperties;
+import org.apache.beam.sdk.util.CoderUtils;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.Arrays;
+
+/** Test case for the {@link MutationCoder} class. */
+@RunWith(JUnit4.class)
+public class MutationCoderTest {
+
+    @Test
+    public void testWriteMutation() throws Exception {
+        final Mutation mutation = Mutation.newInsertOrUpdateBuilder("users")
+                .set("id").to(1L)
+                .set("name").to("name1")
+                .set("score").to((Double) null)
+                .set("active").to(true)
+                .set("birthday").to(Date.fromYearMonthDay(2000, 1, 1))
+                .set("created_at").to(Timestamp.ofTimeSecondsAndNanos(1546300800L, 123456789))
+                .set("icon").to(ByteArray.copyFrom("icon"))
+                .set("tags").toStringArray(Arrays.asList("a", null, "c"))
+                .set("points").toInt64Array((Iterable<Long>) null)
+                .build();
+        CoderProperties.coderDecodeEncodeEqual(MutationCoder.of(), mutation);
+        CoderProperties.coderDecodeEncodeEqual(MutationCoder.of(), Mutation.newReplaceBuilder("users")
+                .set("id").to(2L)
+                .build());
+        Assert.assertTrue(CoderUtils.encodeToByteArray(MutationCoder.of(), mutation).length
+                < CoderUtils.encodeToByteArray(SerializableCoder.of(Mutation.class), mutation).length);
+    }
+
+    @Test
+    public void testDeleteMutation() throws Exception {
+        CoderProperties.coderDecodeEncodeEqual(MutationCoder.of(),
+                Mutation.delete("users", Key.of(1L, "a", null, Date.fromYearMonthDay(2019, 3, 1))));
+        CoderProperties.coderDecodeEncodeEqual(MutationCoder.of(),
+                Mutation.delete("users", KeySet.newBuilder()
+                        .addKey(Key.of(true, 1.5))
+                        .addRange(KeyRange.closedOpen(Key.of(1L), Key.of(10L)))
+                        .addRange(KeyRange.prefix(Key.of("prefix")))
+                        .build()));
+        CoderProperties.coderDecodeEncodeEqual(MutationCoder.of(), Mutation.delete("users", KeySet.all()));
+    }
+
+}
@@ -0,0 +1,123 @@
+package net.orfeon.cloud.dataflow.util.coder;
+
+import com.google.cloud.Timestamp;
+import com.google.cloud.spanner.Struct;
+import com.google.cloud.spanner.Type;
+import net.orfeon.cloud.dataflow.util.DummyDataSupplier;
+import org.apache.beam.sdk.coders.Coder;
+import org.apache.beam.sdk.coders.CoderException;
+import org.apache.beam.sdk.coders.CoderRegistry;
+import org.apache.beam.sdk.coders.SerializableCoder;
+import org.apache.beam.sdk.testing.CoderProperties;
+import org.apache.beam.sdk.util.CoderUtils;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.util.Arrays;
+
+/** Test case for the {@link StructCoder} class. */
+@RunWith(JUnit4.class)
+public class StructCoderTest {
+
+    @Test
+    public void testDecodeEncodeEqual() throws Exception {
+        final StructCoder coder = StructCoder.of();
+        CoderProperties.coderDecodeEncodeEqual(coder, DummyDataSupplier.createSimpleStruct());
+        CoderProperties.coderDecodeEncodeEqual(coder, DummyDataSupplier.createNestedStruct(false));
+        CoderProperties.coderDecodeEncodeEqual(coder, DummyDataSupplier.createNestedStruct(true));
+        CoderProperties.coderDecodeEncodeEqual(coder, Struct.newBuilder()
+                .set("tf").to(Timestamp.ofTimeSecondsAndNanos(-1546300800L, 123456789))
+                .set("lf").to(Long.MIN_VALUE)
+                .set("sf").to("\u65e5\u672c\u8a9e")
+                .set("rnf").to(Type.struct(Type.StructField.of("f", Type.int64())), null)
+                .set("asnf").toStructArray(Type.struct(Type.StructField.of("f", Type.int64())), null)
+                .set("abf").toBoolArray(Arrays.asList(true, null, false))
+                .build());
+    }
+
+    @Test
+    public void testTypedCoder() throws Exception {
+        final Struct struct = DummyDataSupplier.createNestedStruct(true);
+        final StructCoder coder = StructCoder.of(struct.getType());
+        CoderProperties.coderDecodeEncodeEqual(coder, struct);
+        Assert.assertTrue(CoderUtils.encodeToByteArray(coder, struct).length
+                < CoderUtils.encodeToByteArray(StructCoder.of(), struct).length);
+    }
+
+    @Test(expected = CoderException.class)
+    public void testTypedCoderMismatch() throws Exception {
+        // Same field count and codes, but different name.
+        final StructCoder coder = StructCoder.of(Type.struct(Type.StructField.of("a", Type.int64())));
+        CoderUtils.encodeToByteArray(coder, Struct.newBuilder().set("b").to(1L).build());
+    }
+
+    @Test
+    public void testTypedCoderMatches() throws Exception {
+        final Type type = Type.struct(
+                Type.StructField.of("a", Type.int64()),
+                Type.StructField.of("s", Type.struct(Type.StructField.of("f", Type.string()))));
+        final StructCoder coder = StructCoder.of(type);
+        Assert.assertTrue(coder.matches(Type.struct(
+                Type.StructField.of("a", Type.int64()),
+                Type.StructField.of("s", Type.struct(Type.StructField.of("f", Type.string()))))));
+        Assert.assertFalse(coder.matches(Type.struct(
+                Type.StructField.of("a", Type.int64()),
+                Type.StructField.of("s", Type.struct(Type.StructField.of("g", Type.string()))))));
+        Assert.assertTrue(StructCoder.of().matches(Type.struct(Type.StructField.of("g", Type.string()))));
+    }
+
+    @Test
+    public void testDeterministic() throws Exception {
+        // Equal structs built separately have distinct type instances.
+        final Struct struct = DummyDataSupplier.createNestedStruct(true);
+        final Struct other = DummyDataSupplier.createNestedStruct(true);
+        Assert.assertEquals(struct, other);
+        CoderProperties.coderDeterministic(StructCoder.of(), struct, other);
+        CoderProperties.coderDeterministic(StructCoder.of(struct.getType()), struct, other);
+        StructCoder.of().verifyDeterministic();
+    }
+
+    @Test
+    public void testFingerprint() throws Exception {
+        final Struct struct = DummyDataSupplier.createNestedStruct(true);
+        Assert.assertEquals(StructCoder.getFingerprint(struct.getType()),
+                StructCoder.getFingerprint(DummyDataSupplier.createNestedStruct(true).getType()));
+        Assert.assertNotEquals(StructCoder.getFingerprint(struct.getType()),
+                StructCoder.getFingerprint(DummyDataSupplier.createSimpleStruct().getType()));
+    }
+
+    @Test
+    public void testDeterministicDouble() throws Exception {
+        final Struct nan = Struct.newBuilder().set("d").to(Double.NaN).build();
+        final Struct otherNan = Struct.newBuilder().set("d").to(Double.longBitsToDouble(0x7ff8000000000001L)).build();
+        Assert.assertArrayEquals(CoderUtils.encodeToByteArray(StructCoder.of(), nan),
+                CoderUtils.encodeToByteArray(StructCoder.of(), otherNan));
+        CoderProperties.coderDeterministic(StructCoder.of(), nan, otherNan);
+    }
+
+    @Test(expected = EOFException.class)
+    public void testTruncatedBool() throws Exception {
+        final Struct struct = Struct.newBuilder().set("b").to(true).build();
+        final StructCoder coder = StructCoder.of(struct.getType());
+        final byte[] bytes = CoderUtils.encodeToByteArray(coder, struct);
+        coder.decode(new ByteArrayInputStream(Arrays.copyOf(bytes, bytes.length - 1)));
+    }
+
+    @Test
+    public void testDefaultCoder() throws Exception {
+        final Coder<Struct> coder = CoderRegistry.createDefault().getCoder(Struct.class);
+        Assert.assertEquals(StructCoder.of(), coder);
+    }
+
+    @Test
+    public void testEncodedSize() throws Exception {
+        final Struct struct = DummyDataSupplier.createNestedStruct(false);
+        final int size = CoderUtils.encodeToByteArray(StructCoder.of(), struct).length;
+        Assert.assertTrue(size < CoderUtils.encodeToByteArray(SerializableCoder.of(Struct.class), struct).length);
+    }
+
+}
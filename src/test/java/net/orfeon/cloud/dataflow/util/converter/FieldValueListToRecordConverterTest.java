@@ -0,0 +1,68 @@
+package net.orfeon.cloud.dataflow.util.converter;
+
+import com.google.cloud.bigquery.*;
+import net.orfeon.cloud.dataflow.util.AvroSchemaUtil;
+import org.apache.avro.generic.GenericRecord;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.time.LocalDate;
+import java.util.Arrays;
+
+/** Test case for the {@link FieldValueListToRecordConverter} class. */
+@RunWith(JUnit4.class)
+public class FieldValueListToRecordConverterTest {
+
+    @Test
+    public void test() {
+        final Field childField = Field.newBuilder("cs", LegacySQLTypeName.STRING).setMode(Field.Mode.NULLABLE).build();
+        final Schema schema = Schema.of(
+                Field.of("s", LegacySQLTypeName.STRING),
+                Field.of("i", LegacySQLTypeName.INTEGER),
+                Field.of("f", LegacySQLTypeName.FLOAT),
+                Field.of("b", LegacySQLTypeName.BOOLEAN),
+                Field.of("d", LegacySQLTypeName.DATE),
+                Field.of("t", LegacySQLTypeName.TIMESTAMP),
+                Field.of("n", LegacySQLTypeName.NUMERIC),
+                Field.of("ns", LegacySQLTypeName.STRING),
+                Field.newBuilder("ai", LegacySQLTypeName.INTEGER).setMode(Field.Mode.REPEATED).build(),
+                Field.of("r", LegacySQLTypeName.RECORD, childField));
+
+        final FieldValueList values = FieldValueList.of(Arrays.asList(
+                FieldValue.of(FieldValue.Attribute.PRIMITIVE, "This is a pen"),
+                FieldValue.of(FieldValue.Attribute.PRIMITIVE, "12"),
+                FieldValue.of(FieldValue.Attribute.PRIMITIVE, "0.5"),
+                FieldValue.of(FieldValue.Attribute.PRIMITIVE, "true"),
+                FieldValue.of(FieldValue.Attribute.PRIMITIVE, "2018-09-01"),
+                FieldValue.of(FieldValue.Attribute.PRIMITIVE, "1.5357744E9"),
+                FieldValue.of(FieldValue.Attribute.PRIMITIVE, "12.3"),
+                FieldValue.of(FieldValue.Attribute.PRIMITIVE, null),
+                FieldValue.of(FieldValue.Attribute.REPEATED, Arrays.asList(
+                        FieldValue.of(FieldValue.Attribute.PRIMITIVE, "1"),
+                        FieldValue.of(FieldValue.Attribute.PRIMITIVE, "2"))),
+                FieldValue.of(FieldValue.Attribute.RECORD, FieldValueList.of(Arrays.asList(
+                        FieldValue.of(FieldValue.Attribute.PRIMITIVE, "child"))))),
+                schema.getFields());
+
+        final org.apache.avro.Schema avroSchema = AvroSchemaUtil.convertSchema(schema);
+        final GenericRecord record = FieldValueListToRecordConverter.convert(avroSchema, schema.getFields(), values);
+
+        Assert.assertEquals("This is a pen", record.get("s"));
+        Assert.assertEquals(12L, record.get("i"));
+        Assert.assertEquals(0.5, (double)record.get("f"), 0);
+        Assert.assertEquals(true, record.get("b"));
+        Assert.assertEquals((int)LocalDate.of(2018, 9, 1).toEpochDay(), record.get("d"));
+        Assert.assertEquals(1535774400000000L, record.get("t"));
+        Assert.assertEquals(new BigDecimal("12.300000000"),
+                new BigDecimal(new BigInteger(((ByteBuffer)record.get("n")).array()), 9));
+        Assert.assertNull(record.get("ns"));
+        Assert.assertEquals(Arrays.asList(1L, 2L), record.get("ai"));
+        Assert.assertEquals("child", ((GenericRecord)record.get("r")).get("cs"));
+    }
+
+}
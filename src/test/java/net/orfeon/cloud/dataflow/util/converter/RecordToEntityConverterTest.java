@@ -0,0 +1,160 @@
+package net.orfeon.cloud.dataflow.util.converter;
+
+import com.google.datastore.v1.Entity;
+import com.google.datastore.v1.Value;
+import org.apache.avro.Schema;
+import org.apache.avro.SchemaBuilder;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.generic.GenericRecordBuilder;
+import org.apache.avro.util.Utf8;
+import org.apache.beam.sdk.options.ValueProvider;
+import org.apache.beam.sdk.util.SerializableUtils;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/** Test case for the {@link RecordToEntityConverter} class. */
+@RunWith(JUnit4.class)
+public class RecordToEntityConverterTest {
+
+    private static final Schema CHILD_SCHEMA = SchemaBuilder.record("child").fields()
+            .optionalString("cs")
+            .requiredLong("cl")
+            .endRecord();
+
+    private static final Schema SCHEMA = SchemaBuilder.record("root").fields()
+            .requiredString("id")
+            .optionalString("s")
+            .optionalString("ex")
+            .requiredLong("l")
+            .name("as").type().array().items().stringType().noDefault()
+            .name("r").type(CHILD_SCHEMA).noDefault()
+            .endRecord();
+
+    @Test
+    public void testConvert() {
+        final RecordToEntityConverter converter = new RecordToEntityConverter(
+                ValueProvider.StaticValueProvider.of("MyKind"),
+                ValueProvider.StaticValueProvider.of("id"),
+                ValueProvider.StaticValueProvider.of("ex,as"));
+
+        final Entity entity = converter.convert(createRecord("key1", "short", "excluded"));
+        Assert.assertEquals("MyKind", entity.getKey().getPath(0).getKind());
+        Assert.assertEquals("key1", entity.getKey().getPath(0).getName());
+        Assert.assertEquals("short", entity.getPropertiesOrThrow("s").getStringValue());
+        Assert.assertFalse(entity.getPropertiesOrThrow("s").getExcludeFromIndexes());
+        Assert.assertTrue(entity.getPropertiesOrThrow("ex").getExcludeFromIndexes());
+        Assert.assertEquals(10L, entity.getPropertiesOrThrow("l").getIntegerValue());
+        Assert.assertFalse(entity.getPropertiesOrThrow("as").getExcludeFromIndexes());
+        Assert.assertEquals(2, entity.getPropertiesOrThrow("as").getArrayValue().getValuesCount());
+        Assert.assertEquals("b", entity.getPropertiesOrThrow("as").getArrayValue().getValues(1).getStringValue());
+        final Entity child = entity.getPropertiesOrThrow("r").getEntityValue();
+        Assert.assertEquals(Value.ValueTypeCase.NULL_VALUE, child.getPropertiesOrThrow("cs").getValueTypeCase());
+        Assert.assertEquals(5L, child.getPropertiesOrThrow("cl").getIntegerValue());
+
+        final Entity nullEntity = converter.convert(createRecord("key2", null, null));
+        Assert.assertEquals(Value.ValueTypeCase.NULL_VALUE, nullEntity.getPropertiesOrThrow("s").getValueTypeCase());
+        Assert.assertFalse(nullEntity.getPropertiesOrThrow("s").getExcludeFromIndexes());
+        Assert.assertTrue(nullEntity.getPropertiesOrThrow("ex").getExcludeFromIndexes());
+    }
+
+    @Test
+    public void testLongStringExcluded() {
+        final RecordToEntityConverter converter = SerializableUtils.clone(new RecordToEntityConverter(
+                ValueProvider.StaticValueProvider.of("MyKind"),
+                ValueProvider.StaticValueProvider.of("id"),
+                ValueProvider.StaticValueProvider.of(null)));
+
+        final String ascii = repeat("a", 1500);
+        Assert.assertFalse(converter.convert(createRecord("k", ascii, null)).getPropertiesOrThrow("s").getExcludeFromIndexes());
+        Assert.assertTrue(converter.convert(createRecord("k", ascii + "a", null)).getPropertiesOrThrow("s").getExcludeFromIndexes());
+        Assert.assertFalse(converter.convert(createRecord("k", new Utf8(ascii), null)).getPropertiesOrThrow("s").getExcludeFromIndexes());
+        Assert.assertTrue(converter.convert(createRecord("k", new Utf8(ascii + "a"), null)).getPropertiesOrThrow("s").getExcludeFromIndexes());
+
+        final String multiBytes = repeat("\u3042", 500);
+        Assert.assertFalse(converter.convert(createRecord("k", multiBytes, null)).getPropertiesOrThrow("s").getExcludeFromIndexes());
+        Assert.assertTrue(converter.convert(createRecord("k", multiBytes + "a", null)).getPropertiesOrThrow("s").getExcludeFromIndexes());
+    }
+
+    @Test
+    public void testExceedsUtf8Length() {
+        for(final String text : Arrays.asList("", "abc", repeat("\u00e9", 700), repeat("\u3042", 600),
+                repeat("\ud83d\ude00", 380), repeat("\ud83d", 1400), "a\ud83d" + repeat("\u3042", 499))) {
+            final int bytes = text.getBytes(StandardCharsets.UTF_8).length;
+            Assert.assertEquals(text.length() + ":" + bytes, bytes > 1500, RecordToEntityConverter.exceedsUtf8Length(text, 1500));
+        }
+    }
+
+    @Test
+    public void testConcurrentConvert() throws Exception {
+        final RecordToEntityConverter converter = new RecordToEntityConverter(
+                ValueProvider.StaticValueProvider.of("MyKind"),
+                ValueProvider.StaticValueProvider.of("id"),
+                ValueProvider.StaticValueProvider.of("ex"));
+
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            final List<Future<Boolean>> results = new ArrayList<>();
+            for(int t=0; t<4; t++) {
+                final int thread = t;
+                results.add(executor.submit(() -> {
+                    for(int i=0; i<2000; i++) {
+                        final String id = thread + "-" + i;
+                        final Entity entity = converter.convert(createRecord(id, "s" + id, "ex" + id));
+                        if(!id.equals(entity.getKey().getPath(0).getName())
+                                || !("s" + id).equals(entity.getPropertiesOrThrow("s").getStringValue())
+                                || !("ex" + id).equals(entity.getPropertiesOrThrow("ex").getStringValue())
+                                || entity.getPropertiesOrThrow("s").getExcludeFromIndexes()) {
+                            return false;
+                        }
+                    }
+                    return true;
+                }));
+            }
+            for(final Future<Boolean> result : results) {
+                Assert.assertTrue(result.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNullKey() {
+        final RecordToEntityConverter converter = new RecordToEntityConverter(
+                ValueProvider.StaticValueProvider.of("MyKind"),
+                ValueProvider.StaticValueProvider.of("s"),
+                ValueProvider.StaticValueProvider.of(null));
+        converter.convert(createRecord("key1", null, null));
+    }
+
+    private static GenericRecord createRecord(final String id, final CharSequence s, final String ex) {
+        return new GenericRecordBuilder(SCHEMA)
+                .set("id", id)
+                .set("s", s)
+                .set("ex", ex)
+                .set("l", 10L)
+                .set("as", new GenericData.Array<>(SCHEMA.getField("as").schema(), Arrays.asList("a", "b")))
+                .set("r", new GenericRecordBuilder(CHILD_SCHEMA).set("cs", null).set("cl", 5L).build())
+                .build();
+    }
+
+    private static String repeat(final String s, final int count) {
+        final StringBuilder sb = new StringBuilder();
+        for(int i=0; i<count; i++) {
+            sb.append(s);
+        }
+        return sb.toString();
+    }
+
+}
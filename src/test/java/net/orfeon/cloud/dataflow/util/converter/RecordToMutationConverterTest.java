@@ -0,0 +1,82 @@
+package net.orfeon.cloud.dataflow.util.converter;
+
+import com.google.cloud.spanner.Mutation;
+import com.google.cloud.spanner.Value;
+import org.apache.avro.LogicalTypes;
+import org.apache.avro.Schema;
+import org.apache.avro.SchemaBuilder;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.generic.GenericRecordBuilder;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/** Test case for the {@link RecordToMutationConverter} class. */
+@RunWith(JUnit4.class)
+public class RecordToMutationConverterTest {
+
+    private static final Schema CHILD_SCHEMA = SchemaBuilder.record("child").fields()
+            .name("cf").type().stringType().noDefault()
+            .endRecord();
+
+    private static final Schema SCHEMA = SchemaBuilder.record("row").fields()
+            .name("id").type().longType().noDefault()
+            .name("name").type().optional().stringType()
+            .name("count").type().intType().noDefault()
+            .name("ts").type(LogicalTypes.timestampMicros().addToSchema(Schema.create(Schema.Type.LONG))).noDefault()
+            .name("tags").type().optional().array().items().stringType()
+            .name("child").type(CHILD_SCHEMA).noDefault()
+            .endRecord();
+
+    @Test
+    public void testConvert() {
+        final GenericRecord record = createRecord();
+        final Mutation mutation = RecordToMutationConverter.compile(record.getSchema(), null)
+                .convert(record, "MyTable", Mutation.Op.INSERT);
+        Assert.assertEquals("MyTable", mutation.getTable());
+        Assert.assertEquals(Mutation.Op.INSERT, mutation.getOperation());
+        final Map<String, Value> values = mutation.asMap();
+        Assert.assertEquals(Arrays.asList("id", "name", "count", "ts"), mutation.getColumns());
+        Assert.assertEquals(1L, values.get("id").getInt64());
+        Assert.assertTrue(values.get("name").isNull());
+        Assert.assertEquals(3L, values.get("count").getInt64());
+        Assert.assertEquals(1000000L, values.get("ts").getTimestamp().getSeconds());
+    }
+
+    @Test
+    public void testConvertWithColumns() {
+        final Map<String, String> columns = new LinkedHashMap<>();
+        columns.put("count", "Count");
+        columns.put("id", "ID");
+        final RecordToMutationConverter.RecordPlan plan = RecordToMutationConverter.compile(SCHEMA, columns);
+
+        final Mutation mutation = plan.convert(createRecord(), "MyTable", Mutation.Op.INSERT_OR_UPDATE);
+        Assert.assertEquals(Arrays.asList("Count", "ID"), mutation.getColumns());
+        Assert.assertEquals(3L, mutation.asMap().get("Count").getInt64());
+        Assert.assertEquals(1L, mutation.asMap().get("ID").getInt64());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testConvertWithMissingColumn() {
+        final Map<String, String> columns = new LinkedHashMap<>();
+        columns.put("missing", "Missing");
+        RecordToMutationConverter.compile(SCHEMA, columns);
+    }
+
+    private static GenericRecord createRecord() {
+        return new GenericRecordBuilder(SCHEMA)
+                .set("id", 1L)
+                .set("name", null)
+                .set("count", 3)
+                .set("ts", 1000000L * 1000000L)
+                .set("tags", null)
+                .set("child", new GenericRecordBuilder(CHILD_SCHEMA).set("cf", "c").build())
+                .build();
+    }
+
+}
@@ -0,0 +1,66 @@
+package net.orfeon.cloud.dataflow.util.converter;
+
+import com.google.cloud.Date;
+import com.google.cloud.spanner.Struct;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.mockito.Mockito;
+
+import java.math.BigDecimal;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.Types;
+
+/** Test case for the {@link ResultsetToStructConverter} class. */
+@RunWith(JUnit4.class)
+public class ResultsetToStructConverterTest {
+
+    @Test
+    public void test() throws Exception {
+        final ResultSetMetaData meta = Mockito.mock(ResultSetMetaData.class);
+        Mockito.when(meta.getColumnCount()).thenReturn(6);
+        Mockito.when(meta.getColumnName(1)).thenReturn("s");
+        Mockito.when(meta.getColumnType(1)).thenReturn(Types.VARCHAR);
+        Mockito.when(meta.getColumnName(2)).thenReturn("i");
+        Mockito.when(meta.getColumnType(2)).thenReturn(Types.BIGINT);
+        Mockito.when(meta.getColumnName(3)).thenReturn("n");
+        Mockito.when(meta.getColumnType(3)).thenReturn(Types.DECIMAL);
+        Mockito.when(meta.getColumnName(4)).thenReturn("nn");
+        Mockito.when(meta.getColumnType(4)).thenReturn(Types.DECIMAL);
+        Mockito.when(meta.getColumnName(5)).thenReturn("d");
+        Mockito.when(meta.getColumnType(5)).thenReturn(Types.DATE);
+        Mockito.when(meta.getColumnName(6)).thenReturn("c");
+        Mockito.when(meta.getColumnType(6)).thenReturn(Types.CLOB);
+
+        final ResultSet resultSet = Mockito.mock(ResultSet.class);
+        Mockito.when(resultSet.getMetaData()).thenReturn(meta);
+        Mockito.when(resultSet.getString(1)).thenReturn("a", "b");
+        Mockito.when(resultSet.getLong(2)).thenReturn(1L, 2L);
+        Mockito.when(resultSet.getBigDecimal(3)).thenReturn(new BigDecimal("1.5"), new BigDecimal("2.5"));
+        Mockito.when(resultSet.getBigDecimal(4)).thenReturn(null);
+        Mockito.when(resultSet.getDate(5)).thenReturn(java.sql.Date.valueOf("2019-03-01"), (java.sql.Date) null);
+
+        final ResultsetToStructConverter.ColumnBinder[] binders = ResultsetToStructConverter.compile(resultSet.getMetaData());
+        final Struct struct1 = ResultsetToStructConverter.convert(resultSet, binders);
+        final Struct struct2 = ResultsetToStructConverter.convert(resultSet, binders);
+
+        // Metadata is read only when binders are compiled.
+        Mockito.verify(meta, Mockito.times(1)).getColumnName(1);
+        Mockito.verify(meta, Mockito.times(1)).getColumnType(1);
+
+        Assert.assertEquals(5, struct1.getColumnCount());
+        Assert.assertEquals("a", struct1.getString("s"));
+        Assert.assertEquals(1L, struct1.getLong("i"));
+        Assert.assertEquals(1.5, struct1.getDouble("n"), 0);
+        Assert.assertTrue(struct1.isNull("nn"));
+        Assert.assertEquals(Date.fromYearMonthDay(2019, 3, 1), struct1.getDate("d"));
+
+        Assert.assertEquals("b", struct2.getString("s"));
+        Assert.assertEquals(2L, struct2.getLong("i"));
+        Assert.assertEquals(2.5, struct2.getDouble("n"), 0);
+        Assert.assertTrue(struct2.isNull("d"));
+    }
+
+}
@@ -2,12 +2,19 @@ package net.orfeon.cloud.dataflow.util.converter;
 
 import com.google.cloud.spanner.Struct;
 import net.orfeon.cloud.dataflow.util.DummyDataSupplier;
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVPrinter;
+import org.apache.commons.csv.QuoteMode;
 import org.junit.Assert;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
 
 /** Test case for the {@link StructToCsvConverter} class. */
 @RunWith(JUnit4.class)
@@ -29,4 +36,69 @@ public class StructAndCsvConverterTest {
         Assert.assertEquals("false,-12,110.005,I am a pen,2018-10-01,2018-10-01T03:00:00Z,,,,,\"{cif=12, cff=0.005, cdf=2018-09-01, ctf=2018-09-01T03:00:00Z, cbf=true, csf=This is a pen, cnf=AAAAAAAAAAAAAAAABfXhAA==}\",\"[{cif=12, cff=0.005, cdf=2018-09-01, ctf=2018-09-01T03:00:00Z, cbf=true, csf=This is a pen, cnf=AAAAAAAAAAAAAAAABfXhAA==}]\",\"[a, b, c]\",\"[1, 2, 3]\",\"[2018-09-01, 2018-10-01]\",,\"[null, 2, 3]\",\"[2018-09-01T03:00:00Z, 2018-10-01T03:00:00Z]\"", csvLine3);
 
     }
+
+    @Test
+    public void testQuote() throws IOException {
+
+        final List<String> values = Arrays.asList("", " lead", "trail ", "#comment", "a,b", "q\"q", "line\nbreak", "-minus", "\u3042", "plain");
+        for(final String first : values) {
+            final Struct struct = Struct.newBuilder()
+                    .set("first").to(first)
+                    .set("values").toStringArray(values)
+                    .set("null").to((String) null)
+                    .set("last").to(first)
+                    .build();
+            final StringBuilder sb = new StringBuilder();
+            try(CSVPrinter printer = new CSVPrinter(sb, CSVFormat.DEFAULT.withRecordSeparator(""))) {
+                printer.printRecord(first, values, null, first);
+            }
+            Assert.assertEquals(sb.toString(), StructToCsvConverter.convert(struct));
+        }
+    }
+
+    @Test
+    public void testFormat() throws IOException {
+
+        final Struct struct = Struct.newBuilder()
+                .set("s\tf").to("a\tb")
+                .set("if").to(1)
+                .set("nf").to((String) null)
+                .build();
+
+        final StructCsvEncoder tsvEncoder = new StructCsvEncoder('\t', '"', QuoteMode.MINIMAL, "NULL");
+        Assert.assertEquals("\"s\tf\"\tif\tnf", tsvEncoder.encodeHeader(struct.getType()).toString());
+        Assert.assertEquals("\"a\tb\"\t1\tNULL", tsvEncoder.encode(struct).toString());
+
+        final StructCsvEncoder allEncoder = new StructCsvEncoder(',', '\'', QuoteMode.ALL, "N");
+        Assert.assertEquals("'a\tb','1','N'", allEncoder.encode(struct).toString());
+
+        final ByteArrayOutputStream os = new ByteArrayOutputStream();
+        allEncoder.writeTo(os);
+        Assert.assertEquals("'a\tb','1','N'", new String(os.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testQuoteModeNone() throws IOException {
+        final Struct struct = Struct.newBuilder()
+                .set("sf").to("a,b\r\nc\\d")
+                .set("qf").to("say \"hi\"")
+                .set("nf").to((String) null)
+                .build();
+
+        final StructCsvEncoder encoder = new StructCsvEncoder(',', '"', QuoteMode.NONE, "", '\\');
+        Assert.assertEquals("a\\,b\\r\\nc\\\\d,say \\\"hi\\\",", encoder.encode(struct).toString());
+
+        // Same as CSVPrinter for values without quote.
+        final StringBuilder sb = new StringBuilder();
+        try(final CSVPrinter printer = new CSVPrinter(sb, CSVFormat.DEFAULT.withEscape('\\').withQuoteMode(QuoteMode.NONE).withNullString(""))) {
+            printer.printRecord("a,b\r\nc\\d", null);
+        }
+        Assert.assertEquals(sb.toString().trim(), new StructCsvEncoder(',', '"', QuoteMode.NONE, "", '\\')
+                .encode(Struct.newBuilder().set("sf").to("a,b\r\nc\\d").set("nf").to((String) null).build()).toString());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testQuoteModeNoneWithoutEscape() {
+        new StructCsvEncoder(',', '"', QuoteMode.NONE, null);
+    }
 }
@@ -2,11 +2,15 @@ package net.orfeon.cloud.dataflow.util.converter;
 
 import com.google.cloud.spanner.Struct;
 import net.orfeon.cloud.dataflow.util.DummyDataSupplier;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
 import org.junit.Assert;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
 
+import java.util.Arrays;
+
 /** Test cases for the {@link StructToJsonConverter} class. */
 @RunWith(JUnit4.class)
 public class StructAndJsonConverterTest {
@@ -19,4 +23,24 @@ public class StructAndJsonConverterTest {
         Assert.assertEquals("{\"bf\":false,\"if\":-12,\"ff\":110.005,\"sf\":\"I am a pen\",\"df\":\"2018-10-01\",\"tf\":\"2018-10-01T03:00:00Z\",\"nf\":null,\"lnf\":null,\"dnf\":null,\"tnf\":null,\"rf\":{\"cbf\":true,\"cif\":12,\"cff\":0.005,\"cdf\":\"2018-09-01\",\"ctf\":\"2018-09-01T03:00:00Z\",\"csf\":\"This is a pen\",\"cnf\":\"AAAAAAAAAAAAAAAABfXhAA==\"},\"arf\":[{\"cbf\":true,\"cif\":12,\"cff\":0.005,\"cdf\":\"2018-09-01\",\"ctf\":\"2018-09-01T03:00:00Z\",\"csf\":\"This is a pen\",\"cnf\":\"AAAAAAAAAAAAAAAABfXhAA==\"}],\"asf\":[\"a\",\"b\",\"c\"],\"aif\":[1,2,3],\"adf\":[\"2018-09-01\",\"2018-10-01\"],\"anf\":null,\"amf\":[1,2,3],\"atf\":[\"2018-09-01T03:00:00Z\",\"2018-10-01T03:00:00Z\"]}", json);
 
     }
+
+    @Test
+    public void testEscape() {
+
+        final String text = "q\"b\\s/ t\tn\nc\u0001 u\u2028 \u00e9\u3042\ud83d\ude00 <&>";
+        final Struct struct = Struct.newBuilder()
+                .set("n\"f").to(text)
+                .set("ff").to(1.0E10)
+                .set("asf").toStringArray(Arrays.asList(text, null))
+                .build();
+        final JsonObject obj = new JsonObject();
+        obj.addProperty("n\"f", text);
+        obj.addProperty("ff", 1.0E10);
+        final JsonArray array = new JsonArray();
+        array.add(text);
+        array.add((String) null);
+        obj.add("asf", array);
+
+        Assert.assertEquals(obj.toString(), StructToJsonConverter.convert(struct));
+    }
 }
@@ -2,16 +2,23 @@ package net.orfeon.cloud.dataflow.util.converter;
 
 import com.google.cloud.Date;
 import com.google.cloud.spanner.Struct;
+import com.google.cloud.spanner.Type;
 import net.orfeon.cloud.dataflow.util.AvroSchemaUtil;
 import net.orfeon.cloud.dataflow.util.DummyDataSupplier;
+import org.apache.avro.LogicalTypes;
 import org.apache.avro.Schema;
+import org.apache.avro.SchemaBuilder;
 import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.generic.GenericRecordBuilder;
 import org.joda.time.*;
 import org.junit.Assert;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
 
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.List;
 import java.util.stream.Collectors;
 
@@ -102,6 +109,61 @@ public class StructAndRecordConverterTest {
 
     }
 
+    @Test
+    public void testConvertLogicalTypes() {
+        final Schema decimalSchema = LogicalTypes.decimal(38, 9).addToSchema(Schema.create(Schema.Type.BYTES));
+        final Schema schema = SchemaBuilder.record("row").fields()
+                .name("decimal").type(decimalSchema).noDefault()
+                .name("int").type().optional().intType()
+                .name("float").type().optional().floatType()
+                .name("bytes").type().optional().bytesType()
+                .name("time").type(LogicalTypes.timeMillis().addToSchema(Schema.create(Schema.Type.INT))).noDefault()
+                .name("ints").type().array().items().intType().noDefault()
+                .endRecord();
+        final ByteBuffer bytes = ByteBuffer.wrap(new byte[]{9, 1, 2, 3});
+        bytes.position(1);
+        final GenericRecord record = new GenericRecordBuilder(schema)
+                .set("decimal", ByteBuffer.wrap(new BigDecimal("12.340000000").unscaledValue().toByteArray()))
+                .set("int", 10)
+                .set("float", null)
+                .set("bytes", bytes)
+                .set("time", 3723000)
+                .set("ints", Arrays.asList(1, null, 3))
+                .build();
+
+        final Struct struct = RecordToStructConverter.convert(record);
+        Assert.assertEquals("12.34", struct.getString("decimal"));
+        Assert.assertEquals(10L, struct.getLong("int"));
+        Assert.assertTrue(struct.isNull("float"));
+        Assert.assertArrayEquals(new byte[]{1, 2, 3}, struct.getBytes("bytes").toByteArray());
+        Assert.assertEquals(1, bytes.position());
+        Assert.assertEquals("01:02:03", struct.getString("time"));
+        Assert.assertEquals(Arrays.asList(1L, null, 3L), struct.getLongList("ints"));
+        Assert.assertEquals(struct, RecordToStructConverter.convert(record));
+    }
+
+    @Test
+    public void testConvertMissingField() {
+        final Schema recordSchema = SchemaBuilder.record("row").fields()
+                .name("id").type().longType().noDefault()
+                .endRecord();
+        final Schema schema = SchemaBuilder.record("row").fields()
+                .name("id").type().longType().noDefault()
+                .name("name").type().optional().stringType()
+                .name("count").type().optional().longType()
+                .name("tags").type().optional().array().items().stringType()
+                .endRecord();
+        final GenericRecord record = new GenericRecordBuilder(recordSchema).set("id", 1L).build();
+
+        final Struct struct = RecordToStructConverter.convert(schema, record);
+        Assert.assertEquals(1L, struct.getLong("id"));
+        Assert.assertTrue(struct.isNull("name"));
+        Assert.assertEquals(Type.string(), struct.getColumnType("name"));
+        Assert.assertTrue(struct.isNull("count"));
+        Assert.assertEquals(Type.int64(), struct.getColumnType("count"));
+        Assert.assertEquals(3, struct.getColumnCount());
+    }
+
     private static int getEpochDays(Date date) {
         DateTime datetime = new DateTime(date.getYear(), date.getMonth(), date.getDayOfMonth(), 0, 0, DateTimeZone.UTC);
         Days days = Days.daysBetween(EPOCHDATETIME, datetime);
@@ -0,0 +1,68 @@
+package net.orfeon.cloud.dataflow.util.converter;
+
+import com.google.cloud.ByteArray;
+import com.google.cloud.Date;
+import com.google.cloud.Timestamp;
+import com.google.cloud.spanner.Struct;
+import com.google.cloud.spanner.Type;
+import net.orfeon.cloud.dataflow.util.DummyDataSupplier;
+import org.apache.beam.sdk.coders.RowCoder;
+import org.apache.beam.sdk.schemas.Schema;
+import org.apache.beam.sdk.testing.CoderProperties;
+import org.apache.beam.sdk.values.Row;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.Arrays;
+
+/** Test case for the {@link StructToRowConverter} and {@link RowToStructConverter} class. */
+@RunWith(JUnit4.class)
+public class StructAndRowConverterTest {
+
+    @Test
+    public void testConvert() throws Exception {
+        final Struct struct = DummyDataSupplier.createNestedStruct(false);
+        final Schema schema = StructToRowConverter.convertSchema(struct.getType());
+        Assert.assertEquals(struct.getType(), RowToStructConverter.convertType(schema));
+
+        final Row row = StructToRowConverter.convert(struct, schema);
+        Assert.assertEquals(struct.getLong("if"), row.getInt64("if").longValue());
+        Assert.assertEquals(struct.getString("sf"), row.getString("sf"));
+        Assert.assertNull(row.getString("nf"));
+        Assert.assertEquals(struct.getStruct("rf").getString("csf"), row.getRow("rf").getString("csf"));
+        Assert.assertEquals(struct.getStringList("asf"), row.getArray("asf"));
+        CoderProperties.coderDecodeEncodeEqual(RowCoder.of(schema), row);
+
+        // Timestamps in this struct have no sub-millisecond part.
+        Assert.assertEquals(struct, RowToStructConverter.convert(row));
+    }
+
+    @Test
+    public void testProjection() {
+        final Struct struct = Struct.newBuilder()
+                .set("sf").to("a")
+                .set("bf").to(ByteArray.copyFrom("b"))
+                .set("df").to(Date.fromYearMonthDay(1969, 12, 31))
+                .set("tf").to(Timestamp.ofTimeSecondsAndNanos(-1L, 999999999))
+                .set("abf").toBoolArray(Arrays.asList(true, false))
+                .build();
+        final Schema schema = Schema.builder()
+                .addNullableField("tf", Schema.FieldType.DATETIME)
+                .addNullableField("df", Schema.FieldType.DATETIME.withMetadata(StructToRowConverter.DATE_METADATA))
+                .addNullableField("bf", Schema.FieldType.BYTES)
+                .build();
+
+        final Row row = StructToRowConverter.convert(struct, schema);
+        Assert.assertEquals(3, row.getFieldCount());
+        Assert.assertEquals(-1L, row.getDateTime("tf").getMillis());
+
+        final Struct result = RowToStructConverter.convert(row);
+        Assert.assertEquals(Type.timestamp(), result.getColumnType("tf"));
+        Assert.assertEquals(Timestamp.ofTimeMicroseconds(-1000L), result.getTimestamp("tf"));
+        Assert.assertEquals(struct.getDate("df"), result.getDate("df"));
+        Assert.assertEquals(struct.getBytes("bf"), result.getBytes("bf"));
+    }
+
+}
@@ -0,0 +1,76 @@
+package net.orfeon.cloud.dataflow.util.converter;
+
+import com.google.cloud.Timestamp;
+import com.google.cloud.spanner.Struct;
+import net.orfeon.cloud.dataflow.util.AvroSchemaUtil;
+import net.orfeon.cloud.dataflow.util.DummyDataSupplier;
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericDatumReader;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.io.BinaryEncoder;
+import org.apache.avro.io.DecoderFactory;
+import org.apache.avro.io.EncoderFactory;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.ByteArrayOutputStream;
+
+/** Test case for the {@link StructDatumWriter} class. */
+@RunWith(JUnit4.class)
+public class StructDatumWriterTest {
+
+    @Test
+    public void testWrite() throws Exception {
+        for(final Struct struct : new Struct[]{
+                DummyDataSupplier.createSimpleStruct(),
+                DummyDataSupplier.createNestedStruct(false),
+                DummyDataSupplier.createNestedStruct(true)}) {
+            final Schema schema = AvroSchemaUtil.convertSchema(struct);
+            final GenericRecord record = read(schema, write(schema, struct));
+            // Encoded record must be same as record converted by StructToRecordConverter.
+            Assert.assertEquals(StructToRecordConverter.convert(struct, schema).toString(), record.toString());
+        }
+    }
+
+    @Test
+    public void testTimestampMillis() throws Exception {
+        final Struct struct = Struct.newBuilder()
+                .set("tf").to(Timestamp.ofTimeSecondsAndNanos(1546300800L, 123456789))
+                .build();
+        final Schema schema = AvroSchemaUtil.convertSchema(struct);
+        Assert.assertEquals(1546300800123L, read(schema, write(schema, struct)).get("tf"));
+        Assert.assertEquals(1546300800123L, StructToRecordConverter.convert(struct, schema).get("tf"));
+    }
+
+    @Test
+    public void testTypeChange() throws Exception {
+        final Struct struct1 = Struct.newBuilder().set("a").to(1L).set("b").to("x").build();
+        final Struct struct2 = Struct.newBuilder().set("b").to("y").set("a").to(2L).build();
+        final Schema schema = AvroSchemaUtil.convertSchema(struct1);
+        final StructDatumWriter writer = new StructDatumWriter(schema);
+        for(final Struct struct : new Struct[]{struct1, struct2, struct1}) {
+            final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            final BinaryEncoder encoder = EncoderFactory.get().binaryEncoder(bos, null);
+            writer.write(struct, encoder);
+            encoder.flush();
+            final GenericRecord record = read(schema, bos.toByteArray());
+            Assert.assertEquals(struct.getLong("a"), record.get("a"));
+            Assert.assertEquals(struct.getString("b"), record.get("b").toString());
+        }
+    }
+
+    private static byte[] write(final Schema schema, final Struct struct) throws Exception {
+        final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        final BinaryEncoder encoder = EncoderFactory.get().binaryEncoder(bos, null);
+        new StructDatumWriter(schema).write(struct, encoder);
+        encoder.flush();
+        return bos.toByteArray();
+    }
+
+    private static GenericRecord read(final Schema schema, final byte[] bytes) throws Exception {
+        return new GenericDatumReader<GenericRecord>(schema).read(null, DecoderFactory.get().binaryDecoder(bytes, null));
+    }
+
+}